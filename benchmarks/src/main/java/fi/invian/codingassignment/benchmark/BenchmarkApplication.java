@@ -0,0 +1,64 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.BackendApplication;
+import fi.invian.codingassignment.compression.BodyCodec;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.UUID;
+
+// Boots the application, without a web server or on a random port, against a fresh in-memory H2
+// database in MariaDB mode, initialized with the application schema and filled by DataGenerator.
+final class BenchmarkApplication implements AutoCloseable {
+	
+	static final int USERS = 1000;
+	
+	private final ConfigurableApplicationContext context;
+	
+	private BenchmarkApplication(ConfigurableApplicationContext context) {
+		this.context = context;
+	}
+	
+	static BenchmarkApplication start(int messages) {
+		return start(messages, WebApplicationType.NONE);
+	}
+	
+	static BenchmarkApplication startServer(int messages) {
+		return start(messages, WebApplicationType.SERVLET);
+	}
+	
+	private static BenchmarkApplication start(int messages, WebApplicationType webApplicationType) {
+		// Command-line arguments take precedence over the application.properties packaged with the application
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(BackendApplication.class)
+				.web(webApplicationType)
+				.logStartupInfo(false)
+				.run(
+						"--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID()
+								+ ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+						"--spring.datasource.username=sa",
+						"--spring.datasource.password=",
+						"--spring.datasource.driver-class-name=org.h2.Driver",
+						"--spring.sql.init.schema-locations=classpath:schema/01-schema.sql",
+						"--spring.jpa.show-sql=false",
+						"--server.port=0",
+						"--logging.level.root=WARN"
+				);
+		new DataGenerator(context.getBean(JdbcTemplate.class), context.getBean(BodyCodec.class)).generate(USERS, messages);
+		return new BenchmarkApplication(context);
+	}
+	
+	int getPort() {
+		return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+	}
+	
+	<T> T getBean(Class<T> type) {
+		return context.getBean(type);
+	}
+	
+	@Override
+	public void close() {
+		context.close();
+	}
+}
@@ -0,0 +1,57 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.BodyCompressor;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import fi.invian.codingassignment.compression.Lz4BodyCompressor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of compressing and decompressing a templated notification body with each codec
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyCodecBenchmark {
+	
+	@Param({"none", "deflate", "lz4"})
+	private String codec;
+	
+	@Param({"500", "5000"})
+	private int bodyLength;
+	
+	private BodyCodec bodyCodec;
+	private String body;
+	private byte[] stored;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		List<BodyCompressor> compressors = List.of(new DeflateBodyCompressor(6, null), new Lz4BodyCompressor());
+		BodyCompressor encoder = compressors.stream()
+				.filter(compressor -> compressor.name().equals(codec))
+				.findFirst()
+				.orElse(null);
+		bodyCodec = new BodyCodec(compressors, encoder, 128);
+		
+		StringBuilder text = new StringBuilder();
+		for (int order = 1; text.length() < bodyLength; order++) {
+			text.append("Hello, your order #").append(order).append(" has been shipped and will arrive within 3 days. ");
+		}
+		body = text.substring(0, bodyLength);
+		stored = bodyCodec.encode(body);
+	}
+	
+	@Benchmark
+	public byte[] encode() {
+		return bodyCodec.encode(body);
+	}
+	
+	@Benchmark
+	public String decode() {
+		return bodyCodec.decode(stored);
+	}
+}
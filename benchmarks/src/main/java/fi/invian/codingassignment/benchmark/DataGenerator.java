@@ -0,0 +1,84 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.entity.Message;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+// Fills an empty schema with reproducible data. Every message goes to HEAVY_RECIPIENT_ID plus up to four
+// random recipients, so that user's inbox is as deep as the message count and deep pages can be measured.
+final class DataGenerator {
+	
+	static final long HEAVY_RECIPIENT_ID = 1L;
+	static final Duration SPREAD = Duration.ofDays(60);
+	
+	private static final int BATCH_SIZE = 1000;
+	
+	private final JdbcTemplate jdbcTemplate;
+	private final BodyCodec bodyCodec;
+	private final Random random = new Random(42);
+	
+	DataGenerator(JdbcTemplate jdbcTemplate, BodyCodec bodyCodec) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.bodyCodec = bodyCodec;
+	}
+	
+	void generate(int users, int messages) {
+		List<Object[]> userRows = new ArrayList<>(users);
+		for (int i = 1; i <= users; i++) {
+			userRows.add(new Object[]{"user-" + i});
+		}
+		batchUpdate("INSERT INTO users (name) VALUES (?)", userRows);
+		
+		// The schema is fresh, so the generated message IDs are 1..messages in insertion order
+		Instant now = Instant.now();
+		List<Object[]> messageRows = new ArrayList<>(BATCH_SIZE);
+		List<Object[]> recipientRows = new ArrayList<>(BATCH_SIZE * 3);
+		for (int id = 1; id <= messages; id++) {
+			long senderId = 1 + random.nextInt(users);
+			Instant sentAt = now.minusSeconds(random.nextLong(SPREAD.getSeconds()));
+			String body = body(id);
+			messageRows.add(new Object[]{senderId, "Title " + id, bodyCodec.encode(body), Message.snippetOf(body), Timestamp.from(sentAt)});
+			
+			Set<Long> recipientIds = new LinkedHashSet<>();
+			recipientIds.add(HEAVY_RECIPIENT_ID);
+			int extra = random.nextInt(5);
+			while (recipientIds.size() <= extra) {
+				recipientIds.add(1L + random.nextInt(users));
+			}
+			for (Long recipientId : recipientIds) {
+				recipientRows.add(new Object[]{id, recipientId});
+			}
+			
+			if (messageRows.size() == BATCH_SIZE || id == messages) {
+				batchUpdate("INSERT INTO messages (sender_id, title, body, snippet, sent_at) VALUES (?, ?, ?, ?, ?)", messageRows);
+				batchUpdate("INSERT INTO message_recipients (message_id, recipient_id) VALUES (?, ?)", recipientRows);
+				messageRows.clear();
+				recipientRows.clear();
+			}
+		}
+		
+		jdbcTemplate.update("""
+				INSERT INTO sender_daily_stats (sender_id, stat_day, sent_count)
+				SELECT sender_id, CAST(sent_at AS DATE), COUNT(*) FROM messages GROUP BY sender_id, CAST(sent_at AS DATE)
+				""");
+	}
+	
+	private String body(int id) {
+		return "Message " + id + " " + "lorem ipsum dolor sit amet ".repeat(1 + random.nextInt(10));
+	}
+	
+	private void batchUpdate(String sql, List<Object[]> rows) {
+		for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+			jdbcTemplate.batchUpdate(sql, rows.subList(from, Math.min(from + BATCH_SIZE, rows.size())));
+		}
+	}
+}
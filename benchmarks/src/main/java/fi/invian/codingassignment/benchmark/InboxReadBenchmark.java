@@ -0,0 +1,49 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.repository.MessageRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.concurrent.TimeUnit;
+
+// Offset-paged inbox reads of the heavy recipient, from the first page down to deep offsets
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InboxReadBenchmark {
+	
+	@Param({"50000"})
+	private int messages;
+	
+	@Param({"0", "100", "1000"})
+	private int page;
+	
+	@Param({"20"})
+	private int size;
+	
+	private BenchmarkApplication application;
+	private MessageRepository messageRepository;
+	private PageRequest pageRequest;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		application = BenchmarkApplication.start(messages);
+		messageRepository = application.getBean(MessageRepository.class);
+		pageRequest = PageRequest.of(page, size);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		application.close();
+	}
+	
+	@Benchmark
+	public Page<MessageSummaryResponse> findMessagesByRecipientId() {
+		return messageRepository.findMessagesByRecipientId(DataGenerator.HEAVY_RECIPIENT_ID, pageRequest);
+	}
+}
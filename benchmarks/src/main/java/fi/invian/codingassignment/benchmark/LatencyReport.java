@@ -0,0 +1,82 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.benchmark.LoadOperation.Endpoint;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Response times per endpoint in microseconds, with three significant digits. Failed requests are
+// counted and recorded as well, since a fast error is still a response the client waited for.
+final class LatencyReport {
+	
+	private static final double MICROS_PER_MILLI = 1000.0;
+	
+	private final Map<Endpoint, Histogram> histograms = new EnumMap<>(Endpoint.class);
+	private final Map<Endpoint, LongAdder> errors = new EnumMap<>(Endpoint.class);
+	
+	LatencyReport() {
+		for (Endpoint endpoint : Endpoint.values()) {
+			histograms.put(endpoint, new ConcurrentHistogram(3));
+			errors.put(endpoint, new LongAdder());
+		}
+	}
+	
+	void record(Endpoint endpoint, long latencyNanos, boolean failed) {
+		histograms.get(endpoint).recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+		if (failed) {
+			errors.get(endpoint).increment();
+		}
+	}
+	
+	void print(PrintStream out, Duration measured) {
+		double seconds = measured.toNanos() / 1e9;
+		out.printf("%-8s %9s %9s %9s %9s %9s %9s %9s %7s%n",
+				"endpoint", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+		Histogram all = new Histogram(3);
+		long allErrors = 0;
+		for (Endpoint endpoint : Endpoint.values()) {
+			Histogram histogram = histograms.get(endpoint);
+			if (histogram.getTotalCount() > 0) {
+				print(out, endpoint.key(), histogram, errors.get(endpoint).sum(), seconds);
+				all.add(histogram);
+				allErrors += errors.get(endpoint).sum();
+			}
+		}
+		print(out, "all", all, allErrors, seconds);
+	}
+	
+	// One HdrHistogram percentile distribution per endpoint, in milliseconds, for plotting or comparing builds
+	void write(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		for (Endpoint endpoint : Endpoint.values()) {
+			Histogram histogram = histograms.get(endpoint);
+			if (histogram.getTotalCount() > 0) {
+				try (PrintStream out = new PrintStream(Files.newOutputStream(directory.resolve(endpoint.key() + ".hgrm")))) {
+					histogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+				}
+			}
+		}
+	}
+	
+	private static void print(PrintStream out, String name, Histogram histogram, long errors, double seconds) {
+		out.printf("%-8s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f %7d%n",
+				name,
+				histogram.getTotalCount(),
+				histogram.getTotalCount() / seconds,
+				histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+				histogram.getValueAtPercentile(90) / MICROS_PER_MILLI,
+				histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+				histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+				histogram.getMaxValue() / MICROS_PER_MILLI,
+				errors);
+	}
+}
@@ -0,0 +1,97 @@
+package fi.invian.codingassignment.benchmark;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// One request of a load test run. Operations are written to and read from workload files as one
+// tab-separated line each, so a recorded run can be replayed against another build:
+//   send <senderId> <recipientId,...> <bodyWords>
+//   inbox <userId> <page> <size>
+//   top <limit> <days>
+record LoadOperation(Endpoint endpoint, long userId, List<Long> recipientIds, int page, int size) {
+	
+	enum Endpoint {
+		SEND("send"),
+		INBOX("inbox"),
+		TOP_SENDERS("top");
+		
+		private final String key;
+		
+		Endpoint(String key) {
+			this.key = key;
+		}
+		
+		String key() {
+			return key;
+		}
+		
+		static Endpoint of(String key) {
+			return Arrays.stream(values())
+					.filter(endpoint -> endpoint.key.equals(key))
+					.findFirst()
+					.orElseThrow(() -> new IllegalArgumentException("Unknown operation " + key));
+		}
+	}
+	
+	// For sends, size is the number of words in the body; for top senders, page is the limit and size the days
+	static LoadOperation send(long senderId, List<Long> recipientIds, int bodyWords) {
+		return new LoadOperation(Endpoint.SEND, senderId, List.copyOf(recipientIds), 0, bodyWords);
+	}
+	
+	static LoadOperation inbox(long userId, int page, int size) {
+		return new LoadOperation(Endpoint.INBOX, userId, List.of(), page, size);
+	}
+	
+	static LoadOperation topSenders(int limit, int days) {
+		return new LoadOperation(Endpoint.TOP_SENDERS, 0, List.of(), limit, days);
+	}
+	
+	static LoadOperation parse(String line) {
+		String[] fields = line.split("\t");
+		try {
+			return switch (Endpoint.of(fields[0])) {
+				case SEND -> send(Long.parseLong(fields[1]),
+						Arrays.stream(fields[2].split(",")).map(Long::valueOf).toList(),
+						Integer.parseInt(fields[3]));
+				case INBOX -> inbox(Long.parseLong(fields[1]), Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+				case TOP_SENDERS -> topSenders(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+			};
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed operation: " + line, e);
+		}
+	}
+	
+	String toLine() {
+		return switch (endpoint) {
+			case SEND -> String.join("\t", endpoint.key(), Long.toString(userId),
+					recipientIds.stream().map(String::valueOf).collect(Collectors.joining(",")), Integer.toString(size));
+			case INBOX -> String.join("\t", endpoint.key(), Long.toString(userId), Integer.toString(page), Integer.toString(size));
+			case TOP_SENDERS -> String.join("\t", endpoint.key(), Integer.toString(page), Integer.toString(size));
+		};
+	}
+	
+	HttpRequest toRequest(URI baseUri, long sequence) {
+		return switch (endpoint) {
+			case SEND -> HttpRequest.newBuilder(baseUri.resolve("/messages"))
+					.header("Content-Type", "application/json")
+					.POST(HttpRequest.BodyPublishers.ofString(sendBody(sequence)))
+					.build();
+			case INBOX -> HttpRequest.newBuilder(baseUri.resolve("/messages/users/" + userId + "?page=" + page + "&size=" + size))
+					.GET()
+					.build();
+			case TOP_SENDERS -> HttpRequest.newBuilder(baseUri.resolve("/messages/statistics/top-senders?limit=" + page + "&days=" + size))
+					.GET()
+					.build();
+		};
+	}
+	
+	private String sendBody(long sequence) {
+		String recipients = recipientIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+		String body = "Load " + sequence + " " + "lorem ipsum dolor sit amet ".repeat(Math.max(1, size / 5));
+		return "{\"senderId\":" + userId + ",\"title\":\"Load " + sequence + "\",\"body\":\"" + body.strip()
+				+ "\",\"recipientIds\":[" + recipients + "]}";
+	}
+}
@@ -0,0 +1,104 @@
+package fi.invian.codingassignment.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Sends a mix of sends, inbox page reads and top senders calls over HTTP and reports throughput and
+// latency percentiles per endpoint. Without a target, the application is started on a random port
+// against an in-memory database filled by DataGenerator. See LoadTestOptions for the arguments.
+//
+// With a rate, operation n is due at start + n / rate and its latency is measured from then rather
+// than from when a thread got to send it, so a stalled server shows in the percentiles instead of
+// slowing the load down (coordinated omission).
+public final class LoadTest {
+	
+	private final LoadTestOptions options;
+	private final URI target;
+	private final HttpClient client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(10))
+			.build();
+	
+	private LoadTest(LoadTestOptions options, URI target) {
+		this.options = options;
+		this.target = target;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		LoadTestOptions options = LoadTestOptions.parse(args);
+		BenchmarkApplication application = null;
+		URI target = options.target();
+		if (target == null) {
+			System.out.printf("Starting the application with %d messages%n", options.messages());
+			application = BenchmarkApplication.startServer(options.messages());
+			target = URI.create("http://localhost:" + application.getPort());
+		}
+		
+		try (Workload workload = new Workload(options)) {
+			System.out.printf("Running against %s with %d threads at %s for %s after %s of warmup%n", target, options.threads(),
+					options.rate() > 0 ? options.rate() + " operations/s" : "full speed", options.duration(), options.warmup());
+			new LoadTest(options, target).run(workload);
+		} finally {
+			if (application != null) {
+				application.close();
+			}
+		}
+	}
+	
+	private void run(Workload workload) throws InterruptedException, IOException {
+		LatencyReport report = new LatencyReport();
+		long intervalNanos = options.rate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / options.rate()) : 0;
+		long start = System.nanoTime();
+		long measureFrom = start + options.warmup().toNanos();
+		long end = measureFrom + options.duration().toNanos();
+		AtomicLong lastCompleted = new AtomicLong(measureFrom);
+		
+		ExecutorService workers = Executors.newFixedThreadPool(options.threads());
+		for (int i = 0; i < options.threads(); i++) {
+			workers.execute(() -> {
+				Workload.Issued issued;
+				while ((issued = workload.next()) != null) {
+					long due = intervalNanos > 0 ? start + issued.sequence() * intervalNanos : System.nanoTime();
+					if (due >= end) {
+						return;
+					}
+					LockSupport.parkNanos(due - System.nanoTime());
+					
+					boolean failed;
+					try {
+						HttpRequest request = issued.operation().toRequest(target, issued.sequence());
+						failed = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 400;
+					} catch (IOException e) {
+						failed = true;
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					long completed = System.nanoTime();
+					if (due >= measureFrom) {
+						report.record(issued.operation().endpoint(), completed - due, failed);
+						lastCompleted.accumulateAndGet(completed, Math::max);
+					}
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(end - start + TimeUnit.MINUTES.toNanos(1), TimeUnit.NANOSECONDS);
+		workers.shutdownNow();
+		
+		// A workload that runs out early is measured until its last response
+		Duration measured = Duration.ofNanos(Math.max(1, Math.min(end, lastCompleted.get()) - measureFrom));
+		report.print(System.out, measured);
+		report.write(options.report());
+		System.out.printf("Percentile distributions written to %s%n", options.report().toAbsolutePath());
+	}
+}
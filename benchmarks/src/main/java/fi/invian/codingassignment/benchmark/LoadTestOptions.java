@@ -0,0 +1,94 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.benchmark.LoadOperation.Endpoint;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+// Options of LoadTest, given as key=value arguments:
+//   target=http://host:8080      run against that instance instead of an embedded one
+//   messages=50000               messages generated into the embedded database
+//   users=1000                   user IDs drawn from, 1..users (the embedded database has 1000)
+//   threads=16                   concurrent requests at most
+//   rate=0                       operations per second, 0 sends the next request as soon as a thread is free
+//   warmup=10s, duration=60s     time run before measuring, and measured
+//   operations=0                 stop after this many operations, 0 for no limit
+//   mix=send:20,inbox:70,top:10  weights of the operations
+//   depths=0:70,1:15,10:10,100:5 weights of the inbox pages read
+//   page-size=20                 size of the inbox pages
+//   sender-skew=1.0              Zipf exponent of senders, 0 for uniform
+//   recipient-skew=1.0           Zipf exponent of recipients and inbox readers
+//   seed=42                      seed of the generated workload
+//   record=file                  write the generated operations to the file
+//   replay=file                  send the operations of a recorded file instead of generating them
+//   report=target/loadtest       directory for the percentile distributions
+record LoadTestOptions(URI target, int messages, int users, int threads, double rate, Duration warmup,
+					   Duration duration, long operations, Map<Endpoint, Integer> mix, Map<Integer, Integer> depths,
+					   int pageSize, double senderSkew, double recipientSkew, long seed, Path record, Path replay,
+					   Path report) {
+	
+	private static final Set<String> KEYS = Set.of("target", "messages", "users", "threads", "rate", "warmup", "duration",
+			"operations", "mix", "depths", "page-size", "sender-skew", "recipient-skew", "seed", "record", "replay", "report");
+	
+	static LoadTestOptions parse(String[] args) {
+		Map<String, String> values = new HashMap<>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 1) {
+				throw new IllegalArgumentException("Arguments are key=value pairs, got " + arg);
+			}
+			String key = arg.substring(0, separator);
+			if (!KEYS.contains(key)) {
+				throw new IllegalArgumentException("Unknown option " + key);
+			}
+			values.put(key, arg.substring(separator + 1));
+		}
+		
+		LoadTestOptions options = new LoadTestOptions(
+				values.containsKey("target") ? URI.create(values.get("target")) : null,
+				Integer.parseInt(values.getOrDefault("messages", "50000")),
+				Integer.parseInt(values.getOrDefault("users", Integer.toString(BenchmarkApplication.USERS))),
+				Integer.parseInt(values.getOrDefault("threads", "16")),
+				Double.parseDouble(values.getOrDefault("rate", "0")),
+				DurationStyle.detectAndParse(values.getOrDefault("warmup", "10s")),
+				DurationStyle.detectAndParse(values.getOrDefault("duration", "60s")),
+				Long.parseLong(values.getOrDefault("operations", "0")),
+				weights(values.getOrDefault("mix", "send:20,inbox:70,top:10"), Endpoint::of),
+				weights(values.getOrDefault("depths", "0:70,1:15,10:10,100:5"), Integer::valueOf),
+				Integer.parseInt(values.getOrDefault("page-size", "20")),
+				Double.parseDouble(values.getOrDefault("sender-skew", "1.0")),
+				Double.parseDouble(values.getOrDefault("recipient-skew", "1.0")),
+				Long.parseLong(values.getOrDefault("seed", "42")),
+				values.containsKey("record") ? Path.of(values.get("record")) : null,
+				values.containsKey("replay") ? Path.of(values.get("replay")) : null,
+				Path.of(values.getOrDefault("report", "target/loadtest"))
+		);
+		if (options.record() != null && options.replay() != null) {
+			throw new IllegalArgumentException("record and replay cannot be combined");
+		}
+		return options;
+	}
+	
+	// key:weight,key:weight in the given order
+	private static <T> Map<T, Integer> weights(String value, Function<String, T> key) {
+		Map<T, Integer> weights = new LinkedHashMap<>();
+		for (String entry : value.split(",")) {
+			String[] parts = entry.split(":");
+			int weight = Integer.parseInt(parts[1]);
+			if (weight > 0) {
+				weights.put(key.apply(parts[0].strip()), weight);
+			}
+		}
+		if (weights.isEmpty()) {
+			throw new IllegalArgumentException("At least one positive weight is required in " + value);
+		}
+		return weights;
+	}
+}
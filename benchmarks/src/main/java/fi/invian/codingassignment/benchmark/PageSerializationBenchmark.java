@@ -0,0 +1,67 @@
+package fi.invian.codingassignment.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.entity.Message;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Jackson serialization of an inbox page, configured like the mapper Spring Boot gives the controllers.
+// Full messages versus the summaries the listing endpoints return.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageSerializationBenchmark {
+	
+	@Param({"10", "100"})
+	private int size;
+	
+	@Param({"100", "2000"})
+	private int bodyLength;
+	
+	private ObjectMapper objectMapper;
+	private Page<MessageResponse> page;
+	private Page<MessageSummaryResponse> summaryPage;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		objectMapper = Jackson2ObjectMapperBuilder.json()
+				.featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+				.build();
+		
+		Instant now = Instant.now();
+		List<MessageResponse> content = new ArrayList<>(size);
+		List<MessageSummaryResponse> summaries = new ArrayList<>(size);
+		for (long id = 1; id <= size; id++) {
+			String body = "x".repeat(bodyLength);
+			content.add(new MessageResponse(id, "Title " + id, body, "user-" + id, now.minusSeconds(id)));
+			summaries.add(new MessageSummaryResponse(id, "Title " + id, Message.snippetOf(body), "user-" + id, now.minusSeconds(id), null));
+		}
+		page = new PageImpl<>(content, PageRequest.of(0, size), 10_000);
+		summaryPage = new PageImpl<>(summaries, PageRequest.of(0, size), 10_000);
+	}
+	
+	@Benchmark
+	public byte[] writePage() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(page);
+	}
+	
+	@Benchmark
+	public byte[] writeSummaryPage() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(summaryPage);
+	}
+}
@@ -0,0 +1,52 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.service.MessageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+// Single-message send through the service, including validation, the insert and the statistics upsert
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendMessageBenchmark {
+	
+	@Param({"10000"})
+	private int messages;
+	
+	@Param({"1", "3", "5"})
+	private int recipients;
+	
+	private BenchmarkApplication application;
+	private MessageService messageService;
+	private SendMessageRequest request;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		application = BenchmarkApplication.start(messages);
+		messageService = application.getBean(MessageService.class);
+		
+		request = new SendMessageRequest();
+		request.setSenderId(2L);
+		request.setTitle("Benchmark");
+		request.setBody("Body of a benchmark message.");
+		List<Long> recipientIds = LongStream.rangeClosed(3, 2 + recipients).boxed().toList();
+		request.setRecipientIds(recipientIds);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		application.close();
+	}
+	
+	@Benchmark
+	public Long sendMessage() {
+		return messageService.sendMessage(request);
+	}
+}
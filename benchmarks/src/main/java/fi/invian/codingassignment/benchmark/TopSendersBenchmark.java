@@ -0,0 +1,56 @@
+package fi.invian.codingassignment.benchmark;
+
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.repository.MessageRepository;
+import fi.invian.codingassignment.service.MessageService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Top senders over the last 30 days: aggregating the messages table versus reading the daily counters
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TopSendersBenchmark {
+	
+	@Param({"10000", "50000", "200000"})
+	private int messages;
+	
+	@Param({"10"})
+	private int limit;
+	
+	private BenchmarkApplication application;
+	private MessageRepository messageRepository;
+	private MessageService messageService;
+	private Instant fromDate;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		application = BenchmarkApplication.start(messages);
+		messageRepository = application.getBean(MessageRepository.class);
+		messageService = application.getBean(MessageService.class);
+		fromDate = Instant.now().minus(30, ChronoUnit.DAYS);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		application.close();
+	}
+	
+	@Benchmark
+	public List<StatisticsResponse> aggregateMessages() {
+		return messageRepository.findTopSenders(fromDate, PageRequest.of(0, limit));
+	}
+	
+	@Benchmark
+	public List<StatisticsResponse> dailyCounters() {
+		return messageService.getTopSenders(fromDate, limit);
+	}
+}
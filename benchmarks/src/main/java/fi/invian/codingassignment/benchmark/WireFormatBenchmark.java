@@ -0,0 +1,90 @@
+package fi.invian.codingassignment.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import fi.invian.codingassignment.config.WireFormats;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.entity.Message;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Serialization cost of the API responses in each negotiable format: JSON as the controllers write
+// it by default, and the CBOR and Smile mappers from WireFormats. The payload size of each response
+// is printed once per trial.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+	
+	@Param({"json", "cbor", "smile"})
+	private String format;
+	
+	@Param({"100"})
+	private int size;
+	
+	private ObjectMapper objectMapper;
+	private Page<MessageSummaryResponse> summaryPage;
+	private Page<MessageResponse> messagePage;
+	private List<StatisticsResponse> topSenders;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws JsonProcessingException {
+		objectMapper = switch (format) {
+			case "json" -> Jackson2ObjectMapperBuilder.json()
+					.featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+					.build();
+			case "cbor" -> WireFormats.cborMapper();
+			case "smile" -> WireFormats.smileMapper();
+			default -> throw new IllegalArgumentException(format);
+		};
+		
+		Instant now = Instant.now();
+		List<MessageSummaryResponse> summaries = new ArrayList<>(size);
+		List<MessageResponse> messages = new ArrayList<>(size);
+		topSenders = new ArrayList<>(10);
+		for (long id = 1; id <= size; id++) {
+			String body = "Message " + id + " about the quarterly report. ".repeat(8);
+			Instant sentAt = now.minusSeconds(id * 37);
+			summaries.add(new MessageSummaryResponse(id, "Title " + id, Message.snippetOf(body), "user-" + id % 20,
+					sentAt, id % 3 == 0 ? sentAt.plusSeconds(60) : null));
+			messages.add(new MessageResponse(id, "Title " + id, body, "user-" + id % 20, sentAt));
+		}
+		for (long id = 1; id <= 10; id++) {
+			topSenders.add(new StatisticsResponse(id, "user-" + id, 1000 - id * 10));
+		}
+		summaryPage = new PageImpl<>(summaries, PageRequest.of(0, size), 10_000);
+		messagePage = new PageImpl<>(messages, PageRequest.of(0, size), 10_000);
+		
+		System.out.printf("%n%s payload bytes: summary page %d, message page %d, top senders %d%n", format,
+				writeSummaryPage().length, writeMessagePage().length, writeTopSenders().length);
+	}
+	
+	@Benchmark
+	public byte[] writeSummaryPage() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(summaryPage);
+	}
+	
+	@Benchmark
+	public byte[] writeMessagePage() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(messagePage);
+	}
+	
+	@Benchmark
+	public byte[] writeTopSenders() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(topSenders);
+	}
+}
@@ -0,0 +1,104 @@
+package fi.invian.codingassignment.benchmark;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// The operations of a run, in order: generated from a seed with the configured mix and skew, or read
+// back from a workload file. Generated operations are written to the record file when one is given.
+// The same seed and options give the same sequence, so two builds see the same requests.
+final class Workload implements AutoCloseable {
+	
+	private final LoadTestOptions options;
+	private final Random random;
+	private final ZipfSampler senders;
+	private final ZipfSampler recipients;
+	private final BufferedReader replay;
+	private final BufferedWriter record;
+	private long issued;
+	
+	Workload(LoadTestOptions options) throws IOException {
+		this.options = options;
+		this.random = new Random(options.seed());
+		this.senders = new ZipfSampler(options.users(), options.senderSkew());
+		this.recipients = new ZipfSampler(options.users(), options.recipientSkew());
+		this.replay = options.replay() != null ? Files.newBufferedReader(options.replay()) : null;
+		this.record = options.record() != null ? Files.newBufferedWriter(options.record()) : null;
+	}
+	
+	// The next operation with its position in the run, or null once the workload is exhausted
+	synchronized Issued next() {
+		if (options.operations() > 0 && issued >= options.operations()) {
+			return null;
+		}
+		try {
+			LoadOperation operation;
+			if (replay != null) {
+				String line = replay.readLine();
+				while (line != null && (line.isBlank() || line.startsWith("#"))) {
+					line = replay.readLine();
+				}
+				if (line == null) {
+					return null;
+				}
+				operation = LoadOperation.parse(line);
+			} else {
+				operation = generate();
+				if (record != null) {
+					record.write(operation.toLine());
+					record.newLine();
+				}
+			}
+			return new Issued(issued++, operation);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private LoadOperation generate() {
+		return switch (pick(options.mix())) {
+			case SEND -> {
+				Set<Long> recipientIds = new LinkedHashSet<>();
+				int count = 1 + random.nextInt(5);
+				while (recipientIds.size() < Math.min(count, options.users())) {
+					recipientIds.add(recipients.next(random));
+				}
+				yield LoadOperation.send(senders.next(random), List.copyOf(recipientIds), 5 * (1 + random.nextInt(10)));
+			}
+			case INBOX -> LoadOperation.inbox(recipients.next(random), pick(options.depths()), options.pageSize());
+			case TOP_SENDERS -> LoadOperation.topSenders(10, random.nextBoolean() ? 7 : 30);
+		};
+	}
+	
+	// Weighted choice among the keys of the map
+	private <T> T pick(Map<T, Integer> weights) {
+		int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+		int draw = random.nextInt(total);
+		for (Map.Entry<T, Integer> entry : weights.entrySet()) {
+			draw -= entry.getValue();
+			if (draw < 0) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalStateException("Weights must be positive");
+	}
+	
+	@Override
+	public void close() throws IOException {
+		if (replay != null) {
+			replay.close();
+		}
+		if (record != null) {
+			record.close();
+		}
+	}
+	
+	record Issued(long sequence, LoadOperation operation) {}
+}
@@ -0,0 +1,29 @@
+package fi.invian.codingassignment.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Draws user IDs 1..n where ID k is chosen in proportion to 1 / k^skew: skew 0 is uniform, and at
+// skew 1 user k is drawn k times less often than user 1
+final class ZipfSampler {
+	
+	private final double[] cumulative;
+	
+	ZipfSampler(int n, double skew) {
+		cumulative = new double[n];
+		double sum = 0;
+		for (int k = 1; k <= n; k++) {
+			sum += 1 / Math.pow(k, skew);
+			cumulative[k - 1] = sum;
+		}
+		for (int i = 0; i < n; i++) {
+			cumulative[i] /= sum;
+		}
+	}
+	
+	long next(Random random) {
+		int index = Arrays.binarySearch(cumulative, random.nextDouble());
+		// Not found gives -(insertion point) - 1, the first bucket above the draw
+		return 1L + (index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1));
+	}
+}
@@ -0,0 +1,43 @@
+package fi.invian.codingassignment.admission;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(name = "messaging.admission.enabled", havingValue = "true")
+public class AdmissionConfig implements WebMvcConfigurer {
+	
+	private final ObjectProvider<AdmissionControl> admissionControl;
+	
+	public AdmissionConfig(ObjectProvider<AdmissionControl> admissionControl) {
+		this.admissionControl = admissionControl;
+	}
+	
+	@Bean(destroyMethod = "stop")
+	public AdmissionControl admissionControl(MeterRegistry meterRegistry,
+											 @Value("${messaging.admission.max-in-flight:150}") int maxInFlight,
+											 @Value("${messaging.admission.max-pool-wait:250ms}") Duration maxPoolWait,
+											 @Value("${messaging.admission.max-pending:20}") int maxPending,
+											 @Value("${messaging.admission.retry-after:1s}") Duration retryAfter,
+											 @Value("${messaging.admission.sample-interval:250ms}") Duration sampleInterval) {
+		AdmissionControl admissionControl = new AdmissionControl(meterRegistry, maxInFlight, maxPoolWait, maxPending, retryAfter);
+		admissionControl.start(sampleInterval);
+		return admissionControl;
+	}
+	
+	// Only the API; actuator endpoints stay reachable under overload
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(admissionControl.getObject()).addPathPatterns("/messages/**");
+	}
+}
@@ -0,0 +1,159 @@
+package fi.invian.codingassignment.admission;
+
+import fi.invian.codingassignment.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sheds API requests with 503 and Retry-After before they queue for a database connection.
+// A request is rejected when too many are already being processed on request threads, or while
+// the connection pools are saturated: the mean connection wait over the last sample interval is
+// above maxPoolWait, more than maxPending threads are waiting, or an acquire timed out. Pool
+// figures come from the Hikari meters, sampled every interval.
+public class AdmissionControl implements AsyncHandlerInterceptor {
+	
+	private static final Logger logger = LoggerFactory.getLogger(AdmissionControl.class);
+	
+	private static final String ADMITTED = AdmissionControl.class.getName() + ".admitted";
+	
+	private final MeterRegistry meterRegistry;
+	private final int maxInFlight;
+	private final long maxPoolWaitNanos;
+	private final int maxPending;
+	private final Duration retryAfter;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Counter rejectedInFlight;
+	private final Counter rejectedPool;
+	private volatile boolean poolSaturated;
+	private double lastAcquireCount;
+	private double lastAcquireNanos;
+	private double lastTimeouts;
+	private ScheduledExecutorService sampler;
+	
+	public AdmissionControl(MeterRegistry meterRegistry, int maxInFlight, Duration maxPoolWait, int maxPending,
+							Duration retryAfter) {
+		this.meterRegistry = meterRegistry;
+		this.maxInFlight = maxInFlight;
+		this.maxPoolWaitNanos = maxPoolWait.toNanos();
+		this.maxPending = maxPending;
+		this.retryAfter = retryAfter;
+		Gauge.builder("messaging.admission.in_flight", inFlight, AtomicInteger::get)
+				.description("API requests being processed on request threads")
+				.register(meterRegistry);
+		this.rejectedInFlight = rejectedCounter("in_flight");
+		this.rejectedPool = rejectedCounter("pool");
+	}
+	
+	private Counter rejectedCounter(String reason) {
+		return Counter.builder("messaging.admission.rejected")
+				.description("API requests shed before processing")
+				.tag("reason", reason)
+				.register(meterRegistry);
+	}
+	
+	// Samples on a thread of its own: on the shared scheduler a long scheduled job would hold back
+	// the samples and leave the saturation state stale
+	public void start(Duration interval) {
+		sample();
+		sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "admission-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		sampler.scheduleWithFixedDelay(this::sample, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+	}
+	
+	public void stop() {
+		if (sampler != null) {
+			sampler.shutdownNow();
+		}
+	}
+	
+	// Reads the pool meters accumulated since the previous sample
+	synchronized void sample() {
+		double acquireCount = 0;
+		double acquireNanos = 0;
+		for (Timer timer : meterRegistry.find("hikaricp.connections.acquire").timers()) {
+			acquireCount += timer.count();
+			acquireNanos += timer.totalTime(TimeUnit.NANOSECONDS);
+		}
+		double pending = 0;
+		for (Gauge gauge : meterRegistry.find("hikaricp.connections.pending").gauges()) {
+			pending += gauge.value();
+		}
+		double timeouts = 0;
+		for (Counter counter : meterRegistry.find("hikaricp.connections.timeout").counters()) {
+			timeouts += counter.count();
+		}
+		
+		double acquired = acquireCount - lastAcquireCount;
+		double meanWait = acquired > 0 ? (acquireNanos - lastAcquireNanos) / acquired : 0;
+		boolean saturated = meanWait > maxPoolWaitNanos || pending > maxPending || timeouts > lastTimeouts;
+		if (saturated != poolSaturated) {
+			logger.warn(saturated ? "Connection pool saturated, shedding requests (mean wait {} ms, {} waiting)"
+					: "Connection pool recovered (mean wait {} ms, {} waiting)", Math.round(meanWait / 1e6), Math.round(pending));
+		}
+		poolSaturated = saturated;
+		lastAcquireCount = acquireCount;
+		lastAcquireNanos = acquireNanos;
+		lastTimeouts = timeouts;
+	}
+	
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		// The dispatch that completes an async request was admitted with its first dispatch
+		if (request.getDispatcherType() == DispatcherType.ASYNC) {
+			return true;
+		}
+		if (poolSaturated) {
+			rejectedPool.increment();
+			throw new ServiceOverloadedException("The service is overloaded, please retry later.", retryAfter);
+		}
+		if (inFlight.incrementAndGet() > maxInFlight) {
+			inFlight.decrementAndGet();
+			rejectedInFlight.increment();
+			throw new ServiceOverloadedException("The service is overloaded, please retry later.", retryAfter);
+		}
+		request.setAttribute(ADMITTED, Boolean.TRUE);
+		return true;
+	}
+	
+	// An async request no longer occupies a request thread
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		release(request);
+	}
+	
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		release(request);
+	}
+	
+	private void release(HttpServletRequest request) {
+		if (request.getAttribute(ADMITTED) != null) {
+			request.removeAttribute(ADMITTED);
+			inFlight.decrementAndGet();
+		}
+	}
+	
+	public int getInFlight() {
+		return inFlight.get();
+	}
+	
+	public boolean isPoolSaturated() {
+		return poolSaturated;
+	}
+}
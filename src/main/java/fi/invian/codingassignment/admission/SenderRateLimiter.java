@@ -0,0 +1,120 @@
+package fi.invian.codingassignment.admission;
+
+import fi.invian.codingassignment.exception.RateLimitExceededException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+// Token bucket per sender on the send paths, checked before a send takes a database connection,
+// so one sender cannot occupy the pool. Buckets are split over lock stripes by sender id; each
+// stripe keeps its most recently used senders only, and a forgotten sender starts with a full bucket.
+@Component
+public class SenderRateLimiter {
+	
+	private final boolean enabled;
+	private final double tokensPerNano;
+	private final double burst;
+	private final Stripe[] stripes;
+	private final LongSupplier nanoClock;
+	
+	@Autowired
+	public SenderRateLimiter(@Value("${messaging.rate-limit.enabled:false}") boolean enabled,
+							 @Value("${messaging.rate-limit.sends-per-second:5}") double sendsPerSecond,
+							 @Value("${messaging.rate-limit.burst:20}") int burst,
+							 @Value("${messaging.rate-limit.stripes:64}") int stripes,
+							 @Value("${messaging.rate-limit.max-senders:100000}") int maxSenders) {
+		this(enabled, sendsPerSecond, burst, stripes, maxSenders, System::nanoTime);
+	}
+	
+	SenderRateLimiter(boolean enabled, double sendsPerSecond, int burst, int stripes, int maxSenders, LongSupplier nanoClock) {
+		this.enabled = enabled;
+		this.tokensPerNano = sendsPerSecond / Duration.ofSeconds(1).toNanos();
+		this.burst = burst;
+		this.nanoClock = nanoClock;
+		this.stripes = new Stripe[stripes];
+		int sendersPerStripe = Math.max(1, (maxSenders + stripes - 1) / stripes);
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe(sendersPerStripe);
+		}
+	}
+	
+	// Takes one token per message, or throws with the time until the sender may send again. A batch
+	// larger than the burst is let through when the bucket is full and leaves the sender in debt.
+	public void acquire(Long senderId, int messages) {
+		if (!enabled) {
+			return;
+		}
+		Stripe stripe = stripes[Math.floorMod(Long.hashCode(senderId), stripes.length)];
+		long waitNanos;
+		synchronized (stripe) {
+			long now = nanoClock.getAsLong();
+			Bucket bucket = stripe.buckets.computeIfAbsent(senderId, id -> new Bucket(burst, now));
+			bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilledAt) * tokensPerNano);
+			bucket.refilledAt = now;
+			double needed = Math.min(messages, burst);
+			if (bucket.tokens >= needed) {
+				bucket.tokens -= messages;
+				return;
+			}
+			waitNanos = (long) Math.ceil((needed - bucket.tokens) / tokensPerNano);
+		}
+		throw new RateLimitExceededException("Sender " + senderId + " is sending too fast, please retry later.",
+				Duration.ofNanos(waitNanos));
+	}
+	
+	// Charges every sender of a batch, or none: when one sender is rejected the tokens already taken
+	// from the senders before it are given back, so a rejected batch costs nobody anything
+	public void acquireAll(Map<Long, Integer> messagesBySender) {
+		Map<Long, Integer> charged = new LinkedHashMap<>();
+		try {
+			messagesBySender.forEach((senderId, messages) -> {
+				acquire(senderId, messages);
+				charged.put(senderId, messages);
+			});
+		} catch (RateLimitExceededException e) {
+			charged.forEach(this::refund);
+			throw e;
+		}
+	}
+	
+	private void refund(Long senderId, int messages) {
+		if (!enabled) {
+			return;
+		}
+		Stripe stripe = stripes[Math.floorMod(Long.hashCode(senderId), stripes.length)];
+		synchronized (stripe) {
+			Bucket bucket = stripe.buckets.get(senderId);
+			if (bucket != null) {
+				bucket.tokens = Math.min(burst, bucket.tokens + messages);
+			}
+		}
+	}
+	
+	private static class Stripe {
+		private final Map<Long, Bucket> buckets;
+		
+		Stripe(int capacity) {
+			this.buckets = new LinkedHashMap<>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Long, Bucket> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+	}
+	
+	private static class Bucket {
+		private double tokens;
+		private long refilledAt;
+		
+		Bucket(double tokens, long refilledAt) {
+			this.tokens = tokens;
+			this.refilledAt = refilledAt;
+		}
+	}
+}
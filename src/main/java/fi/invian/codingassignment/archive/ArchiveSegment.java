@@ -0,0 +1,300 @@
+package fi.invian.codingassignment.archive;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static fi.invian.codingassignment.archive.SegmentWriter.FOOTER_SIZE;
+import static fi.invian.codingassignment.archive.SegmentWriter.MAGIC;
+import static fi.invian.codingassignment.archive.SegmentWriter.MESSAGE_ENTRY_SIZE;
+import static fi.invian.codingassignment.archive.SegmentWriter.RECIPIENT_ENTRY_SIZE;
+import static fi.invian.codingassignment.archive.SegmentWriter.RECORD_RECIPIENT_SIZE;
+import static fi.invian.codingassignment.archive.SegmentWriter.VERSION;
+
+// Read side of a segment written by SegmentWriter. The file is memory-mapped once and read with
+// absolute gets only, so a segment is shared by all request threads without locking and the page
+// cache decides what stays in memory.
+public class ArchiveSegment {
+	
+	private final Path path;
+	private final MappedByteBuffer buffer;
+	private final BodyCodec bodyCodec;
+	private final int messageCount;
+	private final int recipientCount;
+	private final int recipientIndexOffset;
+	private final int postingsOffset;
+	private final int messageIndexOffset;
+	
+	private ArchiveSegment(Path path, MappedByteBuffer buffer, BodyCodec bodyCodec) {
+		this.path = path;
+		this.buffer = buffer;
+		this.bodyCodec = bodyCodec;
+		int footer = buffer.capacity() - FOOTER_SIZE;
+		if (footer < 8 || buffer.getInt(0) != MAGIC || buffer.getInt(footer + FOOTER_SIZE - 4) != MAGIC) {
+			throw new IllegalStateException("Archive segment " + path + " is not a complete segment");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IllegalStateException("Archive segment " + path + " has unsupported version " + version);
+		}
+		this.messageCount = buffer.getInt(footer);
+		this.recipientCount = buffer.getInt(footer + 4);
+		this.recipientIndexOffset = (int) buffer.getLong(footer + 8);
+		this.messageIndexOffset = (int) buffer.getLong(footer + 16);
+		this.postingsOffset = recipientIndexOffset + recipientCount * RECIPIENT_ENTRY_SIZE;
+	}
+	
+	public static ArchiveSegment open(Path path, BodyCodec bodyCodec) throws IOException {
+		try (FileChannel channel = FileChannel.open(path)) {
+			// The mapping stays valid after the channel is closed
+			return new ArchiveSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), bodyCodec);
+		}
+	}
+	
+	public Path getPath() {
+		return path;
+	}
+	
+	public int getMessageCount() {
+		return messageCount;
+	}
+	
+	// Number of messages of the recipient in this segment
+	public int count(long recipientId) {
+		int entry = findRecipient(recipientId);
+		return entry < 0 ? 0 : buffer.getInt(entry + 12);
+	}
+	
+	// The recipient's messages newest first, starting with the first one older than the cursor, or
+	// with the newest one without a cursor
+	Postings postings(long recipientId, MessageCursor cursor) {
+		int entry = findRecipient(recipientId);
+		if (entry < 0) {
+			return new Postings(recipientId, 0, 0);
+		}
+		int first = buffer.getInt(entry + 8);
+		int count = buffer.getInt(entry + 12);
+		if (cursor == null) {
+			return new Postings(recipientId, first, first + count);
+		}
+		
+		// Postings are sorted newest first, find the first one older than the cursor
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (isBefore(posting(first + middle), cursor)) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return new Postings(recipientId, first + low, first + count);
+	}
+	
+	// The full message, only if recipientId is one of its recipients
+	public Optional<MessageResponse> findMessage(long messageId, long recipientId) {
+		int record = findRecord(messageId);
+		return record >= 0 && recipientOffset(record, recipientId) >= 0 ? Optional.of(readMessage(record)) : Optional.empty();
+	}
+	
+	// The summary as the recipient sees it in the inbox, only if recipientId is one of its recipients
+	public Optional<MessageSummaryResponse> findSummary(long messageId, long recipientId) {
+		int record = findRecord(messageId);
+		return record >= 0 && recipientOffset(record, recipientId) >= 0
+				? Optional.of(readSummary(record, recipientId))
+				: Optional.empty();
+	}
+	
+	// Every message of the segment as it was written, in message id order
+	public void forEachArchivedMessage(Consumer<ArchivedMessage> consumer) {
+		for (int i = 0; i < messageCount; i++) {
+			consumer.accept(readArchived(buffer.getInt(messageIndexOffset + i * MESSAGE_ENTRY_SIZE + 8)));
+		}
+	}
+	
+	public long[] getMessageIds() {
+		long[] ids = new long[messageCount];
+		for (int i = 0; i < messageCount; i++) {
+			ids[i] = buffer.getLong(messageIndexOffset + i * MESSAGE_ENTRY_SIZE);
+		}
+		return ids;
+	}
+	
+	// Offset of the message's record, or -1
+	private int findRecord(long messageId) {
+		int low = 0;
+		int high = messageCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int entry = messageIndexOffset + middle * MESSAGE_ENTRY_SIZE;
+			long id = buffer.getLong(entry);
+			if (id < messageId) {
+				low = middle + 1;
+			} else if (id > messageId) {
+				high = middle - 1;
+			} else {
+				return buffer.getInt(entry + 8);
+			}
+		}
+		return -1;
+	}
+	
+	// Offset of the recipient's index entry, or -1
+	private int findRecipient(long recipientId) {
+		int low = 0;
+		int high = recipientCount - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int entry = recipientIndexOffset + middle * RECIPIENT_ENTRY_SIZE;
+			long id = buffer.getLong(entry);
+			if (id < recipientId) {
+				low = middle + 1;
+			} else if (id > recipientId) {
+				high = middle - 1;
+			} else {
+				return entry;
+			}
+		}
+		return -1;
+	}
+	
+	private int posting(int index) {
+		return buffer.getInt(postingsOffset + index * 4);
+	}
+	
+	private boolean isBefore(int record, MessageCursor cursor) {
+		int bySentAt = sentAt(record).compareTo(cursor.sentAt());
+		return bySentAt < 0 || (bySentAt == 0 && buffer.getLong(record) < cursor.id());
+	}
+	
+	private Instant sentAt(int record) {
+		return Instant.ofEpochSecond(buffer.getLong(record + 8), buffer.getInt(record + 16));
+	}
+	
+	// Records start with id (8), sent_at (8 + 4) and sender id (8), followed by the strings
+	private MessageSummaryResponse readSummary(int record, long recipientId) {
+		int position = record + 28;
+		String senderName = readString(position);
+		position += 4 + buffer.getInt(position);
+		String title = readString(position);
+		position += 4 + buffer.getInt(position);
+		String snippet = readString(position);
+		return new MessageSummaryResponse(buffer.getLong(record), title, snippet, senderName, sentAt(record),
+				readAt(recipientOffset(record, recipientId)));
+	}
+	
+	private MessageResponse readMessage(int record) {
+		int position = record + 28;
+		String senderName = readString(position);
+		position += 4 + buffer.getInt(position);
+		String title = readString(position);
+		position += 4 + buffer.getInt(position);
+		position += 4 + buffer.getInt(position);
+		position += 4 + buffer.getInt(position) * RECORD_RECIPIENT_SIZE;
+		byte[] body = new byte[buffer.getInt(position)];
+		buffer.get(position + 4, body);
+		return new MessageResponse(buffer.getLong(record), title, bodyCodec.decode(body), senderName, sentAt(record));
+	}
+	
+	private ArchivedMessage readArchived(int record) {
+		int position = record + 28;
+		String senderName = readString(position);
+		position += 4 + buffer.getInt(position);
+		String title = readString(position);
+		position += 4 + buffer.getInt(position);
+		String snippet = readString(position);
+		position += 4 + buffer.getInt(position);
+		int count = buffer.getInt(position);
+		List<ArchivedMessage.Recipient> recipients = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int recipient = position + 4 + i * RECORD_RECIPIENT_SIZE;
+			recipients.add(new ArchivedMessage.Recipient(buffer.getLong(recipient), readAt(recipient)));
+		}
+		position += 4 + count * RECORD_RECIPIENT_SIZE;
+		byte[] body = new byte[buffer.getInt(position)];
+		buffer.get(position + 4, body);
+		return new ArchivedMessage(buffer.getLong(record), sentAt(record), buffer.getLong(record + 20), senderName, title,
+				snippet, recipients, body);
+	}
+	
+	// Offset of the recipient within the record, or -1
+	private int recipientOffset(int record, long recipientId) {
+		int position = record + 28;
+		for (int i = 0; i < 3; i++) {
+			position += 4 + buffer.getInt(position);
+		}
+		int count = buffer.getInt(position);
+		for (int i = 0; i < count; i++) {
+			int recipient = position + 4 + i * RECORD_RECIPIENT_SIZE;
+			if (buffer.getLong(recipient) == recipientId) {
+				return recipient;
+			}
+		}
+		return -1;
+	}
+	
+	private Instant readAt(int recipient) {
+		if (recipient < 0) {
+			return null;
+		}
+		return Instant.ofEpochSecond(buffer.getLong(recipient + 8), buffer.getInt(recipient + 16));
+	}
+	
+	// Position in one recipient's postings. The sort key of the current message is read without
+	// decoding the record, so segments can be merged by it and only the messages taken are read.
+	final class Postings {
+		
+		private final long recipientId;
+		private final int end;
+		private int next;
+		
+		private Postings(long recipientId, int next, int end) {
+			this.recipientId = recipientId;
+			this.next = next;
+			this.end = end;
+		}
+		
+		boolean hasNext() {
+			return next < end;
+		}
+		
+		Instant sentAt() {
+			return ArchiveSegment.this.sentAt(posting(next));
+		}
+		
+		long id() {
+			return buffer.getLong(posting(next));
+		}
+		
+		MessageSummaryResponse summary() {
+			return readSummary(posting(next), recipientId);
+		}
+		
+		MessageResponse message() {
+			return readMessage(posting(next));
+		}
+		
+		void advance() {
+			next++;
+		}
+	}
+	
+	private String readString(int position) {
+		byte[] bytes = new byte[buffer.getInt(position)];
+		buffer.get(position + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
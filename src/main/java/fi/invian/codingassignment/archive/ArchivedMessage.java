@@ -0,0 +1,20 @@
+package fi.invian.codingassignment.archive;
+
+import java.time.Instant;
+import java.util.List;
+
+// A message as it is written to an archive segment. The body is kept in its BodyCodec encoding.
+public record ArchivedMessage(
+		long id,
+		Instant sentAt,
+		long senderId,
+		String senderName,
+		String title,
+		String snippet,
+		List<Recipient> recipients,
+		byte[] body
+) {
+	
+	// Archived messages are read, messages still unread get the time they were archived
+	public record Recipient(long id, Instant readAt) {}
+}
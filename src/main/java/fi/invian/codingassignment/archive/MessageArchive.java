@@ -0,0 +1,198 @@
+package fi.invian.codingassignment.archive;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Cold tier of the inbox: messages moved out of the database by MessageArchiveJob, in immutable
+// segment files under messaging.archive.directory. A later segment does not only hold newer
+// messages: rows that reach the database late with an old sentAt, such as bulk loaded history, are
+// archived after newer ones. Reads therefore merge the recipient's postings of all segments by
+// (sentAt, id). Callers combine them with the database rows through merge, since a message is in
+// both tiers from when its segment is published until the job has deleted its rows.
+@Component
+public class MessageArchive {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MessageArchive.class);
+	private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.seg");
+	
+	private static final Comparator<MessageSummaryResponse> NEWEST_FIRST =
+			Comparator.comparing(MessageSummaryResponse::sentAt).thenComparing(MessageSummaryResponse::id).reversed();
+	private static final Comparator<ArchiveSegment.Postings> NEWEST_POSTING_FIRST =
+			Comparator.comparing(ArchiveSegment.Postings::sentAt).thenComparingLong(ArchiveSegment.Postings::id).reversed();
+	
+	private final Path directory;
+	private final BodyCodec bodyCodec;
+	// Newest first, replaced as a whole when a segment is added
+	private volatile List<ArchiveSegment> segments;
+	private long lastSequence;
+	
+	public MessageArchive(@Value("${messaging.archive.directory:data/archive}") Path directory, BodyCodec bodyCodec) {
+		this.directory = directory;
+		this.bodyCodec = bodyCodec;
+		this.segments = load();
+	}
+	
+	private List<ArchiveSegment> load() {
+		if (!Files.isDirectory(directory)) {
+			return List.of();
+		}
+		List<ArchiveSegment> loaded = new ArrayList<>();
+		try (Stream<Path> files = Files.list(directory)) {
+			List<Path> paths = files.sorted(Comparator.reverseOrder()).toList();
+			for (Path path : paths) {
+				Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+				if (matcher.matches()) {
+					loaded.add(ArchiveSegment.open(path, bodyCodec));
+					lastSequence = Math.max(lastSequence, Long.parseLong(matcher.group(1)));
+				} else if (path.getFileName().toString().endsWith(".tmp")) {
+					// Left behind by a crash before the rename, its messages are still in the database
+					Files.delete(path);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read message archive " + directory, e);
+		}
+		logger.info("Opened {} archive segments in {}", loaded.size(), directory);
+		return List.copyOf(loaded);
+	}
+	
+	// Writes the messages, oldest first, as a new segment and makes it visible to reads. The file is
+	// complete on disk when this returns and is loaded like any other after a restart.
+	public synchronized ArchiveSegment append(List<ArchivedMessage> messages) throws IOException {
+		Files.createDirectories(directory);
+		// Zero padded, so the file names sort in sequence order
+		Path path = directory.resolve(String.format("segment-%010d.seg", lastSequence + 1));
+		SegmentWriter.write(path, messages);
+		ArchiveSegment segment = ArchiveSegment.open(path, bodyCodec);
+		lastSequence++;
+		
+		List<ArchiveSegment> updated = new ArrayList<>(segments.size() + 1);
+		updated.add(segment);
+		updated.addAll(segments);
+		segments = List.copyOf(updated);
+		return segment;
+	}
+	
+	// Database rows and archived messages of one recipient, each newest first, as one list newest
+	// first. A message found in both tiers is listed once, from the database.
+	public static List<MessageSummaryResponse> merge(List<MessageSummaryResponse> database, List<MessageSummaryResponse> archived) {
+		Set<Long> inDatabase = new HashSet<>();
+		database.forEach(message -> inDatabase.add(message.id()));
+		List<MessageSummaryResponse> merged = new ArrayList<>(database.size() + archived.size());
+		merged.addAll(database);
+		for (MessageSummaryResponse message : archived) {
+			if (!inDatabase.contains(message.id())) {
+				merged.add(message);
+			}
+		}
+		merged.sort(NEWEST_FIRST);
+		return merged;
+	}
+	
+	// The most recently published segment, if any
+	public Optional<ArchiveSegment> findLatestSegment() {
+		List<ArchiveSegment> current = segments;
+		return current.isEmpty() ? Optional.empty() : Optional.of(current.get(0));
+	}
+	
+	public long count(Long recipientId) {
+		long count = 0;
+		for (ArchiveSegment segment : segments) {
+			count += segment.count(recipientId);
+		}
+		return count;
+	}
+	
+	// Up to limit archived messages of the recipient, newest first, skipping the first offset
+	public List<MessageSummaryResponse> findMessages(Long recipientId, long offset, int limit) {
+		List<MessageSummaryResponse> messages = new ArrayList<>();
+		forEachPosting(recipientId, null, offset, limit, postings -> messages.add(postings.summary()));
+		return messages;
+	}
+	
+	// Up to limit archived messages of the recipient older than the cursor, newest first.
+	// Without a cursor the newest archived messages are returned.
+	public List<MessageSummaryResponse> findMessagesBefore(Long recipientId, MessageCursor cursor, int limit) {
+		List<MessageSummaryResponse> messages = new ArrayList<>();
+		forEachPosting(recipientId, cursor, 0, limit, postings -> messages.add(postings.summary()));
+		return messages;
+	}
+	
+	public Optional<MessageResponse> findMessage(Long messageId, Long recipientId) {
+		for (ArchiveSegment segment : segments) {
+			Optional<MessageResponse> message = segment.findMessage(messageId, recipientId);
+			if (message.isPresent()) {
+				return message;
+			}
+		}
+		return Optional.empty();
+	}
+	
+	public Optional<MessageSummaryResponse> findSummary(Long messageId, Long recipientId) {
+		for (ArchiveSegment segment : segments) {
+			Optional<MessageSummaryResponse> summary = segment.findSummary(messageId, recipientId);
+			if (summary.isPresent()) {
+				return summary;
+			}
+		}
+		return Optional.empty();
+	}
+	
+	// Every archived message of the recipient with its body, newest first
+	public void forEachMessage(Long recipientId, Consumer<MessageResponse> consumer) {
+		forEachPosting(recipientId, null, 0, Long.MAX_VALUE, postings -> consumer.accept(postings.message()));
+	}
+	
+	// Merges the recipient's postings of every segment newest first, with the segments' current
+	// messages in a heap, and hands the postings positioned on each message after the first skip
+	// to the consumer until limit messages have been taken
+	private void forEachPosting(Long recipientId, MessageCursor cursor, long skip, long limit,
+								Consumer<ArchiveSegment.Postings> consumer) {
+		PriorityQueue<ArchiveSegment.Postings> heads = new PriorityQueue<>(NEWEST_POSTING_FIRST);
+		for (ArchiveSegment segment : segments) {
+			ArchiveSegment.Postings postings = segment.postings(recipientId, cursor);
+			if (postings.hasNext()) {
+				heads.add(postings);
+			}
+		}
+		for (long taken = 0; !heads.isEmpty() && taken - skip < limit; taken++) {
+			ArchiveSegment.Postings head = heads.poll();
+			if (taken >= skip) {
+				consumer.accept(head);
+			}
+			head.advance();
+			if (head.hasNext()) {
+				heads.add(head);
+			}
+		}
+	}
+	
+	// Every archived message as it was written, body still encoded; used to rebuild derived indexes
+	public void forEachArchivedMessage(Consumer<ArchivedMessage> consumer) {
+		for (ArchiveSegment segment : segments) {
+			segment.forEachArchivedMessage(consumer);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package fi.invian.codingassignment.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Writes an immutable archive segment. Layout, all integers big-endian:
+//
+//   magic, version
+//   records:         id, sentAt seconds, sentAt nanos, sender id, sender name, title, snippet,
+//                    recipient count, recipients (id, readAt seconds, readAt nanos), body length, body
+//   recipient index: (recipient id, first posting, posting count), sorted by recipient id
+//   postings:        record offsets per recipient, newest first by (sentAt, id)
+//   message index:   (message id, record offset), sorted by message id
+//   footer:          message count, recipient count, recipient index offset, message index offset, magic
+//
+// Strings are an int byte length followed by UTF-8. Offsets are ints, so a segment stays below 2 GB,
+// which is also the limit of a single memory mapping.
+final class SegmentWriter {
+	
+	static final int MAGIC = 0x4D534741; // "MSGA"
+	static final int VERSION = 2;
+	static final int FOOTER_SIZE = 4 + 4 + 8 + 8 + 4;
+	static final int RECIPIENT_ENTRY_SIZE = 8 + 4 + 4;
+	static final int MESSAGE_ENTRY_SIZE = 8 + 4;
+	static final int RECORD_RECIPIENT_SIZE = 8 + 8 + 4;
+	
+	private SegmentWriter() {
+	}
+	
+	// Writes the messages to a temporary file next to target, syncs it to disk and renames it into
+	// place, so a segment is either complete or absent
+	static void write(Path target, List<ArchivedMessage> messages) throws IOException {
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+			writeTo(out, messages);
+			out.flush();
+			channel.force(true);
+		}
+		Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	private static void writeTo(DataOutputStream out, List<ArchivedMessage> messages) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		
+		int[] offsets = new int[messages.size()];
+		for (int i = 0; i < messages.size(); i++) {
+			offsets[i] = position(out);
+			writeRecord(out, messages.get(i));
+		}
+		
+		// Postings per recipient, newest first
+		Integer[] newestFirst = new Integer[messages.size()];
+		Arrays.setAll(newestFirst, i -> i);
+		Arrays.sort(newestFirst, Comparator.comparing((Integer i) -> messages.get(i).sentAt())
+				.thenComparingLong(i -> messages.get(i).id())
+				.reversed());
+		Map<Long, List<Integer>> postings = new TreeMap<>();
+		for (int i : newestFirst) {
+			for (long recipientId : messages.get(i).recipients().stream().map(ArchivedMessage.Recipient::id).distinct().toList()) {
+				postings.computeIfAbsent(recipientId, id -> new ArrayList<>()).add(offsets[i]);
+			}
+		}
+		
+		int recipientIndexOffset = position(out);
+		int first = 0;
+		for (Map.Entry<Long, List<Integer>> entry : postings.entrySet()) {
+			out.writeLong(entry.getKey());
+			out.writeInt(first);
+			out.writeInt(entry.getValue().size());
+			first += entry.getValue().size();
+		}
+		for (List<Integer> recordOffsets : postings.values()) {
+			for (int offset : recordOffsets) {
+				out.writeInt(offset);
+			}
+		}
+		
+		Integer[] byId = new Integer[messages.size()];
+		Arrays.setAll(byId, i -> i);
+		Arrays.sort(byId, Comparator.comparingLong(i -> messages.get(i).id()));
+		int messageIndexOffset = position(out);
+		for (int i : byId) {
+			out.writeLong(messages.get(i).id());
+			out.writeInt(offsets[i]);
+		}
+		
+		out.writeInt(messages.size());
+		out.writeInt(postings.size());
+		out.writeLong(recipientIndexOffset);
+		out.writeLong(messageIndexOffset);
+		out.writeInt(MAGIC);
+		position(out);
+	}
+	
+	private static void writeRecord(DataOutputStream out, ArchivedMessage message) throws IOException {
+		out.writeLong(message.id());
+		out.writeLong(message.sentAt().getEpochSecond());
+		out.writeInt(message.sentAt().getNano());
+		out.writeLong(message.senderId());
+		writeString(out, message.senderName());
+		writeString(out, message.title());
+		writeString(out, message.snippet());
+		out.writeInt(message.recipients().size());
+		for (ArchivedMessage.Recipient recipient : message.recipients()) {
+			out.writeLong(recipient.id());
+			out.writeLong(recipient.readAt().getEpochSecond());
+			out.writeInt(recipient.readAt().getNano());
+		}
+		out.writeInt(message.body().length);
+		out.write(message.body());
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	// DataOutputStream counts written bytes in an int that sticks at Integer.MAX_VALUE on overflow
+	private static int position(DataOutputStream out) {
+		if (out.size() == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Archive segment exceeds 2 GB, lower messaging.archive.segment-size");
+		}
+		return out.size();
+	}
+}
@@ -0,0 +1,35 @@
+package fi.invian.codingassignment.async;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.invian.codingassignment.service.MessageService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "messaging.async.enabled", havingValue = "true")
+public class AsyncSendConfig {
+	
+	@Bean
+	public SendJournal sendJournal(ObjectMapper objectMapper,
+								   @Value("${messaging.async.journal-path:data/async-send.journal}") Path journalPath,
+								   @Value("${messaging.async.fsync:true}") boolean fsync) {
+		return new SendJournal(objectMapper, journalPath, fsync);
+	}
+	
+	@Bean
+	public AsyncSendPipeline asyncSendPipeline(MessageService messageService, SendJournal sendJournal,
+											   @Value("${messaging.async.queue-capacity:10000}") int capacity,
+											   @Value("${messaging.async.max-batch-size:500}") int maxBatchSize,
+											   @Value("${messaging.async.status-ttl:1h}") Duration statusTtl,
+											   @Value("${messaging.async.retry-backoff:1s}") Duration retryBackoff,
+											   @Value("${messaging.async.max-retry-backoff:1m}") Duration maxRetryBackoff,
+											   @Value("${messaging.async.max-attempts:3}") int maxAttempts) {
+		return new AsyncSendPipeline(messageService, sendJournal, capacity, maxBatchSize, statusTtl, retryBackoff,
+				maxRetryBackoff, maxAttempts);
+	}
+}
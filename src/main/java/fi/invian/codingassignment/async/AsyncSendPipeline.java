@@ -0,0 +1,265 @@
+package fi.invian.codingassignment.async;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import fi.invian.codingassignment.dto.AsyncSendStatus;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.exception.SendQueueFullException;
+import fi.invian.codingassignment.service.MessageService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Write-behind send path. Accepted requests are journaled and queued, and a single committer
+// thread drains the queue into batch transactions through MessageService.sendMessages, so one
+// database transaction and connection serve many requests. A batch the database rejects is retried
+// with backoff, then split in halves until the sends that fail on their own are found and marked
+// FAILED, so one bad request cannot block the queue. Outages are retried for as long as they last.
+// Each send stores its tracking id as an idempotency key in its own transaction, so a retry after a
+// commit whose outcome was lost, or a replay after a crash before the journal recorded the commit,
+// returns the stored message instead of sending it again.
+public class AsyncSendPipeline {
+	
+	private static final Logger logger = LoggerFactory.getLogger(AsyncSendPipeline.class);
+	
+	// Keeps the tracking ids apart from the Idempotency-Key headers of the same sender
+	private static final String KEY_PREFIX = "async:";
+	
+	private final MessageService messageService;
+	private final SendJournal journal;
+	private final int capacity;
+	private final int maxBatchSize;
+	private final Duration retryBackoff;
+	private final Duration maxRetryBackoff;
+	private final int maxAttempts;
+	
+	private final BlockingQueue<PendingSend> queue = new LinkedBlockingQueue<>();
+	// Accepted but not yet committed, including the batch currently being written
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Cache<String, AsyncSendStatus> statuses;
+	
+	private volatile boolean running;
+	private Thread committer;
+	
+	public AsyncSendPipeline(MessageService messageService, SendJournal journal, int capacity, int maxBatchSize,
+							 Duration statusTtl, Duration retryBackoff, Duration maxRetryBackoff, int maxAttempts) {
+		this.messageService = messageService;
+		this.journal = journal;
+		this.capacity = capacity;
+		this.maxBatchSize = maxBatchSize;
+		this.retryBackoff = retryBackoff;
+		this.maxRetryBackoff = maxRetryBackoff;
+		this.maxAttempts = maxAttempts;
+		this.statuses = Caffeine.newBuilder()
+				.expireAfter(new FinalStatusExpiry(statusTtl))
+				.build();
+		
+		journal.readUncommitted().forEach((trackingId, request) -> {
+			pending.incrementAndGet();
+			statuses.put(trackingId, AsyncSendStatus.pending(trackingId));
+			queue.add(new PendingSend(trackingId, request));
+		});
+		if (pending.get() > 0) {
+			logger.info("Replaying {} uncommitted sends from the journal", pending.get());
+		}
+	}
+	
+	@PostConstruct
+	public void start() {
+		running = true;
+		committer = new Thread(this::runCommitter, "async-send-committer");
+		committer.setDaemon(true);
+		committer.start();
+	}
+	
+	@PreDestroy
+	public void stop() throws InterruptedException, IOException {
+		running = false;
+		if (committer != null) {
+			committer.interrupt();
+			committer.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		// Anything still queued stays in the journal and is replayed on the next start
+		journal.close();
+	}
+	
+	// Validates and durably records the request, then returns before it is written to the database
+	public AsyncSendStatus submit(SendMessageRequest request) {
+		messageService.validateUsers(request);
+		
+		if (pending.incrementAndGet() > capacity) {
+			pending.decrementAndGet();
+			throw new SendQueueFullException("Send queue is full, please retry later.");
+		}
+		String trackingId = UUID.randomUUID().toString();
+		try {
+			journal.appendAccepted(trackingId, request);
+		} catch (RuntimeException e) {
+			pending.decrementAndGet();
+			throw e;
+		}
+		AsyncSendStatus status = AsyncSendStatus.pending(trackingId);
+		statuses.put(trackingId, status);
+		queue.add(new PendingSend(trackingId, request));
+		return status;
+	}
+	
+	public Optional<AsyncSendStatus> getStatus(String trackingId) {
+		return Optional.ofNullable(statuses.getIfPresent(trackingId));
+	}
+	
+	public int getPendingCount() {
+		return pending.get();
+	}
+	
+	private void runCommitter() {
+		while (running) {
+			try {
+				PendingSend first = queue.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				List<PendingSend> batch = new ArrayList<>(maxBatchSize);
+				batch.add(first);
+				queue.drainTo(batch, maxBatchSize - 1);
+				commitWithRetry(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	// Failures that leave the database unreachable count towards maxAttempts only when the
+	// database answered, so an outage does not turn queued sends into failures
+	private void commitWithRetry(List<PendingSend> batch) throws InterruptedException {
+		int attempts = 0;
+		int retries = 0;
+		while (true) {
+			List<BatchSendResult> results;
+			try {
+				results = send(batch);
+			} catch (RuntimeException e) {
+				if (!isUnavailable(e) && ++attempts >= maxAttempts) {
+					if (batch.size() == 1) {
+						fail(batch.get(0), e);
+						return;
+					}
+					logger.warn("Committing {} queued sends failed {} times, splitting the batch", batch.size(), attempts, e);
+					int half = batch.size() / 2;
+					commitWithRetry(batch.subList(0, half));
+					commitWithRetry(batch.subList(half, batch.size()));
+					return;
+				}
+				Duration backoff = backoff(retries++);
+				logger.warn("Committing {} queued sends failed, retrying in {}", batch.size(), backoff, e);
+				Thread.sleep(backoff.toMillis());
+				continue;
+			}
+			// Committed: nothing from here on may send the batch again
+			committed(batch, results);
+			return;
+		}
+	}
+	
+	private static boolean isUnavailable(RuntimeException e) {
+		return e instanceof CannotCreateTransactionException || e instanceof DataAccessResourceFailureException
+				|| e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException;
+	}
+	
+	// Doubles from retryBackoff up to maxRetryBackoff
+	private Duration backoff(int retries) {
+		Duration backoff = retryBackoff.multipliedBy(1L << Math.min(retries, 20));
+		return backoff.compareTo(maxRetryBackoff) > 0 ? maxRetryBackoff : backoff;
+	}
+	
+	// One transaction for the whole batch, with the tracking ids as idempotency keys
+	private List<BatchSendResult> send(List<PendingSend> batch) {
+		return messageService.sendMessages(batch.stream().map(PendingSend::request).toList(),
+				batch.stream().map(send -> KEY_PREFIX + send.trackingId()).toList());
+	}
+	
+	// Publishes the results, then one journal record marks the batch committed
+	private void committed(List<PendingSend> batch, List<BatchSendResult> results) {
+		List<String> trackingIds = new ArrayList<>(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			String trackingId = batch.get(i).trackingId();
+			statuses.put(trackingId, AsyncSendStatus.of(trackingId, results.get(i)));
+			trackingIds.add(trackingId);
+		}
+		complete(trackingIds);
+	}
+	
+	// Gives up on a send that the database rejected on its own; it is journaled as done so a
+	// restart does not replay it
+	private void fail(PendingSend send, RuntimeException e) {
+		logger.error("Giving up on queued send {} after {} attempts", send.trackingId(), maxAttempts, e);
+		statuses.put(send.trackingId(), AsyncSendStatus.failed(send.trackingId(), "The message could not be stored."));
+		complete(List.of(send.trackingId()));
+	}
+	
+	// A journal failure here is only logged: the sends are resolved, and should their records be
+	// replayed after a restart, the stored tracking ids keep them from being sent again
+	private void complete(List<String> trackingIds) {
+		try {
+			journal.appendCommitted(trackingIds);
+		} catch (RuntimeException e) {
+			logger.error("Recording {} resolved sends in the journal failed", trackingIds.size(), e);
+		}
+		if (pending.addAndGet(-trackingIds.size()) == 0) {
+			try {
+				journal.truncateIfIdle(() -> pending.get() == 0);
+			} catch (RuntimeException e) {
+				logger.error("Truncating the send journal failed", e);
+			}
+		}
+	}
+	
+	// Commits everything currently queued on the calling thread
+	void drain() throws InterruptedException {
+		List<PendingSend> batch = new ArrayList<>();
+		while (queue.drainTo(batch, maxBatchSize) > 0) {
+			commitWithRetry(batch);
+			batch = new ArrayList<>();
+		}
+	}
+	
+	record PendingSend(String trackingId, SendMessageRequest request) {}
+	
+	// Pending statuses are kept until their send is resolved, they are bounded by the queue capacity
+	private record FinalStatusExpiry(Duration ttl) implements Expiry<String, AsyncSendStatus> {
+		
+		@Override
+		public long expireAfterCreate(String key, AsyncSendStatus value, long currentTime) {
+			return value.state() == AsyncSendStatus.State.PENDING ? Long.MAX_VALUE : ttl.toNanos();
+		}
+		
+		@Override
+		public long expireAfterUpdate(String key, AsyncSendStatus value, long currentTime, long currentDuration) {
+			return expireAfterCreate(key, value, currentTime);
+		}
+		
+		@Override
+		public long expireAfterRead(String key, AsyncSendStatus value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
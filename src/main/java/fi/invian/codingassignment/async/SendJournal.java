@@ -0,0 +1,206 @@
+package fi.invian.codingassignment.async;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+// Append-only log of accepted and committed asynchronous sends, one JSON record per line.
+// Accepted requests without a matching commit record are replayed after a restart.
+// With fsync, accepts are forced to disk in groups: the first caller to need a force runs it for
+// everything written so far while the others wait for it, so concurrent requests share one fsync.
+// Commit records are not forced, a lost one only replays sends whose tracking ids are already stored.
+public class SendJournal implements AutoCloseable {
+	
+	private final ObjectMapper objectMapper;
+	private final Path path;
+	private final boolean fsync;
+	private FileChannel channel;
+	
+	// Bytes ever appended, guarded by this, and bytes known to be on disk, guarded by forceLock.
+	// Both count across truncations.
+	private long written;
+	private final Object forceLock = new Object();
+	private long forced;
+	private boolean forcing;
+	
+	public SendJournal(ObjectMapper objectMapper, Path path, boolean fsync) {
+		this.objectMapper = objectMapper;
+		this.path = path;
+		this.fsync = fsync;
+		try {
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+			dropTornTail();
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot open send journal " + path, e);
+		}
+	}
+	
+	// Requests that were accepted but never committed, in acceptance order
+	public synchronized Map<String, SendMessageRequest> readUncommitted() {
+		Map<String, SendMessageRequest> pending = new LinkedHashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+				JournalRecord record;
+				try {
+					record = objectMapper.readValue(line, JournalRecord.class);
+				} catch (IOException e) {
+					// A torn line left by a crash mid-write before torn tails were cut off on open
+					continue;
+				}
+				if (record.accepted() != null) {
+					pending.put(record.accepted(), record.request());
+				} else if (record.committed() != null) {
+					record.committed().forEach(pending::remove);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read send journal " + path, e);
+		}
+		return pending;
+	}
+	
+	// Returns once the record is on disk
+	public void appendAccepted(String trackingId, SendMessageRequest request) {
+		long end = write(new JournalRecord(trackingId, request, null));
+		if (fsync) {
+			awaitForced(end);
+		}
+	}
+	
+	public void appendCommitted(Collection<String> trackingIds) {
+		write(new JournalRecord(null, null, List.copyOf(trackingIds)));
+	}
+	
+	// Drops all records once nothing is pending, so the journal does not grow without bound.
+	// Accepts are appended under the same lock, so none can slip in between the check and the truncate.
+	public synchronized void truncateIfIdle(BooleanSupplier idle) {
+		if (!idle.getAsBoolean()) {
+			return;
+		}
+		try {
+			channel.truncate(0);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot truncate send journal " + path, e);
+		}
+	}
+	
+	// Returns the count of bytes written up to the end of the record
+	private synchronized long write(JournalRecord record) {
+		try {
+			byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+			ByteBuffer buffer = ByteBuffer.wrap(line);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			written += line.length;
+			return written;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot write send journal " + path, e);
+		}
+	}
+	
+	private synchronized long written() {
+		return written;
+	}
+	
+	// Waits until a force covers the given count of bytes, running the force itself when none is
+	// running. Records written while a force runs are covered by the next one.
+	private void awaitForced(long end) {
+		while (true) {
+			synchronized (forceLock) {
+				while (forcing && forced < end) {
+					try {
+						forceLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IllegalStateException("Interrupted while waiting for the send journal", e);
+					}
+				}
+				if (forced >= end) {
+					return;
+				}
+				forcing = true;
+			}
+			long target = written();
+			boolean done = false;
+			try {
+				channel.force(false);
+				done = true;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot force send journal " + path, e);
+			} finally {
+				synchronized (forceLock) {
+					if (done) {
+						forced = Math.max(forced, target);
+					}
+					forcing = false;
+					forceLock.notifyAll();
+				}
+			}
+		}
+	}
+	
+	// A crash in the middle of a write leaves a partial last line, which was never acknowledged.
+	// It is cut off before appending, so the next record does not run into it.
+	private void dropTornTail() throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = file.size();
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			long end = size;
+			while (end > 0) {
+				long start = Math.max(0, end - buffer.capacity());
+				buffer.clear().limit((int) (end - start));
+				while (buffer.hasRemaining()) {
+					if (file.read(buffer, start + buffer.position()) < 0) {
+						break;
+					}
+				}
+				for (int i = buffer.position() - 1; i >= 0; i--) {
+					if (buffer.get(i) == '\n') {
+						if (start + i + 1 < size) {
+							file.truncate(start + i + 1);
+						}
+						return;
+					}
+				}
+				end = start;
+			}
+			file.truncate(0);
+		}
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+	
+	record JournalRecord(
+			String accepted,
+			SendMessageRequest request,
+			List<String> committed
+	) {}
+}
@@ -0,0 +1,85 @@
+package fi.invian.codingassignment.bulkload;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.Duration;
+
+// Runs a bulk load from files or from the synthetic generator when the application starts with
+// messaging.bulk-load.enabled, then stops the application unless exit-when-done is off. Meant for a
+// database that is not serving traffic yet, see BulkLoader.
+@Component
+@ConditionalOnProperty(name = "messaging.bulk-load.enabled", havingValue = "true")
+public class BulkLoadRunner implements ApplicationRunner {
+	
+	private static final Logger logger = LoggerFactory.getLogger(BulkLoadRunner.class);
+	
+	private final BulkLoader bulkLoader;
+	private final ConfigurableApplicationContext context;
+	private final String usersFile;
+	private final String messagesFile;
+	private final String recipientsFile;
+	private final SyntheticRows synthetic;
+	private final boolean exitWhenDone;
+	
+	public BulkLoadRunner(DataSource dataSource, BodyCodec bodyCodec, ConfigurableApplicationContext context,
+						  @Value("${messaging.bulk-load.method:insert}") BulkLoader.Method method,
+						  @Value("${messaging.bulk-load.chunk-size:10000}") int chunkSize,
+						  @Value("${messaging.bulk-load.rows-per-statement:1000}") int rowsPerStatement,
+						  @Value("${messaging.bulk-load.drop-indexes:true}") boolean dropIndexes,
+						  @Value("${messaging.bulk-load.users:}") String usersFile,
+						  @Value("${messaging.bulk-load.messages:}") String messagesFile,
+						  @Value("${messaging.bulk-load.recipients:}") String recipientsFile,
+						  @Value("${messaging.bulk-load.synthetic.users:0}") long syntheticUsers,
+						  @Value("${messaging.bulk-load.synthetic.messages:0}") long syntheticMessages,
+						  @Value("${messaging.bulk-load.synthetic.seed:42}") long seed,
+						  @Value("${messaging.bulk-load.synthetic.heavy-users:100}") int heavyUsers,
+						  @Value("${messaging.bulk-load.synthetic.heavy-share:0.2}") double heavyShare,
+						  @Value("${messaging.bulk-load.synthetic.spread:365d}") Duration spread,
+						  @Value("${messaging.bulk-load.exit-when-done:true}") boolean exitWhenDone) {
+		this.bulkLoader = new BulkLoader(dataSource, bodyCodec, method, chunkSize, rowsPerStatement, dropIndexes);
+		this.context = context;
+		this.usersFile = usersFile;
+		this.messagesFile = messagesFile;
+		this.recipientsFile = recipientsFile;
+		this.synthetic = syntheticUsers > 0
+				? new SyntheticRows(syntheticUsers, syntheticMessages, seed, heavyUsers, heavyShare, spread) : null;
+		this.exitWhenDone = exitWhenDone;
+		if (synthetic != null && !(usersFile.isEmpty() && messagesFile.isEmpty() && recipientsFile.isEmpty())) {
+			throw new IllegalArgumentException("A bulk load reads either input files or synthetic rows, not both");
+		}
+	}
+	
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		BulkLoader.Result result;
+		if (synthetic != null) {
+			try (RowSource<UserRow> users = synthetic.users();
+				 RowSource<MessageRow> messages = synthetic.messages();
+				 RowSource<RecipientRow> recipients = synthetic.recipients()) {
+				result = bulkLoader.load(users, messages, recipients);
+			}
+		} else {
+			try (RowSource<UserRow> users = usersFile.isEmpty() ? null : FileRowSource.users(Path.of(usersFile));
+				 RowSource<MessageRow> messages = messagesFile.isEmpty() ? null : FileRowSource.messages(Path.of(messagesFile));
+				 RowSource<RecipientRow> recipients = recipientsFile.isEmpty() ? null : FileRowSource.recipients(Path.of(recipientsFile))) {
+				result = bulkLoader.load(users, messages, recipients);
+			}
+		}
+		logger.info("Bulk load finished: {} users, {} messages, {} recipients", result.users(), result.messages(), result.recipients());
+		
+		if (exitWhenDone) {
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+}
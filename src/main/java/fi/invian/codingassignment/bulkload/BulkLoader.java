@@ -0,0 +1,313 @@
+package fi.invian.codingassignment.bulkload;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.entity.Message;
+import fi.invian.codingassignment.repository.JdbcSenderStatisticsRepository;
+import fi.invian.codingassignment.repository.SenderStatisticsRepository.SenderDay;
+import fi.invian.codingassignment.repository.UnreadCountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Writes users, messages and recipients in chunks. Each chunk is one transaction together with the
+// counters derived from it (daily sender statistics, unread counts) and the number of records of
+// its input loaded so far, so a load that stops resumes after its last committed chunk. Rows are
+// written with multi-row INSERT statements, or on MariaDB with LOAD DATA LOCAL INFILE streamed from
+// memory. The load runs on one connection; on MariaDB it turns off foreign key and unique checks
+// for that connection, so the input must be consistent. The inbox projection and the search index
+// are not written, their backfill jobs build them afterwards.
+public class BulkLoader {
+	
+	private static final Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+	
+	private static final List<String> DROP_INDEXES = List.of(
+			"DROP INDEX IF EXISTS idx_recipient_id ON message_recipients",
+			"DROP INDEX IF EXISTS idx_sent_at ON messages");
+	
+	private static final List<String> CREATE_INDEXES = List.of(
+			"CREATE INDEX IF NOT EXISTS idx_recipient_id ON message_recipients (recipient_id, message_id)",
+			"CREATE INDEX IF NOT EXISTS idx_sent_at ON messages (sent_at)");
+	
+	private static final String UPSERT_PROGRESS = """
+			INSERT INTO bulk_load_progress (source, loaded_records, updated_at) VALUES (?, ?, ?)
+			ON DUPLICATE KEY UPDATE loaded_records = VALUES(loaded_records), updated_at = VALUES(updated_at)
+			""";
+	
+	// LOAD DATA reads timestamps in the session time zone, as the driver sends Timestamp parameters
+	private static final DateTimeFormatter LOAD_DATA_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
+	
+	private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+	
+	public enum Method {
+		INSERT,
+		LOAD_DATA
+	}
+	
+	private final DataSource dataSource;
+	private final BodyCodec bodyCodec;
+	private final Method method;
+	private final int chunkSize;
+	private final int rowsPerStatement;
+	private final boolean dropIndexes;
+	
+	public BulkLoader(DataSource dataSource, BodyCodec bodyCodec, Method method, int chunkSize, int rowsPerStatement,
+					  boolean dropIndexes) {
+		this.dataSource = dataSource;
+		this.bodyCodec = bodyCodec;
+		this.method = method;
+		this.chunkSize = chunkSize;
+		this.rowsPerStatement = rowsPerStatement;
+		this.dropIndexes = dropIndexes;
+	}
+	
+	// Loads the given sources in reference order; a null source is left out. With dropIndexes the
+	// recipient and sent-at indexes are dropped first and built again once the rows are in, or when
+	// the load fails.
+	public Result load(RowSource<UserRow> users, RowSource<MessageRow> messages, RowSource<RecipientRow> recipients)
+			throws SQLException {
+		try (Connection connection = dataSource.getConnection()) {
+			boolean mariaDb = connection.getMetaData().getDatabaseProductName().matches("(?i)mariadb|mysql");
+			if (method == Method.LOAD_DATA && !mariaDb) {
+				throw new IllegalStateException("LOAD DATA needs MariaDB, use the INSERT method");
+			}
+			Session session = new Session(new SingleConnectionDataSource(connection, true));
+			if (mariaDb) {
+				session.jdbcTemplate.execute("SET SESSION foreign_key_checks = 0, unique_checks = 0");
+			}
+			try {
+				if (dropIndexes) {
+					DROP_INDEXES.forEach(session.jdbcTemplate::execute);
+				}
+				Instant startedAt = Instant.now();
+				long userRows = users == null ? 0 : session.load(users, "users", List.of("id", "name", "created_at"),
+						user -> new Object[]{user.id(), user.name(), timestamp(user.createdAt() != null ? user.createdAt() : startedAt)},
+						chunk -> {});
+				long messageRows = messages == null ? 0 : session.load(messages, "messages",
+						List.of("id", "sender_id", "title", "body", "snippet", "sent_at"),
+						message -> new Object[]{message.id(), message.senderId(), message.title(), bodyCodec.encode(message.body()),
+								Message.snippetOf(message.body()), timestamp(message.sentAt())},
+						chunk -> session.statistics.incrementAll(senderDays(chunk)));
+				long recipientRows = recipients == null ? 0 : session.load(recipients, "message_recipients",
+						List.of("message_id", "recipient_id", "read_at"),
+						recipient -> new Object[]{recipient.messageId(), recipient.recipientId(), timestamp(recipient.readAt())},
+						chunk -> session.unreadCounts.incrementAll(unreadCounts(chunk)));
+				return new Result(userRows, messageRows, recipientRows);
+			} finally {
+				try {
+					if (dropIndexes) {
+						logger.info("Building the message indexes");
+						CREATE_INDEXES.forEach(session.jdbcTemplate::execute);
+					}
+				} finally {
+					if (mariaDb) {
+						// The connection goes back to the pool, even when an index could not be built
+						session.jdbcTemplate.execute("SET SESSION foreign_key_checks = 1, unique_checks = 1");
+					}
+				}
+			}
+		}
+	}
+	
+	private static Map<SenderDay, Integer> senderDays(List<MessageRow> messages) {
+		Map<SenderDay, Integer> counts = new HashMap<>();
+		for (MessageRow message : messages) {
+			counts.merge(new SenderDay(message.senderId(), LocalDate.ofInstant(message.sentAt(), ZoneOffset.UTC)), 1, Integer::sum);
+		}
+		return counts;
+	}
+	
+	private static Map<Long, Integer> unreadCounts(List<RecipientRow> recipients) {
+		Map<Long, Integer> counts = new HashMap<>();
+		for (RecipientRow recipient : recipients) {
+			if (recipient.readAt() == null) {
+				counts.merge(recipient.recipientId(), 1, Integer::sum);
+			}
+		}
+		return counts;
+	}
+	
+	private static Timestamp timestamp(Instant instant) {
+		return instant == null ? null : Timestamp.from(instant);
+	}
+	
+	public record Result(long users, long messages, long recipients) {}
+	
+	// Everything bound to the load's connection
+	private class Session {
+		
+		private final JdbcTemplate jdbcTemplate;
+		private final TransactionTemplate transactionTemplate;
+		private final JdbcSenderStatisticsRepository statistics;
+		private final UnreadCountRepository unreadCounts;
+		
+		Session(DataSource connection) {
+			this.jdbcTemplate = new JdbcTemplate(connection);
+			this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(connection));
+			this.statistics = new JdbcSenderStatisticsRepository(jdbcTemplate);
+			this.unreadCounts = new UnreadCountRepository(jdbcTemplate);
+		}
+		
+		<T> long load(RowSource<T> source, String table, List<String> columns, Function<T, Object[]> values,
+					  Consumer<List<T>> derived) {
+			List<Long> done = jdbcTemplate.queryForList("SELECT loaded_records FROM bulk_load_progress WHERE source = ?",
+					Long.class, source.name());
+			long skipped = done.isEmpty() ? 0 : done.get(0);
+			if (skipped > 0) {
+				logger.info("Resuming {} after {} records loaded before", source.name(), skipped);
+				source.skip(skipped);
+			}
+			
+			long started = System.nanoTime();
+			long reported = started;
+			long loaded = 0;
+			List<T> chunk = new ArrayList<>(chunkSize);
+			while (source.hasNext()) {
+				chunk.add(source.next());
+				if (chunk.size() < chunkSize && source.hasNext()) {
+					continue;
+				}
+				long total = skipped + loaded + chunk.size();
+				List<Object[]> rows = chunk.stream().map(values).toList();
+				transactionTemplate.executeWithoutResult(status -> {
+					if (method == Method.LOAD_DATA) {
+						loadData(table, columns, rows);
+					} else {
+						insert(table, columns, rows);
+					}
+					derived.accept(chunk);
+					jdbcTemplate.update(UPSERT_PROGRESS, source.name(), total, Timestamp.from(Instant.now()));
+				});
+				loaded += chunk.size();
+				chunk.clear();
+				
+				long now = System.nanoTime();
+				if (now - reported > PROGRESS_INTERVAL_NANOS) {
+					logger.info("Loaded {} records of {}, {} per second", total, source.name(), rate(loaded, now - started));
+					reported = now;
+				}
+			}
+			logger.info("Loaded {} records of {} in {} s, {} per second", loaded, source.name(),
+					TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started), rate(loaded, System.nanoTime() - started));
+			return loaded;
+		}
+		
+		private void insert(String table, List<String> columns, List<Object[]> rows) {
+			String row = "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+			for (int from = 0; from < rows.size(); from += rowsPerStatement) {
+				List<Object[]> statementRows = rows.subList(from, Math.min(from + rowsPerStatement, rows.size()));
+				jdbcTemplate.update("INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES "
+								+ String.join(", ", Collections.nCopies(statementRows.size(), row)),
+						statementRows.stream().flatMap(Arrays::stream).toArray());
+			}
+		}
+		
+		// The rows are sent as tab-separated text. Binary columns travel hex-encoded and are decoded by the server.
+		// LOCAL implies IGNORE: a row the server rejects, such as a duplicate key, only leaves a warning. The
+		// chunk then fails with the server's warnings, as it would with INSERT, so that the counters derived
+		// from it and the recorded progress only ever cover rows that are in the table.
+		private void loadData(String table, List<String> columns, List<Object[]> rows) {
+			List<String> targets = new ArrayList<>();
+			List<String> decoded = new ArrayList<>();
+			for (int i = 0; i < columns.size(); i++) {
+				if (rows.get(0)[i] instanceof byte[]) {
+					targets.add("@" + columns.get(i));
+					decoded.add(columns.get(i) + " = UNHEX(@" + columns.get(i) + ")");
+				} else {
+					targets.add(columns.get(i));
+				}
+			}
+			String sql = "LOAD DATA LOCAL INFILE 'bulk-load' INTO TABLE " + table + " CHARACTER SET utf8mb4 ("
+					+ String.join(", ", targets) + ")" + (decoded.isEmpty() ? "" : " SET " + String.join(", ", decoded));
+			byte[] data = tabSeparated(rows);
+			jdbcTemplate.execute((StatementCallback<Void>) statement -> {
+				statement.unwrap(org.mariadb.jdbc.Statement.class).setLocalInfileInputStream(new ByteArrayInputStream(data));
+				statement.execute(sql);
+				long loaded = statement.getLargeUpdateCount();
+				if (loaded != rows.size()) {
+					List<String> warnings = new ArrayList<>();
+					try (ResultSet resultSet = statement.executeQuery("SHOW WARNINGS LIMIT 5")) {
+						while (resultSet.next()) {
+							warnings.add(resultSet.getString("Message"));
+						}
+					}
+					throw new IllegalStateException("LOAD DATA wrote " + loaded + " of " + rows.size() + " rows into "
+							+ table + ": " + String.join("; ", warnings));
+				}
+				return null;
+			});
+		}
+	}
+	
+	private static byte[] tabSeparated(List<Object[]> rows) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(rows.size() * 256);
+		StringBuilder line = new StringBuilder();
+		for (Object[] row : rows) {
+			line.setLength(0);
+			for (int i = 0; i < row.length; i++) {
+				if (i > 0) {
+					line.append('\t');
+				}
+				Object value = row[i];
+				if (value == null) {
+					line.append("\\N");
+				} else if (value instanceof byte[] bytes) {
+					line.append(HexFormat.of().formatHex(bytes));
+				} else if (value instanceof Timestamp timestamp) {
+					line.append(LocalDateTime.ofInstant(timestamp.toInstant(), ZoneId.systemDefault()).format(LOAD_DATA_TIMESTAMP));
+				} else {
+					escape(value.toString(), line);
+				}
+			}
+			line.append('\n');
+			out.writeBytes(line.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return out.toByteArray();
+	}
+	
+	private static void escape(String value, StringBuilder line) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '\\' -> line.append("\\\\");
+				case '\t' -> line.append("\\t");
+				case '\n' -> line.append("\\n");
+				case '\r' -> line.append("\\r");
+				case '\0' -> line.append("\\0");
+				default -> line.append(c);
+			}
+		}
+	}
+	
+	private static long rate(long records, long nanos) {
+		return records * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+	}
+}
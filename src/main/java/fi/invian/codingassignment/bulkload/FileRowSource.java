@@ -0,0 +1,106 @@
+package fi.invian.codingassignment.bulkload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+// Streams the records of a CSV file with a header line, or of newline-delimited JSON (.ndjson or
+// .jsonl), optionally gzipped (.gz). Fields are named after the table columns in both formats.
+// Records are parsed one at a time, so files of any size are read in constant memory.
+public class FileRowSource<T> implements RowSource<T> {
+	
+	private final String name;
+	private final InputStream input;
+	private final MappingIterator<JsonNode> records;
+	private final Function<JsonNode, T> parser;
+	private long position;
+	
+	private FileRowSource(String table, Path file, Function<JsonNode, T> parser) throws IOException {
+		String fileName = file.getFileName().toString();
+		boolean gzipped = fileName.endsWith(".gz");
+		String format = gzipped ? fileName.substring(0, fileName.length() - 3) : fileName;
+		
+		this.name = table + ":" + fileName;
+		this.parser = parser;
+		InputStream stream = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+		this.input = gzipped ? new GZIPInputStream(stream, 1 << 16) : stream;
+		if (format.endsWith(".csv")) {
+			CsvMapper csvMapper = new CsvMapper();
+			this.records = csvMapper.readerFor(JsonNode.class).with(CsvSchema.emptySchema().withHeader()).readValues(input);
+		} else if (format.endsWith(".ndjson") || format.endsWith(".jsonl")) {
+			this.records = new ObjectMapper().readerFor(JsonNode.class).readValues(input);
+		} else {
+			input.close();
+			throw new IllegalArgumentException("Unknown input format of " + file + ", expected .csv, .ndjson or .jsonl");
+		}
+	}
+	
+	public static FileRowSource<UserRow> users(Path file) throws IOException {
+		return new FileRowSource<>("users", file, UserRow::of);
+	}
+	
+	public static FileRowSource<MessageRow> messages(Path file) throws IOException {
+		return new FileRowSource<>("messages", file, MessageRow::of);
+	}
+	
+	public static FileRowSource<RecipientRow> recipients(Path file) throws IOException {
+		return new FileRowSource<>("message_recipients", file, RecipientRow::of);
+	}
+	
+	@Override
+	public String name() {
+		return name;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		try {
+			return records.hasNextValue();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	@Override
+	public T next() {
+		try {
+			JsonNode record = records.nextValue();
+			position++;
+			return parser.apply(record);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(name + ", record " + position + ": " + e.getMessage(), e);
+		}
+	}
+	
+	// Skipped records are read but not parsed into rows
+	@Override
+	public void skip(long records) {
+		try {
+			for (long i = 0; i < records && this.records.hasNextValue(); i++) {
+				this.records.nextValue();
+				position++;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		records.close();
+		input.close();
+	}
+}
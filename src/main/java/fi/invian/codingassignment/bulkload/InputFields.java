@@ -0,0 +1,58 @@
+package fi.invian.codingassignment.bulkload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+// Field access for input records. CSV gives every field as text and NDJSON as JSON values, so both
+// are read through their text. Timestamps are ISO-8601 instants, or date and time without an offset
+// in UTC, as a database dump writes them.
+final class InputFields {
+	
+	private InputFields() {
+	}
+	
+	static long id(JsonNode record, String field) {
+		String value = text(record, field);
+		try {
+			long id = Long.parseLong(value);
+			if (id > 0) {
+				return id;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		throw new IllegalArgumentException(field + " must be a positive number, got " + value);
+	}
+	
+	static String text(JsonNode record, String field) {
+		JsonNode value = record.get(field);
+		if (value == null || value.isNull() || value.asText().isEmpty()) {
+			throw new IllegalArgumentException("Missing " + field + " in " + record);
+		}
+		return value.asText();
+	}
+	
+	static Instant instant(JsonNode record, String field, boolean optional) {
+		JsonNode value = record.get(field);
+		if (value == null || value.isNull() || value.asText().isBlank()) {
+			if (optional) {
+				return null;
+			}
+			throw new IllegalArgumentException("Missing " + field + " in " + record);
+		}
+		String text = value.asText().strip();
+		try {
+			return Instant.parse(text);
+		} catch (DateTimeParseException e) {
+			try {
+				return LocalDateTime.parse(text.replace(' ', 'T')).toInstant(ZoneOffset.UTC);
+			} catch (DateTimeParseException notLocal) {
+				throw new IllegalArgumentException(field + " must be an ISO-8601 timestamp, got " + text);
+			}
+		}
+	}
+}
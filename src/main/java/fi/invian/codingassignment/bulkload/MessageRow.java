@@ -0,0 +1,15 @@
+package fi.invian.codingassignment.bulkload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Instant;
+
+// A messages row of the bulk load input: id, sender_id, title, body (plain text) and sent_at
+public record MessageRow(long id, long senderId, String title, String body, Instant sentAt) {
+	
+	static MessageRow of(JsonNode record) {
+		return new MessageRow(InputFields.id(record, "id"), InputFields.id(record, "sender_id"),
+				InputFields.text(record, "title"), InputFields.text(record, "body"),
+				InputFields.instant(record, "sent_at", false));
+	}
+}
@@ -0,0 +1,14 @@
+package fi.invian.codingassignment.bulkload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Instant;
+
+// A message_recipients row of the bulk load input: message_id, recipient_id and read_at, empty while unread
+public record RecipientRow(long messageId, long recipientId, Instant readAt) {
+	
+	static RecipientRow of(JsonNode record) {
+		return new RecipientRow(InputFields.id(record, "message_id"), InputFields.id(record, "recipient_id"),
+				InputFields.instant(record, "read_at", true));
+	}
+}
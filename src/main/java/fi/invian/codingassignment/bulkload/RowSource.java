@@ -0,0 +1,21 @@
+package fi.invian.codingassignment.bulkload;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+// The records of one table in input order, read from a file or generated. The name identifies the
+// input in bulk_load_progress, so a rerun with the same input resumes where it stopped.
+public interface RowSource<T> extends Iterator<T>, AutoCloseable {
+	
+	String name();
+	
+	// Moves past records that an earlier run has already loaded
+	default void skip(long records) {
+		for (long i = 0; i < records && hasNext(); i++) {
+			next();
+		}
+	}
+	
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,193 @@
+package fi.invian.codingassignment.bulkload;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.LongFunction;
+
+// Generated users, messages and recipients for capacity tests, with IDs from 1 so they go into an
+// empty database. Every record is derived from the seed and its own index, so the same settings
+// give the same rows and a resumed load skips ahead without generating what it skips. Messages are
+// spread evenly over the period before today and get one to five recipients. Senders and recipients
+// are drawn uniformly, except that heavyShare of the picks go to the first heavyUsers users.
+public class SyntheticRows {
+	
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+	private static final String[] WORDS = {"meeting", "report", "update", "please", "review", "the", "attached",
+			"schedule", "project", "thanks", "tomorrow", "budget", "team", "deadline", "notes", "and", "for", "customer"};
+	private static final double READ_SHARE = 0.8;
+	
+	private final long users;
+	private final long messages;
+	private final long seed;
+	private final int heavyUsers;
+	private final double heavyShare;
+	private final Duration spread;
+	private final Instant end;
+	
+	public SyntheticRows(long users, long messages, long seed, int heavyUsers, double heavyShare, Duration spread) {
+		if (users < 1) {
+			throw new IllegalArgumentException("At least one user is required");
+		}
+		this.users = users;
+		this.messages = messages;
+		this.seed = seed;
+		this.heavyUsers = (int) Math.min(heavyUsers, users);
+		this.heavyShare = heavyShare;
+		this.spread = spread;
+		this.end = LocalDate.now(ZoneOffset.UTC).atStartOfDay(ZoneOffset.UTC).toInstant();
+	}
+	
+	public RowSource<UserRow> users() {
+		return new Indexed<>("users", users, id -> new UserRow(id, "user-" + id, end.minus(spread)));
+	}
+	
+	public RowSource<MessageRow> messages() {
+		return new Indexed<>("messages", messages, id -> {
+			SplittableRandom random = random(1, id);
+			StringBuilder body = new StringBuilder("Message ").append(id);
+			int words = 5 + random.nextInt(60);
+			for (int i = 0; i < words; i++) {
+				body.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			return new MessageRow(id, pickUser(random), "Synthetic message " + id, body.toString(), sentAt(id));
+		});
+	}
+	
+	public RowSource<RecipientRow> recipients() {
+		return new RowSource<>() {
+			private final Deque<RecipientRow> pending = new ArrayDeque<>();
+			private long messageId;
+			
+			@Override
+			public String name() {
+				return "message_recipients:" + description();
+			}
+			
+			@Override
+			public boolean hasNext() {
+				while (pending.isEmpty() && messageId < messages) {
+					messageId++;
+					SplittableRandom random = random(2, messageId);
+					int count = recipientCount(random);
+					Set<Long> recipientIds = new LinkedHashSet<>();
+					while (recipientIds.size() < count) {
+						recipientIds.add(pickUser(random));
+					}
+					for (Long recipientId : recipientIds) {
+						Instant readAt = random.nextDouble() < READ_SHARE
+								? sentAt(messageId).plusSeconds(random.nextInt(86400)) : null;
+						pending.add(new RecipientRow(messageId, recipientId, readAt));
+					}
+				}
+				return !pending.isEmpty();
+			}
+			
+			@Override
+			public RecipientRow next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return pending.poll();
+			}
+			
+			// A message's recipient count is its first draw, so whole messages are passed over without
+			// generating their recipients; only the message the skip ends in is generated
+			@Override
+			public void skip(long records) {
+				long remaining = records;
+				for (; remaining > 0 && !pending.isEmpty(); remaining--) {
+					pending.poll();
+				}
+				while (remaining > 0 && messageId < messages) {
+					int count = recipientCount(random(2, messageId + 1));
+					if (count > remaining) {
+						break;
+					}
+					messageId++;
+					remaining -= count;
+				}
+				for (; remaining > 0 && hasNext(); remaining--) {
+					pending.poll();
+				}
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+	}
+	
+	private int recipientCount(SplittableRandom random) {
+		return (int) Math.min(1 + random.nextInt(5), users);
+	}
+	
+	private long pickUser(SplittableRandom random) {
+		if (random.nextDouble() < heavyShare) {
+			return 1 + random.nextInt(heavyUsers);
+		}
+		return 1 + random.nextLong(users);
+	}
+	
+	// Increasing with the ID, as messages inserted one by one would be
+	private Instant sentAt(long messageId) {
+		return end.minus(spread).plusMillis((long) ((double) spread.toMillis() * (messageId - 1) / Math.max(1, messages)));
+	}
+	
+	private SplittableRandom random(long stream, long index) {
+		return new SplittableRandom(seed ^ (index * GOLDEN) ^ (stream << 56));
+	}
+	
+	private String description() {
+		return "synthetic(seed=" + seed + ",users=" + users + ",messages=" + messages + ")";
+	}
+	
+	// Rows whose content follows from their ID alone
+	private class Indexed<T> implements RowSource<T> {
+		
+		private final String table;
+		private final long count;
+		private final LongFunction<T> row;
+		private long id;
+		
+		Indexed(String table, long count, LongFunction<T> row) {
+			this.table = table;
+			this.count = count;
+			this.row = row;
+		}
+		
+		@Override
+		public String name() {
+			return table + ":" + description();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return id < count;
+		}
+		
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return row.apply(++id);
+		}
+		
+		@Override
+		public void skip(long records) {
+			id = Math.min(count, id + records);
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
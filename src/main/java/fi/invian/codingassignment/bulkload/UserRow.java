@@ -0,0 +1,14 @@
+package fi.invian.codingassignment.bulkload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.time.Instant;
+
+// A users row of the bulk load input: id, name and optionally created_at
+public record UserRow(long id, String name, Instant createdAt) {
+	
+	static UserRow of(JsonNode record) {
+		return new UserRow(InputFields.id(record, "id"), InputFields.text(record, "name"),
+				InputFields.instant(record, "created_at", true));
+	}
+}
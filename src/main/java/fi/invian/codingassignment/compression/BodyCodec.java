@@ -0,0 +1,64 @@
+package fi.invian.codingassignment.compression;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Storage format of messages.body. A compressed body is
+//   0xFF | compressor id | original length (4 bytes) | payload
+// and anything else is the plain UTF-8 text written before compression existed. 0xFF never occurs
+// in UTF-8, so both kinds can be told apart row by row and old rows stay readable.
+public class BodyCodec {
+	
+	static final byte MARKER = (byte) 0xFF;
+	static final int HEADER_LENGTH = 6;
+	
+	private final Map<Byte, BodyCompressor> compressors = new HashMap<>();
+	private final BodyCompressor encoder;
+	private final int minSize;
+	
+	// Every compressor stays registered for reading; encoder is the one used for writing, null to store plain text
+	public BodyCodec(List<BodyCompressor> compressors, BodyCompressor encoder, int minSize) {
+		compressors.forEach(compressor -> this.compressors.put(compressor.id(), compressor));
+		this.encoder = encoder;
+		this.minSize = minSize;
+	}
+	
+	public byte[] encode(String body) {
+		if (body == null) {
+			return null;
+		}
+		byte[] text = body.getBytes(StandardCharsets.UTF_8);
+		if (encoder == null || text.length < minSize) {
+			return text;
+		}
+		byte[] compressed = encoder.compress(text);
+		if (compressed.length + HEADER_LENGTH >= text.length) {
+			return text;
+		}
+		return ByteBuffer.allocate(HEADER_LENGTH + compressed.length)
+				.put(MARKER)
+				.put(encoder.id())
+				.putInt(text.length)
+				.put(compressed)
+				.array();
+	}
+	
+	public String decode(byte[] stored) {
+		if (stored == null) {
+			return null;
+		}
+		if (stored.length < HEADER_LENGTH || stored[0] != MARKER) {
+			return new String(stored, StandardCharsets.UTF_8);
+		}
+		BodyCompressor compressor = compressors.get(stored[1]);
+		if (compressor == null) {
+			throw new IllegalStateException("Body was compressed with unknown codec " + stored[1] + ".");
+		}
+		int originalLength = ByteBuffer.wrap(stored, 2, 4).getInt();
+		byte[] text = compressor.decompress(stored, HEADER_LENGTH, stored.length - HEADER_LENGTH, originalLength);
+		return new String(text, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,14 @@
+package fi.invian.codingassignment.compression;
+
+// One compression algorithm for message bodies. The id is persisted with every compressed body,
+// so it must never be reused for a different format.
+public interface BodyCompressor {
+	
+	byte id();
+	
+	String name();
+	
+	byte[] compress(byte[] data);
+	
+	byte[] decompress(byte[] data, int offset, int length, int originalLength);
+}
@@ -0,0 +1,89 @@
+package fi.invian.codingassignment.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// zlib deflate, optionally primed with a preset dictionary of text that recurs across bodies
+// (e.g. notification templates). The zlib header records the dictionary's Adler-32, so a body
+// written with another dictionary is detected instead of decoded into garbage.
+public class DeflateBodyCompressor implements BodyCompressor {
+	
+	static final byte ID = 1;
+	
+	private final int level;
+	private final byte[] dictionary;
+	private final long dictionaryId;
+	
+	public DeflateBodyCompressor(int level, byte[] dictionary) {
+		this.level = level;
+		this.dictionary = dictionary;
+		this.dictionaryId = dictionary == null ? -1 : adler32(dictionary);
+	}
+	
+	@Override
+	public byte id() {
+		return ID;
+	}
+	
+	@Override
+	public String name() {
+		return "deflate";
+	}
+	
+	@Override
+	public byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(level);
+		try {
+			if (dictionary != null) {
+				deflater.setDictionary(dictionary);
+			}
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+			byte[] buffer = new byte[Math.min(8192, data.length + 64)];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	@Override
+	public byte[] decompress(byte[] data, int offset, int length, int originalLength) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, offset, length);
+			byte[] out = new byte[originalLength];
+			int written = 0;
+			while (written < originalLength) {
+				int inflated = inflater.inflate(out, written, originalLength - written);
+				if (inflated == 0) {
+					if (!inflater.needsDictionary()) {
+						throw new IllegalStateException("Compressed body is truncated.");
+					}
+					if (dictionary == null || inflater.getAdler() != dictionaryId) {
+						throw new IllegalStateException("Body was compressed with a dictionary that is not configured.");
+					}
+					inflater.setDictionary(dictionary);
+				}
+				written += inflated;
+			}
+			return out;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Compressed body is corrupt.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	private static long adler32(byte[] data) {
+		Adler32 adler32 = new Adler32();
+		adler32.update(data);
+		return adler32.getValue();
+	}
+}
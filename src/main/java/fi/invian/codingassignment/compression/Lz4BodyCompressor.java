@@ -0,0 +1,45 @@
+package fi.invian.codingassignment.compression;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+// LZ4 block format: a lower ratio than deflate but several times faster to decode
+public class Lz4BodyCompressor implements BodyCompressor {
+	
+	static final byte ID = 2;
+	
+	private final LZ4Compressor compressor;
+	private final LZ4SafeDecompressor decompressor;
+	
+	public Lz4BodyCompressor() {
+		LZ4Factory factory = LZ4Factory.fastestInstance();
+		this.compressor = factory.fastCompressor();
+		this.decompressor = factory.safeDecompressor();
+	}
+	
+	@Override
+	public byte id() {
+		return ID;
+	}
+	
+	@Override
+	public String name() {
+		return "lz4";
+	}
+	
+	@Override
+	public byte[] compress(byte[] data) {
+		return compressor.compress(data);
+	}
+	
+	@Override
+	public byte[] decompress(byte[] data, int offset, int length, int originalLength) {
+		byte[] out = new byte[originalLength];
+		int written = decompressor.decompress(data, offset, length, out, 0, originalLength);
+		if (written != originalLength) {
+			throw new IllegalStateException("Compressed body is truncated.");
+		}
+		return out;
+	}
+}
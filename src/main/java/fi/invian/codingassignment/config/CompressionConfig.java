@@ -0,0 +1,39 @@
+package fi.invian.codingassignment.config;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.BodyCompressor;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import fi.invian.codingassignment.compression.Lz4BodyCompressor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+@Configuration
+public class CompressionConfig {
+	
+	@Bean
+	public BodyCodec bodyCodec(@Value("${messaging.body-compression.codec:deflate}") String codec,
+							   @Value("${messaging.body-compression.min-size:128}") int minSize,
+							   @Value("${messaging.body-compression.deflate-level:6}") int deflateLevel,
+							   @Value("${messaging.body-compression.dictionary-path:}") String dictionaryPath) throws IOException {
+		// The dictionary must stay available for as long as rows compressed with it exist
+		byte[] dictionary = dictionaryPath.isEmpty() ? null : Files.readAllBytes(Path.of(dictionaryPath));
+		List<BodyCompressor> compressors = List.of(
+				new DeflateBodyCompressor(deflateLevel, dictionary),
+				new Lz4BodyCompressor());
+		
+		BodyCompressor encoder = null;
+		if (!codec.equals("none")) {
+			encoder = compressors.stream()
+					.filter(compressor -> compressor.name().equals(codec))
+					.findFirst()
+					.orElseThrow(() -> new IllegalArgumentException("Unknown body compression codec " + codec + "."));
+		}
+		return new BodyCodec(compressors, encoder, minSize);
+	}
+}
@@ -0,0 +1,23 @@
+package fi.invian.codingassignment.config;
+
+import fi.invian.codingassignment.heavyhitters.WindowedTopSenders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "messaging.heavy-hitters.enabled", havingValue = "true")
+public class HeavyHitterConfig {
+	
+	// Memory is bounded by (coarse-slice / slice + retention / coarse-slice) summaries of 1 / max-error-rate counters
+	@Bean
+	public WindowedTopSenders windowedTopSenders(@Value("${messaging.heavy-hitters.max-error-rate:0.001}") double maxErrorRate,
+												 @Value("${messaging.heavy-hitters.slice:1m}") Duration slice,
+												 @Value("${messaging.heavy-hitters.coarse-slice:1h}") Duration coarseSlice,
+												 @Value("${messaging.heavy-hitters.retention:24h}") Duration retention) {
+		return new WindowedTopSenders(maxErrorRate, slice, coarseSlice, retention);
+	}
+}
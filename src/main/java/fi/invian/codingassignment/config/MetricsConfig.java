@@ -0,0 +1,43 @@
+package fi.invian.codingassignment.config;
+
+import fi.invian.codingassignment.metrics.SqlAccountingDataSource;
+import fi.invian.codingassignment.metrics.SqlAccountingInterceptor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class MetricsConfig implements WebMvcConfigurer {
+	
+	private final MeterRegistry meterRegistry;
+	
+	public MetricsConfig(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+	
+	// Static so the post-processor is registered before the DataSource is created
+	@Bean
+	public static BeanPostProcessor sqlAccountingDataSourcePostProcessor() {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (bean instanceof DataSource dataSource && !(bean instanceof SqlAccountingDataSource)) {
+					return new SqlAccountingDataSource(dataSource);
+				}
+				return bean;
+			}
+		};
+	}
+	
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new SqlAccountingInterceptor(meterRegistry));
+	}
+}
@@ -0,0 +1,46 @@
+package fi.invian.codingassignment.config;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+@Configuration
+@Profile("reactive")
+public class ReactiveConfig implements DisposableBean {
+	
+	// The pool is deliberately not exposed as a ConnectionFactory bean: its presence would switch off
+	// the JDBC DataSource auto-configuration that the write path and JPA still depend on.
+	private final ConnectionPool connectionPool;
+	
+	public ReactiveConfig(@Value("${messaging.reactive.r2dbc.url}") String url,
+						  @Value("${messaging.reactive.r2dbc.username}") String username,
+						  @Value("${messaging.reactive.r2dbc.password}") String password,
+						  @Value("${messaging.reactive.r2dbc.pool.initial-size:10}") int initialSize,
+						  @Value("${messaging.reactive.r2dbc.pool.max-size:50}") int maxSize) {
+		ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+				.option(ConnectionFactoryOptions.USER, username)
+				.option(ConnectionFactoryOptions.PASSWORD, password)
+				.build();
+		this.connectionPool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+				.initialSize(initialSize)
+				.maxSize(maxSize)
+				.build());
+	}
+	
+	@Bean
+	public DatabaseClient databaseClient() {
+		return DatabaseClient.create(connectionPool);
+	}
+	
+	@Override
+	public void destroy() {
+		connectionPool.dispose();
+	}
+}
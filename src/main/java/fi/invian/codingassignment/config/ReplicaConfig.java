@@ -0,0 +1,86 @@
+package fi.invian.codingassignment.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import fi.invian.codingassignment.replica.Replica;
+import fi.invian.codingassignment.replica.ReplicaHealthChecker;
+import fi.invian.codingassignment.replica.ReplicaRoutingDataSource;
+import fi.invian.codingassignment.replica.ReplicaSet;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.TaskScheduler;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Replaces the auto-configured DataSource with one that routes read-only transactions to replicas.
+// The primary pool is configured from spring.datasource.*, the replica pools copy its Hikari
+// settings with their own URLs.
+@Configuration
+@ConditionalOnProperty(name = "messaging.replicas.enabled", havingValue = "true")
+public class ReplicaConfig {
+	
+	@Bean(destroyMethod = "close")
+	public ReplicaSet replicaSet(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry,
+								 @Value("${messaging.replicas.urls}") List<String> urls,
+								 @Value("${messaging.replicas.username:${spring.datasource.username}}") String username,
+								 @Value("${messaging.replicas.password:${spring.datasource.password}}") String password) {
+		HikariDataSource primary = pool(properties, environment, meterRegistry);
+		List<Replica> replicas = new ArrayList<>();
+		for (int i = 0; i < urls.size(); i++) {
+			HikariDataSource pool = pool(properties, environment, meterRegistry);
+			String name = "replica-" + (i + 1);
+			pool.setPoolName(name);
+			pool.setJdbcUrl(urls.get(i).trim());
+			pool.setUsername(username);
+			pool.setPassword(password);
+			Replica replica = new Replica(name, pool);
+			Gauge.builder("messaging.replica.lag", replica, r -> r.getLag().toMillis() / 1000.0)
+					.baseUnit("seconds")
+					.tag("replica", name)
+					.register(meterRegistry);
+			Gauge.builder("messaging.replica.healthy", replica, r -> r.isHealthy() ? 1 : 0)
+					.tag("replica", name)
+					.register(meterRegistry);
+			replicas.add(replica);
+		}
+		return new ReplicaSet(primary, replicas);
+	}
+	
+	@Bean
+	public DataSource dataSource(ReplicaSet replicaSet,
+								 @Value("${messaging.replicas.max-lag:5s}") Duration maxLag) {
+		return new LazyConnectionDataSourceProxy(
+				new ReplicaRoutingDataSource(replicaSet.primary(), replicaSet.replicas(), maxLag));
+	}
+	
+	@Bean(destroyMethod = "stop")
+	public ReplicaHealthChecker replicaHealthChecker(ReplicaSet replicaSet, TaskScheduler taskScheduler,
+													 @Value("${messaging.replicas.lag-query:}") String lagQuery,
+													 @Value("${messaging.replicas.health-check-interval:5s}") Duration interval) {
+		ReplicaHealthChecker checker = new ReplicaHealthChecker(replicaSet.replicas(), lagQuery, 2);
+		// First check before the application takes traffic, so replicas are used from the start
+		checker.check();
+		checker.start(taskScheduler, interval);
+		return checker;
+	}
+	
+	// A pool with the primary's settings, also used for the inbox shards
+	static HikariDataSource pool(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry) {
+		HikariDataSource pool = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+		pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+		return pool;
+	}
+}
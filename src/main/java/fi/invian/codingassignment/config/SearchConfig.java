@@ -0,0 +1,29 @@
+package fi.invian.codingassignment.config;
+
+import fi.invian.codingassignment.search.MessageSearchIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+@ConditionalOnProperty(name = "messaging.search.enabled", havingValue = "true")
+public class SearchConfig {
+	
+	// Closing commits what was indexed since the last interval
+	@Bean(destroyMethod = "close")
+	public MessageSearchIndex messageSearchIndex(TaskScheduler taskScheduler,
+												 @Value("${messaging.search.directory:data/search}") Path directory,
+												 @Value("${messaging.search.recency-half-life:30d}") Duration recencyHalfLife,
+												 @Value("${messaging.search.refresh-interval:1s}") Duration refreshInterval,
+												 @Value("${messaging.search.commit-interval:30s}") Duration commitInterval) throws IOException {
+		MessageSearchIndex index = new MessageSearchIndex(directory, recencyHalfLife);
+		index.start(taskScheduler, refreshInterval, commitInterval);
+		return index;
+	}
+}
@@ -0,0 +1,48 @@
+package fi.invian.codingassignment.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import fi.invian.codingassignment.shard.InboxShards;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// Connection pools of the inbox shards, in the order of messaging.shards.urls. They copy the
+// primary's Hikari settings with their own URLs, like the replica pools.
+@Configuration
+@ConditionalOnProperty(name = "messaging.shards.enabled", havingValue = "true")
+public class ShardConfig {
+	
+	@Bean(destroyMethod = "close")
+	public InboxShards inboxShards(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry,
+								   @Value("${messaging.shards.urls}") List<String> urls,
+								   @Value("${messaging.shards.username:${spring.datasource.username}}") String username,
+								   @Value("${messaging.shards.password:${spring.datasource.password}}") String password,
+								   @Value("${messaging.shards.initialize-schema:true}") boolean initializeSchema,
+								   @Value("${messaging.shards.write-attempts:3}") int writeAttempts,
+								   @Value("${messaging.shards.retry-delay:100ms}") Duration retryDelay) {
+		List<DataSource> pools = new ArrayList<>();
+		for (int i = 0; i < urls.size(); i++) {
+			HikariDataSource pool = ReplicaConfig.pool(properties, environment, meterRegistry);
+			pool.setPoolName("shard-" + (i + 1));
+			pool.setJdbcUrl(urls.get(i).trim());
+			pool.setUsername(username);
+			pool.setPassword(password);
+			if (initializeSchema) {
+				new ResourceDatabasePopulator(new ClassPathResource("schema/shard/01-shard-schema.sql")).execute(pool);
+			}
+			pools.add(pool);
+		}
+		return new InboxShards(pools, writeAttempts, retryDelay);
+	}
+}
@@ -0,0 +1,86 @@
+package fi.invian.codingassignment.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.util.List;
+
+// Clients that send Accept: application/cbor or application/x-jackson-smile get the binary
+// representation from WireFormats; everything else stays JSON. The binary converters are kept
+// after the JSON one, so JSON remains the choice for Accept: */* and for requests without Accept.
+// Only objects are written in the binary formats: plain text responses, like the send confirmations
+// and error messages, stay text/plain when one of them was asked for.
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class WireFormatConfig implements WebMvcConfigurer {
+	
+	@Override
+	public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+		converters.removeIf(converter -> converter instanceof MappingJackson2CborHttpMessageConverter
+				|| converter instanceof MappingJackson2SmileHttpMessageConverter);
+		int position = converters.size();
+		for (int i = 0; i < converters.size(); i++) {
+			if (converters.get(i) instanceof MappingJackson2HttpMessageConverter) {
+				position = i + 1;
+			}
+		}
+		converters.add(position, new ObjectSmileConverter());
+		converters.add(position, new ObjectCborConverter());
+		converters.replaceAll(converter -> converter instanceof StringHttpMessageConverter string
+				? new PlainTextConverter(string) : converter);
+	}
+	
+	private static boolean isBinary(MediaType mediaType) {
+		return mediaType != null && (MediaType.APPLICATION_CBOR.equalsTypeAndSubtype(mediaType)
+				|| WireFormats.SMILE.equalsTypeAndSubtype(mediaType));
+	}
+	
+	private static class ObjectCborConverter extends MappingJackson2CborHttpMessageConverter {
+		
+		ObjectCborConverter() {
+			super(WireFormats.cborMapper());
+		}
+		
+		@Override
+		public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+			return !CharSequence.class.isAssignableFrom(clazz) && super.canWrite(clazz, mediaType);
+		}
+	}
+	
+	private static class ObjectSmileConverter extends MappingJackson2SmileHttpMessageConverter {
+		
+		ObjectSmileConverter() {
+			super(WireFormats.smileMapper());
+		}
+		
+		@Override
+		public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+			return !CharSequence.class.isAssignableFrom(clazz) && super.canWrite(clazz, mediaType);
+		}
+	}
+	
+	// The String converter takes any media type, so without this a String would go out unchanged
+	// but labelled as CBOR or Smile
+	private static class PlainTextConverter extends StringHttpMessageConverter {
+		
+		PlainTextConverter(StringHttpMessageConverter original) {
+			super(original.getDefaultCharset());
+			setSupportedMediaTypes(original.getSupportedMediaTypes());
+			setWriteAcceptCharset(false);
+		}
+		
+		@Override
+		protected void addDefaultHeaders(HttpHeaders headers, String text, MediaType contentType) throws IOException {
+			super.addDefaultHeaders(headers, text, isBinary(contentType) ? MediaType.TEXT_PLAIN : contentType);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package fi.invian.codingassignment.config;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.springframework.data.domain.Page;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Object mappers for the binary representations (CBOR and Smile) of the API responses. Compared
+// to JSON they write instants as epoch milliseconds, leave out null fields and reduce a Page to
+// its content and counts. Smile additionally refers back to field names it has already written,
+// so the names of a page's items are sent once.
+public final class WireFormats {
+	
+	public static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+	
+	// In the order of the converters, so JSON wins wherever the Accept header allows it
+	private static final List<MediaType> REPRESENTATIONS = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, SMILE);
+	
+	private WireFormats() {
+	}
+	
+	// The format an object response is written in for these Accept values, chosen like the
+	// converters do: the most specific and preferred accepted type first, then the converter order
+	public static MediaType representation(List<MediaType> accepted) {
+		List<MediaType> sorted = new ArrayList<>(accepted);
+		MimeTypeUtils.sortBySpecificity(sorted);
+		for (MediaType type : sorted) {
+			for (MediaType representation : REPRESENTATIONS) {
+				if (type.isCompatibleWith(representation)) {
+					return representation;
+				}
+			}
+		}
+		return MediaType.APPLICATION_JSON;
+	}
+	
+	public static ObjectMapper cborMapper() {
+		return configure(Jackson2ObjectMapperBuilder.cbor());
+	}
+	
+	public static ObjectMapper smileMapper() {
+		return configure(Jackson2ObjectMapperBuilder.smile());
+	}
+	
+	private static ObjectMapper configure(Jackson2ObjectMapperBuilder builder) {
+		SimpleModule pages = new SimpleModule("PageEnvelope");
+		pages.addSerializer(new PageEnvelopeSerializer());
+		return builder
+				.featuresToEnable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+				.featuresToDisable(SerializationFeature.WRITE_DATE_TIMESTAMPS_AS_NANOSECONDS,
+						DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS)
+				.serializationInclusion(JsonInclude.Include.NON_NULL)
+				.modulesToInstall(pages)
+				.build();
+	}
+	
+	// {content, number, size, totalElements, totalPages} instead of PageImpl with its pageable and sort
+	@SuppressWarnings("rawtypes")
+	static class PageEnvelopeSerializer extends StdSerializer<Page> {
+		
+		PageEnvelopeSerializer() {
+			super(Page.class);
+		}
+		
+		@Override
+		public void serialize(Page page, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			generator.writeStartObject();
+			provider.defaultSerializeField("content", page.getContent(), generator);
+			generator.writeNumberField("number", page.getNumber());
+			generator.writeNumberField("size", page.getSize());
+			generator.writeNumberField("totalElements", page.getTotalElements());
+			generator.writeNumberField("totalPages", page.getTotalPages());
+			generator.writeEndObject();
+		}
+	}
+}
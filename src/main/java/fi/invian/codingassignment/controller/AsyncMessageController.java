@@ -0,0 +1,43 @@
+package fi.invian.codingassignment.controller;
+
+import fi.invian.codingassignment.admission.SenderRateLimiter;
+import fi.invian.codingassignment.async.AsyncSendPipeline;
+import fi.invian.codingassignment.dto.AsyncSendStatus;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import jakarta.validation.Valid;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+
+@RestController
+@RequestMapping("/messages/async")
+@Validated
+@Profile("!reactive")
+@ConditionalOnProperty(name = "messaging.async.enabled", havingValue = "true")
+public class AsyncMessageController {
+	private final AsyncSendPipeline asyncSendPipeline;
+	private final SenderRateLimiter senderRateLimiter;
+	
+	public AsyncMessageController(AsyncSendPipeline asyncSendPipeline, SenderRateLimiter senderRateLimiter) {
+		this.asyncSendPipeline = asyncSendPipeline;
+		this.senderRateLimiter = senderRateLimiter;
+	}
+	
+	@PostMapping
+	public ResponseEntity<AsyncSendStatus> sendMessage(@Valid @RequestBody SendMessageRequest request,
+													   UriComponentsBuilder uriBuilder) {
+		senderRateLimiter.acquire(request.getSenderId(), 1);
+		AsyncSendStatus status = asyncSendPipeline.submit(request);
+		return ResponseEntity.accepted()
+				.location(uriBuilder.path("/messages/async/{trackingId}").build(status.trackingId()))
+				.body(status);
+	}
+	
+	@GetMapping("/{trackingId}")
+	public ResponseEntity<AsyncSendStatus> getStatus(@PathVariable("trackingId") String trackingId) {
+		return ResponseEntity.of(asyncSendPipeline.getStatus(trackingId));
+	}
+}
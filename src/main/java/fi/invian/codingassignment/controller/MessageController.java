@@ -1,57 +1,242 @@
 package fi.invian.codingassignment.controller;
 
+import fi.invian.codingassignment.admission.SenderRateLimiter;
+import fi.invian.codingassignment.config.WireFormats;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.CursorPage;
+import fi.invian.codingassignment.dto.MarkReadRequest;
 import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
 import fi.invian.codingassignment.dto.SendMessageRequest;
 import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.dto.UnreadCountResponse;
+import fi.invian.codingassignment.exception.InvalidWindowException;
+import fi.invian.codingassignment.heavyhitters.SenderSketch;
+import fi.invian.codingassignment.service.ContentVersions;
+import fi.invian.codingassignment.service.IdempotentSendService;
 import fi.invian.codingassignment.service.MessageService;
+import fi.invian.codingassignment.service.WindowedStatisticsService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.validation.Valid;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/messages")
 @Validated
+@Profile("!reactive")
 public class MessageController {
 	private final MessageService messageService;
+	private final IdempotentSendService idempotentSendService;
+	private final SenderRateLimiter senderRateLimiter;
+	private final ContentVersions contentVersions;
+	private final ObjectProvider<WindowedStatisticsService> windowedStatisticsService;
+	private final boolean conditionalRequests;
+	private final int retentionDays;
 	
-	public MessageController(MessageService messageService) {
+	public MessageController(MessageService messageService, IdempotentSendService idempotentSendService,
+							 SenderRateLimiter senderRateLimiter, ContentVersions contentVersions,
+							 ObjectProvider<WindowedStatisticsService> windowedStatisticsService,
+							 @Value("${messaging.etag.enabled:false}") boolean conditionalRequests,
+							 @Value("${messaging.statistics.retention-days:90}") int retentionDays) {
 		this.messageService = messageService;
+		this.idempotentSendService = idempotentSendService;
+		this.senderRateLimiter = senderRateLimiter;
+		this.contentVersions = contentVersions;
+		this.windowedStatisticsService = windowedStatisticsService;
+		this.conditionalRequests = conditionalRequests;
+		this.retentionDays = retentionDays;
 	}
 	
+	// With an Idempotency-Key, a retry returns the message sent by the first attempt and is marked
+	// with Idempotent-Replayed; a replay is answered even while the sender is rate limited
 	@PostMapping
-	public ResponseEntity<String> sendMessage(@Valid @RequestBody SendMessageRequest request) {
-		Long messageId = messageService.sendMessage(request);
-		return ResponseEntity.ok("Message sent successfully! ID: " + messageId);
+	public ResponseEntity<String> sendMessage(
+			@RequestHeader(value = "Idempotency-Key", required = false)
+			@Size(min = 1, max = 255, message = "Idempotency key must be 1 to 255 characters.") String idempotencyKey,
+			@Valid @RequestBody SendMessageRequest request) {
+		if (idempotencyKey == null) {
+			senderRateLimiter.acquire(request.getSenderId(), 1);
+			Long messageId = messageService.sendMessage(request);
+			return ResponseEntity.ok("Message sent successfully! ID: " + messageId);
+		}
+		IdempotentSendService.SendOutcome outcome = idempotentSendService.sendMessage(idempotencyKey, request);
+		return ResponseEntity.ok()
+				.header("Idempotent-Replayed", Boolean.toString(outcome.replayed()))
+				.body("Message sent successfully! ID: " + outcome.messageId());
 	}
 	
+	@PostMapping("/batch")
+	public ResponseEntity<List<BatchSendResult>> sendMessages(
+			@RequestBody
+			@NotEmpty(message = "Batch must not be empty.")
+			@Size(max = 5000, message = "A batch can contain a maximum of 5000 messages.")
+			List<@Valid SendMessageRequest> requests) {
+		senderRateLimiter.acquireAll(requests.stream()
+				.collect(Collectors.groupingBy(SendMessageRequest::getSenderId, TreeMap::new, Collectors.summingInt(request -> 1))));
+		return ResponseEntity.ok(messageService.sendMessages(requests));
+	}
+	
+	// Full message including the body; recipientId is the user reading it and must be one of its recipients
+	@GetMapping("/{id}")
+	public ResponseEntity<MessageResponse> getMessage(
+			@PathVariable("id") Long messageId,
+			@RequestParam @Positive(message = "Recipient ID must be a positive number.") Long recipientId) {
+		return ResponseEntity.ok(messageService.getMessage(messageId, recipientId));
+	}
+	
+	// Listing of summaries, the body is loaded on demand by getMessage
 	@GetMapping("/users/{id}")
-	public ResponseEntity<Page<MessageResponse>> getMessages(
+	public ResponseEntity<Page<MessageSummaryResponse>> getMessages(
 			@PathVariable("id") Long userId,
 			@RequestParam(defaultValue = "0") @PositiveOrZero(message = "Page must be a positive number or zero.") int page,
-			@RequestParam(defaultValue = "10") @Positive(message = "Size must be at least 1.") int size) {
+			@RequestParam(defaultValue = "10") @Positive(message = "Size must be at least 1.") int size,
+			ServletWebRequest webRequest) {
 		
+		if (isNotModified(webRequest, contentVersions.inboxETag(userId, representation(webRequest)))) {
+			return null;
+		}
 		Pageable pageable = PageRequest.of(page, size, Sort.by("sentAt").descending());
-		Page<MessageResponse> messages = messageService.getUserMessages(userId, pageable);
+		Page<MessageSummaryResponse> messages = messageService.getUserMessages(userId, pageable);
 		return ResponseEntity.ok(messages);
 	}
 	
+	// Keyset mode: an empty cursor starts from the newest message
+	@GetMapping(value = "/users/{id}", params = "cursor")
+	public ResponseEntity<CursorPage<MessageSummaryResponse>> getMessagesByCursor(
+			@PathVariable("id") Long userId,
+			@RequestParam String cursor,
+			@RequestParam(defaultValue = "10")
+			@Positive(message = "Size must be at least 1.")
+			@Max(value = 100, message = "Size cannot exceed 100.") int size,
+			ServletWebRequest webRequest) {
+		
+		if (isNotModified(webRequest, contentVersions.inboxETag(userId, representation(webRequest)))) {
+			return null;
+		}
+		CursorPage<MessageSummaryResponse> messages = messageService.getUserMessages(userId, cursor, size);
+		return ResponseEntity.ok(messages);
+	}
+	
+	// Marks any number of the user's messages as read in one call and returns the new unread count
+	@PostMapping("/users/{id}/read")
+	public ResponseEntity<UnreadCountResponse> markAsRead(
+			@PathVariable("id") Long userId,
+			@Valid @RequestBody MarkReadRequest request) {
+		return ResponseEntity.ok(messageService.markAsRead(userId, request.getMessageIds()));
+	}
+	
+	// Served from a per-user counter, shares the inbox ETag since sends and reads change both
+	@GetMapping("/users/{id}/unread-count")
+	public ResponseEntity<UnreadCountResponse> getUnreadCount(@PathVariable("id") Long userId, ServletWebRequest webRequest) {
+		if (isNotModified(webRequest, contentVersions.inboxETag(userId, representation(webRequest)))) {
+			return null;
+		}
+		return ResponseEntity.ok(messageService.getUnreadCount(userId));
+	}
+	
+	@GetMapping(value = "/users/{id}/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> exportMessages(@PathVariable("id") Long userId) {
+		messageService.requireUser(userId);
+		StreamingResponseBody body = out -> messageService.exportUserMessages(userId, out);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+	}
+	
+	// With a window such as 5m, 1h or 1d, answered from the in-memory sketches instead of the daily
+	// buckets: counts are lower bounds that may be short by the Sent-Count-Max-Error header, and there
+	// is no ETag since the window moves without sends
 	@GetMapping("/statistics/top-senders")
 	public ResponseEntity<List<StatisticsResponse>> getTopSenders(
-			@RequestParam(defaultValue = "10") @Positive(message = "Size must be at least 1.") int limit) {
-		Instant fromDate = Instant.now().minus(Duration.ofDays(30));
+			@RequestParam(defaultValue = "10") @Positive(message = "Size must be at least 1.") int limit,
+			// Bounded by messaging.statistics.retention-days, older buckets are compacted away
+			@RequestParam(defaultValue = "30") @Positive(message = "Days must be at least 1.") int days,
+			@RequestParam(required = false) String window,
+			ServletWebRequest webRequest) {
+		if (window != null) {
+			WindowedStatisticsService.TopSenders topSenders = windowedStatistics().getTopSenders(parseWindow(window), limit);
+			return ResponseEntity.ok()
+					.header("Sent-Count-Max-Error", Long.toString(topSenders.maxError()))
+					.body(topSenders.senders());
+		}
+		if (days > retentionDays) {
+			throw new InvalidWindowException("Days cannot exceed " + retentionDays + ".");
+		}
+		Instant fromDate = Instant.now().minus(Duration.ofDays(days));
+		if (isNotModified(webRequest, contentVersions.statisticsETag(fromDate, representation(webRequest)))) {
+			return null;
+		}
 		List<StatisticsResponse> stats = messageService.getTopSenders(fromDate, limit);
 		return ResponseEntity.ok(stats);
 	}
+	
+	// This instance's summary of the window, to be merged with those of the other instances
+	@GetMapping("/statistics/top-senders/sketch")
+	public ResponseEntity<SenderSketch> getTopSenderSketch(@RequestParam String window) {
+		return ResponseEntity.ok(windowedStatistics().getSketch(parseWindow(window)));
+	}
+	
+	private WindowedStatisticsService windowedStatistics() {
+		WindowedStatisticsService service = windowedStatisticsService.getIfAvailable();
+		if (service == null) {
+			throw new InvalidWindowException("Windowed statistics are not enabled.");
+		}
+		return service;
+	}
+	
+	private static Duration parseWindow(String window) {
+		try {
+			return DurationStyle.detectAndParse(window);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidWindowException("Window " + window + " is not a duration such as 5m, 1h or 1d.");
+		}
+	}
+	
+	// Checked before the service is called, so a matching If-None-Match is answered with 304 without
+	// a query. Otherwise the ETag is set on the response, taken before the data is read. The tag
+	// depends on the wire format, so caches are told that the response varies with Accept.
+	private boolean isNotModified(ServletWebRequest webRequest, String eTag) {
+		if (!conditionalRequests) {
+			return false;
+		}
+		webRequest.getResponse().addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+		return webRequest.checkNotModified(eTag);
+	}
+	
+	// An Accept header that does not parse fails the content negotiation later on
+	private static MediaType representation(ServletWebRequest webRequest) {
+		String[] accept = webRequest.getHeaderValues(HttpHeaders.ACCEPT);
+		if (accept == null) {
+			return MediaType.APPLICATION_JSON;
+		}
+		try {
+			return WireFormats.representation(MediaType.parseMediaTypes(List.of(accept)));
+		} catch (InvalidMediaTypeException e) {
+			return MediaType.APPLICATION_JSON;
+		}
+	}
 }
\ No newline at end of file
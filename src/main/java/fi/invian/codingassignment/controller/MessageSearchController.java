@@ -0,0 +1,39 @@
+package fi.invian.codingassignment.controller;
+
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.service.MessageSearchService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/messages")
+@Validated
+@Profile("!reactive")
+@ConditionalOnProperty(name = "messaging.search.enabled", havingValue = "true")
+public class MessageSearchController {
+	private final MessageSearchService messageSearchService;
+	
+	public MessageSearchController(MessageSearchService messageSearchService) {
+		this.messageSearchService = messageSearchService;
+	}
+	
+	// Messages of the user containing every word of q in the title or body, best match first
+	@GetMapping("/users/{id}/search")
+	public ResponseEntity<List<MessageSummaryResponse>> searchMessages(
+			@PathVariable("id") Long userId,
+			@RequestParam @NotBlank(message = "Query must not be empty.") @Size(max = 200, message = "Query cannot exceed 200 characters.") String q,
+			@RequestParam(defaultValue = "10")
+			@Positive(message = "Size must be at least 1.")
+			@Max(value = 50, message = "Size cannot exceed 50.") int size) {
+		return ResponseEntity.ok(messageSearchService.searchMessages(userId, q, size));
+	}
+}
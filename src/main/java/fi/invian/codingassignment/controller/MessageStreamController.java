@@ -0,0 +1,29 @@
+package fi.invian.codingassignment.controller;
+
+import fi.invian.codingassignment.stream.MessageStreamHub;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/messages")
+@Profile("!reactive")
+@ConditionalOnProperty(name = "messaging.stream.enabled", havingValue = "true")
+public class MessageStreamController {
+	private final MessageStreamHub messageStreamHub;
+	
+	public MessageStreamController(MessageStreamHub messageStreamHub) {
+		this.messageStreamHub = messageStreamHub;
+	}
+	
+	// Server-sent events with the messages the user receives; a reconnecting client sends the id of
+	// the last event it got and first receives what it missed
+	@GetMapping(value = "/users/{id}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamMessages(
+			@PathVariable("id") Long userId,
+			@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+		return messageStreamHub.subscribe(userId, lastEventId);
+	}
+}
@@ -0,0 +1,125 @@
+package fi.invian.codingassignment.controller;
+
+import fi.invian.codingassignment.admission.SenderRateLimiter;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.dto.UnreadCountResponse;
+import fi.invian.codingassignment.exception.InvalidWindowException;
+import fi.invian.codingassignment.service.IdempotentSendService;
+import fi.invian.codingassignment.service.MessageService;
+import fi.invian.codingassignment.service.ReactiveMessageService;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+// Endpoints of MessageController on WebFlux, served by the "reactive" profile. Reads go through
+// R2DBC; sends use the same JDBC write path as the servlet stack on the bounded elastic scheduler,
+// so they never block an event loop thread. Responses have the same shapes as the servlet stack.
+@RestController
+@RequestMapping("/messages")
+@Validated
+@Profile("reactive")
+public class ReactiveMessageController {
+	private final ReactiveMessageService reactiveMessageService;
+	private final MessageService messageService;
+	private final IdempotentSendService idempotentSendService;
+	private final SenderRateLimiter senderRateLimiter;
+	private final int retentionDays;
+	
+	public ReactiveMessageController(ReactiveMessageService reactiveMessageService, MessageService messageService,
+									 IdempotentSendService idempotentSendService, SenderRateLimiter senderRateLimiter,
+									 @Value("${messaging.statistics.retention-days:90}") int retentionDays) {
+		this.reactiveMessageService = reactiveMessageService;
+		this.messageService = messageService;
+		this.idempotentSendService = idempotentSendService;
+		this.senderRateLimiter = senderRateLimiter;
+		this.retentionDays = retentionDays;
+	}
+	
+	@PostMapping
+	public Mono<ResponseEntity<String>> sendMessage(
+			@RequestHeader(value = "Idempotency-Key", required = false)
+			@Size(min = 1, max = 255, message = "Idempotency key must be 1 to 255 characters.") String idempotencyKey,
+			@Valid @RequestBody SendMessageRequest request) {
+		return Mono.fromCallable(() -> {
+			if (idempotencyKey == null) {
+				senderRateLimiter.acquire(request.getSenderId(), 1);
+				Long messageId = messageService.sendMessage(request);
+				return ResponseEntity.ok("Message sent successfully! ID: " + messageId);
+			}
+			IdempotentSendService.SendOutcome outcome = idempotentSendService.sendMessage(idempotencyKey, request);
+			return ResponseEntity.ok()
+					.header("Idempotent-Replayed", Boolean.toString(outcome.replayed()))
+					.body("Message sent successfully! ID: " + outcome.messageId());
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+	
+	@PostMapping("/batch")
+	public Mono<List<BatchSendResult>> sendMessages(
+			@RequestBody
+			@NotEmpty(message = "Batch must not be empty.")
+			@Size(max = 5000, message = "A batch can contain a maximum of 5000 messages.")
+			List<@Valid SendMessageRequest> requests) {
+		return Mono.fromCallable(() -> {
+			senderRateLimiter.acquireAll(requests.stream()
+					.collect(Collectors.groupingBy(SendMessageRequest::getSenderId, TreeMap::new, Collectors.summingInt(request -> 1))));
+			return messageService.sendMessages(requests);
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+	
+	@GetMapping("/{id}")
+	public Mono<MessageResponse> getMessage(
+			@PathVariable("id") Long messageId,
+			@RequestParam @Positive(message = "Recipient ID must be a positive number.") Long recipientId) {
+		return reactiveMessageService.getMessage(messageId, recipientId);
+	}
+	
+	@GetMapping("/users/{id}")
+	public Mono<Page<MessageSummaryResponse>> getMessages(
+			@PathVariable("id") Long userId,
+			@RequestParam(defaultValue = "0") @PositiveOrZero(message = "Page must be a positive number or zero.") int page,
+			@RequestParam(defaultValue = "10") @Positive(message = "Size must be at least 1.") int size) {
+		
+		Pageable pageable = PageRequest.of(page, size, Sort.by("sentAt").descending());
+		return reactiveMessageService.getUserMessages(userId, pageable);
+	}
+	
+	@GetMapping("/users/{id}/unread-count")
+	public Mono<UnreadCountResponse> getUnreadCount(@PathVariable("id") Long userId) {
+		return reactiveMessageService.getUnreadCount(userId);
+	}
+	
+	@GetMapping("/statistics/top-senders")
+	public Flux<StatisticsResponse> getTopSenders(
+			@RequestParam(defaultValue = "10") @Positive(message = "Size must be at least 1.") int limit,
+			@RequestParam(defaultValue = "30") @Positive(message = "Days must be at least 1.") int days) {
+		if (days > retentionDays) {
+			return Flux.error(new InvalidWindowException("Days cannot exceed " + retentionDays + "."));
+		}
+		Instant fromDate = Instant.now().minus(Duration.ofDays(days));
+		return reactiveMessageService.getTopSenders(fromDate, limit);
+	}
+}
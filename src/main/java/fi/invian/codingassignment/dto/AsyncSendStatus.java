@@ -0,0 +1,28 @@
+package fi.invian.codingassignment.dto;
+
+public record AsyncSendStatus(
+		String trackingId,
+		State state,
+		Long messageId,
+		String error
+) {
+	public enum State {
+		PENDING,
+		COMMITTED,
+		FAILED
+	}
+	
+	public static AsyncSendStatus pending(String trackingId) {
+		return new AsyncSendStatus(trackingId, State.PENDING, null, null);
+	}
+	
+	public static AsyncSendStatus failed(String trackingId, String error) {
+		return new AsyncSendStatus(trackingId, State.FAILED, null, error);
+	}
+	
+	public static AsyncSendStatus of(String trackingId, BatchSendResult result) {
+		return result.error() == null
+				? new AsyncSendStatus(trackingId, State.COMMITTED, result.messageId(), null)
+				: failed(trackingId, result.error());
+	}
+}
@@ -0,0 +1,15 @@
+package fi.invian.codingassignment.dto;
+
+public record BatchSendResult(
+		int index,
+		Long messageId,
+		String error
+) {
+	public static BatchSendResult sent(int index, Long messageId) {
+		return new BatchSendResult(index, messageId, null);
+	}
+	
+	public static BatchSendResult failed(int index, String error) {
+		return new BatchSendResult(index, null, error);
+	}
+}
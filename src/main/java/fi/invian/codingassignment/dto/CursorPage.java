@@ -0,0 +1,8 @@
+package fi.invian.codingassignment.dto;
+
+import java.util.List;
+
+public record CursorPage<T>(
+		List<T> content,
+		String nextCursor
+) {}
@@ -0,0 +1,18 @@
+package fi.invian.codingassignment.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.Size;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class MarkReadRequest {
+	
+	@NotEmpty(message = "Message IDs must not be empty.")
+	@Size(max = 1000, message = "At most 1000 messages can be marked as read at once.")
+	private List<@Positive(message = "Message IDs must be positive numbers.") Long> messageIds;
+}
@@ -0,0 +1,38 @@
+package fi.invian.codingassignment.dto;
+
+import fi.invian.codingassignment.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+// Position in a recipient's inbox, ordered by (sentAt, id) descending. Clients only see the
+// encoded form and pass it back unchanged.
+public record MessageCursor(
+		Instant sentAt,
+		Long id
+) {
+	
+	public static MessageCursor of(MessageSummaryResponse message) {
+		return new MessageCursor(message.sentAt(), message.id());
+	}
+	
+	public String encode() {
+		String raw = sentAt.getEpochSecond() + "." + sentAt.getNano() + ":" + id;
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	public static MessageCursor decode(String cursor) {
+		try {
+			String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+			int dot = raw.indexOf('.');
+			int colon = raw.indexOf(':');
+			Instant sentAt = Instant.ofEpochSecond(
+					Long.parseLong(raw.substring(0, dot)),
+					Long.parseLong(raw.substring(dot + 1, colon)));
+			return new MessageCursor(sentAt, Long.parseLong(raw.substring(colon + 1)));
+		} catch (RuntimeException e) {
+			throw new InvalidCursorException("Cursor " + cursor + " is not valid.");
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package fi.invian.codingassignment.dto;
+
+import java.time.Instant;
+
+// Inbox listing row: the stored snippet instead of the full body, which is served by GET /messages/{id}.
+// readAt is null while the message is unread.
+public record MessageSummaryResponse(
+		Long id,
+		String title,
+		String snippet,
+		String senderName,
+		Instant sentAt,
+		Instant readAt
+) {}
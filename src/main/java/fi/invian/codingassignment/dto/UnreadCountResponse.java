@@ -0,0 +1,6 @@
+package fi.invian.codingassignment.dto;
+
+public record UnreadCountResponse(
+		Long userId,
+		long unreadCount
+) {}
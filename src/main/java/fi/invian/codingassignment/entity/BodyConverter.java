@@ -0,0 +1,27 @@
+package fi.invian.codingassignment.entity;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+// Compresses Message.body on write and decompresses on read. Instantiated by Hibernate through
+// the Spring bean container.
+@Converter
+public class BodyConverter implements AttributeConverter<String, byte[]> {
+	
+	private final BodyCodec bodyCodec;
+	
+	public BodyConverter(BodyCodec bodyCodec) {
+		this.bodyCodec = bodyCodec;
+	}
+	
+	@Override
+	public byte[] convertToDatabaseColumn(String body) {
+		return bodyCodec.encode(body);
+	}
+	
+	@Override
+	public String convertToEntityAttribute(byte[] stored) {
+		return bodyCodec.decode(stored);
+	}
+}
@@ -1,6 +1,7 @@
 package fi.invian.codingassignment.entity;
 
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -16,6 +17,8 @@ import java.util.List;
 @NoArgsConstructor
 public class Message {
 	
+	public static final int SNIPPET_LENGTH = 200;
+	
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	private Long id;
@@ -27,15 +30,39 @@ public class Message {
 	@Column(nullable = false, length = 255)
 	private String title;
 	
-	@Column(nullable = false, columnDefinition = "TEXT")
+	@Convert(converter = BodyConverter.class)
+	@Column(nullable = false, columnDefinition = "MEDIUMBLOB")
 	private String body;
 	
+	// Bounded preview of the body for inbox listings, derived whenever the body is set
+	@Column(nullable = false, length = SNIPPET_LENGTH)
+	@Setter(AccessLevel.NONE)
+	private String snippet;
+	
 	@Column(name = "sent_at", nullable = false)
 	private Instant sentAt;
 	
 	@OneToMany(mappedBy = "message", cascade = CascadeType.ALL, orphanRemoval = true)
 	private List<MessageRecipient> recipients = new ArrayList<>();
 	
+	public void setBody(String body) {
+		this.body = body;
+		this.snippet = snippetOf(body);
+	}
+	
+	// Whitespace is collapsed and the text cut at SNIPPET_LENGTH characters without splitting a surrogate pair
+	public static String snippetOf(String body) {
+		if (body == null) {
+			return "";
+		}
+		String text = body.strip().replaceAll("\\s+", " ");
+		if (text.length() <= SNIPPET_LENGTH) {
+			return text;
+		}
+		int end = Character.isHighSurrogate(text.charAt(SNIPPET_LENGTH - 1)) ? SNIPPET_LENGTH - 1 : SNIPPET_LENGTH;
+		return text.substring(0, end);
+	}
+	
 	public void addRecipient(User recipient) {
 		MessageRecipient messageRecipient = new MessageRecipient(this, recipient);
 		messageRecipient.setMessage(this);
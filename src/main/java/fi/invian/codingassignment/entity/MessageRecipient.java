@@ -5,6 +5,8 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.time.Instant;
+
 @Entity
 @Table(name = "message_recipients")
 @Getter
@@ -24,6 +26,10 @@ public class MessageRecipient {
 	@JoinColumn(name = "recipient_id", nullable = false)
 	private User recipient;
 	
+	// Null while unread
+	@Column(name = "read_at")
+	private Instant readAt;
+	
 	public MessageRecipient(Message message, User recipient) {
 		this.message = message;
 		this.recipient = recipient;
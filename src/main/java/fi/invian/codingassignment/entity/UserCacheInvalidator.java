@@ -0,0 +1,26 @@
+package fi.invian.codingassignment.entity;
+
+import fi.invian.codingassignment.service.UserChangedEvent;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.context.ApplicationEventPublisher;
+
+// Announces users created, changed or deleted through JPA, so the UserCache evicts them. The
+// callbacks run at flush, before the commit; the cache waits for the commit before evicting, see
+// UserCache.onUserChanged. Instantiated by Hibernate through the Spring bean container.
+public class UserCacheInvalidator {
+	
+	private final ApplicationEventPublisher eventPublisher;
+	
+	public UserCacheInvalidator(ApplicationEventPublisher eventPublisher) {
+		this.eventPublisher = eventPublisher;
+	}
+	
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	public void invalidate(User user) {
+		eventPublisher.publishEvent(new UserChangedEvent(user.getId()));
+	}
+}
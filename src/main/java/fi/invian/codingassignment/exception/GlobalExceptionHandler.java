@@ -3,13 +3,18 @@ package fi.invian.codingassignment.exception;
 import jakarta.validation.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +30,56 @@ public class GlobalExceptionHandler {
 		return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
 	}
 	
+	@ExceptionHandler(MessageNotFoundException.class)
+	public ResponseEntity<String> handleMessageNotFound(MessageNotFoundException ex) {
+		return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
+	}
+	
+	@ExceptionHandler(InvalidCursorException.class)
+	public ResponseEntity<String> handleInvalidCursor(InvalidCursorException ex) {
+		return ResponseEntity.badRequest().body(ex.getMessage());
+	}
+	
+	@ExceptionHandler(InvalidWindowException.class)
+	public ResponseEntity<String> handleInvalidWindow(InvalidWindowException ex) {
+		return ResponseEntity.badRequest().body(ex.getMessage());
+	}
+	
+	@ExceptionHandler(SendQueueFullException.class)
+	public ResponseEntity<String> handleSendQueueFull(SendQueueFullException ex) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, "1")
+				.body(ex.getMessage());
+	}
+	
+	@ExceptionHandler(RateLimitExceededException.class)
+	public ResponseEntity<String> handleRateLimitExceeded(RateLimitExceededException ex) {
+		return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+				.header(HttpHeaders.RETRY_AFTER, retryAfterSeconds(ex.getRetryAfter()))
+				.body(ex.getMessage());
+	}
+	
+	@ExceptionHandler(ServiceOverloadedException.class)
+	public ResponseEntity<String> handleServiceOverloaded(ServiceOverloadedException ex) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, retryAfterSeconds(ex.getRetryAfter()))
+				.body(ex.getMessage());
+	}
+	
+	// A connection could not be acquired within the pool's connection-timeout
+	@ExceptionHandler({CannotCreateTransactionException.class, CannotGetJdbcConnectionException.class})
+	public ResponseEntity<String> handleNoConnection(Exception ex) {
+		logger.warn("No database connection available: {}", ex.getMessage());
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, "1")
+				.body("The service is overloaded, please retry later.");
+	}
+	
+	@ExceptionHandler(IdempotencyKeyReusedException.class)
+	public ResponseEntity<String> handleIdempotencyKeyReused(IdempotencyKeyReusedException ex) {
+		return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ex.getMessage());
+	}
+	
 	@ExceptionHandler(MethodArgumentNotValidException.class)
 	public ResponseEntity<Map<String, String>> handleValidationException(MethodArgumentNotValidException ex) {
 		Map<String, String> errors = new HashMap<>();
@@ -42,9 +97,19 @@ public class GlobalExceptionHandler {
 		return ResponseEntity.badRequest().body(errorMessages);
 	}
 	
+	@ExceptionHandler(MissingServletRequestParameterException.class)
+	public ResponseEntity<String> handleMissingParameter(MissingServletRequestParameterException ex) {
+		return ResponseEntity.badRequest().body("Parameter " + ex.getParameterName() + " is required.");
+	}
+	
 	@ExceptionHandler(Exception.class)
 	public ResponseEntity<String> handleGeneralException(Exception ex) {
 		logger.error("Unexpected error occurred: ", ex);
 		return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("An unexpected error occurred. Please try again later.");
 	}
-}
\ No newline at end of file
+	
+	// Whole seconds, rounded up
+	private static String retryAfterSeconds(Duration retryAfter) {
+		return Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+	}
+}
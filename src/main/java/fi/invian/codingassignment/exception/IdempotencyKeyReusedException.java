@@ -0,0 +1,7 @@
+package fi.invian.codingassignment.exception;
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+	public IdempotencyKeyReusedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,7 @@
+package fi.invian.codingassignment.exception;
+
+public class InvalidCursorException extends RuntimeException {
+	public InvalidCursorException(String message) {
+		super(message);
+	}
+}
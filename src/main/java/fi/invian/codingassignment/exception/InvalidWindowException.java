@@ -0,0 +1,7 @@
+package fi.invian.codingassignment.exception;
+
+public class InvalidWindowException extends RuntimeException {
+	public InvalidWindowException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,7 @@
+package fi.invian.codingassignment.exception;
+
+public class MessageNotFoundException extends RuntimeException {
+	public MessageNotFoundException(String message) {
+		super(message);
+	}
+}
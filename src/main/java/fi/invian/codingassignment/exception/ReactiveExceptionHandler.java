@@ -0,0 +1,31 @@
+package fi.invian.codingassignment.exception;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.support.WebExchangeBindException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// WebFlux reports invalid request bodies with its own exception; answered like
+// GlobalExceptionHandler answers MethodArgumentNotValidException on the servlet stack. Ordered
+// first so the catch-all handler there does not take it.
+@ControllerAdvice
+@Profile("reactive")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ReactiveExceptionHandler {
+	
+	@ExceptionHandler(WebExchangeBindException.class)
+	public ResponseEntity<Map<String, String>> handleValidationException(WebExchangeBindException ex) {
+		Map<String, String> errors = new HashMap<>();
+		for (FieldError fieldError : ex.getBindingResult().getFieldErrors()) {
+			errors.put(fieldError.getField(), fieldError.getDefaultMessage());
+		}
+		return ResponseEntity.badRequest().body(errors);
+	}
+}
@@ -0,0 +1,7 @@
+package fi.invian.codingassignment.exception;
+
+public class SendQueueFullException extends RuntimeException {
+	public SendQueueFullException(String message) {
+		super(message);
+	}
+}
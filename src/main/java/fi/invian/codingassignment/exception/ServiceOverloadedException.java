@@ -0,0 +1,16 @@
+package fi.invian.codingassignment.exception;
+
+import java.time.Duration;
+
+public class ServiceOverloadedException extends RuntimeException {
+	private final Duration retryAfter;
+	
+	public ServiceOverloadedException(String message, Duration retryAfter) {
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+	
+	public Duration getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,74 @@
+package fi.invian.codingassignment.heavyhitters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Misra-Gries summary of the sends per sender over some period, keeping at most capacity counters.
+// Counts are lower bounds: a listed sender sent between count and count + maxError() messages, and a
+// sender that is not listed sent at most maxError(). maxError() never exceeds total / (capacity + 1).
+// Summaries of adjacent periods, or of the same period on several nodes, merge into a summary with
+// the same guarantee (Agarwal et al., Mergeable Summaries), so it can be exchanged as JSON.
+public record SenderSketch(
+		int capacity,
+		long total,
+		List<Counter> counters
+) {
+	
+	private static final Comparator<Counter> BY_COUNT = Comparator.comparingLong(Counter::count).reversed()
+			.thenComparingLong(Counter::senderId);
+	
+	public record Counter(long senderId, long count) {}
+	
+	public static SenderSketch empty(int capacity) {
+		return new SenderSketch(capacity, 0, List.of());
+	}
+	
+	// Sends that may be missing from any count, rounded up
+	public long maxError() {
+		long counted = 0;
+		for (Counter counter : counters) {
+			counted += counter.count();
+		}
+		return (total - counted + capacity) / (capacity + 1);
+	}
+	
+	// Counters are kept sorted by count, highest first
+	public List<Counter> top(int limit) {
+		return counters.subList(0, Math.min(limit, counters.size()));
+	}
+	
+	// Adds up the counters; when more than capacity senders remain, the (capacity + 1)-th highest count
+	// is taken off every counter and the senders left at zero are dropped
+	public static SenderSketch merge(Collection<SenderSketch> sketches, int capacity) {
+		Map<Long, Long> counts = new HashMap<>();
+		long total = 0;
+		for (SenderSketch sketch : sketches) {
+			total += sketch.total();
+			for (Counter counter : sketch.counters()) {
+				counts.merge(counter.senderId(), counter.count(), Long::sum);
+			}
+		}
+		return of(counts, total, capacity);
+	}
+	
+	static SenderSketch of(Map<Long, Long> counts, long total, int capacity) {
+		List<Counter> counters = new ArrayList<>(counts.size());
+		counts.forEach((senderId, count) -> counters.add(new Counter(senderId, count)));
+		counters.sort(BY_COUNT);
+		if (counters.size() <= capacity) {
+			return new SenderSketch(capacity, total, List.copyOf(counters));
+		}
+		long decrement = counters.get(capacity).count();
+		List<Counter> kept = new ArrayList<>(capacity);
+		for (Counter counter : counters.subList(0, capacity)) {
+			if (counter.count() > decrement) {
+				kept.add(new Counter(counter.senderId(), counter.count() - decrement));
+			}
+		}
+		return new SenderSketch(capacity, total, List.copyOf(kept));
+	}
+}
@@ -0,0 +1,67 @@
+package fi.invian.codingassignment.heavyhitters;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Space-Saving counters (Metwally et al.) for the slice that is being written. A sender that is not
+// counted takes over the lowest counter and inherits its count, so a full set overestimates by at
+// most the lowest count. Subtracting that count gives the Misra-Gries summary with one counter less.
+// Not thread-safe.
+class SpaceSaving {
+	
+	private final int capacity;
+	private final Map<Long, Slot> slots = new HashMap<>();
+	private final TreeSet<Slot> byCount = new TreeSet<>(Comparator.comparingLong((Slot slot) -> slot.count)
+			.thenComparingLong(slot -> slot.senderId));
+	private long total;
+	
+	// Keeps capacity + 1 counters, so that the summaries have capacity counters
+	SpaceSaving(int capacity) {
+		this.capacity = capacity + 1;
+	}
+	
+	void add(long senderId, long count) {
+		total += count;
+		Slot slot = slots.get(senderId);
+		if (slot != null) {
+			byCount.remove(slot);
+			slot.count += count;
+		} else if (slots.size() < capacity) {
+			slot = new Slot(senderId, count);
+			slots.put(senderId, slot);
+		} else {
+			Slot lowest = byCount.pollFirst();
+			slots.remove(lowest.senderId);
+			slot = new Slot(senderId, lowest.count + count);
+			slots.put(senderId, slot);
+		}
+		byCount.add(slot);
+	}
+	
+	long total() {
+		return total;
+	}
+	
+	SenderSketch toSketch() {
+		long floor = slots.size() < capacity ? 0 : byCount.first().count;
+		Map<Long, Long> counts = new HashMap<>();
+		for (Slot slot : slots.values()) {
+			if (slot.count > floor) {
+				counts.put(slot.senderId, slot.count - floor);
+			}
+		}
+		return SenderSketch.of(counts, total, capacity - 1);
+	}
+	
+	private static class Slot {
+		private final long senderId;
+		private long count;
+		
+		Slot(long senderId, long count) {
+			this.senderId = senderId;
+			this.count = count;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package fi.invian.codingassignment.heavyhitters;
+
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// Top senders over recent windows, counted in memory as sends commit. Time is cut into slices: the
+// current slice counts with Space-Saving, closed slices are kept as summaries for one coarse slice,
+// and every finished coarse slice is merged into one summary, kept for the retention. A window is
+// answered by merging the slices that cover it, so it is rounded up to whole slices, or to whole
+// coarse slices beyond one coarse slice, and covers at least the requested time. The summaries of
+// the closed slices are merged once per window length and slice. Counts are per instance; nodes
+// exchange their sketches.
+public class WindowedTopSenders {
+	
+	private final int capacity;
+	private final long sliceMillis;
+	private final int slicesPerCoarse;
+	private final long coarseMillis;
+	private final int coarseSlices;
+	private final LongSupplier clock;
+	private final Deque<Slice> slices = new ArrayDeque<>();
+	private final Deque<Slice> coarse = new ArrayDeque<>();
+	// Merged closed slices per number of slices covered (negative for whole coarse slices), valid
+	// while the current slice is the one they were built for
+	private final Map<Long, Slice> closedByWindow = new ConcurrentHashMap<>();
+	private long currentIndex;
+	private SpaceSaving current;
+	
+	// maxErrorRate bounds the error of every count as a share of the sends in the window
+	public WindowedTopSenders(double maxErrorRate, Duration slice, Duration coarseSlice, Duration retention) {
+		this(maxErrorRate, slice, coarseSlice, retention, System::currentTimeMillis);
+	}
+	
+	WindowedTopSenders(double maxErrorRate, Duration slice, Duration coarseSlice, Duration retention, LongSupplier clock) {
+		if (coarseSlice.toMillis() % slice.toMillis() != 0 || retention.toMillis() % coarseSlice.toMillis() != 0) {
+			throw new IllegalArgumentException("The coarse slice must be a multiple of the slice, and the retention of the coarse slice");
+		}
+		this.capacity = (int) Math.ceil(1 / maxErrorRate) - 1;
+		this.sliceMillis = slice.toMillis();
+		this.slicesPerCoarse = (int) (coarseSlice.toMillis() / sliceMillis);
+		this.coarseMillis = coarseSlice.toMillis();
+		this.coarseSlices = (int) (retention.toMillis() / coarseMillis);
+		this.clock = clock;
+		this.currentIndex = clock.getAsLong() / sliceMillis;
+		this.current = new SpaceSaving(capacity);
+	}
+	
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onMessagesSent(MessagesSentEvent event) {
+		// Entries are per recipient, a message counts once for its sender
+		Map<Long, Set<Long>> messagesBySender = new HashMap<>();
+		for (InboxEntry entry : event.entries()) {
+			messagesBySender.computeIfAbsent(entry.senderId(), id -> new HashSet<>()).add(entry.messageId());
+		}
+		messagesBySender.forEach((senderId, messageIds) -> record(senderId, messageIds.size()));
+	}
+	
+	public void record(long senderId, long messages) {
+		synchronized (this) {
+			advance();
+			current.add(senderId, messages);
+		}
+	}
+	
+	// Summary of the sends in the window ending now
+	public SenderSketch snapshot(Duration window) {
+		if (window.isNegative() || window.isZero() || window.toMillis() > coarseMillis * coarseSlices) {
+			throw new IllegalArgumentException("The window must be positive and at most " + getRetention());
+		}
+		long windowMillis = window.toMillis();
+		long index;
+		SenderSketch live;
+		long closedKey;
+		Slice cached;
+		List<SenderSketch> closed = null;
+		synchronized (this) {
+			long now = advance();
+			index = currentIndex;
+			// Longer windows take the current coarse slice so far plus as many whole ones as still needed
+			long covered = windowMillis <= coarseMillis ? ceilDiv(windowMillis, sliceMillis)
+					: -ceilDiv(windowMillis - now % coarseMillis, coarseMillis);
+			live = current.toSketch();
+			closedKey = covered;
+			cached = closedByWindow.get(covered);
+			if (cached == null || cached.index() != index) {
+				cached = null;
+				closed = closedSlices(covered);
+			}
+		}
+		
+		if (cached == null) {
+			cached = new Slice(index, SenderSketch.merge(closed, capacity));
+			closedByWindow.put(closedKey, cached);
+		}
+		return SenderSketch.merge(List.of(cached.sketch(), live), capacity);
+	}
+	
+	public Duration getRetention() {
+		return Duration.ofMillis(coarseMillis * coarseSlices);
+	}
+	
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	// Closed slices before the current one: the last covered slices, or for negative covered the slices
+	// of the current coarse slice and the last -covered coarse slices
+	private List<SenderSketch> closedSlices(long covered) {
+		List<SenderSketch> covering = new ArrayList<>();
+		if (covered > 0) {
+			long first = currentIndex - covered;
+			slices.stream().filter(slice -> slice.index() >= first).forEach(slice -> covering.add(slice.sketch()));
+		} else {
+			long currentCoarse = currentIndex / slicesPerCoarse;
+			long firstCoarse = currentCoarse + covered;
+			slices.stream().filter(slice -> slice.index() / slicesPerCoarse == currentCoarse).forEach(slice -> covering.add(slice.sketch()));
+			coarse.stream().filter(slice -> slice.index() >= firstCoarse).forEach(slice -> covering.add(slice.sketch()));
+		}
+		return covering;
+	}
+	
+	// Closes the current slice once the clock has left it, rolls a finished coarse slice up and drops
+	// what has fallen out of the retention
+	private long advance() {
+		long now = clock.getAsLong();
+		long index = now / sliceMillis;
+		if (index <= currentIndex) {
+			return now;
+		}
+		if (current.total() > 0) {
+			slices.addLast(new Slice(currentIndex, current.toSketch()));
+		}
+		current = new SpaceSaving(capacity);
+		long finishedCoarse = currentIndex / slicesPerCoarse;
+		currentIndex = index;
+		
+		if (index / slicesPerCoarse > finishedCoarse) {
+			List<SenderSketch> finished = slices.stream()
+					.filter(slice -> slice.index() / slicesPerCoarse == finishedCoarse)
+					.map(Slice::sketch)
+					.toList();
+			if (!finished.isEmpty()) {
+				coarse.addLast(new Slice(finishedCoarse, SenderSketch.merge(finished, capacity)));
+			}
+		}
+		while (!slices.isEmpty() && slices.peekFirst().index() < index - slicesPerCoarse) {
+			slices.removeFirst();
+		}
+		while (!coarse.isEmpty() && coarse.peekFirst().index() < index / slicesPerCoarse - coarseSlices) {
+			coarse.removeFirst();
+		}
+		return now;
+	}
+	
+	private static long ceilDiv(long dividend, long divisor) {
+		return (dividend + divisor - 1) / divisor;
+	}
+	
+	private record Slice(long index, SenderSketch sketch) {}
+}
@@ -0,0 +1,83 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Rewrites stored bodies into the configured codec: plain rows from before compression and rows
+// written with another codec or dictionary. Walks the table in id order with a pause between
+// chunks to keep the load low. Messages are never edited, so the job can overlap with live sends
+// and is safe to rerun; rows already in the current format are left untouched.
+@Component
+@ConditionalOnProperty(name = "messaging.body-compression.migration.enabled", havingValue = "true")
+public class BodyCompressionJob {
+	
+	private static final Logger logger = LoggerFactory.getLogger(BodyCompressionJob.class);
+	
+	private final MessageJdbcRepository messageJdbcRepository;
+	private final BodyCodec bodyCodec;
+	private final int chunkSize;
+	private final Duration pause;
+	
+	public BodyCompressionJob(MessageJdbcRepository messageJdbcRepository, BodyCodec bodyCodec,
+							  @Value("${messaging.body-compression.migration.chunk-size:500}") int chunkSize,
+							  @Value("${messaging.body-compression.migration.pause:100ms}") Duration pause) {
+		this.messageJdbcRepository = messageJdbcRepository;
+		this.bodyCodec = bodyCodec;
+		this.chunkSize = chunkSize;
+		this.pause = pause;
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void startInBackground() {
+		Thread thread = new Thread(this::run, "body-compression");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public void run() {
+		long lastId = 0;
+		long rewritten = 0;
+		long bytesBefore = 0;
+		long bytesAfter = 0;
+		while (true) {
+			Map<Long, byte[]> chunk = messageJdbcRepository.findStoredBodies(lastId, chunkSize);
+			if (chunk.isEmpty()) {
+				break;
+			}
+			Map<Long, byte[]> updates = new LinkedHashMap<>();
+			for (Map.Entry<Long, byte[]> entry : chunk.entrySet()) {
+				byte[] stored = entry.getValue();
+				byte[] encoded = bodyCodec.encode(bodyCodec.decode(stored));
+				if (!Arrays.equals(stored, encoded)) {
+					updates.put(entry.getKey(), encoded);
+					bytesBefore += stored.length;
+					bytesAfter += encoded.length;
+				}
+				lastId = entry.getKey();
+			}
+			messageJdbcRepository.updateStoredBodies(updates);
+			rewritten += updates.size();
+			
+			try {
+				Thread.sleep(pause.toMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.info("Body compression interrupted after message ID {}", lastId);
+				return;
+			}
+		}
+		logger.info("Body compression finished, rewrote {} bodies from {} to {} bytes", rewritten, bytesBefore, bytesAfter);
+	}
+}
@@ -0,0 +1,34 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.repository.IdempotencyKeyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// Forgets idempotency keys older than the retention; a retry after that sends a new message
+@Component
+public class IdempotencyKeyCleanupJob {
+	
+	private static final Logger logger = LoggerFactory.getLogger(IdempotencyKeyCleanupJob.class);
+	
+	private final IdempotencyKeyRepository idempotencyKeyRepository;
+	private final Duration retention;
+	
+	public IdempotencyKeyCleanupJob(IdempotencyKeyRepository idempotencyKeyRepository,
+									@Value("${messaging.idempotency.retention:24h}") Duration retention) {
+		this.idempotencyKeyRepository = idempotencyKeyRepository;
+		this.retention = retention;
+	}
+	
+	@Scheduled(cron = "${messaging.idempotency.cleanup-cron:0 45 * * * *}", zone = "UTC")
+	public void cleanUp() {
+		Instant cutoff = Instant.now().minus(retention);
+		int removed = idempotencyKeyRepository.deleteOlderThan(cutoff);
+		logger.info("Removed {} idempotency keys created before {}", removed, cutoff);
+	}
+}
@@ -0,0 +1,48 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.repository.ProjectionInboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+// Copies messages that predate the inbox projection into inbox_entries, in message id ranges so
+// that each statement stays short. Entries that already exist are skipped, so the job can be
+// rerun and may overlap with live sends. Inbox reads switch to the projection once it has finished.
+// With shards, ShardBackfillJob fills their projection instead.
+@Component
+@ConditionalOnExpression("${messaging.inbox.projection.enabled:false} and ${messaging.inbox.projection.backfill-on-startup:false}"
+		+ " and !${messaging.shards.enabled:false}")
+public class InboxBackfillJob {
+	
+	private static final Logger logger = LoggerFactory.getLogger(InboxBackfillJob.class);
+	
+	private final ProjectionInboxRepository projectionInboxRepository;
+	private final int chunkSize;
+	
+	public InboxBackfillJob(ProjectionInboxRepository projectionInboxRepository,
+							@Value("${messaging.inbox.projection.backfill-chunk-size:10000}") int chunkSize) {
+		this.projectionInboxRepository = projectionInboxRepository;
+		this.chunkSize = chunkSize;
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void startInBackground() {
+		Thread thread = new Thread(this::run, "inbox-backfill");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public void run() {
+		long maxId = projectionInboxRepository.findMaxMessageId();
+		long written = 0;
+		for (long fromId = 0; fromId < maxId; fromId += chunkSize) {
+			written += projectionInboxRepository.backfill(fromId, Math.min(fromId + chunkSize, maxId));
+		}
+		projectionInboxRepository.backfillFinished();
+		logger.info("Inbox backfill finished, wrote {} entries for messages up to ID {}", written, maxId);
+	}
+}
@@ -0,0 +1,105 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.archive.ArchiveSegment;
+import fi.invian.codingassignment.archive.ArchivedMessage;
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.repository.InboxRepository;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
+import fi.invian.codingassignment.repository.UnreadCountRepository;
+import fi.invian.codingassignment.service.MessagesReadEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+// Moves messages older than messaging.archive.age out of the database into archive segments,
+// oldest first. Each segment is written, synced and published to reads before its rows are deleted,
+// so a message is always in at least one tier; while it is in both, reads list it once (see
+// MessageArchive.merge). A failed delete or a crash leaves the latest segment with its rows still
+// in the database, and the next run deletes them first.
+// Archived messages count as read: unread ones are stored with the archive time as their read time
+// and taken off the unread counters in the transaction that deletes them.
+@Component
+@ConditionalOnProperty(name = "messaging.archive.enabled", havingValue = "true")
+public class MessageArchiveJob {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MessageArchiveJob.class);
+	
+	private final MessageJdbcRepository messageJdbcRepository;
+	private final MessageArchive messageArchive;
+	private final UnreadCountRepository unreadCountRepository;
+	private final InboxRepository inboxRepository;
+	private final TransactionTemplate transactionTemplate;
+	private final ApplicationEventPublisher eventPublisher;
+	private final Duration age;
+	private final int segmentSize;
+	
+	public MessageArchiveJob(MessageJdbcRepository messageJdbcRepository, MessageArchive messageArchive,
+							 UnreadCountRepository unreadCountRepository, InboxRepository inboxRepository,
+							 TransactionTemplate transactionTemplate,
+							 ApplicationEventPublisher eventPublisher,
+							 @Value("${messaging.archive.age:365d}") Duration age,
+							 @Value("${messaging.archive.segment-size:10000}") int segmentSize) {
+		this.messageJdbcRepository = messageJdbcRepository;
+		this.messageArchive = messageArchive;
+		this.unreadCountRepository = unreadCountRepository;
+		this.inboxRepository = inboxRepository;
+		this.transactionTemplate = transactionTemplate;
+		this.eventPublisher = eventPublisher;
+		this.age = age;
+		this.segmentSize = segmentSize;
+	}
+	
+	@Scheduled(cron = "${messaging.archive.cron:0 30 1 * * *}", zone = "UTC")
+	public synchronized void archive() {
+		messageArchive.findLatestSegment().ifPresent(this::deleteMessages);
+		
+		Instant cutoff = Instant.now().minus(age);
+		long archived = 0;
+		int segments = 0;
+		while (true) {
+			List<ArchivedMessage> messages = messageJdbcRepository.findArchivableMessages(cutoff, Instant.now(), segmentSize);
+			if (messages.isEmpty()) {
+				break;
+			}
+			ArchiveSegment segment;
+			try {
+				segment = messageArchive.append(messages);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot write archive segment", e);
+			}
+			deleteMessages(segment);
+			archived += messages.size();
+			segments++;
+			if (messages.size() < segmentSize) {
+				break;
+			}
+		}
+		logger.info("Archived {} messages sent before {} into {} segments", archived, cutoff, segments);
+	}
+	
+	private void deleteMessages(ArchiveSegment segment) {
+		List<Long> messageIds = LongStream.of(segment.getMessageIds()).boxed().toList();
+		transactionTemplate.executeWithoutResult(status -> {
+			Map<Long, Integer> unread = messageJdbcRepository.countUnreadByRecipient(messageIds);
+			unreadCountRepository.decrementAll(unread);
+			messageJdbcRepository.deleteMessages(messageIds);
+			inboxRepository.remove(messageIds);
+			if (!unread.isEmpty()) {
+				eventPublisher.publishEvent(new MessagesReadEvent(List.copyOf(unread.keySet())));
+			}
+		});
+	}
+}
@@ -0,0 +1,104 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.archive.ArchivedMessage;
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
+import fi.invian.codingassignment.search.MessageSearchIndex;
+import fi.invian.codingassignment.search.SearchDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Brings the search index up to date on startup. An index that was committed before is caught up
+// with the messages sent since its last commit, less catch-up-overlap for transactions that were
+// still open at that point. A new index, or any index with rebuild-on-startup, is rebuilt from the
+// archive and the database. Indexing replaces documents by message id, so the job may overlap with
+// live sends.
+@Component
+@ConditionalOnProperty(name = "messaging.search.enabled", havingValue = "true")
+public class MessageSearchIndexJob {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndexJob.class);
+	
+	private final MessageSearchIndex messageSearchIndex;
+	private final MessageJdbcRepository messageJdbcRepository;
+	private final MessageArchive messageArchive;
+	private final BodyCodec bodyCodec;
+	private final boolean rebuild;
+	private final Duration catchUpOverlap;
+	private final int chunkSize;
+	
+	public MessageSearchIndexJob(MessageSearchIndex messageSearchIndex, MessageJdbcRepository messageJdbcRepository,
+								 MessageArchive messageArchive, BodyCodec bodyCodec,
+								 @Value("${messaging.search.rebuild-on-startup:false}") boolean rebuild,
+								 @Value("${messaging.search.catch-up-overlap:5m}") Duration catchUpOverlap,
+								 @Value("${messaging.search.chunk-size:1000}") int chunkSize) {
+		this.messageSearchIndex = messageSearchIndex;
+		this.messageJdbcRepository = messageJdbcRepository;
+		this.messageArchive = messageArchive;
+		this.bodyCodec = bodyCodec;
+		this.rebuild = rebuild;
+		this.catchUpOverlap = catchUpOverlap;
+		this.chunkSize = chunkSize;
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void startInBackground() {
+		Thread thread = new Thread(this::run, "search-index");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public void run() {
+		Optional<Instant> indexedUntil = rebuild ? Optional.empty() : messageSearchIndex.getIndexedUntil();
+		long indexed = 0;
+		if (indexedUntil.isPresent()) {
+			Optional<Long> firstId = messageJdbcRepository.findFirstMessageIdSentSince(indexedUntil.get().minus(catchUpOverlap));
+			if (firstId.isPresent()) {
+				indexed += indexMessages(firstId.get() - 1);
+			}
+		} else {
+			messageSearchIndex.deleteAll();
+			AtomicLong archived = new AtomicLong();
+			messageArchive.forEachArchivedMessage(message -> {
+				messageSearchIndex.index(List.of(toSearchDocument(message)));
+				archived.incrementAndGet();
+			});
+			indexed += archived.get() + indexMessages(0);
+		}
+		messageSearchIndex.markCaughtUp();
+		messageSearchIndex.commit();
+		messageSearchIndex.refresh();
+		logger.info("Search index {}, indexed {} messages", indexedUntil.isPresent() ? "caught up" : "rebuilt", indexed);
+	}
+	
+	// Indexes the database messages with ids above afterId, in id order
+	private long indexMessages(long afterId) {
+		long indexed = 0;
+		while (true) {
+			List<SearchDocument> documents = messageJdbcRepository.findSearchDocuments(afterId, chunkSize);
+			messageSearchIndex.index(documents);
+			indexed += documents.size();
+			if (documents.size() < chunkSize) {
+				return indexed;
+			}
+			afterId = documents.get(documents.size() - 1).id();
+		}
+	}
+	
+	private SearchDocument toSearchDocument(ArchivedMessage message) {
+		return new SearchDocument(message.id(), message.sentAt(), message.title(), bodyCodec.decode(message.body()),
+				message.recipients().stream().map(ArchivedMessage.Recipient::id).toList());
+	}
+}
@@ -0,0 +1,41 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.repository.SenderStatisticsRepository;
+import fi.invian.codingassignment.service.ContentVersions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+// Expires daily sender counters that fall outside the retention window
+@Component
+public class SenderStatisticsCompactionJob {
+	
+	private static final Logger logger = LoggerFactory.getLogger(SenderStatisticsCompactionJob.class);
+	
+	private final SenderStatisticsRepository senderStatisticsRepository;
+	private final ContentVersions contentVersions;
+	private final int retentionDays;
+	
+	public SenderStatisticsCompactionJob(SenderStatisticsRepository senderStatisticsRepository,
+										 ContentVersions contentVersions,
+										 @Value("${messaging.statistics.retention-days:90}") int retentionDays) {
+		this.senderStatisticsRepository = senderStatisticsRepository;
+		this.contentVersions = contentVersions;
+		this.retentionDays = retentionDays;
+	}
+	
+	@Scheduled(cron = "${messaging.statistics.compaction-cron:0 15 0 * * *}", zone = "UTC")
+	public void compact() {
+		LocalDate oldestKept = LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays);
+		int removed = senderStatisticsRepository.deleteOlderThan(oldestKept);
+		if (removed > 0) {
+			contentVersions.statisticsChanged();
+		}
+		logger.info("Removed {} sender statistics buckets older than {}", removed, oldestKept);
+	}
+}
@@ -0,0 +1,53 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.repository.ShardedInboxRepository;
+import fi.invian.codingassignment.repository.ShardedSenderStatisticsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+// Fills the inbox shards from the primary database: the inbox entries of every message, in message
+// id ranges like InboxBackfillJob, and the primary's sender buckets. Entries already on a shard are
+// kept, so the job can be rerun and may overlap with live sends. A rerun repairs sends and read
+// times that did not reach a shard and buckets behind the primary's counts; entries whose removal
+// failed are left on the shard.
+@Component
+@ConditionalOnExpression("${messaging.shards.enabled:false} and ${messaging.shards.backfill-on-startup:false}")
+public class ShardBackfillJob {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ShardBackfillJob.class);
+	
+	private final ShardedInboxRepository shardedInboxRepository;
+	private final ShardedSenderStatisticsRepository shardedSenderStatisticsRepository;
+	private final int chunkSize;
+	
+	public ShardBackfillJob(ShardedInboxRepository shardedInboxRepository,
+							ShardedSenderStatisticsRepository shardedSenderStatisticsRepository,
+							@Value("${messaging.shards.backfill-chunk-size:10000}") int chunkSize) {
+		this.shardedInboxRepository = shardedInboxRepository;
+		this.shardedSenderStatisticsRepository = shardedSenderStatisticsRepository;
+		this.chunkSize = chunkSize;
+	}
+	
+	@EventListener(ApplicationReadyEvent.class)
+	public void startInBackground() {
+		Thread thread = new Thread(this::run, "shard-backfill");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public void run() {
+		long maxId = shardedInboxRepository.findMaxMessageId();
+		long entries = 0;
+		for (long fromId = 0; fromId < maxId; fromId += chunkSize) {
+			entries += shardedInboxRepository.backfill(fromId, Math.min(fromId + chunkSize, maxId));
+		}
+		int buckets = shardedSenderStatisticsRepository.backfill();
+		logger.info("Shard backfill finished, copied {} inbox entries for messages up to ID {} and {} sender buckets",
+				entries, maxId, buckets);
+	}
+}
@@ -0,0 +1,73 @@
+package fi.invian.codingassignment.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Wraps connections so every statement execution (a batch counts as one round trip) is added to SqlStatistics.
+// Covers JPA and JdbcTemplate alike, since both go through this DataSource.
+public class SqlAccountingDataSource extends DelegatingDataSource {
+	
+	public SqlAccountingDataSource(DataSource targetDataSource) {
+		super(targetDataSource);
+	}
+	
+	@Override
+	public Connection getConnection() throws SQLException {
+		return wrap(super.getConnection());
+	}
+	
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return wrap(super.getConnection(username, password));
+	}
+	
+	private static Connection wrap(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(SqlAccountingDataSource.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+					Object result = invoke(connection, method, args);
+					if (result instanceof CallableStatement statement) {
+						return wrap(statement, CallableStatement.class);
+					}
+					if (result instanceof PreparedStatement statement) {
+						return wrap(statement, PreparedStatement.class);
+					}
+					if (result instanceof Statement statement) {
+						return wrap(statement, Statement.class);
+					}
+					return result;
+				});
+	}
+	
+	private static Object wrap(Statement statement, Class<? extends Statement> type) {
+		InvocationHandler handler = (proxy, method, args) -> {
+			if (!method.getName().startsWith("execute")) {
+				return invoke(statement, method, args);
+			}
+			long start = System.nanoTime();
+			try {
+				return invoke(statement, method, args);
+			} finally {
+				SqlStatistics.record(System.nanoTime() - start);
+			}
+		};
+		return Proxy.newProxyInstance(SqlAccountingDataSource.class.getClassLoader(), new Class<?>[]{type}, handler);
+	}
+	
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
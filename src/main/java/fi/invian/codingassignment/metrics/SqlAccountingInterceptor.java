@@ -0,0 +1,61 @@
+package fi.invian.codingassignment.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.TimeUnit;
+
+// Publishes the statements executed and the time spent in JDBC per request, tagged like http.server.requests.
+// Work done after an async hand-off (e.g. the streamed export) runs on another thread and is not included.
+public class SqlAccountingInterceptor implements AsyncHandlerInterceptor {
+	
+	private final MeterRegistry meterRegistry;
+	
+	public SqlAccountingInterceptor(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+	
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		SqlStatistics.begin();
+		return true;
+	}
+	
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		publish(request, response);
+	}
+	
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		publish(request, response);
+	}
+	
+	private void publish(HttpServletRequest request, HttpServletResponse response) {
+		SqlStatistics statistics = SqlStatistics.end();
+		if (statistics == null) {
+			return;
+		}
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+		String status = String.valueOf(response.getStatus());
+		
+		DistributionSummary.builder("http.server.requests.sql.statements")
+				.description("JDBC statements executed per request")
+				.tags("method", request.getMethod(), "uri", uri, "status", status)
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(statistics.getStatements());
+		Timer.builder("http.server.requests.sql.time")
+				.description("Time spent executing JDBC statements per request")
+				.tags("method", request.getMethod(), "uri", uri, "status", status)
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(statistics.getNanos(), TimeUnit.NANOSECONDS);
+	}
+}
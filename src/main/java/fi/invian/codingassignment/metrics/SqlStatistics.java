@@ -0,0 +1,40 @@
+package fi.invian.codingassignment.metrics;
+
+// Statement count and time spent in JDBC for the request currently handled by this thread.
+// Collection only happens between begin() and end(); statements outside a request are not tracked.
+public final class SqlStatistics {
+	
+	private static final ThreadLocal<SqlStatistics> CURRENT = new ThreadLocal<>();
+	
+	private int statements;
+	private long nanos;
+	
+	private SqlStatistics() {
+	}
+	
+	public static void begin() {
+		CURRENT.set(new SqlStatistics());
+	}
+	
+	public static SqlStatistics end() {
+		SqlStatistics statistics = CURRENT.get();
+		CURRENT.remove();
+		return statistics;
+	}
+	
+	static void record(long elapsedNanos) {
+		SqlStatistics statistics = CURRENT.get();
+		if (statistics != null) {
+			statistics.statements++;
+			statistics.nanos += elapsedNanos;
+		}
+	}
+	
+	public int getStatements() {
+		return statements;
+	}
+	
+	public long getNanos() {
+		return nanos;
+	}
+}
@@ -0,0 +1,56 @@
+package fi.invian.codingassignment.replica;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.MessagesReadEvent;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+
+// Remembers users who received or read a message within the window, so their reads go to the
+// primary until the replicas have caught up. Every read is made on behalf of a recipient, so that is
+// who gets pinned; this also keeps an inbox read right after a send from being tagged with the new
+// ContentVersions ETag while a lagging replica still returns the old data. Recorded after the commit.
+// Kept per instance: with several instances the guarantee only holds if a user's requests stay on
+// one of them.
+@Component
+public class ReadYourWritesTracker {
+	
+	private final Cache<Long, Boolean> recentWriters;
+	
+	public ReadYourWritesTracker(@Value("${messaging.replicas.enabled:false}") boolean replicasEnabled,
+								 @Value("${messaging.replicas.read-your-writes-window:5s}") Duration window) {
+		this.recentWriters = replicasEnabled && !window.isZero()
+				? Caffeine.newBuilder().expireAfterWrite(window).build()
+				: null;
+	}
+	
+	public void recordWrite(Long userId) {
+		if (recentWriters != null) {
+			recentWriters.put(userId, Boolean.TRUE);
+		}
+	}
+	
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onMessagesSent(MessagesSentEvent event) {
+		for (InboxEntry entry : event.entries()) {
+			recordWrite(entry.recipientId());
+		}
+	}
+	
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onMessagesRead(MessagesReadEvent event) {
+		event.recipientIds().forEach(this::recordWrite);
+	}
+	
+	// Called at the start of a read-only transaction on behalf of userId
+	public void pinIfRecentWriter(Long userId) {
+		if (recentWriters != null && recentWriters.getIfPresent(userId) != null) {
+			ReplicaRoutingDataSource.pinToPrimary();
+		}
+	}
+}
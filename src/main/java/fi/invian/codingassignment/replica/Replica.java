@@ -0,0 +1,53 @@
+package fi.invian.codingassignment.replica;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+// A read replica with the state from its last health check. Replicas start out unavailable
+// (state unknown) until the first check has succeeded.
+public class Replica {
+	
+	private final String name;
+	private final DataSource dataSource;
+	private volatile Boolean healthy;
+	private volatile Duration lag = Duration.ZERO;
+	
+	public Replica(String name, DataSource dataSource) {
+		this.name = name;
+		this.dataSource = dataSource;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public DataSource getDataSource() {
+		return dataSource;
+	}
+	
+	public boolean isHealthy() {
+		return Boolean.TRUE.equals(healthy);
+	}
+	
+	public Duration getLag() {
+		return lag;
+	}
+	
+	public boolean isAvailable(Duration maxLag) {
+		return isHealthy() && lag.compareTo(maxLag) <= 0;
+	}
+	
+	// Both return whether the state changed
+	boolean markUp(Duration lag) {
+		this.lag = lag;
+		boolean changed = !Boolean.TRUE.equals(healthy);
+		this.healthy = Boolean.TRUE;
+		return changed;
+	}
+	
+	boolean markDown() {
+		boolean changed = !Boolean.FALSE.equals(healthy);
+		this.healthy = Boolean.FALSE;
+		return changed;
+	}
+}
@@ -0,0 +1,80 @@
+package fi.invian.codingassignment.replica;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+// Periodically validates every replica and measures its replication lag. By default the lag is
+// Seconds_Behind_Master from SHOW SLAVE STATUS (no rows means the server is not replicating and has
+// no lag, NULL means replication is stopped); lagQuery replaces it with a query returning seconds.
+public class ReplicaHealthChecker {
+	
+	private static final Logger logger = LoggerFactory.getLogger(ReplicaHealthChecker.class);
+	
+	private final List<Replica> replicas;
+	private final String lagQuery;
+	private final int validationTimeoutSeconds;
+	private ScheduledFuture<?> schedule;
+	
+	public ReplicaHealthChecker(List<Replica> replicas, String lagQuery, int validationTimeoutSeconds) {
+		this.replicas = replicas;
+		this.lagQuery = lagQuery;
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+	}
+	
+	public void start(TaskScheduler taskScheduler, Duration interval) {
+		schedule = taskScheduler.scheduleWithFixedDelay(this::check, interval);
+	}
+	
+	public void stop() {
+		if (schedule != null) {
+			schedule.cancel(false);
+		}
+	}
+	
+	public void check() {
+		for (Replica replica : replicas) {
+			try (Connection connection = replica.getDataSource().getConnection()) {
+				if (!connection.isValid(validationTimeoutSeconds)) {
+					throw new SQLException("Connection is not valid.");
+				}
+				if (replica.markUp(measureLag(connection))) {
+					logger.info("Replica {} is available, lag {}", replica.getName(), replica.getLag());
+				}
+			} catch (SQLException | RuntimeException e) {
+				if (replica.markDown()) {
+					logger.warn("Replica {} is unavailable, reads fall back to the primary: {}", replica.getName(), e.getMessage());
+				}
+			}
+		}
+	}
+	
+	private Duration measureLag(Connection connection) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			if (lagQuery != null && !lagQuery.isBlank()) {
+				try (ResultSet rs = statement.executeQuery(lagQuery)) {
+					rs.next();
+					return Duration.ofSeconds(rs.getLong(1));
+				}
+			}
+			try (ResultSet rs = statement.executeQuery("SHOW SLAVE STATUS")) {
+				if (!rs.next()) {
+					return Duration.ZERO;
+				}
+				long seconds = rs.getLong("Seconds_Behind_Master");
+				if (rs.wasNull()) {
+					throw new SQLException("Replication is not running.");
+				}
+				return Duration.ofSeconds(seconds);
+			}
+		}
+	}
+}
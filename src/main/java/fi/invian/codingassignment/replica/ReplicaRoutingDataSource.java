@@ -0,0 +1,66 @@
+package fi.invian.codingassignment.replica;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends read-only transactions to a replica that is healthy and within maxLag (round robin), and
+// everything else to the primary. Falls back to the primary when no replica qualifies.
+// The decision is made when a connection is obtained, so this must sit behind a
+// LazyConnectionDataSourceProxy for the transaction's read-only flag to be known at that point.
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+	
+	static final String PRIMARY = "primary";
+	
+	private static final ThreadLocal<Boolean> PINNED_TO_PRIMARY = new ThreadLocal<>();
+	
+	private final List<Replica> replicas;
+	private final Duration maxLag;
+	private final AtomicInteger next = new AtomicInteger();
+	
+	public ReplicaRoutingDataSource(DataSource primary, List<Replica> replicas, Duration maxLag) {
+		this.replicas = replicas;
+		this.maxLag = maxLag;
+		Map<Object, Object> targets = new HashMap<>();
+		targets.put(PRIMARY, primary);
+		replicas.forEach(replica -> targets.put(replica.getName(), replica.getDataSource()));
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(primary);
+		afterPropertiesSet();
+	}
+	
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || PINNED_TO_PRIMARY.get() != null) {
+			return PRIMARY;
+		}
+		List<Replica> available = replicas.stream()
+				.filter(replica -> replica.isAvailable(maxLag))
+				.toList();
+		if (available.isEmpty()) {
+			return PRIMARY;
+		}
+		return available.get(Math.floorMod(next.getAndIncrement(), available.size())).getName();
+	}
+	
+	// Routes the rest of the current transaction to the primary; has to be called before its first statement
+	public static void pinToPrimary() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive() || PINNED_TO_PRIMARY.get() != null) {
+			return;
+		}
+		PINNED_TO_PRIMARY.set(Boolean.TRUE);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCompletion(int status) {
+				PINNED_TO_PRIMARY.remove();
+			}
+		});
+	}
+}
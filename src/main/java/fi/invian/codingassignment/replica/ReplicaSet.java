@@ -0,0 +1,18 @@
+package fi.invian.codingassignment.replica;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.util.List;
+
+// Connection pools of the primary and its replicas, closed together on shutdown
+public record ReplicaSet(
+		HikariDataSource primary,
+		List<Replica> replicas
+) implements AutoCloseable {
+	
+	@Override
+	public void close() {
+		primary.close();
+		replicas.forEach(replica -> ((HikariDataSource) replica.getDataSource()).close());
+	}
+}
@@ -0,0 +1,92 @@
+package fi.invian.codingassignment.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Idempotency keys of recent sends. The primary key (sender_id, idempotency_key) is what makes a
+// retry safe across instances: a second insert of the same key waits for the first transaction
+// and fails once it commits.
+@Repository
+public class IdempotencyKeyRepository {
+	
+	private final JdbcTemplate jdbcTemplate;
+	
+	public IdempotencyKeyRepository(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+	
+	// Throws DuplicateKeyException when the key was already used by the sender
+	public void insert(Long senderId, String key, String fingerprint, Instant createdAt) {
+		jdbcTemplate.update("INSERT INTO idempotency_keys (sender_id, idempotency_key, fingerprint, created_at) VALUES (?, ?, ?, ?)",
+				senderId, key, fingerprint, Timestamp.from(createdAt));
+	}
+	
+	public void setMessageId(Long senderId, String key, Long messageId) {
+		jdbcTemplate.update("UPDATE idempotency_keys SET message_id = ? WHERE sender_id = ? AND idempotency_key = ?",
+				messageId, senderId, key);
+	}
+	
+	public Optional<StoredSend> find(Long senderId, String key) {
+		List<StoredSend> sends = jdbcTemplate.query(
+				"SELECT fingerprint, message_id FROM idempotency_keys WHERE sender_id = ? AND idempotency_key = ?",
+				(rs, rowNum) -> new StoredSend(rs.getString(1), rs.getLong(2)), senderId, key);
+		return sends.stream().findFirst();
+	}
+	
+	// Message ids stored under any of the given keys, with one range scan of the primary key per sender
+	public Map<Key, Long> findMessageIds(Collection<Key> keys) {
+		if (keys.isEmpty()) {
+			return Map.of();
+		}
+		Set<Long> senderIds = keys.stream().map(Key::senderId).collect(Collectors.toSet());
+		Set<String> values = keys.stream().map(Key::key).collect(Collectors.toSet());
+		Map<Key, Long> messageIds = new HashMap<>();
+		jdbcTemplate.query("SELECT sender_id, idempotency_key, message_id FROM idempotency_keys WHERE sender_id IN ("
+						+ String.join(", ", Collections.nCopies(senderIds.size(), "?")) + ") AND idempotency_key IN ("
+						+ String.join(", ", Collections.nCopies(values.size(), "?")) + ")",
+				(RowCallbackHandler) rs -> {
+					Key key = new Key(rs.getLong(1), rs.getString(2));
+					if (keys.contains(key)) {
+						messageIds.put(key, rs.getLong(3));
+					}
+				},
+				Stream.concat(senderIds.stream(), values.stream()).toArray());
+		return messageIds;
+	}
+	
+	// Inserts the keys of sends whose message ids are already known, with one batch
+	public void insertAll(List<StoredKey> keys, Instant createdAt) {
+		jdbcTemplate.batchUpdate(
+				"INSERT INTO idempotency_keys (sender_id, idempotency_key, fingerprint, message_id, created_at) VALUES (?, ?, ?, ?, ?)",
+				keys, keys.size(), (ps, key) -> {
+					ps.setLong(1, key.key().senderId());
+					ps.setString(2, key.key().key());
+					ps.setString(3, key.fingerprint());
+					ps.setLong(4, key.messageId());
+					ps.setTimestamp(5, Timestamp.from(createdAt));
+				});
+	}
+	
+	public int deleteOlderThan(Instant cutoff) {
+		return jdbcTemplate.update("DELETE FROM idempotency_keys WHERE created_at < ?", Timestamp.from(cutoff));
+	}
+	
+	public record StoredSend(String fingerprint, Long messageId) {}
+	
+	public record Key(Long senderId, String key) {}
+	
+	public record StoredKey(Key key, String fingerprint, Long messageId) {}
+}
@@ -0,0 +1,14 @@
+package fi.invian.codingassignment.repository;
+
+import java.time.Instant;
+
+// One recipient's copy of a message in the inbox projection
+public record InboxEntry(
+		Long recipientId,
+		Instant sentAt,
+		Long messageId,
+		Long senderId,
+		String senderName,
+		String title,
+		String snippet
+) {}
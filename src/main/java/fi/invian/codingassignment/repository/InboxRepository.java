@@ -0,0 +1,29 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.List;
+
+// Read side of a recipient's inbox, newest first. Implementations either join the normalized
+// tables or read the denormalized inbox projection.
+public interface InboxRepository {
+	
+	Page<MessageSummaryResponse> findMessages(Long recipientId, Pageable pageable);
+	
+	List<MessageSummaryResponse> findFirstMessages(Long recipientId, int limit);
+	
+	List<MessageSummaryResponse> findMessagesBefore(Long recipientId, MessageCursor cursor, int limit);
+	
+	// Called in the sending transaction after the messages have been inserted
+	void append(List<InboxEntry> entries);
+	
+	// Called in the mark-as-read transaction after message_recipients has been updated
+	void markRead(Long recipientId, List<Long> messageIds, Instant readAt);
+	
+	// Called in the archiving transaction, once the messages are in an archive segment
+	void remove(List<Long> messageIds);
+}
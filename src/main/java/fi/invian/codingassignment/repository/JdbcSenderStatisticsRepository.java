@@ -0,0 +1,66 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Default sender statistics: the daily buckets live in the primary database
+@Repository
+@ConditionalOnProperty(name = "messaging.shards.enabled", havingValue = "false", matchIfMissing = true)
+public class JdbcSenderStatisticsRepository implements SenderStatisticsRepository {
+	
+	private static final String UPSERT_COUNT = """
+			INSERT INTO sender_daily_stats (sender_id, stat_day, sent_count) VALUES (?, ?, ?)
+			ON DUPLICATE KEY UPDATE sent_count = sent_count + VALUES(sent_count)
+			""";
+	
+	private static final String TOP_SENDERS = """
+			SELECT s.sender_id, u.name, SUM(s.sent_count) AS sent_count
+			FROM sender_daily_stats s
+			JOIN users u ON u.id = s.sender_id
+			WHERE s.stat_day >= ?
+			GROUP BY s.sender_id, u.name
+			ORDER BY sent_count DESC
+			LIMIT ?
+			""";
+	
+	private final JdbcTemplate jdbcTemplate;
+	
+	public JdbcSenderStatisticsRepository(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+	
+	@Override
+	public void increment(Long senderId, LocalDate day, int count) {
+		jdbcTemplate.update(UPSERT_COUNT, senderId, Date.valueOf(day), count);
+	}
+	
+	@Override
+	public void incrementAll(Map<SenderDay, Integer> counts) {
+		List<Map.Entry<SenderDay, Integer>> entries = new ArrayList<>(counts.entrySet());
+		jdbcTemplate.batchUpdate(UPSERT_COUNT, entries, entries.size(), (ps, entry) -> {
+			ps.setLong(1, entry.getKey().senderId());
+			ps.setDate(2, Date.valueOf(entry.getKey().day()));
+			ps.setInt(3, entry.getValue());
+		});
+	}
+	
+	@Override
+	public List<StatisticsResponse> findTopSenders(LocalDate fromDay, int limit) {
+		return jdbcTemplate.query(TOP_SENDERS,
+				(rs, rowNum) -> new StatisticsResponse(rs.getLong(1), rs.getString(2), rs.getLong(3)),
+				Date.valueOf(fromDay), limit);
+	}
+	
+	@Override
+	public int deleteOlderThan(LocalDate day) {
+		return jdbcTemplate.update("DELETE FROM sender_daily_stats WHERE stat_day < ?", Date.valueOf(day));
+	}
+}
@@ -0,0 +1,56 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+// Default inbox: joins messages, message_recipients and users on every read
+@Repository
+@ConditionalOnProperty(name = {"messaging.inbox.projection.enabled", "messaging.shards.enabled"}, havingValue = "false",
+		matchIfMissing = true)
+public class JoinInboxRepository implements InboxRepository {
+	
+	private final MessageRepository messageRepository;
+	
+	public JoinInboxRepository(MessageRepository messageRepository) {
+		this.messageRepository = messageRepository;
+	}
+	
+	@Override
+	public Page<MessageSummaryResponse> findMessages(Long recipientId, Pageable pageable) {
+		return messageRepository.findMessagesByRecipientId(recipientId, pageable);
+	}
+	
+	@Override
+	public List<MessageSummaryResponse> findFirstMessages(Long recipientId, int limit) {
+		return messageRepository.findFirstMessagesByRecipientId(recipientId, PageRequest.of(0, limit));
+	}
+	
+	@Override
+	public List<MessageSummaryResponse> findMessagesBefore(Long recipientId, MessageCursor cursor, int limit) {
+		return messageRepository.findMessagesByRecipientIdBefore(
+				recipientId, cursor.sentAt(), cursor.id(), PageRequest.of(0, limit));
+	}
+	
+	@Override
+	public void append(List<InboxEntry> entries) {
+		// Nothing to maintain, reads go to the normalized tables
+	}
+	
+	@Override
+	public void markRead(Long recipientId, List<Long> messageIds, Instant readAt) {
+		// Read state is joined from message_recipients
+	}
+	
+	@Override
+	public void remove(List<Long> messageIds) {
+		// Rows go with their messages
+	}
+}
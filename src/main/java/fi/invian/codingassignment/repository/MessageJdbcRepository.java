@@ -0,0 +1,258 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.archive.ArchivedMessage;
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.entity.Message;
+import fi.invian.codingassignment.entity.MessageRecipient;
+import fi.invian.codingassignment.search.SearchDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Plain JDBC access for the bulk paths. Message ids use IDENTITY generation, which disables
+// Hibernate insert batching, so large writes go through JDBC batches instead.
+@Repository
+public class MessageJdbcRepository {
+	
+	private static final String INSERT_MESSAGE =
+			"INSERT INTO messages (sender_id, title, body, snippet, sent_at) VALUES (?, ?, ?, ?, ?)";
+	private static final String INSERT_RECIPIENT =
+			"INSERT INTO message_recipients (message_id, recipient_id) VALUES (?, ?)";
+	
+	// A range scan of idx_recipient_id from the given message id down
+	private static final String SELECT_RECIPIENT_MESSAGES = """
+			SELECT m.id, m.title, m.body, u.name, m.sent_at
+			FROM message_recipients r
+			JOIN messages m ON m.id = r.message_id
+			JOIN users u ON u.id = m.sender_id
+			WHERE r.recipient_id = ? AND r.message_id < ?
+			ORDER BY r.message_id DESC
+			LIMIT ?
+			""";
+	
+	private static final String SELECT_ARCHIVABLE_MESSAGES = """
+			SELECT m.id, m.sent_at, m.sender_id, u.name, m.title, m.snippet, m.body
+			FROM messages m
+			JOIN users u ON u.id = m.sender_id
+			WHERE m.sent_at < ?
+			ORDER BY m.sent_at, m.id
+			LIMIT ?
+			""";
+	
+	private final JdbcTemplate jdbcTemplate;
+	private final BodyCodec bodyCodec;
+	private final int chunkSize;
+	private final int exportPageSize;
+	
+	public MessageJdbcRepository(JdbcTemplate jdbcTemplate, BodyCodec bodyCodec,
+								 @Value("${messaging.batch.jdbc-chunk-size:500}") int chunkSize,
+								 @Value("${messaging.export.page-size:1000}") int exportPageSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.bodyCodec = bodyCodec;
+		this.chunkSize = chunkSize;
+		this.exportPageSize = exportPageSize;
+	}
+	
+	// Inserts the messages and their recipients, assigns the generated ids to the given entities
+	// and returns them in input order
+	public List<Long> insertMessages(List<Message> messages) {
+		List<Long> ids = new ArrayList<>(messages.size());
+		for (int from = 0; from < messages.size(); from += chunkSize) {
+			List<Message> chunk = messages.subList(from, Math.min(from + chunkSize, messages.size()));
+			ids.addAll(insertMessageChunk(chunk));
+		}
+		insertRecipients(messages);
+		return ids;
+	}
+	
+	private List<Long> insertMessageChunk(List<Message> chunk) {
+		return jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+			try (PreparedStatement ps = connection.prepareStatement(INSERT_MESSAGE, Statement.RETURN_GENERATED_KEYS)) {
+				for (Message message : chunk) {
+					ps.setLong(1, message.getSender().getId());
+					ps.setString(2, message.getTitle());
+					ps.setBytes(3, bodyCodec.encode(message.getBody()));
+					ps.setString(4, message.getSnippet());
+					ps.setTimestamp(5, Timestamp.from(message.getSentAt()));
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				
+				List<Long> ids = new ArrayList<>(chunk.size());
+				try (ResultSet keys = ps.getGeneratedKeys()) {
+					while (keys.next()) {
+						ids.add(keys.getLong(1));
+					}
+				}
+				if (ids.size() != chunk.size()) {
+					throw new IllegalStateException("Expected " + chunk.size() + " generated keys but got " + ids.size());
+				}
+				for (int i = 0; i < chunk.size(); i++) {
+					chunk.get(i).setId(ids.get(i));
+				}
+				return ids;
+			}
+		});
+	}
+	
+	// Hands every message of the recipient to the consumer, newest (highest id) first, reading one
+	// keyset page of exportPageSize rows per query. Each page is read through readPage, where the
+	// caller can open a short transaction, and handed on after it is read, so no connection is held
+	// while the consumer writes to a slow client.
+	public void forEachMessageByRecipientId(Long recipientId,
+											Function<Supplier<List<MessageResponse>>, List<MessageResponse>> readPage,
+											Consumer<MessageResponse> consumer) {
+		long before = Long.MAX_VALUE;
+		List<MessageResponse> page;
+		do {
+			long position = before;
+			page = readPage.apply(() -> findMessagesByRecipientId(recipientId, position, exportPageSize));
+			page.forEach(consumer);
+			if (!page.isEmpty()) {
+				before = page.get(page.size() - 1).id();
+			}
+		} while (page.size() == exportPageSize);
+	}
+	
+	// Up to limit messages of the recipient with ids below beforeId, highest id first
+	public List<MessageResponse> findMessagesByRecipientId(Long recipientId, long beforeId, int limit) {
+		return jdbcTemplate.query(SELECT_RECIPIENT_MESSAGES, (rs, rowNum) -> new MessageResponse(
+				rs.getLong(1), rs.getString(2), bodyCodec.decode(rs.getBytes(3)), rs.getString(4), rs.getTimestamp(5).toInstant()),
+				recipientId, beforeId, limit);
+	}
+	
+	// Stored bodies (still encoded) of up to limit messages with ids above afterId, in id order
+	public Map<Long, byte[]> findStoredBodies(long afterId, int limit) {
+		Map<Long, byte[]> bodies = new LinkedHashMap<>();
+		jdbcTemplate.query("SELECT id, body FROM messages WHERE id > ? ORDER BY id LIMIT ?",
+				(RowCallbackHandler) rs -> bodies.put(rs.getLong(1), rs.getBytes(2)), afterId, limit);
+		return bodies;
+	}
+	
+	public void updateStoredBodies(Map<Long, byte[]> bodies) {
+		jdbcTemplate.batchUpdate("UPDATE messages SET body = ? WHERE id = ?", List.copyOf(bodies.entrySet()), chunkSize,
+				(ps, entry) -> {
+					ps.setBytes(1, entry.getValue());
+					ps.setLong(2, entry.getKey());
+				});
+	}
+	
+	// Up to limit messages with ids above afterId, in id order, with their decoded bodies and recipients
+	public List<SearchDocument> findSearchDocuments(long afterId, int limit) {
+		List<SearchDocument> rows = jdbcTemplate.query("SELECT id, sent_at, title, body FROM messages WHERE id > ? ORDER BY id LIMIT ?",
+				(rs, rowNum) -> new SearchDocument(rs.getLong(1), rs.getTimestamp(2).toInstant(), rs.getString(3),
+						bodyCodec.decode(rs.getBytes(4)), new ArrayList<>()),
+				afterId, limit);
+		
+		Map<Long, List<Long>> recipients = new HashMap<>();
+		rows.forEach(row -> recipients.put(row.id(), row.recipientIds()));
+		for (List<Long> chunk : chunks(List.copyOf(recipients.keySet()))) {
+			jdbcTemplate.query("SELECT message_id, recipient_id FROM message_recipients WHERE message_id IN ("
+							+ placeholders(chunk.size()) + ")",
+					(RowCallbackHandler) rs -> recipients.get(rs.getLong(1)).add(rs.getLong(2)), chunk.toArray());
+		}
+		return rows;
+	}
+	
+	// Lowest id of the messages sent since the given time; a range scan of the sent_at index over the recent rows
+	public Optional<Long> findFirstMessageIdSentSince(Instant sentAt) {
+		return Optional.ofNullable(jdbcTemplate.queryForObject("SELECT MIN(id) FROM messages WHERE sent_at >= ?",
+				Long.class, Timestamp.from(sentAt)));
+	}
+	
+	// Marks the recipient's unread messages among messageIds as read in a single statement and returns
+	// how many changed. Ids that are already read, or not addressed to the recipient, are skipped.
+	public int markRead(Long recipientId, List<Long> messageIds, Instant readAt) {
+		List<Object> args = new ArrayList<>(messageIds.size() + 2);
+		args.add(Timestamp.from(readAt));
+		args.add(recipientId);
+		args.addAll(messageIds);
+		return jdbcTemplate.update("UPDATE message_recipients SET read_at = ? WHERE recipient_id = ? AND read_at IS NULL"
+				+ " AND message_id IN (" + placeholders(messageIds.size()) + ")", args.toArray());
+	}
+	
+	// Number of unread recipient rows per recipient among the messages
+	public Map<Long, Integer> countUnreadByRecipient(List<Long> messageIds) {
+		Map<Long, Integer> counts = new HashMap<>();
+		for (List<Long> chunk : chunks(messageIds)) {
+			jdbcTemplate.query("SELECT recipient_id, COUNT(*) FROM message_recipients WHERE read_at IS NULL AND message_id IN ("
+							+ placeholders(chunk.size()) + ") GROUP BY recipient_id",
+					(RowCallbackHandler) rs -> counts.merge(rs.getLong(1), rs.getInt(2), Integer::sum), chunk.toArray());
+		}
+		return counts;
+	}
+	
+	// Up to limit of the oldest messages sent before the cutoff, oldest first, with their recipients.
+	// Bodies are re-encoded with the current codec, so plain rows from before compression are compressed.
+	// Recipients that have not read a message yet get archivedAt as their read time.
+	public List<ArchivedMessage> findArchivableMessages(Instant cutoff, Instant archivedAt, int limit) {
+		List<ArchivedMessage> rows = jdbcTemplate.query(SELECT_ARCHIVABLE_MESSAGES, (rs, rowNum) -> new ArchivedMessage(
+				rs.getLong(1), rs.getTimestamp(2).toInstant(), rs.getLong(3), rs.getString(4), rs.getString(5),
+				rs.getString(6), new ArrayList<>(), bodyCodec.encode(bodyCodec.decode(rs.getBytes(7)))),
+				Timestamp.from(cutoff), limit);
+		
+		Map<Long, List<ArchivedMessage.Recipient>> recipients = new HashMap<>();
+		rows.forEach(row -> recipients.put(row.id(), row.recipients()));
+		for (List<Long> chunk : chunks(List.copyOf(recipients.keySet()))) {
+			jdbcTemplate.query("SELECT message_id, recipient_id, read_at FROM message_recipients WHERE message_id IN ("
+							+ placeholders(chunk.size()) + ")",
+					(RowCallbackHandler) rs -> {
+						Timestamp readAt = rs.getTimestamp(3);
+						recipients.get(rs.getLong(1)).add(new ArchivedMessage.Recipient(
+								rs.getLong(2), readAt == null ? archivedAt : readAt.toInstant()));
+					}, chunk.toArray());
+		}
+		return rows;
+	}
+	
+	// Deletes the messages; their recipients and inbox entries go with them through ON DELETE CASCADE
+	public int deleteMessages(List<Long> messageIds) {
+		int deleted = 0;
+		for (List<Long> chunk : chunks(messageIds)) {
+			deleted += jdbcTemplate.update("DELETE FROM messages WHERE id IN (" + placeholders(chunk.size()) + ")",
+					chunk.toArray());
+		}
+		return deleted;
+	}
+	
+	private <T> List<List<T>> chunks(List<T> values) {
+		List<List<T>> chunks = new ArrayList<>();
+		for (int from = 0; from < values.size(); from += chunkSize) {
+			chunks.add(values.subList(from, Math.min(from + chunkSize, values.size())));
+		}
+		return chunks;
+	}
+	
+	private static String placeholders(int count) {
+		return String.join(", ", Collections.nCopies(count, "?"));
+	}
+	
+	private void insertRecipients(List<Message> messages) {
+		List<MessageRecipient> recipients = messages.stream()
+				.flatMap(message -> message.getRecipients().stream())
+				.toList();
+		jdbcTemplate.batchUpdate(INSERT_RECIPIENT, recipients, chunkSize, (ps, recipient) -> {
+			ps.setLong(1, recipient.getMessage().getId());
+			ps.setLong(2, recipient.getRecipient().getId());
+		});
+	}
+}
@@ -1,6 +1,7 @@
 package fi.invian.codingassignment.repository;
 
 import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
 import fi.invian.codingassignment.dto.StatisticsResponse;
 import fi.invian.codingassignment.entity.Message;
 import org.springframework.data.domain.Page;
@@ -12,11 +13,89 @@ import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
 	
 	// Fetch all messages for a specific recipient
+	@Query("""
+			SELECT new fi.invian.codingassignment.dto.MessageSummaryResponse(
+			m.id, m.title, m.snippet, u.name, m.sentAt, r.readAt
+			)
+			FROM Message m
+			JOIN m.recipients r
+			JOIN User u ON m.sender.id = u.id
+			WHERE r.recipient.id = :recipientId
+			ORDER BY m.sentAt DESC
+			""")
+	Page<MessageSummaryResponse> findMessagesByRecipientId(
+			@Param("recipientId") Long recipientId,
+			Pageable pageable
+	);
+	
+	// Keyset pagination: first slice of a recipient's inbox, no count query
+	@Query("""
+			SELECT new fi.invian.codingassignment.dto.MessageSummaryResponse(
+			m.id, m.title, m.snippet, u.name, m.sentAt, r.readAt
+			)
+			FROM Message m
+			JOIN m.recipients r
+			JOIN User u ON m.sender.id = u.id
+			WHERE r.recipient.id = :recipientId
+			ORDER BY m.sentAt DESC, m.id DESC
+			""")
+	List<MessageSummaryResponse> findFirstMessagesByRecipientId(
+			@Param("recipientId") Long recipientId,
+			Pageable pageable
+	);
+	
+	// Keyset pagination: slice of a recipient's inbox strictly older than the (sentAt, id) cursor
+	@Query("""
+			SELECT new fi.invian.codingassignment.dto.MessageSummaryResponse(
+			m.id, m.title, m.snippet, u.name, m.sentAt, r.readAt
+			)
+			FROM Message m
+			JOIN m.recipients r
+			JOIN User u ON m.sender.id = u.id
+			WHERE r.recipient.id = :recipientId
+			AND (m.sentAt < :sentAt OR (m.sentAt = :sentAt AND m.id < :id))
+			ORDER BY m.sentAt DESC, m.id DESC
+			""")
+	List<MessageSummaryResponse> findMessagesByRecipientIdBefore(
+			@Param("recipientId") Long recipientId,
+			@Param("sentAt") Instant sentAt,
+			@Param("id") Long id,
+			Pageable pageable
+	);
+	
+	// Summaries of the given messages that the recipient received, in no particular order
+	@Query("""
+			SELECT new fi.invian.codingassignment.dto.MessageSummaryResponse(
+			m.id, m.title, m.snippet, u.name, m.sentAt, r.readAt
+			)
+			FROM Message m
+			JOIN m.recipients r
+			JOIN User u ON m.sender.id = u.id
+			WHERE r.recipient.id = :recipientId
+			AND m.id IN :ids
+			""")
+	List<MessageSummaryResponse> findSummariesForRecipient(@Param("recipientId") Long recipientId, @Param("ids") List<Long> ids);
+	
+	// Full message, only if the given user is one of its recipients
+	@Query("""
+			SELECT new fi.invian.codingassignment.dto.MessageResponse(
+			m.id, m.title, m.body, u.name, m.sentAt
+			)
+			FROM Message m
+			JOIN m.recipients r
+			JOIN User u ON m.sender.id = u.id
+			WHERE m.id = :id
+			AND r.recipient.id = :recipientId
+			""")
+	Optional<MessageResponse> findMessageForRecipient(@Param("id") Long id, @Param("recipientId") Long recipientId);
+	
+	// Full messages of the recipient sent at or after the given time, oldest first
 	@Query("""
 			SELECT new fi.invian.codingassignment.dto.MessageResponse(
 			m.id, m.title, m.body, u.name, m.sentAt
@@ -25,10 +104,12 @@ public interface MessageRepository extends JpaRepository<Message, Long> {
 			JOIN m.recipients r
 			JOIN User u ON m.sender.id = u.id
 			WHERE r.recipient.id = :recipientId
-			ORDER BY m.sentAt DESC
+			AND m.sentAt >= :since
+			ORDER BY m.sentAt, m.id
 			""")
-	Page<MessageResponse> findMessagesByRecipientId(
+	List<MessageResponse> findMessagesByRecipientIdSince(
 			@Param("recipientId") Long recipientId,
+			@Param("since") Instant since,
 			Pageable pageable
 	);
 	
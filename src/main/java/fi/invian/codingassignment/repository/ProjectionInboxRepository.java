@@ -0,0 +1,179 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Inbox served from inbox_entries, keyed by (recipient_id, sent_at, message_id). Every read is a
+// single range scan of that primary key; the entries carry the snippet, so messages is not touched.
+// While InboxBackfillJob is still copying older messages, inbox reads are joined from message_recipients
+// instead, so that inboxes are complete; writes go to inbox_entries from the start.
+@Repository
+@ConditionalOnExpression("${messaging.inbox.projection.enabled:false} and !${messaging.shards.enabled:false}")
+public class ProjectionInboxRepository implements InboxRepository {
+	
+	private static final String SELECT_ENTRIES = """
+			SELECT i.message_id, i.title, i.snippet, i.sender_name, i.sent_at, i.read_at
+			FROM inbox_entries i
+			""";
+	
+	private static final String INSERT_ENTRY = """
+			INSERT INTO inbox_entries (recipient_id, sent_at, message_id, sender_id, sender_name, title, snippet)
+			VALUES (?, ?, ?, ?, ?, ?, ?)
+			""";
+	
+	private static final String INSERT_MISSING_ENTRY = """
+			INSERT IGNORE INTO inbox_entries (recipient_id, sent_at, message_id, sender_id, sender_name, title, snippet)
+			VALUES (?, ?, ?, ?, ?, ?, ?)
+			""";
+	
+	// Copies existing messages with ids in (fromId, toId] into the projection
+	private static final String BACKFILL = """
+			INSERT IGNORE INTO inbox_entries (recipient_id, sent_at, message_id, sender_id, sender_name, title, snippet, read_at)
+			SELECT r.recipient_id, m.sent_at, m.id, m.sender_id, u.name, m.title, m.snippet, r.read_at
+			FROM messages m
+			JOIN message_recipients r ON r.message_id = m.id
+			JOIN users u ON u.id = m.sender_id
+			WHERE m.id > ? AND m.id <= ?
+			""";
+	
+	private static final RowMapper<MessageSummaryResponse> MESSAGE_MAPPER = (rs, rowNum) -> new MessageSummaryResponse(
+			rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getTimestamp(5).toInstant(),
+			rs.getTimestamp(6) == null ? null : rs.getTimestamp(6).toInstant());
+	
+	private final JdbcTemplate jdbcTemplate;
+	private final InboxRepository untilBackfilled;
+	private volatile boolean backfilled;
+	
+	@Autowired
+	public ProjectionInboxRepository(JdbcTemplate jdbcTemplate, MessageRepository messageRepository,
+									 @Value("${messaging.inbox.projection.backfill-on-startup:false}") boolean backfillOnStartup) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.untilBackfilled = new JoinInboxRepository(messageRepository);
+		this.backfilled = !backfillOnStartup;
+	}
+	
+	// For a projection that is complete from the start
+	public ProjectionInboxRepository(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.untilBackfilled = null;
+		this.backfilled = true;
+	}
+	
+	public boolean isBackfilled() {
+		return backfilled;
+	}
+	
+	// Called by InboxBackfillJob once every older message has been copied
+	public void backfillFinished() {
+		backfilled = true;
+	}
+	
+	@Override
+	public Page<MessageSummaryResponse> findMessages(Long recipientId, Pageable pageable) {
+		if (!backfilled) {
+			return untilBackfilled.findMessages(recipientId, pageable);
+		}
+		List<MessageSummaryResponse> content = findMessages(recipientId, pageable.getPageSize(), pageable.getOffset());
+		return PageableExecutionUtils.getPage(content, pageable, () -> countMessages(recipientId));
+	}
+	
+	public List<MessageSummaryResponse> findMessages(Long recipientId, int limit, long offset) {
+		return jdbcTemplate.query(SELECT_ENTRIES + """
+						WHERE i.recipient_id = ?
+						ORDER BY i.sent_at DESC, i.message_id DESC
+						LIMIT ? OFFSET ?
+						""",
+				MESSAGE_MAPPER, recipientId, limit, offset);
+	}
+	
+	public long countMessages(Long recipientId) {
+		return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM inbox_entries WHERE recipient_id = ?", Long.class, recipientId);
+	}
+	
+	@Override
+	public List<MessageSummaryResponse> findFirstMessages(Long recipientId, int limit) {
+		if (!backfilled) {
+			return untilBackfilled.findFirstMessages(recipientId, limit);
+		}
+		return jdbcTemplate.query(SELECT_ENTRIES + """
+						WHERE i.recipient_id = ?
+						ORDER BY i.sent_at DESC, i.message_id DESC
+						LIMIT ?
+						""",
+				MESSAGE_MAPPER, recipientId, limit);
+	}
+	
+	@Override
+	public List<MessageSummaryResponse> findMessagesBefore(Long recipientId, MessageCursor cursor, int limit) {
+		if (!backfilled) {
+			return untilBackfilled.findMessagesBefore(recipientId, cursor, limit);
+		}
+		Timestamp sentAt = Timestamp.from(cursor.sentAt());
+		return jdbcTemplate.query(SELECT_ENTRIES + """
+						WHERE i.recipient_id = ?
+						AND (i.sent_at < ? OR (i.sent_at = ? AND i.message_id < ?))
+						ORDER BY i.sent_at DESC, i.message_id DESC
+						LIMIT ?
+						""",
+				MESSAGE_MAPPER, recipientId, sentAt, sentAt, cursor.id(), limit);
+	}
+	
+	@Override
+	public void append(List<InboxEntry> entries) {
+		insert(INSERT_ENTRY, entries);
+	}
+	
+	// Skips entries that are already there, so a retried write does not fail on the first attempt's rows
+	public void appendMissing(List<InboxEntry> entries) {
+		insert(INSERT_MISSING_ENTRY, entries);
+	}
+	
+	private void insert(String sql, List<InboxEntry> entries) {
+		jdbcTemplate.batchUpdate(sql, entries, entries.size(), (ps, entry) -> {
+			ps.setLong(1, entry.recipientId());
+			ps.setTimestamp(2, Timestamp.from(entry.sentAt()));
+			ps.setLong(3, entry.messageId());
+			ps.setLong(4, entry.senderId());
+			ps.setString(5, entry.senderName());
+			ps.setString(6, entry.title());
+			ps.setString(7, entry.snippet());
+		});
+	}
+	
+	@Override
+	public void markRead(Long recipientId, List<Long> messageIds, Instant readAt) {
+		jdbcTemplate.update("UPDATE inbox_entries SET read_at = ? WHERE recipient_id = ? AND read_at IS NULL AND message_id IN ("
+						+ String.join(", ", Collections.nCopies(messageIds.size(), "?")) + ")",
+				Stream.concat(Stream.of(Timestamp.from(readAt), recipientId), messageIds.stream()).toArray());
+	}
+	
+	@Override
+	public void remove(List<Long> messageIds) {
+		// Entries are deleted with their messages through ON DELETE CASCADE
+	}
+	
+	public long findMaxMessageId() {
+		Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM messages", Long.class);
+		return maxId == null ? 0 : maxId;
+	}
+	
+	// Returns the number of entries written for messages with ids in (fromId, toId]
+	public int backfill(long fromId, long toId) {
+		return jdbcTemplate.update(BACKFILL, fromId, toId);
+	}
+}
@@ -0,0 +1,173 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import io.r2dbc.spi.Readable;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+// Non-blocking counterpart of the inbox and statistics reads, used by the "reactive" profile.
+// Runs the same SQL as the JDBC repositories over R2DBC. With shards, inbox listings and top senders
+// live in the shard databases, which are only reachable over JDBC: those reads go to the shard
+// repositories on the bounded elastic scheduler, like the sends.
+@Repository
+@Profile("reactive")
+public class ReactiveMessageRepository {
+	
+	private static final String JOIN_INBOX = """
+			SELECT m.id, m.title, m.snippet, u.name, m.sent_at, r.read_at
+			FROM message_recipients r
+			JOIN messages m ON m.id = r.message_id
+			JOIN users u ON u.id = m.sender_id
+			WHERE r.recipient_id = :recipientId
+			ORDER BY m.sent_at DESC, m.id DESC
+			LIMIT :limit OFFSET :offset
+			""";
+	
+	private static final String JOIN_INBOX_COUNT =
+			"SELECT COUNT(*) FROM message_recipients WHERE recipient_id = :recipientId";
+	
+	private static final String PROJECTION_INBOX = """
+			SELECT i.message_id, i.title, i.snippet, i.sender_name, i.sent_at, i.read_at
+			FROM inbox_entries i
+			WHERE i.recipient_id = :recipientId
+			ORDER BY i.sent_at DESC, i.message_id DESC
+			LIMIT :limit OFFSET :offset
+			""";
+	
+	private static final String PROJECTION_INBOX_COUNT =
+			"SELECT COUNT(*) FROM inbox_entries WHERE recipient_id = :recipientId";
+	
+	private static final String MESSAGE_FOR_RECIPIENT = """
+			SELECT m.id, m.title, m.body, u.name, m.sent_at
+			FROM messages m
+			JOIN message_recipients r ON r.message_id = m.id
+			JOIN users u ON u.id = m.sender_id
+			WHERE m.id = :id AND r.recipient_id = :recipientId
+			""";
+	
+	private static final String TOP_SENDERS = """
+			SELECT s.sender_id, u.name, SUM(s.sent_count) AS sent_count
+			FROM sender_daily_stats s
+			JOIN users u ON u.id = s.sender_id
+			WHERE s.stat_day >= :fromDay
+			GROUP BY s.sender_id, u.name
+			ORDER BY sent_count DESC
+			LIMIT :limit
+			""";
+	
+	private final DatabaseClient databaseClient;
+	private final BodyCodec bodyCodec;
+	private final ProjectionInboxRepository projectionInbox;
+	private final ShardedInboxRepository shardedInbox;
+	private final ShardedSenderStatisticsRepository shardedStatistics;
+	
+	public ReactiveMessageRepository(DatabaseClient databaseClient, BodyCodec bodyCodec,
+									 ObjectProvider<ProjectionInboxRepository> projectionInbox,
+									 ObjectProvider<ShardedInboxRepository> shardedInbox,
+									 ObjectProvider<ShardedSenderStatisticsRepository> shardedStatistics) {
+		this.databaseClient = databaseClient;
+		this.bodyCodec = bodyCodec;
+		this.projectionInbox = projectionInbox.getIfAvailable();
+		this.shardedInbox = shardedInbox.getIfAvailable();
+		this.shardedStatistics = shardedStatistics.getIfAvailable();
+	}
+	
+	public Mono<Boolean> existsUserById(Long userId) {
+		return databaseClient.sql("SELECT 1 FROM users WHERE id = :id")
+				.bind("id", userId)
+				.map(row -> true)
+				.first()
+				.defaultIfEmpty(false);
+	}
+	
+	public Flux<MessageSummaryResponse> findMessagesByRecipientId(Long recipientId, int limit, long offset) {
+		if (shardedInbox != null) {
+			return Mono.fromCallable(() -> shardedInbox.findMessages(recipientId, limit, offset))
+					.subscribeOn(Schedulers.boundedElastic())
+					.flatMapIterable(messages -> messages);
+		}
+		return databaseClient.sql(useProjection() ? PROJECTION_INBOX : JOIN_INBOX)
+				.bind("recipientId", recipientId)
+				.bind("limit", limit)
+				.bind("offset", offset)
+				.map(row -> new MessageSummaryResponse(
+						row.get(0, Long.class),
+						row.get(1, String.class),
+						row.get(2, String.class),
+						row.get(3, String.class),
+						toInstant(row, 4),
+						toInstant(row, 5)))
+				.all();
+	}
+	
+	public Mono<MessageResponse> findMessageForRecipient(Long id, Long recipientId) {
+		return databaseClient.sql(MESSAGE_FOR_RECIPIENT)
+				.bind("id", id)
+				.bind("recipientId", recipientId)
+				.map(row -> new MessageResponse(
+						row.get(0, Long.class),
+						row.get(1, String.class),
+						bodyCodec.decode(row.get(2, byte[].class)),
+						row.get(3, String.class),
+						toInstant(row, 4)))
+				.first();
+	}
+	
+	public Mono<Long> countMessagesByRecipientId(Long recipientId) {
+		if (shardedInbox != null) {
+			return Mono.fromCallable(() -> shardedInbox.countMessages(recipientId)).subscribeOn(Schedulers.boundedElastic());
+		}
+		return databaseClient.sql(useProjection() ? PROJECTION_INBOX_COUNT : JOIN_INBOX_COUNT)
+				.bind("recipientId", recipientId)
+				.map(row -> row.get(0, Long.class))
+				.one();
+	}
+	
+	public Mono<Long> findUnreadCount(Long userId) {
+		return databaseClient.sql("SELECT unread_count FROM user_unread_counts WHERE user_id = :userId")
+				.bind("userId", userId)
+				.map(row -> row.get(0, Long.class))
+				.first()
+				.defaultIfEmpty(0L);
+	}
+	
+	public Flux<StatisticsResponse> findTopSenders(LocalDate fromDay, int limit) {
+		if (shardedStatistics != null) {
+			return Mono.fromCallable(() -> shardedStatistics.findTopSenders(fromDay, limit))
+					.subscribeOn(Schedulers.boundedElastic())
+					.flatMapIterable(senders -> senders);
+		}
+		return databaseClient.sql(TOP_SENDERS)
+				.bind("fromDay", fromDay)
+				.bind("limit", limit)
+				.map(row -> new StatisticsResponse(
+						row.get(0, Long.class),
+						row.get(1, String.class),
+						row.get(2, Long.class)))
+				.all();
+	}
+	
+	// The projection answers once it holds every message, see ProjectionInboxRepository
+	private boolean useProjection() {
+		return projectionInbox != null && projectionInbox.isBackfilled();
+	}
+	
+	// TIMESTAMP columns come back as local date-times in the session time zone, like with JDBC
+	private static Instant toInstant(Readable row, int index) {
+		LocalDateTime value = row.get(index, LocalDateTime.class);
+		return value == null ? null : value.atZone(ZoneId.systemDefault()).toInstant();
+	}
+}
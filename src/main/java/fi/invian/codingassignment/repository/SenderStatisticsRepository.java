@@ -0,0 +1,24 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.StatisticsResponse;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+// Per-sender daily message counters. Statistics read these buckets instead of grouping over
+// the messages table, so their cost depends on the number of active senders, not on traffic.
+// They are kept in the primary database; with shards, they are also copied to the inbox shards by sender.
+public interface SenderStatisticsRepository {
+	
+	void increment(Long senderId, LocalDate day, int count);
+	
+	void incrementAll(Map<SenderDay, Integer> counts);
+	
+	List<StatisticsResponse> findTopSenders(LocalDate fromDay, int limit);
+	
+	// Drops buckets older than the given day, returns the number of removed rows
+	int deleteOlderThan(LocalDate day);
+	
+	record SenderDay(Long senderId, LocalDate day) {}
+}
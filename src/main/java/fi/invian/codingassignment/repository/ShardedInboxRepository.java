@@ -0,0 +1,140 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.shard.InboxShards;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+// Inbox projection partitioned by recipient over the shard databases. Each recipient's entries are
+// on one shard, so every read is the projection's range scan on that shard alone. Sends write the
+// entries of each shard with one batch; the messages themselves stay in the primary database.
+// Writes reach the shards after the primary transaction has committed (see InboxShards), so a
+// failed send leaves no entries behind; until then, the new entries are not listed yet.
+@Repository
+@ConditionalOnProperty(name = "messaging.shards.enabled", havingValue = "true")
+public class ShardedInboxRepository implements InboxRepository {
+	
+	// Recipients' copies of the messages with ids in (fromId, toId], read from the primary database
+	private static final String SELECT_BACKFILL = """
+			SELECT r.recipient_id, m.sent_at, m.id, m.sender_id, u.name, m.title, m.snippet, r.read_at
+			FROM messages m
+			JOIN message_recipients r ON r.message_id = m.id
+			JOIN users u ON u.id = m.sender_id
+			WHERE m.id > ? AND m.id <= ?
+			""";
+	
+	// Also repairs the read time of entries whose mark-as-read did not reach the shard
+	private static final String UPSERT_BACKFILL = """
+			INSERT INTO inbox_entries (recipient_id, sent_at, message_id, sender_id, sender_name, title, snippet, read_at)
+			VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+			ON DUPLICATE KEY UPDATE read_at = COALESCE(read_at, VALUES(read_at))
+			""";
+	
+	private final InboxShards shards;
+	private final JdbcTemplate jdbcTemplate;
+	private final List<ProjectionInboxRepository> projections;
+	private final int chunkSize;
+	
+	public ShardedInboxRepository(InboxShards shards, JdbcTemplate jdbcTemplate,
+								  @Value("${messaging.batch.jdbc-chunk-size:500}") int chunkSize) {
+		this.shards = shards;
+		this.jdbcTemplate = jdbcTemplate;
+		this.projections = IntStream.range(0, shards.size())
+				.mapToObj(index -> new ProjectionInboxRepository(shards.get(index)))
+				.toList();
+		this.chunkSize = chunkSize;
+	}
+	
+	@Override
+	public Page<MessageSummaryResponse> findMessages(Long recipientId, Pageable pageable) {
+		return projectionFor(recipientId).findMessages(recipientId, pageable);
+	}
+	
+	public List<MessageSummaryResponse> findMessages(Long recipientId, int limit, long offset) {
+		return projectionFor(recipientId).findMessages(recipientId, limit, offset);
+	}
+	
+	public long countMessages(Long recipientId) {
+		return projectionFor(recipientId).countMessages(recipientId);
+	}
+	
+	@Override
+	public List<MessageSummaryResponse> findFirstMessages(Long recipientId, int limit) {
+		return projectionFor(recipientId).findFirstMessages(recipientId, limit);
+	}
+	
+	@Override
+	public List<MessageSummaryResponse> findMessagesBefore(Long recipientId, MessageCursor cursor, int limit) {
+		return projectionFor(recipientId).findMessagesBefore(recipientId, cursor, limit);
+	}
+	
+	@Override
+	public void append(List<InboxEntry> entries) {
+		Map<Integer, List<InboxEntry>> byShard = shards.partition(entries, InboxEntry::recipientId);
+		byShard.forEach((index, shardEntries) ->
+				shards.afterCommit(index, shard -> projections.get(index).appendMissing(shardEntries)));
+	}
+	
+	@Override
+	public void markRead(Long recipientId, List<Long> messageIds, Instant readAt) {
+		shards.afterCommit(shards.indexOf(recipientId), shard -> projectionFor(recipientId).markRead(recipientId, messageIds, readAt));
+	}
+	
+	// Recipients are not known here, so every shard is asked
+	@Override
+	public void remove(List<Long> messageIds) {
+		for (int index = 0; index < shards.size(); index++) {
+			shards.afterCommit(index, shard -> {
+				for (int from = 0; from < messageIds.size(); from += chunkSize) {
+					List<Long> chunk = messageIds.subList(from, Math.min(from + chunkSize, messageIds.size()));
+					shard.update("DELETE FROM inbox_entries WHERE message_id IN ("
+							+ String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")", chunk.toArray());
+				}
+			});
+		}
+	}
+	
+	public long findMaxMessageId() {
+		Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM messages", Long.class);
+		return maxId == null ? 0 : maxId;
+	}
+	
+	// Copies the primary's messages with ids in (fromId, toId] to their recipients' shards and returns
+	// the number of entries read. Entries already on a shard are kept, so it can overlap with live sends.
+	public int backfill(long fromId, long toId) {
+		List<BackfillEntry> entries = jdbcTemplate.query(SELECT_BACKFILL, (rs, rowNum) -> new BackfillEntry(
+				rs.getLong(1), rs.getTimestamp(2), rs.getLong(3), rs.getLong(4), rs.getString(5), rs.getString(6),
+				rs.getString(7), rs.getTimestamp(8)), fromId, toId);
+		shards.partition(entries, BackfillEntry::recipientId).forEach((index, shardEntries) ->
+				shards.get(index).batchUpdate(UPSERT_BACKFILL, shardEntries, chunkSize, (ps, entry) -> {
+					ps.setLong(1, entry.recipientId());
+					ps.setTimestamp(2, entry.sentAt());
+					ps.setLong(3, entry.messageId());
+					ps.setLong(4, entry.senderId());
+					ps.setString(5, entry.senderName());
+					ps.setString(6, entry.title());
+					ps.setString(7, entry.snippet());
+					ps.setTimestamp(8, entry.readAt());
+				}));
+		return entries.size();
+	}
+	
+	private ProjectionInboxRepository projectionFor(Long recipientId) {
+		return projections.get(shards.indexOf(recipientId));
+	}
+	
+	private record BackfillEntry(Long recipientId, Timestamp sentAt, Long messageId, Long senderId, String senderName,
+								 String title, String snippet, Timestamp readAt) {}
+}
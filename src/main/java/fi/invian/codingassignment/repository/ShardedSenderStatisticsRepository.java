@@ -0,0 +1,149 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.shard.InboxShards;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Daily sender buckets copied to the inbox shards by sender, so every sender is listed on exactly
+// one shard. Top senders asks each shard for its own top list in parallel and merges them: as no
+// sender is split across shards, the overall top n is among the shards' top n. Names come from the
+// primary database, which keeps the users.
+//
+// The sending transaction counts the send in the primary's buckets, as without shards. Once it has
+// committed (see InboxShards), the buckets it changed are read back and written to the shard as they
+// are. Counts only grow, so the shard keeps the larger of two copies: a retry writes the same count
+// again and a copy overtaken by a later send's cannot lower it.
+@Repository
+@ConditionalOnProperty(name = "messaging.shards.enabled", havingValue = "true")
+public class ShardedSenderStatisticsRepository implements SenderStatisticsRepository {
+	
+	private static final String COPY_BUCKET = """
+			INSERT INTO sender_daily_stats (sender_id, stat_day, sent_count) VALUES (?, ?, ?)
+			ON DUPLICATE KEY UPDATE sent_count = GREATEST(sent_count, VALUES(sent_count))
+			""";
+	
+	private static final String TOP_SENDER_COUNTS = """
+			SELECT sender_id, SUM(sent_count) AS sent_count
+			FROM sender_daily_stats
+			WHERE stat_day >= ?
+			GROUP BY sender_id
+			ORDER BY sent_count DESC, sender_id
+			LIMIT ?
+			""";
+	
+	private static final Comparator<SenderCount> BY_COUNT = Comparator.comparingLong(SenderCount::count).reversed()
+			.thenComparingLong(SenderCount::senderId);
+	
+	private final InboxShards shards;
+	private final JdbcTemplate jdbcTemplate;
+	private final JdbcSenderStatisticsRepository primary;
+	
+	public ShardedSenderStatisticsRepository(InboxShards shards, JdbcTemplate jdbcTemplate) {
+		this.shards = shards;
+		this.jdbcTemplate = jdbcTemplate;
+		this.primary = new JdbcSenderStatisticsRepository(jdbcTemplate);
+	}
+	
+	@Override
+	public void increment(Long senderId, LocalDate day, int count) {
+		primary.increment(senderId, day, count);
+		copyAfterCommit(List.of(new SenderDay(senderId, day)));
+	}
+	
+	@Override
+	public void incrementAll(Map<SenderDay, Integer> counts) {
+		primary.incrementAll(counts);
+		copyAfterCommit(counts.keySet());
+	}
+	
+	@Override
+	public List<StatisticsResponse> findTopSenders(LocalDate fromDay, int limit) {
+		List<SenderCount> counts = new ArrayList<>();
+		shards.scatter(shard -> shard.query(TOP_SENDER_COUNTS,
+				(rs, rowNum) -> new SenderCount(rs.getLong(1), rs.getLong(2)), Date.valueOf(fromDay), limit))
+				.forEach(counts::addAll);
+		counts.sort(BY_COUNT);
+		List<SenderCount> top = counts.subList(0, Math.min(limit, counts.size()));
+		if (top.isEmpty()) {
+			return List.of();
+		}
+		
+		Map<Long, String> names = new HashMap<>();
+		jdbcTemplate.query("SELECT id, name FROM users WHERE id IN (" + String.join(", ", Collections.nCopies(top.size(), "?")) + ")",
+				(RowCallbackHandler) rs -> names.put(rs.getLong(1), rs.getString(2)),
+				top.stream().map(SenderCount::senderId).toArray());
+		// Senders whose user was deleted are left out, as the join does without shards
+		return top.stream()
+				.filter(count -> names.containsKey(count.senderId()))
+				.map(count -> new StatisticsResponse(count.senderId(), names.get(count.senderId()), count.count()))
+				.toList();
+	}
+	
+	// Returns the number of buckets removed from the shards, which serve the statistics
+	@Override
+	public int deleteOlderThan(LocalDate day) {
+		primary.deleteOlderThan(day);
+		return shards.scatter(shard -> shard.update("DELETE FROM sender_daily_stats WHERE stat_day < ?", Date.valueOf(day)))
+				.stream().mapToInt(Integer::intValue).sum();
+	}
+	
+	// Copies all of the primary's buckets to their senders' shards, including the ones counted before
+	// sharding was enabled. A bucket whose copy failed after its retries is behind the primary and is
+	// brought up to its count, so the backfill can be rerun to repair the shards.
+	public int backfill() {
+		List<Bucket> buckets = jdbcTemplate.query("SELECT sender_id, stat_day, sent_count FROM sender_daily_stats",
+				(rs, rowNum) -> new Bucket(rs.getLong(1), rs.getDate(2), rs.getInt(3)));
+		shards.partition(buckets, Bucket::senderId).forEach((index, shardBuckets) -> copy(shards.get(index), shardBuckets));
+		return buckets.size();
+	}
+	
+	private void copyAfterCommit(Collection<SenderDay> senderDays) {
+		shards.partition(senderDays, SenderDay::senderId).forEach((index, shardDays) ->
+				shards.afterCommit(index, shard -> copy(shard, findBuckets(shardDays))));
+	}
+	
+	// The primary's current buckets of the given senders and days
+	private List<Bucket> findBuckets(List<SenderDay> senderDays) {
+		Set<SenderDay> wanted = new HashSet<>(senderDays);
+		List<Long> senderIds = senderDays.stream().map(SenderDay::senderId).distinct().toList();
+		List<Date> days = senderDays.stream().map(senderDay -> Date.valueOf(senderDay.day())).distinct().toList();
+		List<Object> args = new ArrayList<>(senderIds);
+		args.addAll(days);
+		return jdbcTemplate.query("SELECT sender_id, stat_day, sent_count FROM sender_daily_stats WHERE sender_id IN ("
+						+ String.join(", ", Collections.nCopies(senderIds.size(), "?")) + ") AND stat_day IN ("
+						+ String.join(", ", Collections.nCopies(days.size(), "?")) + ")",
+				(rs, rowNum) -> new Bucket(rs.getLong(1), rs.getDate(2), rs.getInt(3)), args.toArray()).stream()
+				.filter(bucket -> wanted.contains(new SenderDay(bucket.senderId(), bucket.day().toLocalDate())))
+				.toList();
+	}
+	
+	private static void copy(JdbcTemplate shard, List<Bucket> buckets) {
+		if (buckets.isEmpty()) {
+			return;
+		}
+		shard.batchUpdate(COPY_BUCKET, buckets, buckets.size(), (ps, bucket) -> {
+			ps.setLong(1, bucket.senderId());
+			ps.setDate(2, bucket.day());
+			ps.setInt(3, bucket.count());
+		});
+	}
+	
+	private record SenderCount(long senderId, long count) {}
+	
+	private record Bucket(Long senderId, Date day, int count) {}
+}
@@ -0,0 +1,51 @@
+package fi.invian.codingassignment.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Per-user unread counters, kept in step with message_recipients.read_at by the transactions that
+// change it. The unread badge reads one row instead of counting the user's recipient rows.
+@Repository
+public class UnreadCountRepository {
+	
+	private static final String UPSERT_COUNT = """
+			INSERT INTO user_unread_counts (user_id, unread_count) VALUES (?, ?)
+			ON DUPLICATE KEY UPDATE unread_count = unread_count + VALUES(unread_count)
+			""";
+	
+	private final JdbcTemplate jdbcTemplate;
+	
+	public UnreadCountRepository(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+	
+	// Rows are updated in user id order, so concurrent sends to overlapping recipients lock them
+	// in the same order and cannot deadlock
+	public void incrementAll(Map<Long, Integer> counts) {
+		List<Map.Entry<Long, Integer>> entries = new ArrayList<>(new TreeMap<>(counts).entrySet());
+		jdbcTemplate.batchUpdate(UPSERT_COUNT, entries, entries.size(), (ps, entry) -> {
+			ps.setLong(1, entry.getKey());
+			ps.setInt(2, entry.getValue());
+		});
+	}
+	
+	public void decrementAll(Map<Long, Integer> counts) {
+		List<Map.Entry<Long, Integer>> entries = new ArrayList<>(new TreeMap<>(counts).entrySet());
+		jdbcTemplate.batchUpdate("UPDATE user_unread_counts SET unread_count = unread_count - ? WHERE user_id = ?",
+				entries, entries.size(), (ps, entry) -> {
+					ps.setInt(1, entry.getValue());
+					ps.setLong(2, entry.getKey());
+				});
+	}
+	
+	public long findUnreadCount(Long userId) {
+		List<Long> counts = jdbcTemplate.queryForList(
+				"SELECT unread_count FROM user_unread_counts WHERE user_id = ?", Long.class, userId);
+		return counts.isEmpty() ? 0 : counts.get(0);
+	}
+}
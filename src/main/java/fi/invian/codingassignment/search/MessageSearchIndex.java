@@ -0,0 +1,250 @@
+package fi.invian.codingassignment.search;
+
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.function.FunctionScoreQuery;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+// Embedded Lucene index over the title and body of every message, one document per message with
+// its recipients as a filter field. A search only visits the postings of the query terms that
+// carry the recipient, and keeps the best `limit` hits, so its cost follows the number of matches
+// rather than the size of the inbox.
+//
+// Sends are indexed after their transaction commits and become searchable at the next refresh.
+// Commits to disk run on an interval and record how far the index is complete; MessageSearchIndexJob
+// re-indexes from there on startup, so a crash only costs the work since the last commit. Until
+// that catch-up has finished, commits keep the time found on startup.
+public class MessageSearchIndex {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndex.class);
+	
+	private static final String ID = "id";
+	private static final String RECIPIENT = "recipient";
+	private static final String TITLE = "title";
+	private static final String BODY = "body";
+	private static final String SENT_AT = "sentAt";
+	private static final String INDEXED_UNTIL = "indexedUntil";
+	// Every query term is required, longer queries are cut
+	private static final int MAX_TERMS = 16;
+	private static final float TITLE_BOOST = 2f;
+	
+	private final Analyzer analyzer = new StandardAnalyzer();
+	private final Directory directory;
+	private final IndexWriter writer;
+	private final SearcherManager searcherManager;
+	private final long recencyHalfLife;
+	// From the last commit when the index was opened, null for a new or cleared index
+	private volatile Instant indexedUntil;
+	private volatile boolean caughtUp;
+	private final List<ScheduledFuture<?>> schedules = new ArrayList<>();
+	
+	public MessageSearchIndex(Path path, Duration recencyHalfLife) throws IOException {
+		Files.createDirectories(path);
+		this.directory = FSDirectory.open(path);
+		this.indexedUntil = DirectoryReader.indexExists(directory) ? readIndexedUntil(directory) : null;
+		this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+				.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+		this.searcherManager = new SearcherManager(writer, null);
+		this.recencyHalfLife = recencyHalfLife.toMillis();
+	}
+	
+	private static Instant readIndexedUntil(Directory directory) throws IOException {
+		String value = SegmentInfos.readLatestCommit(directory).getUserData().get(INDEXED_UNTIL);
+		return value != null ? Instant.parse(value) : null;
+	}
+	
+	public void start(TaskScheduler taskScheduler, Duration refreshInterval, Duration commitInterval) {
+		schedules.add(taskScheduler.scheduleWithFixedDelay(this::refresh, refreshInterval));
+		schedules.add(taskScheduler.scheduleWithFixedDelay(this::commit, commitInterval));
+	}
+	
+	public void close() throws IOException {
+		schedules.forEach(schedule -> schedule.cancel(false));
+		commit();
+		searcherManager.close();
+		writer.close();
+		directory.close();
+	}
+	
+	// Every message sent before this time was indexed when the index was opened; empty for a new index
+	public Optional<Instant> getIndexedUntil() {
+		return Optional.ofNullable(indexedUntil);
+	}
+	
+	// Called once the messages since getIndexedUntil are indexed, from then on commits record their own time
+	public void markCaughtUp() {
+		caughtUp = true;
+	}
+	
+	// Adds or replaces the messages, so indexing a message twice is harmless
+	public void index(List<SearchDocument> documents) {
+		try {
+			for (SearchDocument document : documents) {
+				writer.updateDocument(new Term(ID, Long.toString(document.id())), toDocument(document));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot index messages", e);
+		}
+	}
+	
+	public void deleteAll() {
+		try {
+			writer.deleteAll();
+			indexedUntil = null;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot clear the search index", e);
+		}
+	}
+	
+	// Runs after the sending transaction commits. A failure does not fail the send, which is
+	// already committed; the message is picked up again by a rebuild.
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onMessagesSent(MessagesSentEvent event) {
+		Map<Long, List<Long>> recipients = new LinkedHashMap<>();
+		Map<Long, InboxEntry> messages = new LinkedHashMap<>();
+		for (InboxEntry entry : event.entries()) {
+			recipients.computeIfAbsent(entry.messageId(), id -> new ArrayList<>()).add(entry.recipientId());
+			messages.putIfAbsent(entry.messageId(), entry);
+		}
+		List<SearchDocument> documents = new ArrayList<>(messages.size());
+		for (InboxEntry entry : messages.values()) {
+			documents.add(new SearchDocument(entry.messageId(), entry.sentAt(), entry.title(),
+					event.bodies().get(entry.messageId()), recipients.get(entry.messageId())));
+		}
+		try {
+			index(documents);
+		} catch (RuntimeException e) {
+			logger.error("Cannot index {} sent messages", documents.size(), e);
+		}
+	}
+	
+	// Ids of up to limit of the recipient's messages that contain every word of the text in their title
+	// or body, best first. Title matches weigh more, and the score falls with the age of the message.
+	public List<Long> search(long recipientId, String text, int limit) {
+		List<String> terms = analyze(text);
+		if (terms.isEmpty()) {
+			return List.of();
+		}
+		BooleanQuery.Builder query = new BooleanQuery.Builder()
+				.add(new TermQuery(new Term(RECIPIENT, Long.toString(recipientId))), BooleanClause.Occur.FILTER);
+		for (String term : terms) {
+			query.add(new BooleanQuery.Builder()
+					.add(new BoostQuery(new TermQuery(new Term(TITLE, term)), TITLE_BOOST), BooleanClause.Occur.SHOULD)
+					.add(new TermQuery(new Term(BODY, term)), BooleanClause.Occur.SHOULD)
+					.build(), BooleanClause.Occur.MUST);
+		}
+		Query ranked = FunctionScoreQuery.boostByValue(query.build(),
+				new RecencyBoost(SENT_AT, System.currentTimeMillis(), recencyHalfLife));
+		
+		try {
+			IndexSearcher searcher = searcherManager.acquire();
+			try {
+				ScoreDoc[] hits = searcher.search(ranked, limit).scoreDocs;
+				List<Long> ids = new ArrayList<>(hits.length);
+				for (ScoreDoc hit : hits) {
+					ids.add(Long.parseLong(searcher.storedFields().document(hit.doc, Set.of(ID)).get(ID)));
+				}
+				return ids;
+			} finally {
+				searcherManager.release(searcher);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot search messages", e);
+		}
+	}
+	
+	// Makes the documents indexed since the last refresh searchable
+	public void refresh() {
+		try {
+			searcherManager.maybeRefresh();
+		} catch (IOException e) {
+			logger.warn("Cannot refresh the search index", e);
+		}
+	}
+	
+	// Sends whose listener ran before the commit started are durable; the recorded time lets the
+	// startup catch-up begin there instead of rebuilding the whole index
+	public synchronized void commit() {
+		if (!writer.isOpen() || !writer.hasUncommittedChanges()) {
+			return;
+		}
+		Instant until = caughtUp ? Instant.now() : indexedUntil;
+		Map<String, String> data = until != null ? Map.of(INDEXED_UNTIL, until.toString()) : Map.of();
+		try {
+			writer.setLiveCommitData(data.entrySet());
+			writer.commit();
+		} catch (IOException e) {
+			logger.warn("Cannot commit the search index", e);
+		}
+	}
+	
+	private Document toDocument(SearchDocument message) {
+		Document document = new Document();
+		document.add(new StringField(ID, Long.toString(message.id()), Field.Store.YES));
+		for (Long recipientId : message.recipientIds()) {
+			document.add(new StringField(RECIPIENT, Long.toString(recipientId), Field.Store.NO));
+		}
+		document.add(new TextField(TITLE, message.title(), Field.Store.NO));
+		document.add(new TextField(BODY, message.body(), Field.Store.NO));
+		document.add(new NumericDocValuesField(SENT_AT, message.sentAt().toEpochMilli()));
+		return document;
+	}
+	
+	// The distinct terms of the text as the analyzer indexes them: split into words and lowercased
+	private List<String> analyze(String text) {
+		Set<String> terms = new LinkedHashSet<>();
+		try (TokenStream stream = analyzer.tokenStream(BODY, text)) {
+			CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (terms.size() < MAX_TERMS && stream.incrementToken()) {
+				terms.add(term.toString());
+			}
+			stream.end();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return List.copyOf(terms);
+	}
+}
@@ -0,0 +1,75 @@
+package fi.invian.codingassignment.search;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DoubleValues;
+import org.apache.lucene.search.DoubleValuesSource;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+import java.util.Objects;
+
+// Multiplier for the relevance score that decays exponentially with the age of the message: 1 for a
+// message sent now, 1/2 after one half-life, 1/4 after two. Older matches still rank, a much better
+// match can outrank a newer one.
+final class RecencyBoost extends DoubleValuesSource {
+	
+	private final String field;
+	private final long now;
+	private final long halfLife;
+	
+	RecencyBoost(String field, long now, long halfLife) {
+		this.field = field;
+		this.now = now;
+		this.halfLife = halfLife;
+	}
+	
+	@Override
+	public DoubleValues getValues(LeafReaderContext context, DoubleValues scores) throws IOException {
+		NumericDocValues sentAt = DocValues.getNumeric(context.reader(), field);
+		return new DoubleValues() {
+			@Override
+			public double doubleValue() throws IOException {
+				long age = Math.max(0, now - sentAt.longValue());
+				return Math.pow(0.5, (double) age / halfLife);
+			}
+			
+			@Override
+			public boolean advanceExact(int doc) throws IOException {
+				return sentAt.advanceExact(doc);
+			}
+		};
+	}
+	
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+	
+	@Override
+	public DoubleValuesSource rewrite(IndexSearcher searcher) {
+		return this;
+	}
+	
+	@Override
+	public boolean isCacheable(LeafReaderContext context) {
+		return DocValues.isCacheable(context, field);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof RecencyBoost other
+				&& field.equals(other.field) && now == other.now && halfLife == other.halfLife;
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(field, now, halfLife);
+	}
+	
+	@Override
+	public String toString() {
+		return "recency(" + field + ", halfLife=" + halfLife + ")";
+	}
+}
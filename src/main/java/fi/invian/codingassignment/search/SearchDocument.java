@@ -0,0 +1,14 @@
+package fi.invian.codingassignment.search;
+
+import java.time.Instant;
+import java.util.List;
+
+// The searchable part of a message. Results are resolved to summaries through the database or
+// the archive, so only what is matched or ranked on is indexed.
+public record SearchDocument(
+		long id,
+		Instant sentAt,
+		String title,
+		String body,
+		List<Long> recipientIds
+) {}
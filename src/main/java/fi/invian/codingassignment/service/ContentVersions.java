@@ -0,0 +1,84 @@
+package fi.invian.codingassignment.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fi.invian.codingassignment.repository.InboxEntry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Versions of the data behind the polled GET endpoints, used as strong ETags so that unchanged
+// responses are answered with 304 without a query. Versions are bumped after the sending
+// transaction commits: a reader takes the version before querying, so a response can be tagged
+// older than its data, never newer.
+//
+// Versions are held in memory. The instance id in every tag keeps tags from another instance or
+// from before a restart from matching, but sends through another instance are not seen, so
+// conditional requests are only enabled (messaging.etag.enabled) where one instance takes all writes.
+// Each wire format is a different representation with its own bytes, so the format is part of the tag.
+@Component
+public class ContentVersions {
+	
+	private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+	private final AtomicLong sequence = new AtomicLong();
+	// Version of recipients that are not tracked, raised to every evicted version so that
+	// a recipient's version never goes back to a value it reported before its last change
+	private final AtomicLong untrackedVersion = new AtomicLong();
+	private final AtomicLong statisticsVersion = new AtomicLong();
+	private final Cache<Long, Long> inboxVersions;
+	
+	public ContentVersions(@Value("${messaging.etag.max-tracked-recipients:100000}") long maxTrackedRecipients) {
+		this.inboxVersions = Caffeine.newBuilder()
+				.maximumSize(maxTrackedRecipients)
+				// Evict on the writing thread, so the raised version is visible as soon as the entry is gone
+				.executor(Runnable::run)
+				.<Long, Long>evictionListener((recipientId, version, cause) ->
+						untrackedVersion.accumulateAndGet(version, Math::max))
+				.build();
+	}
+	
+	// fallbackExecution also covers sends made outside a transaction, which commit immediately
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onMessagesSent(MessagesSentEvent event) {
+		long version = sequence.incrementAndGet();
+		for (InboxEntry entry : event.entries()) {
+			inboxVersions.put(entry.recipientId(), version);
+		}
+		statisticsVersion.incrementAndGet();
+	}
+	
+	// Read state is part of the inbox listing and the unread count
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onMessagesRead(MessagesReadEvent event) {
+		long version = sequence.incrementAndGet();
+		for (Long recipientId : event.recipientIds()) {
+			inboxVersions.put(recipientId, version);
+		}
+	}
+	
+	// For writes to the statistics that do not go through a send, like compaction
+	public void statisticsChanged() {
+		statisticsVersion.incrementAndGet();
+	}
+	
+	// Covers every listing of the recipient's inbox and its unread count; page and cursor are part of the URL
+	public String inboxETag(Long recipientId, MediaType representation) {
+		Long version = inboxVersions.getIfPresent(recipientId);
+		return "\"inbox-" + instanceId + "-" + (version != null ? version : untrackedVersion.get()) + "-"
+				+ representation.getSubtype() + "\"";
+	}
+	
+	// The window start is rounded to the UTC day like MessageService.getTopSenders, so the tag
+	// also changes when the window moves to the next day
+	public String statisticsETag(Instant fromDate, MediaType representation) {
+		return "\"statistics-" + instanceId + "-" + statisticsVersion.get() + "-"
+				+ LocalDate.ofInstant(fromDate, ZoneOffset.UTC) + "-" + representation.getSubtype() + "\"";
+	}
+}
@@ -0,0 +1,134 @@
+package fi.invian.codingassignment.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fi.invian.codingassignment.admission.SenderRateLimiter;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.exception.IdempotencyKeyReusedException;
+import fi.invian.codingassignment.repository.IdempotencyKeyRepository;
+import fi.invian.codingassignment.repository.IdempotencyKeyRepository.StoredSend;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Sends for POST /messages with an Idempotency-Key header. A retry with the same key and request
+// returns the message created by the first attempt instead of sending it again:
+// - answered from a size-bounded cache of recent keys, without a query;
+// - concurrent requests with the same key on this instance wait for the one in flight;
+// - otherwise the idempotency_keys table decides, which also covers other instances and restarts.
+// A key reused for a different request is rejected. Only an attempt that actually sends is charged
+// to the sender's rate limit, so a client retrying after a lost response gets its stored result.
+@Service
+public class IdempotentSendService {
+	
+	private final MessageService messageService;
+	private final IdempotencyKeyRepository idempotencyKeyRepository;
+	private final SenderRateLimiter senderRateLimiter;
+	private final Cache<IdempotencyKey, StoredSend> recent;
+	private final Map<IdempotencyKey, CompletableFuture<StoredSend>> inFlight = new ConcurrentHashMap<>();
+	
+	public IdempotentSendService(MessageService messageService, IdempotencyKeyRepository idempotencyKeyRepository,
+								 SenderRateLimiter senderRateLimiter, MeterRegistry meterRegistry,
+								 @Value("${messaging.idempotency.cache-size:100000}") long cacheSize,
+								 @Value("${messaging.idempotency.retention:24h}") Duration retention) {
+		this.messageService = messageService;
+		this.idempotencyKeyRepository = idempotencyKeyRepository;
+		this.senderRateLimiter = senderRateLimiter;
+		this.recent = Caffeine.newBuilder()
+				.maximumSize(cacheSize)
+				.expireAfterWrite(retention)
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(meterRegistry, recent, "idempotency-keys");
+	}
+	
+	public SendOutcome sendMessage(String key, SendMessageRequest request) {
+		IdempotencyKey id = new IdempotencyKey(request.getSenderId(), key);
+		String fingerprint = fingerprint(request);
+		while (true) {
+			StoredSend cached = recent.getIfPresent(id);
+			if (cached != null) {
+				return replay(key, cached, fingerprint);
+			}
+			CompletableFuture<StoredSend> attempt = new CompletableFuture<>();
+			CompletableFuture<StoredSend> running = inFlight.putIfAbsent(id, attempt);
+			if (running == null) {
+				return send(id, request, fingerprint, attempt);
+			}
+			try {
+				return replay(key, running.join(), fingerprint);
+			} catch (CompletionException e) {
+				// The attempt in flight failed and sent nothing, so try again ourselves
+			}
+		}
+	}
+	
+	private SendOutcome send(IdempotencyKey id, SendMessageRequest request, String fingerprint,
+							 CompletableFuture<StoredSend> attempt) {
+		try {
+			Optional<StoredSend> stored = idempotencyKeyRepository.find(id.senderId(), id.key());
+			SendOutcome outcome;
+			if (stored.isPresent()) {
+				outcome = replay(id.key(), stored.get(), fingerprint);
+			} else {
+				senderRateLimiter.acquire(id.senderId(), 1);
+				outcome = sendOnce(id, request, fingerprint);
+			}
+			StoredSend sent = new StoredSend(fingerprint, outcome.messageId());
+			recent.put(id, sent);
+			attempt.complete(sent);
+			return outcome;
+		} catch (RuntimeException e) {
+			attempt.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(id, attempt);
+		}
+	}
+	
+	private SendOutcome sendOnce(IdempotencyKey id, SendMessageRequest request, String fingerprint) {
+		try {
+			return new SendOutcome(messageService.sendMessage(request, id.key(), fingerprint), false);
+		} catch (DuplicateKeyException e) {
+			// Another instance committed the same key while this send waited on its row
+			StoredSend stored = idempotencyKeyRepository.find(id.senderId(), id.key()).orElseThrow(() -> e);
+			return replay(id.key(), stored, fingerprint);
+		}
+	}
+	
+	private static SendOutcome replay(String key, StoredSend stored, String fingerprint) {
+		if (!stored.fingerprint().equals(fingerprint)) {
+			throw new IdempotencyKeyReusedException("Idempotency key " + key + " was already used for a different message.");
+		}
+		return new SendOutcome(stored.messageId(), true);
+	}
+	
+	// SHA-256 over the fields of the request, so a replay can be told apart from a reused key
+	static String fingerprint(SendMessageRequest request) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			String canonical = request.getSenderId() + "\n" + request.getRecipientIds() + "\n"
+					+ request.getTitle().length() + ":" + request.getTitle() + "\n" + request.getBody();
+			return HexFormat.of().formatHex(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	public record SendOutcome(Long messageId, boolean replayed) {}
+	
+	private record IdempotencyKey(Long senderId, String key) {}
+}
@@ -0,0 +1,60 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.replica.ReadYourWritesTracker;
+import fi.invian.codingassignment.repository.MessageRepository;
+import fi.invian.codingassignment.search.MessageSearchIndex;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Service
+@ConditionalOnProperty(name = "messaging.search.enabled", havingValue = "true")
+public class MessageSearchService {
+	
+	private final MessageSearchIndex messageSearchIndex;
+	private final MessageRepository messageRepository;
+	private final MessageArchive messageArchive;
+	private final MessageService messageService;
+	private final ReadYourWritesTracker readYourWritesTracker;
+	
+	public MessageSearchService(MessageSearchIndex messageSearchIndex, MessageRepository messageRepository,
+								MessageArchive messageArchive, MessageService messageService,
+								ReadYourWritesTracker readYourWritesTracker) {
+		this.messageSearchIndex = messageSearchIndex;
+		this.messageRepository = messageRepository;
+		this.messageArchive = messageArchive;
+		this.messageService = messageService;
+		this.readYourWritesTracker = readYourWritesTracker;
+	}
+	
+	// The index ranks the ids, the summaries come from the database in one query and from the archive
+	// for messages that were moved there. Ids found in neither are skipped.
+	@Transactional(readOnly = true)
+	public List<MessageSummaryResponse> searchMessages(Long userId, String query, int limit) {
+		readYourWritesTracker.pinIfRecentWriter(userId);
+		messageService.requireUser(userId);
+		List<Long> ids = messageSearchIndex.search(userId, query, limit);
+		if (ids.isEmpty()) {
+			return List.of();
+		}
+		
+		Map<Long, MessageSummaryResponse> found = messageRepository.findSummariesForRecipient(userId, ids).stream()
+				.collect(Collectors.toMap(MessageSummaryResponse::id, Function.identity()));
+		List<MessageSummaryResponse> results = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			Optional.ofNullable(found.get(id))
+					.or(() -> messageArchive.findSummary(id, userId))
+					.ifPresent(results::add);
+		}
+		return results;
+	}
+}
@@ -1,21 +1,55 @@
 package fi.invian.codingassignment.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.CursorPage;
+import fi.invian.codingassignment.dto.MessageCursor;
 import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
 import fi.invian.codingassignment.dto.SendMessageRequest;
 import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.dto.UnreadCountResponse;
 import fi.invian.codingassignment.entity.Message;
 import fi.invian.codingassignment.entity.User;
+import fi.invian.codingassignment.exception.MessageNotFoundException;
 import fi.invian.codingassignment.exception.UserNotFoundException;
+import fi.invian.codingassignment.repository.IdempotencyKeyRepository;
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.repository.InboxRepository;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
 import fi.invian.codingassignment.repository.MessageRepository;
+import fi.invian.codingassignment.repository.SenderStatisticsRepository;
+import fi.invian.codingassignment.repository.SenderStatisticsRepository.SenderDay;
+import fi.invian.codingassignment.repository.UnreadCountRepository;
+import fi.invian.codingassignment.replica.ReadYourWritesTracker;
 import fi.invian.codingassignment.repository.UserRepository;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -23,46 +57,356 @@ public class MessageService {
 	
 	private final MessageRepository messageRepository;
 	private final UserRepository userRepository;
+	private final MessageJdbcRepository messageJdbcRepository;
+	private final SenderStatisticsRepository senderStatisticsRepository;
+	private final UnreadCountRepository unreadCountRepository;
+	private final IdempotencyKeyRepository idempotencyKeyRepository;
+	private final UserCache userCache;
+	private final InboxRepository inboxRepository;
+	private final ReadYourWritesTracker readYourWritesTracker;
+	private final MessageArchive messageArchive;
+	private final ApplicationEventPublisher eventPublisher;
+	private final ObjectMapper objectMapper;
+	private final TransactionTemplate readOnlyTransaction;
 	
-	public MessageService(MessageRepository messageRepository, UserRepository userRepository) {
+	public MessageService(MessageRepository messageRepository, UserRepository userRepository,
+						  MessageJdbcRepository messageJdbcRepository,
+						  SenderStatisticsRepository senderStatisticsRepository,
+						  UnreadCountRepository unreadCountRepository,
+						  IdempotencyKeyRepository idempotencyKeyRepository,
+						  UserCache userCache,
+						  InboxRepository inboxRepository,
+						  ReadYourWritesTracker readYourWritesTracker,
+						  MessageArchive messageArchive,
+						  ApplicationEventPublisher eventPublisher,
+						  ObjectMapper objectMapper,
+						  PlatformTransactionManager transactionManager) {
 		this.messageRepository = messageRepository;
 		this.userRepository = userRepository;
+		this.messageJdbcRepository = messageJdbcRepository;
+		this.senderStatisticsRepository = senderStatisticsRepository;
+		this.unreadCountRepository = unreadCountRepository;
+		this.idempotencyKeyRepository = idempotencyKeyRepository;
+		this.userCache = userCache;
+		this.inboxRepository = inboxRepository;
+		this.readYourWritesTracker = readYourWritesTracker;
+		this.messageArchive = messageArchive;
+		this.eventPublisher = eventPublisher;
+		this.objectMapper = objectMapper;
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
 	}
 	
 	@Transactional
 	public Long sendMessage(SendMessageRequest request) {
-		// Validate sender
-		User sender = userRepository.findById(request.getSenderId())
+		// Validate sender and recipients against the user cache
+		String senderName = userCache.findName(request.getSenderId())
 				.orElseThrow(() -> new UserNotFoundException("Sender with ID " + request.getSenderId() + " does not exist."));
+		List<User> recipients = getRecipientsByIds(request.getRecipientIds());
 		
-		// Convert request to entity
+		// Convert request to entity, users are attached as references without loading them
 		Message message = request.toMessageEntity();
-		message.setSender(sender);
-		
-		// Fetch recipients and add to message
-		List<User> recipients = getRecipientsByIds(request.getRecipientIds());
+		message.setSender(userRepository.getReferenceById(request.getSenderId()));
 		recipients.forEach(message::addRecipient);
 		
-		// Save the message
-		return messageRepository.save(message).getId();
+		// Save the message, add it to the recipients' inboxes and unread counts and count it for the sender statistics
+		Message saved = messageRepository.save(message);
+		List<InboxEntry> inboxEntries = toInboxEntries(saved, request.getSenderId(), senderName, request.getRecipientIds());
+		inboxRepository.append(inboxEntries);
+		unreadCountRepository.incrementAll(unreadCounts(inboxEntries));
+		senderStatisticsRepository.increment(request.getSenderId(), statisticsDay(saved.getSentAt()), 1);
+		eventPublisher.publishEvent(new MessagesSentEvent(inboxEntries, Map.of(saved.getId(), request.getBody())));
+		return saved.getId();
+	}
+	
+	// Sends the message and records its idempotency key in the same transaction. The key is inserted
+	// first, so a concurrent send with the same key blocks on it and fails with a duplicate key
+	// before writing anything.
+	@Transactional
+	public Long sendMessage(SendMessageRequest request, String idempotencyKey, String fingerprint) {
+		idempotencyKeyRepository.insert(request.getSenderId(), idempotencyKey, fingerprint, Instant.now());
+		Long messageId = sendMessage(request);
+		idempotencyKeyRepository.setMessageId(request.getSenderId(), idempotencyKey, messageId);
+		return messageId;
+	}
+	
+	// Checks the sender and recipients without sending, for callers that defer the write
+	public void validateUsers(SendMessageRequest request) {
+		if (!userCache.exists(request.getSenderId())) {
+			throw new UserNotFoundException("Sender with ID " + request.getSenderId() + " does not exist.");
+		}
+		requireRecipients(request.getRecipientIds());
+	}
+	
+	@Transactional
+	public List<BatchSendResult> sendMessages(List<SendMessageRequest> requests) {
+		// Resolve every sender and recipient of the batch with a single lookup
+		Set<Long> userIds = new HashSet<>();
+		for (SendMessageRequest request : requests) {
+			userIds.add(request.getSenderId());
+			userIds.addAll(request.getRecipientIds());
+		}
+		Map<Long, User> users = new HashMap<>();
+		userCache.findNames(userIds).forEach((id, name) -> users.put(id, new User(id, name)));
+		
+		BatchSendResult[] results = new BatchSendResult[requests.size()];
+		List<Message> accepted = new ArrayList<>();
+		List<Integer> acceptedIndexes = new ArrayList<>();
+		for (int i = 0; i < requests.size(); i++) {
+			SendMessageRequest request = requests.get(i);
+			String error = findMissingUser(request, users);
+			if (error != null) {
+				results[i] = BatchSendResult.failed(i, error);
+				continue;
+			}
+			
+			Message message = request.toMessageEntity();
+			message.setSender(users.get(request.getSenderId()));
+			request.getRecipientIds().stream()
+					.distinct()
+					.map(users::get)
+					.forEach(message::addRecipient);
+			accepted.add(message);
+			acceptedIndexes.add(i);
+		}
+		
+		List<Long> messageIds = List.of();
+		if (!accepted.isEmpty()) {
+			messageIds = messageJdbcRepository.insertMessages(accepted);
+			List<InboxEntry> inboxEntries = new ArrayList<>();
+			for (Message message : accepted) {
+				List<Long> recipientIds = message.getRecipients().stream()
+						.map(recipient -> recipient.getRecipient().getId())
+						.toList();
+				inboxEntries.addAll(toInboxEntries(message, message.getSender().getId(), message.getSender().getName(), recipientIds));
+			}
+			inboxRepository.append(inboxEntries);
+			unreadCountRepository.incrementAll(unreadCounts(inboxEntries));
+			senderStatisticsRepository.incrementAll(accepted.stream().collect(Collectors.groupingBy(
+					message -> new SenderDay(message.getSender().getId(), statisticsDay(message.getSentAt())),
+					Collectors.summingInt(message -> 1))));
+			eventPublisher.publishEvent(new MessagesSentEvent(inboxEntries,
+					accepted.stream().collect(Collectors.toMap(Message::getId, Message::getBody))));
+		}
+		for (int i = 0; i < messageIds.size(); i++) {
+			int index = acceptedIndexes.get(i);
+			results[index] = BatchSendResult.sent(index, messageIds.get(i));
+		}
+		return List.of(results);
+	}
+	
+	// Sends the batch and records each request's key as an idempotency key of its sender in the same
+	// transaction. A request whose key is already stored is not sent again, its result carries the
+	// stored message, so a batch can be retried or replayed whether or not an earlier attempt committed.
+	@Transactional
+	public List<BatchSendResult> sendMessages(List<SendMessageRequest> requests, List<String> idempotencyKeys) {
+		List<IdempotencyKeyRepository.Key> keys = new ArrayList<>(requests.size());
+		for (int i = 0; i < requests.size(); i++) {
+			keys.add(new IdempotencyKeyRepository.Key(requests.get(i).getSenderId(), idempotencyKeys.get(i)));
+		}
+		Map<IdempotencyKeyRepository.Key, Long> stored = idempotencyKeyRepository.findMessageIds(keys);
+		
+		BatchSendResult[] results = new BatchSendResult[requests.size()];
+		List<Integer> unsent = new ArrayList<>();
+		for (int i = 0; i < requests.size(); i++) {
+			Long messageId = stored.get(keys.get(i));
+			if (messageId != null) {
+				results[i] = BatchSendResult.sent(i, messageId);
+			} else {
+				unsent.add(i);
+			}
+		}
+		if (!unsent.isEmpty()) {
+			List<BatchSendResult> sent = sendMessages(unsent.stream().map(requests::get).toList());
+			List<IdempotencyKeyRepository.StoredKey> sentKeys = new ArrayList<>();
+			for (BatchSendResult result : sent) {
+				int index = unsent.get(result.index());
+				results[index] = new BatchSendResult(index, result.messageId(), result.error());
+				if (result.messageId() != null) {
+					sentKeys.add(new IdempotencyKeyRepository.StoredKey(keys.get(index),
+							IdempotentSendService.fingerprint(requests.get(index)), result.messageId()));
+				}
+			}
+			if (!sentKeys.isEmpty()) {
+				idempotencyKeyRepository.insertAll(sentKeys, Instant.now());
+			}
+		}
+		return List.of(results);
+	}
+	
+	private static List<InboxEntry> toInboxEntries(Message message, Long senderId, String senderName, List<Long> recipientIds) {
+		return recipientIds.stream()
+				.distinct()
+				.map(recipientId -> new InboxEntry(recipientId, message.getSentAt(), message.getId(),
+						senderId, senderName, message.getTitle(), message.getSnippet()))
+				.toList();
+	}
+	
+	private static Map<Long, Integer> unreadCounts(List<InboxEntry> inboxEntries) {
+		return inboxEntries.stream().collect(Collectors.groupingBy(InboxEntry::recipientId, Collectors.summingInt(entry -> 1)));
+	}
+	
+	// Marks the user's messages as read with one update for the whole list, however many ids it holds.
+	// Messages that are already read, archived or not addressed to the user are left as they are.
+	@Transactional
+	public UnreadCountResponse markAsRead(Long userId, List<Long> messageIds) {
+		requireUser(userId);
+		List<Long> distinctIds = messageIds.stream().distinct().toList();
+		Instant readAt = Instant.now();
+		int marked = messageJdbcRepository.markRead(userId, distinctIds, readAt);
+		if (marked > 0) {
+			inboxRepository.markRead(userId, distinctIds, readAt);
+			unreadCountRepository.decrementAll(Map.of(userId, marked));
+			eventPublisher.publishEvent(new MessagesReadEvent(List.of(userId)));
+		}
+		return new UnreadCountResponse(userId, unreadCountRepository.findUnreadCount(userId));
+	}
+	
+	// A single row lookup of the counter kept by sends, markAsRead and the archive job
+	@Transactional(readOnly = true)
+	public UnreadCountResponse getUnreadCount(Long userId) {
+		readYourWritesTracker.pinIfRecentWriter(userId);
+		requireUser(userId);
+		return new UnreadCountResponse(userId, unreadCountRepository.findUnreadCount(userId));
+	}
+	
+	private String findMissingUser(SendMessageRequest request, Map<Long, User> users) {
+		if (!users.containsKey(request.getSenderId())) {
+			return "Sender with ID " + request.getSenderId() + " does not exist.";
+		}
+		for (Long recipientId : request.getRecipientIds()) {
+			if (!users.containsKey(recipientId)) {
+				return "Recipient with ID " + recipientId + " does not exist.";
+			}
+		}
+		return null;
 	}
 	
 	private List<User> getRecipientsByIds(List<Long> recipientIds) {
+		requireRecipients(recipientIds);
 		return recipientIds.stream()
-				.map(id -> userRepository.findById(id)
-						.orElseThrow(() -> new UserNotFoundException("Recipient with ID " + id + " does not exist.")))
+				.map(userRepository::getReferenceById)
 				.collect(Collectors.toList());
 	}
 	
-	public Page<MessageResponse> getUserMessages(Long userId, Pageable pageable) {
-		if (!userRepository.existsById(userId)) {
+	private void requireRecipients(List<Long> recipientIds) {
+		Map<Long, String> known = userCache.findNames(recipientIds);
+		for (Long id : recipientIds) {
+			if (!known.containsKey(id)) {
+				throw new UserNotFoundException("Recipient with ID " + id + " does not exist.");
+			}
+		}
+	}
+	
+	public void requireUser(Long userId) {
+		if (!userCache.exists(userId)) {
 			throw new UserNotFoundException("User with ID " + userId + " does not exist.");
 		}
-		return messageRepository.findMessagesByRecipientId(userId, pageable);
 	}
 	
+	// Read-only transactions are served by a replica when messaging.replicas.enabled is set.
+	// With archived messages, the first offset + size rows of both tiers are merged, since the tiers
+	// can overlap (see MessageArchive.merge). The total only leaves out the overlap within those rows.
+	@Transactional(readOnly = true)
+	public Page<MessageSummaryResponse> getUserMessages(Long userId, Pageable pageable) {
+		readYourWritesTracker.pinIfRecentWriter(userId);
+		requireUser(userId);
+		long archived = messageArchive.count(userId);
+		if (archived == 0) {
+			return inboxRepository.findMessages(userId, pageable);
+		}
+		
+		int window = (int) Math.min(Integer.MAX_VALUE, pageable.getOffset() + pageable.getPageSize());
+		Page<MessageSummaryResponse> page = inboxRepository.findMessages(userId, PageRequest.of(0, window, pageable.getSort()));
+		List<MessageSummaryResponse> archivedMessages = messageArchive.findMessages(userId, 0, window);
+		List<MessageSummaryResponse> merged = MessageArchive.merge(page.getContent(), archivedMessages);
+		long duplicates = page.getContent().size() + archivedMessages.size() - merged.size();
+		int from = (int) Math.min(pageable.getOffset(), merged.size());
+		return new PageImpl<>(merged.subList(from, Math.min(merged.size(), from + pageable.getPageSize())), pageable,
+				page.getTotalElements() + archived - duplicates);
+	}
+	
+	@Transactional(readOnly = true)
+	public CursorPage<MessageSummaryResponse> getUserMessages(Long userId, String cursor, int size) {
+		readYourWritesTracker.pinIfRecentWriter(userId);
+		requireUser(userId);
+		
+		// Fetch one extra row to find out whether another slice follows
+		MessageCursor position = cursor == null || cursor.isEmpty() ? null : MessageCursor.decode(cursor);
+		List<MessageSummaryResponse> messages = position == null
+				? inboxRepository.findFirstMessages(userId, size + 1)
+				: inboxRepository.findMessagesBefore(userId, position, size + 1);
+		if (messageArchive.count(userId) > 0) {
+			messages = MessageArchive.merge(messages, messageArchive.findMessagesBefore(userId, position, size + 1));
+		}
+		
+		if (messages.size() <= size) {
+			return new CursorPage<>(messages, null);
+		}
+		List<MessageSummaryResponse> content = messages.subList(0, size);
+		return new CursorPage<>(content, MessageCursor.of(content.get(size - 1)).encode());
+	}
+	
+	// Full message for one of its recipients. A message the user did not receive is reported as missing,
+	// so its existence is not revealed to other users.
+	@Transactional(readOnly = true)
+	public MessageResponse getMessage(Long messageId, Long recipientId) {
+		readYourWritesTracker.pinIfRecentWriter(recipientId);
+		requireUser(recipientId);
+		return messageRepository.findMessageForRecipient(messageId, recipientId)
+				.or(() -> messageArchive.findMessage(messageId, recipientId))
+				.orElseThrow(() -> new MessageNotFoundException("Message with ID " + messageId + " does not exist."));
+	}
+	
+	// Up to limit full messages of the user sent at or after the given time, oldest first
+	@Transactional(readOnly = true)
+	public List<MessageResponse> getMessagesSince(Long userId, Instant since, int limit) {
+		readYourWritesTracker.pinIfRecentWriter(userId);
+		return messageRepository.findMessagesByRecipientIdSince(userId, since, PageRequest.of(0, limit));
+	}
+	
+	// Writes every message of the user as newline-delimited JSON, one page in memory at a time.
+	// Each page is read in its own short read-only transaction, so an export to a slow client does
+	// not hold a connection. Archived messages follow, skipping any whose rows were still in the
+	// database. The caller checks the user with requireUser before the response is committed.
+	public void exportUserMessages(Long userId, OutputStream out) throws IOException {
+		ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+			generator.setRootValueSeparator(null);
+			Consumer<MessageResponse> rowWriter = message -> {
+				try {
+					writer.writeValue(generator, message);
+					generator.writeRaw('\n');
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			};
+			Set<Long> exported = new HashSet<>();
+			boolean archived = messageArchive.count(userId) > 0;
+			messageJdbcRepository.forEachMessageByRecipientId(userId, page -> readOnlyTransaction.execute(status -> {
+				readYourWritesTracker.pinIfRecentWriter(userId);
+				return page.get();
+			}), message -> {
+				if (archived) {
+					exported.add(message.id());
+				}
+				rowWriter.accept(message);
+			});
+			messageArchive.forEachMessage(userId, message -> {
+				if (!exported.contains(message.id())) {
+					rowWriter.accept(message);
+				}
+			});
+		}
+	}
+	
+	// Answered from the daily sender buckets, so the window is rounded down to whole UTC days
+	@Transactional(readOnly = true)
 	public List<StatisticsResponse> getTopSenders(Instant fromDate, int limit) {
-		Pageable pageable = PageRequest.of(0, limit);
-		return messageRepository.findTopSenders(fromDate, pageable);
+		return senderStatisticsRepository.findTopSenders(statisticsDay(fromDate), limit);
+	}
+	
+	private static LocalDate statisticsDay(Instant instant) {
+		return LocalDate.ofInstant(instant, ZoneOffset.UTC);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+package fi.invian.codingassignment.service;
+
+import java.util.List;
+
+// Published inside the transaction that marked messages as read, with the recipients whose read
+// state and unread count changed. Archiving marks the archived messages as read as well.
+public record MessagesReadEvent(
+		List<Long> recipientIds
+) {}
@@ -0,0 +1,14 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.repository.InboxEntry;
+
+import java.util.List;
+import java.util.Map;
+
+// Published by MessageService inside the sending transaction, one inbox entry per recipient and
+// the full body per message id. Listeners that must only see committed messages use
+// @TransactionalEventListener.
+public record MessagesSentEvent(
+		List<InboxEntry> entries,
+		Map<Long, String> bodies
+) {}
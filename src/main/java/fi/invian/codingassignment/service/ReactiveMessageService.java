@@ -0,0 +1,97 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.dto.UnreadCountResponse;
+import fi.invian.codingassignment.exception.MessageNotFoundException;
+import fi.invian.codingassignment.exception.UserNotFoundException;
+import fi.invian.codingassignment.repository.ReactiveMessageRepository;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+@Service
+@Profile("reactive")
+public class ReactiveMessageService {
+	
+	private final ReactiveMessageRepository reactiveMessageRepository;
+	private final MessageArchive messageArchive;
+	
+	public ReactiveMessageService(ReactiveMessageRepository reactiveMessageRepository, MessageArchive messageArchive) {
+		this.reactiveMessageRepository = reactiveMessageRepository;
+		this.messageArchive = messageArchive;
+	}
+	
+	public Mono<Page<MessageSummaryResponse>> getUserMessages(Long userId, Pageable pageable) {
+		return reactiveMessageRepository.existsUserById(userId)
+				.flatMap(exists -> {
+					if (!exists) {
+						return Mono.error(new UserNotFoundException("User with ID " + userId + " does not exist."));
+					}
+					long archived = messageArchive.count(userId);
+					if (archived == 0) {
+						return Mono.zip(
+								reactiveMessageRepository.findMessagesByRecipientId(
+										userId, pageable.getPageSize(), pageable.getOffset()).collectList(),
+								reactiveMessageRepository.countMessagesByRecipientId(userId),
+								(content, total) -> new PageImpl<>(content, pageable, total));
+					}
+					int window = (int) Math.min(Integer.MAX_VALUE, pageable.getOffset() + pageable.getPageSize());
+					return Mono.zip(
+							reactiveMessageRepository.findMessagesByRecipientId(userId, window, 0).collectList(),
+							reactiveMessageRepository.countMessagesByRecipientId(userId),
+							(content, total) -> withArchived(userId, pageable, window, archived, content, total));
+				});
+	}
+	
+	// Same tiering as MessageService.getUserMessages; archive segments are memory-mapped and read in place
+	private Page<MessageSummaryResponse> withArchived(Long userId, Pageable pageable, int window, long archived,
+													 List<MessageSummaryResponse> content, long total) {
+		List<MessageSummaryResponse> archivedMessages = messageArchive.findMessages(userId, 0, window);
+		List<MessageSummaryResponse> merged = MessageArchive.merge(content, archivedMessages);
+		long duplicates = content.size() + archivedMessages.size() - merged.size();
+		int from = (int) Math.min(pageable.getOffset(), merged.size());
+		return new PageImpl<>(merged.subList(from, Math.min(merged.size(), from + pageable.getPageSize())), pageable,
+				total + archived - duplicates);
+	}
+	
+	public Mono<MessageResponse> getMessage(Long messageId, Long recipientId) {
+		return reactiveMessageRepository.existsUserById(recipientId)
+				.flatMap(exists -> {
+					if (!exists) {
+						return Mono.error(new UserNotFoundException("User with ID " + recipientId + " does not exist."));
+					}
+					return reactiveMessageRepository.findMessageForRecipient(messageId, recipientId)
+							.switchIfEmpty(Mono.fromSupplier(() -> messageArchive.findMessage(messageId, recipientId).orElse(null)))
+							.switchIfEmpty(Mono.error(new MessageNotFoundException(
+									"Message with ID " + messageId + " does not exist.")));
+				});
+	}
+	
+	public Mono<UnreadCountResponse> getUnreadCount(Long userId) {
+		return reactiveMessageRepository.existsUserById(userId)
+				.flatMap(exists -> {
+					if (!exists) {
+						return Mono.error(new UserNotFoundException("User with ID " + userId + " does not exist."));
+					}
+					return reactiveMessageRepository.findUnreadCount(userId)
+							.map(count -> new UnreadCountResponse(userId, count));
+				});
+	}
+	
+	// Same daily buckets as MessageService.getTopSenders
+	public Flux<StatisticsResponse> getTopSenders(Instant fromDate, int limit) {
+		return reactiveMessageRepository.findTopSenders(LocalDate.ofInstant(fromDate, ZoneOffset.UTC), limit);
+	}
+}
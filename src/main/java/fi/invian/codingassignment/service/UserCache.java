@@ -0,0 +1,97 @@
+package fi.invian.codingassignment.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import fi.invian.codingassignment.entity.User;
+import fi.invian.codingassignment.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+// Size-bounded cache of user names in front of UserRepository, used to validate senders and
+// recipients without a round trip. Unknown ids are cached as empty entries with a shorter TTL.
+// Hit/miss counts are published as the "users" cache metrics.
+@Component
+public class UserCache {
+	
+	private final UserRepository userRepository;
+	private final Cache<Long, Optional<String>> names;
+	
+	public UserCache(UserRepository userRepository,
+					 MeterRegistry meterRegistry,
+					 @Value("${messaging.user-cache.maximum-size:100000}") long maximumSize,
+					 @Value("${messaging.user-cache.expire-after-write:10m}") Duration expireAfterWrite,
+					 @Value("${messaging.user-cache.negative-expire-after-write:30s}") Duration negativeExpireAfterWrite) {
+		this.userRepository = userRepository;
+		this.names = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfter(new PositiveNegativeExpiry(expireAfterWrite, negativeExpireAfterWrite))
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(meterRegistry, names, "users");
+	}
+	
+	public boolean exists(Long userId) {
+		return findName(userId).isPresent();
+	}
+	
+	public Optional<String> findName(Long userId) {
+		return names.get(userId, id -> userRepository.findById(id).map(User::getName));
+	}
+	
+	// Returns the names of the known users among the ids, misses are loaded with one query
+	public Map<Long, String> findNames(Collection<Long> userIds) {
+		Map<Long, Optional<String>> cached = names.getAll(userIds, this::loadAll);
+		Map<Long, String> known = new HashMap<>();
+		cached.forEach((id, name) -> name.ifPresent(value -> known.put(id, value)));
+		return known;
+	}
+	
+	public void invalidate(Long userId) {
+		names.invalidate(userId);
+	}
+	
+	// After the commit, so a lookup running meanwhile cannot cache the old row again once it is
+	// evicted, and a change that rolls back evicts nothing. fallbackExecution covers writes made
+	// outside a transaction.
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onUserChanged(UserChangedEvent event) {
+		invalidate(event.userId());
+	}
+	
+	private Map<Long, Optional<String>> loadAll(Set<? extends Long> userIds) {
+		Map<Long, Optional<String>> loaded = new HashMap<>();
+		userIds.forEach(id -> loaded.put(id, Optional.empty()));
+		userRepository.findAllById(Set.copyOf(userIds))
+				.forEach(user -> loaded.put(user.getId(), Optional.of(user.getName())));
+		return loaded;
+	}
+	
+	private record PositiveNegativeExpiry(Duration positive, Duration negative) implements Expiry<Long, Optional<String>> {
+		
+		@Override
+		public long expireAfterCreate(Long key, Optional<String> value, long currentTime) {
+			return (value.isPresent() ? positive : negative).toNanos();
+		}
+		
+		@Override
+		public long expireAfterUpdate(Long key, Optional<String> value, long currentTime, long currentDuration) {
+			return expireAfterCreate(key, value, currentTime);
+		}
+		
+		@Override
+		public long expireAfterRead(Long key, Optional<String> value, long currentTime, long currentDuration) {
+			return currentDuration;
+		}
+	}
+}
@@ -0,0 +1,6 @@
+package fi.invian.codingassignment.service;
+
+// Published inside the transaction that creates, changes or deletes a user through JPA
+public record UserChangedEvent(
+		Long userId
+) {}
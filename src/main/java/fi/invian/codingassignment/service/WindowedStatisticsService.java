@@ -0,0 +1,50 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.exception.InvalidWindowException;
+import fi.invian.codingassignment.heavyhitters.SenderSketch;
+import fi.invian.codingassignment.heavyhitters.WindowedTopSenders;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+// Top senders over short recent windows from the in-memory sketches of this instance, without a query
+@Service
+@ConditionalOnProperty(name = "messaging.heavy-hitters.enabled", havingValue = "true")
+public class WindowedStatisticsService {
+	
+	private final WindowedTopSenders windowedTopSenders;
+	private final UserCache userCache;
+	
+	public WindowedStatisticsService(WindowedTopSenders windowedTopSenders, UserCache userCache) {
+		this.windowedTopSenders = windowedTopSenders;
+		this.userCache = userCache;
+	}
+	
+	// Counts are lower bounds, each sender may have sent up to maxError more. Senders whose user no
+	// longer exists are left out.
+	public TopSenders getTopSenders(Duration window, int limit) {
+		SenderSketch sketch = getSketch(window);
+		List<SenderSketch.Counter> top = sketch.top(limit);
+		Map<Long, String> names = userCache.findNames(top.stream().map(SenderSketch.Counter::senderId).toList());
+		List<StatisticsResponse> senders = top.stream()
+				.filter(counter -> names.containsKey(counter.senderId()))
+				.map(counter -> new StatisticsResponse(counter.senderId(), names.get(counter.senderId()), counter.count()))
+				.toList();
+		return new TopSenders(senders, sketch.maxError());
+	}
+	
+	// The summary itself, for merging with those of other instances
+	public SenderSketch getSketch(Duration window) {
+		try {
+			return windowedTopSenders.snapshot(window);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidWindowException(e.getMessage() + ".");
+		}
+	}
+	
+	public record TopSenders(List<StatisticsResponse> senders, long maxError) {}
+}
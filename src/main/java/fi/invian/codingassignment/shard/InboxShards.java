@@ -0,0 +1,164 @@
+package fi.invian.codingassignment.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// The databases that hold the inbox shards: copies of the recipients' inbox entries and of the
+// sender statistics, partitioned by user. Users, messages and message_recipients are not sharded,
+// as writes to a shard cannot be part of the sending transaction; the primary stays the store every
+// shard can be rebuilt from. User n lives on shard n mod the number of shards, so the shard list
+// must not be reordered or resized once data has been written; adding a shard means moving users
+// between them. Queries that need every shard run on all of them in parallel.
+//
+// Shard writes cannot join the primary transaction, so they run once it has committed and a rolled
+// back send leaves nothing behind. A failed write is retried; one that still fails is logged, and the
+// shard backfill (ShardBackfillJob) copies what the shards are missing from the primary.
+public class InboxShards implements Closeable {
+	
+	private static final Logger logger = LoggerFactory.getLogger(InboxShards.class);
+	
+	private final List<DataSource> dataSources;
+	private final List<JdbcTemplate> jdbcTemplates;
+	private final ExecutorService scatter;
+	private final int writeAttempts;
+	private final Duration retryDelay;
+	
+	public InboxShards(List<DataSource> dataSources) {
+		this(dataSources, 3, Duration.ofMillis(100));
+	}
+	
+	public InboxShards(List<DataSource> dataSources, int writeAttempts, Duration retryDelay) {
+		if (dataSources.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is required");
+		}
+		this.dataSources = List.copyOf(dataSources);
+		this.writeAttempts = Math.max(1, writeAttempts);
+		this.retryDelay = retryDelay;
+		this.jdbcTemplates = dataSources.stream().map(JdbcTemplate::new).toList();
+		AtomicInteger threads = new AtomicInteger();
+		this.scatter = Executors.newFixedThreadPool(dataSources.size(), runnable -> {
+			Thread thread = new Thread(runnable, "inbox-shard-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	public int size() {
+		return jdbcTemplates.size();
+	}
+	
+	public int indexOf(Long userId) {
+		return (int) Math.floorMod(userId, (long) jdbcTemplates.size());
+	}
+	
+	public JdbcTemplate forUser(Long userId) {
+		return jdbcTemplates.get(indexOf(userId));
+	}
+	
+	public JdbcTemplate get(int index) {
+		return jdbcTemplates.get(index);
+	}
+	
+	// Splits the values by the shard of their user, keyed by shard index
+	public <T> Map<Integer, List<T>> partition(Collection<T> values, Function<T, Long> userId) {
+		Map<Integer, List<T>> byShard = new TreeMap<>();
+		for (T value : values) {
+			byShard.computeIfAbsent(indexOf(userId.apply(value)), index -> new ArrayList<>()).add(value);
+		}
+		return byShard;
+	}
+	
+	// Runs the query on every shard at once and returns the results in shard order. The first
+	// failure is rethrown after all shards have answered.
+	public <T> List<T> scatter(Function<JdbcTemplate, T> query) {
+		if (jdbcTemplates.size() == 1) {
+			return List.of(query.apply(jdbcTemplates.get(0)));
+		}
+		List<CompletableFuture<T>> results = jdbcTemplates.stream()
+				.map(jdbcTemplate -> CompletableFuture.supplyAsync(() -> query.apply(jdbcTemplate), scatter))
+				.toList();
+		try {
+			CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+		return results.stream().map(CompletableFuture::join).toList();
+	}
+	
+	// Runs the write on the shard once the current transaction has committed, or right away outside
+	// of one. It goes ahead of the after-commit event listeners, so streams and ETags never announce
+	// a send that the shard does not have yet. Writes must be safe to repeat.
+	public void afterCommit(int index, Consumer<JdbcTemplate> write) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			writeWithRetry(index, write);
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public int getOrder() {
+				return Ordered.HIGHEST_PRECEDENCE;
+			}
+			
+			@Override
+			public void afterCommit() {
+				writeWithRetry(index, write);
+			}
+		});
+	}
+	
+	private void writeWithRetry(int index, Consumer<JdbcTemplate> write) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				write.accept(jdbcTemplates.get(index));
+				return;
+			} catch (RuntimeException e) {
+				if (attempt >= writeAttempts) {
+					logger.error("Write to inbox shard {} failed {} times, the shard backfill will repair it", index + 1, attempt, e);
+					return;
+				}
+				logger.warn("Write to inbox shard {} failed, retrying: {}", index + 1, e.getMessage());
+			}
+			try {
+				Thread.sleep(retryDelay.toMillis());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("Write to inbox shard {} interrupted, the shard backfill will repair it", index + 1);
+				return;
+			}
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		scatter.shutdownNow();
+		for (DataSource dataSource : dataSources) {
+			if (dataSource instanceof Closeable closeable) {
+				closeable.close();
+			}
+		}
+	}
+}
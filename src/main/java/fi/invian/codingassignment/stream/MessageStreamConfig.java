@@ -0,0 +1,50 @@
+package fi.invian.codingassignment.stream;
+
+import fi.invian.codingassignment.service.MessageService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.time.Duration;
+
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(name = "messaging.stream.enabled", havingValue = "true")
+public class MessageStreamConfig {
+	
+	// Closing ends every open stream; clients reconnect and resume with Last-Event-ID
+	@Bean(destroyMethod = "close")
+	public MessageStreamHub messageStreamHub(MessageService messageService, MeterRegistry meterRegistry,
+											 TaskScheduler taskScheduler,
+											 @Value("${messaging.stream.buffer-size:256}") int bufferSize,
+											 @Value("${messaging.stream.delivery-threads:4}") int deliveryThreads,
+											 @Value("${messaging.stream.timeout:30m}") Duration timeout,
+											 @Value("${messaging.stream.write-timeout:10s}") Duration writeTimeout,
+											 @Value("${messaging.stream.heartbeat-interval:15s}") Duration heartbeatInterval,
+											 @Value("${messaging.stream.resume-overlap:5s}") Duration resumeOverlap,
+											 @Value("${messaging.stream.max-replay:500}") int maxReplay) {
+		MessageStreamHub hub = new MessageStreamHub(messageService, meterRegistry, bufferSize, deliveryThreads,
+				timeout, writeTimeout, resumeOverlap, maxReplay);
+		hub.start(taskScheduler, heartbeatInterval);
+		return hub;
+	}
+	
+	// Open streams are idle async requests that hold a connection but no request thread, so Tomcat
+	// may keep many more connections than it has threads; only raised where streaming is enabled
+	@Bean
+	public WebServerFactoryCustomizer<TomcatServletWebServerFactory> streamConnections(
+			@Value("${messaging.stream.max-connections:20000}") int maxConnections) {
+		return factory -> factory.addConnectorCustomizers(connector -> {
+			if (connector.getProtocolHandler() instanceof AbstractProtocol<?> protocol) {
+				protocol.setMaxConnections(maxConnections);
+			}
+		});
+	}
+}
@@ -0,0 +1,239 @@
+package fi.invian.codingassignment.stream;
+
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.MessageService;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// In-process fan-out of sent messages to open server-sent event streams. Sends are published
+// after their transaction commits; each recipient's open streams get the message in their own
+// bounded buffer, and a small pool of delivery threads writes the buffers out. Idle streams hold
+// no thread, only their async request. A stream whose buffer is full is closed so one slow
+// client cannot hold an unbounded backlog; it reconnects with Last-Event-ID and resumes from the
+// database. Writes block, so a client that stops reading holds a delivery thread: once a write has
+// been blocked for writeTimeout the stream is closed and the pool gets a thread in its place until
+// the write returns, so the other streams keep deliveryThreads threads.
+public class MessageStreamHub {
+	
+	private static final Logger logger = LoggerFactory.getLogger(MessageStreamHub.class);
+	
+	static final String MESSAGE = "message";
+	// Sent instead of a replay that would exceed maxReplay; the client reloads its inbox
+	static final String RESET = "reset";
+	
+	private final MessageService messageService;
+	private final int bufferSize;
+	private final Duration timeout;
+	private final Duration writeTimeout;
+	private final Duration resumeOverlap;
+	private final int maxReplay;
+	private final ThreadPoolExecutor delivery;
+	private final Map<Long, Set<StreamSubscriber>> subscribers = new ConcurrentHashMap<>();
+	private final AtomicInteger subscriberCount = new AtomicInteger();
+	private final Counter evictionCounter;
+	// Removed while a write to them was in progress, watched by checkWrites until it returns
+	private final Set<StreamSubscriber> closing = ConcurrentHashMap.newKeySet();
+	// Stuck in a write whose delivery thread has been replaced; only used by checkWrites
+	private final Set<StreamSubscriber> blocked = new HashSet<>();
+	private ScheduledFuture<?> heartbeat;
+	private ScheduledFuture<?> writeCheck;
+	
+	public MessageStreamHub(MessageService messageService, MeterRegistry meterRegistry, int bufferSize,
+							int deliveryThreads, Duration timeout, Duration writeTimeout, Duration resumeOverlap,
+							int maxReplay) {
+		this.messageService = messageService;
+		this.bufferSize = bufferSize;
+		this.timeout = timeout;
+		this.writeTimeout = writeTimeout;
+		this.resumeOverlap = resumeOverlap;
+		this.maxReplay = maxReplay;
+		AtomicInteger threads = new AtomicInteger();
+		// The queue is unbounded, so the pool runs exactly its core size; checkWrites changes that
+		this.delivery = new ThreadPoolExecutor(deliveryThreads, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "message-stream-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		Gauge.builder("messaging.stream.subscribers", subscriberCount, AtomicInteger::get)
+				.description("Open message streams")
+				.register(meterRegistry);
+		this.evictionCounter = Counter.builder("messaging.stream.evictions")
+				.description("Streams closed because the client did not keep up")
+				.register(meterRegistry);
+	}
+	
+	public void start(TaskScheduler taskScheduler, Duration heartbeatInterval) {
+		heartbeat = taskScheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatInterval);
+		writeCheck = taskScheduler.scheduleWithFixedDelay(this::checkWrites, writeTimeout.dividedBy(2));
+	}
+	
+	public void close() throws InterruptedException {
+		if (heartbeat != null) {
+			heartbeat.cancel(false);
+			writeCheck.cancel(false);
+		}
+		subscribers.values().forEach(streams -> streams.forEach(StreamSubscriber::evict));
+		delivery.shutdown();
+		delivery.awaitTermination(5, TimeUnit.SECONDS);
+	}
+	
+	// Opens a stream of the messages the user receives from now on. With lastEventId, the messages
+	// sent since that event are loaded first; the window starts resumeOverlap earlier because send
+	// times are taken before commit, so a message can become visible after a later one. Clients
+	// drop messages they already have by id.
+	public SseEmitter subscribe(Long userId, String lastEventId) {
+		messageService.requireUser(userId);
+		MessageCursor resumeFrom = lastEventId != null && !lastEventId.isBlank() ? MessageCursor.decode(lastEventId) : null;
+		
+		SseEmitter emitter = newEmitter(timeout);
+		StreamSubscriber subscriber = new StreamSubscriber(userId, emitter, bufferSize, resumeFrom != null);
+		emitter.onCompletion(() -> unsubscribe(subscriber));
+		emitter.onTimeout(() -> unsubscribe(subscriber));
+		emitter.onError(e -> unsubscribe(subscriber));
+		// Registered before the replay query, so a message is either in the replay or arrives live
+		subscribers.compute(userId, (id, streams) -> {
+			Set<StreamSubscriber> updated = streams != null ? streams : ConcurrentHashMap.newKeySet();
+			updated.add(subscriber);
+			return updated;
+		});
+		subscriberCount.incrementAndGet();
+		
+		if (resumeFrom != null) {
+			try {
+				subscriber.resume(missedEvents(userId, resumeFrom), delivery);
+			} catch (RuntimeException e) {
+				unsubscribe(subscriber);
+				throw e;
+			}
+		}
+		return emitter;
+	}
+	
+	private List<StreamSubscriber.Event> missedEvents(Long userId, MessageCursor resumeFrom) {
+		List<MessageResponse> missed = messageService.getMessagesSince(
+				userId, resumeFrom.sentAt().minus(resumeOverlap), maxReplay + 1);
+		if (missed.size() > maxReplay) {
+			return List.of(new StreamSubscriber.Event(RESET, null, null));
+		}
+		List<StreamSubscriber.Event> events = new ArrayList<>(missed.size());
+		for (MessageResponse message : missed) {
+			if (!message.id().equals(resumeFrom.id())) {
+				events.add(messageEvent(message));
+			}
+		}
+		return events;
+	}
+	
+	// Runs after the sending transaction commits. Delivery never fails the send: a recipient whose
+	// buffer is full loses the stream and catches up when it reconnects.
+	@TransactionalEventListener(fallbackExecution = true)
+	public void onMessagesSent(MessagesSentEvent event) {
+		Map<Long, StreamSubscriber.Event> messages = new HashMap<>();
+		for (InboxEntry entry : event.entries()) {
+			Set<StreamSubscriber> streams = subscribers.get(entry.recipientId());
+			if (streams == null || streams.isEmpty()) {
+				continue;
+			}
+			StreamSubscriber.Event message = messages.computeIfAbsent(entry.messageId(), id -> messageEvent(
+					new MessageResponse(id, entry.title(), event.bodies().get(id), entry.senderName(), entry.sentAt())));
+			for (StreamSubscriber subscriber : streams) {
+				if (!subscriber.enqueue(message, delivery)) {
+					evict(subscriber, "its buffer of " + bufferSize + " events is full");
+				}
+			}
+		}
+	}
+	
+	void heartbeat() {
+		subscribers.values().forEach(streams -> streams.forEach(subscriber -> subscriber.heartbeat(delivery)));
+	}
+	
+	// Gives back the threads of blocked writes that have returned, then evicts the subscribers whose
+	// write has been blocked for writeTimeout and adds a delivery thread for each of them
+	synchronized void checkWrites() {
+		for (Iterator<StreamSubscriber> iterator = blocked.iterator(); iterator.hasNext(); ) {
+			if (!iterator.next().isWriting()) {
+				iterator.remove();
+				delivery.setCorePoolSize(delivery.getCorePoolSize() - 1);
+			}
+		}
+		closing.removeIf(subscriber -> !subscriber.isWriting());
+		
+		long now = System.nanoTime();
+		List<StreamSubscriber> writers = new ArrayList<>(closing);
+		subscribers.values().forEach(writers::addAll);
+		for (StreamSubscriber subscriber : writers) {
+			if (subscriber.isWriteBlocked(writeTimeout, now) && blocked.add(subscriber)) {
+				delivery.setCorePoolSize(delivery.getCorePoolSize() + 1);
+				evict(subscriber, "a write to it has been blocked for " + writeTimeout);
+			}
+		}
+	}
+	
+	public int getSubscriberCount() {
+		return subscriberCount.get();
+	}
+	
+	public long getEvictionCount() {
+		return (long) evictionCounter.count();
+	}
+	
+	private void evict(StreamSubscriber subscriber, String reason) {
+		if (unsubscribe(subscriber)) {
+			evictionCounter.increment();
+			logger.debug("Closing the stream of user {}, {}", subscriber.getUserId(), reason);
+			subscriber.evict();
+		}
+	}
+	
+	// True for the call that actually removed the subscriber
+	private boolean unsubscribe(StreamSubscriber subscriber) {
+		subscriber.close();
+		boolean[] removed = new boolean[1];
+		// Removing the last stream drops the user's entry in the same atomic step as a concurrent subscribe
+		subscribers.computeIfPresent(subscriber.getUserId(), (id, streams) -> {
+			removed[0] = streams.remove(subscriber);
+			return streams.isEmpty() ? null : streams;
+		});
+		if (removed[0]) {
+			subscriberCount.decrementAndGet();
+			if (subscriber.isWriting()) {
+				closing.add(subscriber);
+			}
+		}
+		return removed[0];
+	}
+	
+	SseEmitter newEmitter(Duration timeout) {
+		return new SseEmitter(timeout.toMillis());
+	}
+	
+	private static StreamSubscriber.Event messageEvent(MessageResponse message) {
+		return new StreamSubscriber.Event(MESSAGE, new MessageCursor(message.sentAt(), message.id()).encode(), message);
+	}
+}
@@ -0,0 +1,167 @@
+package fi.invian.codingassignment.stream;
+
+import fi.invian.codingassignment.dto.MessageResponse;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+// One open stream. Events wait in a bounded buffer and are written by at most one delivery task
+// at a time, so a client that reads slowly holds a buffer slot per event rather than a thread.
+// A write to a client that stops reading blocks its delivery thread; writeStartedAt lets the hub
+// find such writes and evict the subscriber.
+// A resuming subscriber starts paused: live events are buffered while the missed ones are loaded.
+class StreamSubscriber {
+	
+	private final Long userId;
+	private final SseEmitter emitter;
+	private final int capacity;
+	private final Deque<Event> buffer = new ArrayDeque<>();
+	private boolean paused;
+	private boolean draining;
+	private boolean closed;
+	private boolean evicted;
+	// System.nanoTime() when the write in progress started, 0 while not writing
+	private volatile long writeStartedAt;
+	
+	StreamSubscriber(Long userId, SseEmitter emitter, int capacity, boolean paused) {
+		this.userId = userId;
+		this.emitter = emitter;
+		this.capacity = capacity;
+		this.paused = paused;
+	}
+	
+	Long getUserId() {
+		return userId;
+	}
+	
+	SseEmitter getEmitter() {
+		return emitter;
+	}
+	
+	// False when the buffer is full, the caller then evicts the subscriber
+	synchronized boolean enqueue(Event event, Executor executor) {
+		if (closed) {
+			return true;
+		}
+		if (buffer.size() >= capacity) {
+			return false;
+		}
+		buffer.addLast(event);
+		scheduleDrain(executor);
+		return true;
+	}
+	
+	// Heartbeats are only needed on an idle connection and never count against the buffer
+	synchronized void heartbeat(Executor executor) {
+		if (!closed && !paused && buffer.isEmpty()) {
+			buffer.addLast(Event.HEARTBEAT);
+			scheduleDrain(executor);
+		}
+	}
+	
+	// Puts the missed messages ahead of the live ones buffered since subscribing and starts delivery.
+	// A live message that the replay already covered is dropped.
+	synchronized void resume(List<Event> missed, Executor executor) {
+		Set<Long> replayed = missed.stream()
+				.filter(event -> event.message() != null)
+				.map(event -> event.message().id())
+				.collect(Collectors.toSet());
+		buffer.removeIf(event -> event.message() != null && replayed.contains(event.message().id()));
+		for (int i = missed.size() - 1; i >= 0; i--) {
+			buffer.addFirst(missed.get(i));
+		}
+		paused = false;
+		scheduleDrain(executor);
+	}
+	
+	// True while a write has been blocked for longer than timeout
+	boolean isWriteBlocked(Duration timeout, long now) {
+		long startedAt = writeStartedAt;
+		return startedAt != 0 && now - startedAt > timeout.toNanos();
+	}
+	
+	boolean isWriting() {
+		return writeStartedAt != 0;
+	}
+	
+	synchronized void close() {
+		closed = true;
+		buffer.clear();
+	}
+	
+	// Closes the subscriber and completes its emitter. A write in progress holds the emitter's lock,
+	// so then the delivery task completes it once the write returns and the caller never waits.
+	void evict() {
+		boolean completeNow;
+		synchronized (this) {
+			close();
+			evicted = true;
+			completeNow = !draining;
+		}
+		if (completeNow) {
+			emitter.complete();
+		}
+	}
+	
+	private void scheduleDrain(Executor executor) {
+		if (!paused && !draining && !buffer.isEmpty()) {
+			draining = true;
+			executor.execute(this::drain);
+		}
+	}
+	
+	// Writes outside the lock so producers are never blocked by the client's socket
+	private void drain() {
+		while (true) {
+			Event event;
+			boolean complete;
+			synchronized (this) {
+				event = closed || paused ? null : buffer.pollFirst();
+				complete = event == null && evicted;
+				if (event == null) {
+					draining = false;
+				}
+			}
+			if (event == null) {
+				if (complete) {
+					emitter.complete();
+				}
+				return;
+			}
+			writeStartedAt = System.nanoTime();
+			try {
+				emitter.send(event.toSse());
+			} catch (IOException | IllegalStateException e) {
+				// The client went away; the emitter's completion callback unregisters the subscriber
+				close();
+				emitter.completeWithError(e);
+			} finally {
+				writeStartedAt = 0;
+			}
+		}
+	}
+	
+	// A message, or a control event without one
+	record Event(String name, String id, MessageResponse message) {
+		
+		static final Event HEARTBEAT = new Event(null, null, null);
+		
+		SseEmitter.SseEventBuilder toSse() {
+			if (name == null) {
+				return SseEmitter.event().comment("heartbeat");
+			}
+			SseEmitter.SseEventBuilder event = SseEmitter.event().name(name);
+			if (id != null) {
+				event.id(id);
+			}
+			return message != null ? event.data(message) : event.data("");
+		}
+	}
+}
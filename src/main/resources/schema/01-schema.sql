@@ -10,7 +10,8 @@ CREATE TABLE messages (
                           id INT AUTO_INCREMENT PRIMARY KEY,
                           sender_id INT NOT NULL,
                           title VARCHAR(255) NOT NULL,
-                          body TEXT NOT NULL,
+                          body MEDIUMBLOB NOT NULL, -- compressed by BodyCodec, plain UTF-8 for rows written before compression
+                          snippet VARCHAR(200) NOT NULL DEFAULT '',
                           sent_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                           FOREIGN KEY (sender_id) REFERENCES users (id) ON DELETE CASCADE
 );
@@ -20,11 +21,67 @@ CREATE TABLE message_recipients (
                                     id INT AUTO_INCREMENT PRIMARY KEY,
                                     message_id INT NOT NULL,
                                     recipient_id INT NOT NULL,
+                                    read_at TIMESTAMP NULL DEFAULT NULL, -- NULL while unread
                                     FOREIGN KEY (message_id) REFERENCES messages(id) ON DELETE CASCADE,
                                     FOREIGN KEY (recipient_id) REFERENCES users(id) ON DELETE CASCADE,
                                     UNIQUE (message_id, recipient_id)
 );
 
 -- Indexes for performance
-CREATE INDEX idx_recipient_id ON message_recipients (recipient_id);
+CREATE INDEX idx_recipient_id ON message_recipients (recipient_id, message_id);
 CREATE INDEX idx_sent_at ON messages (sent_at);
+
+-- Per-sender daily message counts, maintained on send and read by the statistics endpoint
+CREATE TABLE sender_daily_stats (
+                                    sender_id INT NOT NULL,
+                                    stat_day DATE NOT NULL,
+                                    sent_count INT NOT NULL DEFAULT 0,
+                                    PRIMARY KEY (sender_id, stat_day),
+                                    FOREIGN KEY (sender_id) REFERENCES users (id) ON DELETE CASCADE
+);
+
+CREATE INDEX idx_stat_day ON sender_daily_stats (stat_day);
+
+-- Denormalized per-recipient inbox, written with each message when messaging.inbox.projection.enabled is set.
+-- Inbox reads become a range scan of the primary key instead of a join plus filesort, and never touch message bodies.
+CREATE TABLE inbox_entries (
+                               recipient_id INT NOT NULL,
+                               sent_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                               message_id INT NOT NULL,
+                               sender_id INT NOT NULL,
+                               sender_name VARCHAR(255) NOT NULL,
+                               title VARCHAR(255) NOT NULL,
+                               snippet VARCHAR(200) NOT NULL DEFAULT '',
+                               read_at TIMESTAMP NULL DEFAULT NULL,
+                               PRIMARY KEY (recipient_id, sent_at, message_id),
+                               FOREIGN KEY (message_id) REFERENCES messages (id) ON DELETE CASCADE
+);
+
+-- Number of unread messages per recipient, maintained on send, mark-as-read and archiving,
+-- so the unread badge is a primary key lookup instead of a count over message_recipients
+CREATE TABLE user_unread_counts (
+                                    user_id INT PRIMARY KEY,
+                                    unread_count INT NOT NULL DEFAULT 0,
+                                    FOREIGN KEY (user_id) REFERENCES users (id) ON DELETE CASCADE
+);
+
+-- Idempotency-Key of each recent POST /messages per sender, written in the send's transaction so
+-- a retried request returns the message it already created. Rows are purged after the retention.
+CREATE TABLE idempotency_keys (
+                                  sender_id INT NOT NULL,
+                                  idempotency_key VARCHAR(255) NOT NULL,
+                                  fingerprint CHAR(64) NOT NULL,
+                                  message_id INT NULL,
+                                  created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                                  PRIMARY KEY (sender_id, idempotency_key)
+);
+
+CREATE INDEX idx_idempotency_created_at ON idempotency_keys (created_at);
+
+-- Records loaded so far per bulk load input, written in the transaction of each chunk so an
+-- interrupted load resumes after the last committed chunk
+CREATE TABLE bulk_load_progress (
+                                    source VARCHAR(255) PRIMARY KEY,
+                                    loaded_records BIGINT NOT NULL,
+                                    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
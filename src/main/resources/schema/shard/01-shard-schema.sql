@@ -0,0 +1,28 @@
+-- Tables of one inbox shard, created on startup when messaging.shards.enabled is set. Users and
+-- messages stay in the primary database, so there are no foreign keys to them here.
+
+-- Inbox entries of the recipients on this shard, as in the primary schema
+CREATE TABLE IF NOT EXISTS inbox_entries (
+                                             recipient_id INT NOT NULL,
+                                             sent_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                                             message_id INT NOT NULL,
+                                             sender_id INT NOT NULL,
+                                             sender_name VARCHAR(255) NOT NULL,
+                                             title VARCHAR(255) NOT NULL,
+                                             snippet VARCHAR(200) NOT NULL DEFAULT '',
+                                             read_at TIMESTAMP NULL DEFAULT NULL,
+                                             PRIMARY KEY (recipient_id, sent_at, message_id)
+);
+
+-- Archiving removes entries by message
+CREATE INDEX IF NOT EXISTS idx_inbox_message_id ON inbox_entries (message_id);
+
+-- Daily counts of the senders on this shard
+CREATE TABLE IF NOT EXISTS sender_daily_stats (
+                                                  sender_id INT NOT NULL,
+                                                  stat_day DATE NOT NULL,
+                                                  sent_count INT NOT NULL DEFAULT 0,
+                                                  PRIMARY KEY (sender_id, stat_day)
+);
+
+CREATE INDEX IF NOT EXISTS idx_stat_day ON sender_daily_stats (stat_day);
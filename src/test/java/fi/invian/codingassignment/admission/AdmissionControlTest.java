@@ -0,0 +1,89 @@
+package fi.invian.codingassignment.admission;
+
+import fi.invian.codingassignment.exception.ServiceOverloadedException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+	
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final AtomicInteger pending = new AtomicInteger();
+	private Timer acquire;
+	private AdmissionControl admissionControl;
+	
+	@BeforeEach
+	void setUp() {
+		acquire = Timer.builder("hikaricp.connections.acquire").tag("pool", "pool-1").register(meterRegistry);
+		Gauge.builder("hikaricp.connections.pending", pending, AtomicInteger::get).tag("pool", "pool-1").register(meterRegistry);
+		admissionControl = new AdmissionControl(meterRegistry, 2, Duration.ofMillis(100), 5, Duration.ofSeconds(1));
+		admissionControl.sample();
+	}
+	
+	@Test
+	void testPreHandle_ShedsAboveMaxInFlight() {
+		MockHttpServletRequest first = new MockHttpServletRequest();
+		MockHttpServletRequest second = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(admissionControl.preHandle(first, response, null));
+		assertTrue(admissionControl.preHandle(second, response, null));
+		
+		assertThrows(ServiceOverloadedException.class, () -> admissionControl.preHandle(new MockHttpServletRequest(), response, null));
+		assertEquals(2, admissionControl.getInFlight());
+		
+		admissionControl.afterCompletion(first, response, null, null);
+		admissionControl.afterCompletion(first, response, null, null);
+		assertEquals(1, admissionControl.getInFlight());
+		assertTrue(admissionControl.preHandle(new MockHttpServletRequest(), response, null));
+	}
+	
+	@Test
+	void testPreHandle_AsyncRequestReleasesItsSlot() {
+		MockHttpServletRequest stream = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		admissionControl.preHandle(stream, response, null);
+		admissionControl.afterConcurrentHandlingStarted(stream, response, null);
+		
+		stream.setDispatcherType(DispatcherType.ASYNC);
+		assertTrue(admissionControl.preHandle(stream, response, null));
+		admissionControl.afterCompletion(stream, response, null, null);
+		assertEquals(0, admissionControl.getInFlight());
+	}
+	
+	@Test
+	void testSample_ShedsWhileConnectionWaitIsHigh() {
+		acquire.record(Duration.ofMillis(400));
+		acquire.record(Duration.ofMillis(200));
+		admissionControl.sample();
+		
+		assertTrue(admissionControl.isPoolSaturated());
+		assertThrows(ServiceOverloadedException.class,
+				() -> admissionControl.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), null));
+		
+		// Only the waits since the previous sample count
+		acquire.record(Duration.ofMillis(5));
+		admissionControl.sample();
+		assertFalse(admissionControl.isPoolSaturated());
+	}
+	
+	@Test
+	void testSample_ShedsWhileThreadsQueueForConnections() {
+		pending.set(6);
+		admissionControl.sample();
+		assertTrue(admissionControl.isPoolSaturated());
+		
+		pending.set(0);
+		admissionControl.sample();
+		assertFalse(admissionControl.isPoolSaturated());
+	}
+}
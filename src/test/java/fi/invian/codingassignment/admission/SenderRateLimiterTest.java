@@ -0,0 +1,72 @@
+package fi.invian.codingassignment.admission;
+
+import fi.invian.codingassignment.exception.RateLimitExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SenderRateLimiterTest {
+	
+	private final AtomicLong now = new AtomicLong();
+	// 2 sends per second with a burst of 4
+	private final SenderRateLimiter limiter = new SenderRateLimiter(true, 2, 4, 4, 100, now::get);
+	
+	@Test
+	void testAcquire_AllowsBurstThenRefillRate() {
+		for (int i = 0; i < 4; i++) {
+			limiter.acquire(1L, 1);
+		}
+		
+		RateLimitExceededException exception = assertThrows(RateLimitExceededException.class, () -> limiter.acquire(1L, 1));
+		assertEquals(Duration.ofMillis(500), exception.getRetryAfter());
+		
+		now.addAndGet(Duration.ofMillis(500).toNanos());
+		limiter.acquire(1L, 1);
+		assertThrows(RateLimitExceededException.class, () -> limiter.acquire(1L, 1));
+	}
+	
+	@Test
+	void testAcquire_SendersHaveSeparateBuckets() {
+		limiter.acquire(1L, 4);
+		
+		assertThrows(RateLimitExceededException.class, () -> limiter.acquire(1L, 1));
+		limiter.acquire(2L, 4);
+		limiter.acquire(5L, 4);
+	}
+	
+	@Test
+	void testAcquire_BatchLargerThanBurstLeavesSenderInDebt() {
+		limiter.acquire(1L, 10);
+		
+		// 6 tokens in debt plus 1 to send: 3.5 seconds at 2 per second
+		assertEquals(Duration.ofMillis(3500), assertThrows(RateLimitExceededException.class, () -> limiter.acquire(1L, 1)).getRetryAfter());
+		now.addAndGet(Duration.ofMillis(3500).toNanos());
+		limiter.acquire(1L, 1);
+	}
+	
+	@Test
+	void testAcquireAll_OneSenderRejected_EarlierSendersRefunded() {
+		limiter.acquire(2L, 4);
+		Map<Long, Integer> batch = new LinkedHashMap<>();
+		batch.put(1L, 3);
+		batch.put(2L, 1);
+		
+		assertThrows(RateLimitExceededException.class, () -> limiter.acquireAll(batch));
+		
+		limiter.acquire(1L, 4);
+	}
+	
+	@Test
+	void testAcquire_Disabled_NeverLimits() {
+		SenderRateLimiter disabled = new SenderRateLimiter(false, 2, 4, 4, 100, now::get);
+		
+		for (int i = 0; i < 100; i++) {
+			disabled.acquire(1L, 1);
+		}
+	}
+}
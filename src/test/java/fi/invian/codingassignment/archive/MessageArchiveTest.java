@@ -0,0 +1,140 @@
+package fi.invian.codingassignment.archive;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageArchiveTest {
+	
+	private static final Instant START = Instant.parse("2020-01-01T00:00:00Z");
+	private static final BodyCodec BODY_CODEC =
+			new BodyCodec(List.of(new DeflateBodyCompressor(6, null)), new DeflateBodyCompressor(6, null), 16);
+	
+	@TempDir
+	Path directory;
+	
+	private MessageArchive messageArchive;
+	
+	@BeforeEach
+	void setUp() throws Exception {
+		messageArchive = new MessageArchive(directory, BODY_CODEC);
+		
+		// Messages 1..5 in the first segment and 6..8 in the second; user 2 receives all, user 3 the odd ones
+		messageArchive.append(messages(1, 5));
+		messageArchive.append(messages(6, 8));
+	}
+	
+	@Test
+	void testFindMessages_PagesAcrossSegmentsNewestFirst() {
+		assertEquals(8, messageArchive.count(2L));
+		assertEquals(4, messageArchive.count(3L));
+		assertEquals(0, messageArchive.count(4L));
+		
+		assertEquals(List.of(8L, 7L, 6L), ids(messageArchive.findMessages(2L, 0, 3)));
+		assertEquals(List.of(5L, 4L, 3L), ids(messageArchive.findMessages(2L, 3, 3)));
+		assertEquals(List.of(2L, 1L), ids(messageArchive.findMessages(2L, 6, 3)));
+		assertEquals(List.of(), ids(messageArchive.findMessages(2L, 8, 3)));
+		assertEquals(List.of(7L, 5L, 3L, 1L), ids(messageArchive.findMessages(3L, 0, 10)));
+	}
+	
+	@Test
+	void testFindMessages_ReturnsReadTimeOfRecipient() {
+		MessageSummaryResponse seventh = messageArchive.findMessages(3L, 0, 1).get(0);
+		
+		assertEquals(7L, seventh.id());
+		assertEquals(START.plusSeconds(7 + 3), seventh.readAt());
+		assertEquals(START.plusSeconds(7 + 2), messageArchive.findMessages(2L, 1, 1).get(0).readAt());
+	}
+	
+	@Test
+	void testFindMessagesBefore_ContinuesIntoOlderSegment() {
+		MessageSummaryResponse seventh = messageArchive.findMessages(2L, 1, 1).get(0);
+		
+		List<MessageSummaryResponse> next = messageArchive.findMessagesBefore(2L, MessageCursor.of(seventh), 3);
+		
+		assertEquals(List.of(6L, 5L, 4L), ids(next));
+		assertEquals(List.of(8L, 7L), ids(messageArchive.findMessagesBefore(2L, null, 2)));
+		assertEquals(List.of(3L, 1L), ids(messageArchive.findMessagesBefore(3L, MessageCursor.of(next.get(1)), 5)));
+	}
+	
+	@Test
+	void testFindMessages_LaterSegmentWithOlderMessages_MergedBySentAt() throws Exception {
+		// History stored late, archived after messages 1..8 although it was sent between them
+		messageArchive.append(List.of(message(9, START.plusMillis(2500)), message(10, START.plusMillis(4500))));
+		
+		assertEquals(List.of(8L, 7L, 6L, 5L, 10L, 4L, 3L, 9L, 2L, 1L), ids(messageArchive.findMessages(2L, 0, 20)));
+		assertEquals(List.of(10L, 4L), ids(messageArchive.findMessages(2L, 4, 2)));
+		MessageSummaryResponse fifth = messageArchive.findMessages(2L, 3, 1).get(0);
+		assertEquals(List.of(10L, 4L, 3L), ids(messageArchive.findMessagesBefore(2L, MessageCursor.of(fifth), 3)));
+		assertEquals(List.of(7L, 5L, 3L, 9L, 1L), ids(messageArchive.findMessages(3L, 0, 10)));
+		
+		List<Long> exported = new ArrayList<>();
+		messageArchive.forEachMessage(2L, message -> exported.add(message.id()));
+		assertEquals(List.of(8L, 7L, 6L, 5L, 10L, 4L, 3L, 9L, 2L, 1L), exported);
+	}
+	
+	@Test
+	void testFindMessage_OnlyForRecipients() {
+		Optional<MessageResponse> message = messageArchive.findMessage(6L, 2L);
+		
+		assertTrue(message.isPresent());
+		assertEquals("Title 6", message.get().title());
+		assertEquals(body(6), message.get().body());
+		assertEquals("Rishabh", message.get().senderName());
+		assertEquals(START.plusSeconds(6), message.get().sentAt());
+		assertTrue(messageArchive.findMessage(6L, 3L).isEmpty());
+		assertTrue(messageArchive.findMessage(99L, 2L).isEmpty());
+	}
+	
+	@Test
+	void testReopen_LoadsSegmentsAndDropsPartialWrites() throws Exception {
+		Files.write(directory.resolve("segment-0000000003.seg.tmp"), new byte[]{1, 2, 3});
+		
+		MessageArchive reopened = new MessageArchive(directory, BODY_CODEC);
+		
+		assertEquals(8, reopened.count(2L));
+		assertFalse(Files.exists(directory.resolve("segment-0000000003.seg.tmp")));
+		ArchiveSegment appended = reopened.append(messages(9, 9));
+		assertEquals("segment-0000000003.seg", appended.getPath().getFileName().toString());
+		assertEquals(List.of(9L, 8L), ids(reopened.findMessages(2L, 0, 2)));
+	}
+	
+	private static List<ArchivedMessage> messages(int fromId, int toId) {
+		List<ArchivedMessage> messages = new ArrayList<>();
+		for (int id = fromId; id <= toId; id++) {
+			messages.add(message(id, START.plusSeconds(id)));
+		}
+		return messages;
+	}
+	
+	private static ArchivedMessage message(long id, Instant sentAt) {
+		// Each recipient read the message as many seconds after it was sent as its id
+		List<ArchivedMessage.Recipient> recipients = (id % 2 == 1 ? List.of(2L, 3L) : List.of(2L)).stream()
+				.map(recipientId -> new ArchivedMessage.Recipient(recipientId, sentAt.plusSeconds(recipientId)))
+				.toList();
+		return new ArchivedMessage(id, sentAt, 1L, "Rishabh", "Title " + id, "Snippet " + id, recipients,
+				BODY_CODEC.encode(body(id)));
+	}
+	
+	private static String body(long id) {
+		return "Body of message " + id + ", long enough to be compressed by the codec.";
+	}
+	
+	private static List<Long> ids(List<MessageSummaryResponse> messages) {
+		return messages.stream().map(MessageSummaryResponse::id).toList();
+	}
+}
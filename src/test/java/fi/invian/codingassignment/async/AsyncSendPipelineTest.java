@@ -0,0 +1,203 @@
+package fi.invian.codingassignment.async;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.invian.codingassignment.dto.AsyncSendStatus;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.exception.SendQueueFullException;
+import fi.invian.codingassignment.exception.UserNotFoundException;
+import fi.invian.codingassignment.service.MessageService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncSendPipelineTest {
+	
+	@Mock
+	private MessageService messageService;
+	
+	@TempDir
+	private Path tempDir;
+	
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	
+	@Test
+	void testSubmit_ThenCommit_ReportsMessageIdsAndTruncatesJournal() throws Exception {
+		Path journalPath = tempDir.resolve("send.journal");
+		AsyncSendPipeline pipeline = pipeline(journalPath, 10);
+		when(messageService.sendMessages(anyList(), anyList())).thenReturn(List.of(
+				BatchSendResult.sent(0, 10L),
+				BatchSendResult.failed(1, "Recipient with ID 3 does not exist.")));
+		
+		AsyncSendStatus first = pipeline.submit(request("First"));
+		AsyncSendStatus second = pipeline.submit(request("Second"));
+		assertEquals(AsyncSendStatus.State.PENDING, pipeline.getStatus(first.trackingId()).orElseThrow().state());
+		
+		pipeline.drain();
+		
+		verify(messageService, times(1)).sendMessages(anyList(), anyList());
+		assertEquals(10L, pipeline.getStatus(first.trackingId()).orElseThrow().messageId());
+		assertEquals(AsyncSendStatus.State.FAILED, pipeline.getStatus(second.trackingId()).orElseThrow().state());
+		assertEquals(0, pipeline.getPendingCount());
+		assertEquals(0, Files.size(journalPath));
+	}
+	
+	@Test
+	void testRestart_ReplaysUncommittedRequests() throws Exception {
+		Path journalPath = tempDir.resolve("send.journal");
+		AsyncSendPipeline crashed = pipeline(journalPath, 10);
+		AsyncSendStatus accepted = crashed.submit(request("Lost in flight"));
+		
+		AsyncSendPipeline restarted = pipeline(journalPath, 10);
+		
+		assertEquals(1, restarted.getPendingCount());
+		assertEquals(AsyncSendStatus.State.PENDING, restarted.getStatus(accepted.trackingId()).orElseThrow().state());
+		when(messageService.sendMessages(anyList(), anyList())).thenAnswer(invocation -> {
+			List<SendMessageRequest> requests = invocation.getArgument(0);
+			assertEquals("Lost in flight", requests.get(0).getTitle());
+			return List.of(BatchSendResult.sent(0, 7L));
+		});
+		restarted.drain();
+		assertEquals(7L, restarted.getStatus(accepted.trackingId()).orElseThrow().messageId());
+	}
+	
+	@Test
+	void testRestart_TornLastLine_IsCutOffBeforeNextAccept() throws Exception {
+		Path journalPath = tempDir.resolve("send.journal");
+		AsyncSendPipeline crashed = pipeline(journalPath, 10);
+		AsyncSendStatus accepted = crashed.submit(request("Acknowledged"));
+		Files.writeString(journalPath, "{\"accepted\":\"torn", StandardOpenOption.APPEND);
+		
+		AsyncSendPipeline restarted = pipeline(journalPath, 10);
+		AsyncSendStatus next = restarted.submit(request("After restart"));
+		
+		assertEquals(List.of(accepted.trackingId(), next.trackingId()),
+				List.copyOf(new SendJournal(objectMapper, journalPath, false).readUncommitted().keySet()));
+	}
+	
+	@Test
+	void testDrain_JournalFailsAfterCommit_DoesNotSendAgain() throws Exception {
+		SendJournal journal = spy(new SendJournal(objectMapper, tempDir.resolve("send.journal"), false));
+		AsyncSendPipeline pipeline = new AsyncSendPipeline(messageService, journal,
+				10, 100, Duration.ofMinutes(1), Duration.ofMillis(1), Duration.ofMillis(10), 3);
+		doThrow(new UncheckedIOException(new IOException("No space left on device"))).when(journal).appendCommitted(anyCollection());
+		when(messageService.sendMessages(anyList(), anyList())).thenReturn(List.of(BatchSendResult.sent(0, 10L)));
+		
+		AsyncSendStatus accepted = pipeline.submit(request("First"));
+		pipeline.drain();
+		
+		verify(messageService, times(1)).sendMessages(anyList(), anyList());
+		assertEquals(10L, pipeline.getStatus(accepted.trackingId()).orElseThrow().messageId());
+		assertEquals(0, pipeline.getPendingCount());
+	}
+	
+	@Test
+	void testDrain_RetriedBatch_KeepsTrackingIdsAsKeys() throws Exception {
+		AsyncSendPipeline pipeline = pipeline(tempDir.resolve("send.journal"), 10);
+		when(messageService.sendMessages(anyList(), anyList()))
+				.thenThrow(new CannotGetJdbcConnectionException("Connection is not available"))
+				.thenReturn(List.of(BatchSendResult.sent(0, 10L)));
+		
+		AsyncSendStatus accepted = pipeline.submit(request("First"));
+		pipeline.drain();
+		
+		verify(messageService, times(2)).sendMessages(anyList(), eq(List.of("async:" + accepted.trackingId())));
+	}
+	
+	@Test
+	void testDrain_RejectedSend_IsIsolatedAndFailedWhileOthersCommit() throws Exception {
+		Path journalPath = tempDir.resolve("send.journal");
+		AsyncSendPipeline pipeline = pipeline(journalPath, 10);
+		when(messageService.sendMessages(anyList(), anyList())).thenAnswer(invocation -> {
+			List<SendMessageRequest> requests = invocation.getArgument(0);
+			if (requests.stream().anyMatch(request -> request.getTitle().equals("Bad"))) {
+				throw new DataIntegrityViolationException("Data too long for column 'title'");
+			}
+			return IntStream.range(0, requests.size()).mapToObj(i -> BatchSendResult.sent(i, 100L + i)).toList();
+		});
+		
+		List<AsyncSendStatus> accepted = Stream.of("First", "Bad", "Third", "Fourth")
+				.map(title -> pipeline.submit(request(title)))
+				.toList();
+		pipeline.drain();
+		
+		List<AsyncSendStatus.State> states = accepted.stream()
+				.map(status -> pipeline.getStatus(status.trackingId()).orElseThrow().state())
+				.toList();
+		assertEquals(List.of(AsyncSendStatus.State.COMMITTED, AsyncSendStatus.State.FAILED,
+				AsyncSendStatus.State.COMMITTED, AsyncSendStatus.State.COMMITTED), states);
+		assertEquals(0, pipeline.getPendingCount());
+		assertEquals(0, Files.size(journalPath));
+	}
+	
+	@Test
+	void testDrain_DatabaseUnavailable_RetriesBeyondMaxAttempts() throws Exception {
+		AsyncSendPipeline pipeline = pipeline(tempDir.resolve("send.journal"), 10);
+		when(messageService.sendMessages(anyList(), anyList()))
+				.thenThrow(new CannotGetJdbcConnectionException("Connection is not available"))
+				.thenThrow(new CannotGetJdbcConnectionException("Connection is not available"))
+				.thenThrow(new CannotGetJdbcConnectionException("Connection is not available"))
+				.thenThrow(new CannotGetJdbcConnectionException("Connection is not available"))
+				.thenReturn(List.of(BatchSendResult.sent(0, 10L)));
+		
+		AsyncSendStatus accepted = pipeline.submit(request("First"));
+		pipeline.drain();
+		
+		verify(messageService, times(5)).sendMessages(anyList(), anyList());
+		assertEquals(10L, pipeline.getStatus(accepted.trackingId()).orElseThrow().messageId());
+	}
+	
+	@Test
+	void testSubmit_QueueFull_RejectsRequest() {
+		AsyncSendPipeline pipeline = pipeline(tempDir.resolve("send.journal"), 1);
+		pipeline.submit(request("First"));
+		
+		assertThrows(SendQueueFullException.class, () -> pipeline.submit(request("Second")));
+		assertEquals(1, pipeline.getPendingCount());
+	}
+	
+	@Test
+	void testSubmit_UnknownUser_IsNotQueued() {
+		AsyncSendPipeline pipeline = pipeline(tempDir.resolve("send.journal"), 10);
+		SendMessageRequest request = request("Hello");
+		doThrow(new UserNotFoundException("Sender with ID 1 does not exist.")).when(messageService).validateUsers(request);
+		
+		assertThrows(UserNotFoundException.class, () -> pipeline.submit(request));
+		assertEquals(0, pipeline.getPendingCount());
+	}
+	
+	private AsyncSendPipeline pipeline(Path journalPath, int capacity) {
+		return new AsyncSendPipeline(messageService, new SendJournal(objectMapper, journalPath, false),
+				capacity, 100, Duration.ofMinutes(1), Duration.ofMillis(1), Duration.ofMillis(10), 3);
+	}
+	
+	private static SendMessageRequest request(String title) {
+		SendMessageRequest request = new SendMessageRequest();
+		request.setSenderId(1L);
+		request.setTitle(title);
+		request.setBody("Body");
+		request.setRecipientIds(List.of(2L, 3L));
+		return request;
+	}
+}
@@ -0,0 +1,87 @@
+package fi.invian.codingassignment.bulkload;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// LOAD DATA needs a real server, so this runs only when one is given, e.g.
+// -Dbulkload.mariadb.url=jdbc:mariadb://localhost:3306/?user=root&password=secret&allowLocalInfile=true
+// The server needs local_infile enabled. Each test works in a scratch database that is dropped afterwards.
+@EnabledIfSystemProperty(named = "bulkload.mariadb.url", matches = ".+")
+class BulkLoaderMariaDbTest {
+	
+	@TempDir
+	private Path directory;
+	
+	private final String database = "bulk_load_" + UUID.randomUUID().toString().replace("-", "");
+	private final BodyCodec bodyCodec = new BodyCodec(List.of(new DeflateBodyCompressor(6, null)), new DeflateBodyCompressor(6, null), 16);
+	
+	private JdbcTemplate server;
+	private JdbcTemplate jdbcTemplate;
+	private BulkLoader bulkLoader;
+	
+	@BeforeEach
+	void setUp() {
+		String url = System.getProperty("bulkload.mariadb.url");
+		server = new JdbcTemplate(new DriverManagerDataSource(url));
+		server.execute("CREATE DATABASE " + database);
+		
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(url.replaceFirst("/(\\?|$)", "/" + database + "$1"));
+		new ResourceDatabasePopulator(new ClassPathResource("schema/01-schema.sql")).execute(dataSource);
+		
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		bulkLoader = new BulkLoader(dataSource, bodyCodec, BulkLoader.Method.LOAD_DATA, 10, 4, true);
+	}
+	
+	@AfterEach
+	void tearDown() {
+		server.execute("DROP DATABASE IF EXISTS " + database);
+	}
+	
+	@Test
+	void testLoad_LoadData_WritesEveryRow() throws Exception {
+		SyntheticRows synthetic = new SyntheticRows(20, 35, 7, 2, 0.5, Duration.ofDays(10));
+		
+		BulkLoader.Result result = bulkLoader.load(synthetic.users(), synthetic.messages(), synthetic.recipients());
+		
+		assertEquals(result.users(), jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class));
+		assertEquals(result.messages(), jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages", Long.class));
+		assertEquals(result.recipients(), jdbcTemplate.queryForObject("SELECT COUNT(*) FROM message_recipients", Long.class));
+		assertEquals(35, jdbcTemplate.queryForObject("SELECT SUM(sent_count) FROM sender_daily_stats", Integer.class));
+		assertEquals(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM message_recipients WHERE read_at IS NULL", Integer.class),
+				jdbcTemplate.queryForObject("SELECT SUM(unread_count) FROM user_unread_counts", Integer.class));
+	}
+	
+	@Test
+	void testLoad_LoadDataDuplicateKey_FailsChunkInsteadOfSkippingRow() throws Exception {
+		Path users = Files.writeString(directory.resolve("users.csv"), """
+				id,name,created_at
+				1,Rishabh,2024-01-01T00:00:00Z
+				2,Aish,2024-01-01T00:00:00Z
+				1,Duplicate,2024-01-01T00:00:00Z
+				""");
+		
+		try (RowSource<UserRow> userRows = FileRowSource.users(users)) {
+			IllegalStateException exception = assertThrows(IllegalStateException.class,
+					() -> bulkLoader.load(userRows, null, null));
+			assertTrue(exception.getMessage().contains("2 of 3 rows into users"), exception.getMessage());
+		}
+		assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class));
+	}
+}
@@ -0,0 +1,182 @@
+package fi.invian.codingassignment.bulkload;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against an empty in-memory H2 database in MariaDB mode, initialized with the application schema
+class BulkLoaderTest {
+	
+	@TempDir
+	private Path directory;
+	
+	private JdbcTemplate jdbcTemplate;
+	private BodyCodec bodyCodec;
+	private BulkLoader bulkLoader;
+	
+	@BeforeEach
+	void setUp() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		new ResourceDatabasePopulator(new ClassPathResource("schema/01-schema.sql")).execute(dataSource);
+		
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		bodyCodec = new BodyCodec(List.of(new DeflateBodyCompressor(6, null)), new DeflateBodyCompressor(6, null), 16);
+		bulkLoader = new BulkLoader(dataSource, bodyCodec, BulkLoader.Method.INSERT, 10, 4, true);
+	}
+	
+	@Test
+	void testLoad_CsvAndNdjson_WritesRowsCountersAndIndexes() throws Exception {
+		Path users = Files.writeString(directory.resolve("users.csv"), """
+				id,name,created_at
+				1,Rishabh,2024-01-01T00:00:00Z
+				2,"Aish, Jr.",
+				3,Ish,2024-01-02 08:30:00
+				""");
+		Path messages = Files.writeString(directory.resolve("messages.ndjson"), """
+				{"id": 10, "sender_id": 1, "title": "Hello", "body": "First line\\n\\tsecond line", "sent_at": "2024-03-01T10:00:00Z"}
+				{"id": 11, "sender_id": 1, "title": "Again", "body": "Another message", "sent_at": "2024-03-01T11:00:00Z"}
+				{"id": 12, "sender_id": 2, "title": "Reply", "body": "A reply", "sent_at": "2024-03-02T09:00:00Z"}
+				""");
+		Path recipients = Files.writeString(directory.resolve("recipients.csv"), """
+				message_id,recipient_id,read_at
+				10,2,2024-03-01T12:00:00Z
+				10,3,
+				11,2,
+				12,1,
+				""");
+		
+		BulkLoader.Result result;
+		try (RowSource<UserRow> userRows = FileRowSource.users(users);
+			 RowSource<MessageRow> messageRows = FileRowSource.messages(messages);
+			 RowSource<RecipientRow> recipientRows = FileRowSource.recipients(recipients)) {
+			result = bulkLoader.load(userRows, messageRows, recipientRows);
+		}
+		
+		assertEquals(new BulkLoader.Result(3, 3, 4), result);
+		assertEquals("Aish, Jr.", jdbcTemplate.queryForObject("SELECT name FROM users WHERE id = 2", String.class));
+		assertEquals("First line\n\tsecond line", bodyCodec.decode(
+				jdbcTemplate.queryForObject("SELECT body FROM messages WHERE id = 10", byte[].class)));
+		assertEquals("First line second line", jdbcTemplate.queryForObject("SELECT snippet FROM messages WHERE id = 10", String.class));
+		assertEquals(2, jdbcTemplate.queryForObject(
+				"SELECT sent_count FROM sender_daily_stats WHERE sender_id = 1 AND stat_day = DATE '2024-03-01'", Integer.class));
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT unread_count FROM user_unread_counts WHERE user_id = 2", Integer.class));
+		assertEquals(3, jdbcTemplate.queryForObject("SELECT SUM(unread_count) FROM user_unread_counts", Integer.class));
+		assertEquals(2, jdbcTemplate.queryForObject(
+				"SELECT COUNT(DISTINCT index_name) FROM information_schema.indexes WHERE index_name IN ('idx_recipient_id', 'idx_sent_at')",
+				Integer.class));
+	}
+	
+	@Test
+	void testLoad_Interrupted_ResumesAfterLastCommittedChunk() throws Exception {
+		SyntheticRows synthetic = new SyntheticRows(20, 35, 7, 2, 0.5, Duration.ofDays(10));
+		bulkLoader.load(synthetic.users(), null, null);
+		
+		RowSource<MessageRow> failing = new FailingSource<>(synthetic.messages(), 25);
+		assertThrows(IllegalStateException.class, () -> bulkLoader.load(null, failing, null));
+		assertEquals(20, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages", Integer.class));
+		
+		BulkLoader.Result resumed = bulkLoader.load(null, synthetic.messages(), null);
+		
+		assertEquals(15, resumed.messages());
+		assertEquals(35, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM messages", Integer.class));
+		assertEquals(35, jdbcTemplate.queryForObject("SELECT SUM(sent_count) FROM sender_daily_stats", Integer.class));
+		assertEquals(2, jdbcTemplate.queryForObject(
+				"SELECT COUNT(DISTINCT index_name) FROM information_schema.indexes WHERE index_name IN ('idx_recipient_id', 'idx_sent_at')",
+				Integer.class));
+	}
+	
+	@Test
+	void testSyntheticRows_SameSettings_GiveSameRowsAfterSkip() throws Exception {
+		SyntheticRows synthetic = new SyntheticRows(50, 100, 7, 5, 0.5, Duration.ofDays(30));
+		List<MessageRow> all = readAll(synthetic.messages());
+		List<RecipientRow> recipients = readAll(synthetic.recipients());
+		
+		RowSource<MessageRow> resumed = synthetic.messages();
+		resumed.skip(60);
+		assertEquals(all.subList(60, 100), readAll(resumed));
+		assertTrue(all.stream().allMatch(message -> message.senderId() >= 1 && message.senderId() <= 50));
+		assertEquals(all.stream().map(MessageRow::sentAt).sorted().toList(), all.stream().map(MessageRow::sentAt).toList());
+		assertEquals(recipients, readAll(new SyntheticRows(50, 100, 7, 5, 0.5, Duration.ofDays(30)).recipients()));
+	}
+	
+	@Test
+	void testSyntheticRows_RecipientsSkip_MatchesReadingAhead() throws Exception {
+		SyntheticRows synthetic = new SyntheticRows(50, 100, 7, 5, 0.5, Duration.ofDays(30));
+		List<RecipientRow> all = readAll(synthetic.recipients());
+		
+		for (int skipped : List.of(0, 1, 2, 3, 57, all.size() - 1, all.size(), all.size() + 10)) {
+			RowSource<RecipientRow> resumed = synthetic.recipients();
+			resumed.skip(skipped);
+			assertEquals(all.subList(Math.min(skipped, all.size()), all.size()), readAll(resumed));
+		}
+		
+		RowSource<RecipientRow> partlyRead = synthetic.recipients();
+		partlyRead.next();
+		partlyRead.skip(40);
+		assertEquals(all.subList(41, all.size()), readAll(partlyRead));
+	}
+	
+	private static <T> List<T> readAll(RowSource<T> source) throws Exception {
+		try (source) {
+			List<T> rows = new ArrayList<>();
+			source.forEachRemaining(rows::add);
+			return rows;
+		}
+	}
+	
+	// Fails when asked for the record after the given number, as a crash in the middle of a chunk would
+	private static class FailingSource<T> implements RowSource<T> {
+		
+		private final RowSource<T> source;
+		private final long failAfter;
+		private long read;
+		
+		FailingSource(RowSource<T> source, long failAfter) {
+			this.source = source;
+			this.failAfter = failAfter;
+		}
+		
+		@Override
+		public String name() {
+			return source.name();
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return source.hasNext();
+		}
+		
+		@Override
+		public T next() {
+			if (read++ == failAfter) {
+				throw new IllegalStateException("Input failed");
+			}
+			return source.next();
+		}
+		
+		@Override
+		public void skip(long records) {
+			source.skip(records);
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
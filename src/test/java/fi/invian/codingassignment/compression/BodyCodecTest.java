@@ -0,0 +1,74 @@
+package fi.invian.codingassignment.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BodyCodecTest {
+	
+	private static final String BODY = "Hello Aish, your package #1234 has been shipped and will arrive tomorrow. ".repeat(10);
+	
+	private final DeflateBodyCompressor deflate = new DeflateBodyCompressor(6, null);
+	private final Lz4BodyCompressor lz4 = new Lz4BodyCompressor();
+	
+	@Test
+	void testEncode_Deflate_RoundTrips() {
+		BodyCodec codec = new BodyCodec(List.of(deflate, lz4), deflate, 64);
+		
+		byte[] stored = codec.encode(BODY);
+		
+		assertEquals(BodyCodec.MARKER, stored[0]);
+		assertEquals(DeflateBodyCompressor.ID, stored[1]);
+		assertTrue(stored.length < BODY.length() / 4);
+		assertEquals(BODY, codec.decode(stored));
+	}
+	
+	@Test
+	void testEncode_Lz4_RoundTrips() {
+		BodyCodec codec = new BodyCodec(List.of(deflate, lz4), lz4, 64);
+		
+		byte[] stored = codec.encode(BODY);
+		
+		assertEquals(Lz4BodyCompressor.ID, stored[1]);
+		assertEquals(BODY, codec.decode(stored));
+	}
+	
+	@Test
+	void testEncode_ShortBody_StoredAsPlainText() {
+		BodyCodec codec = new BodyCodec(List.of(deflate), deflate, 64);
+		
+		assertArrayEquals("Hi!".getBytes(StandardCharsets.UTF_8), codec.encode("Hi!"));
+	}
+	
+	@Test
+	void testDecode_PlainTextRow_IsReadable() {
+		BodyCodec codec = new BodyCodec(List.of(deflate), deflate, 64);
+		String legacy = "Written before compression, with unicode: \u00e4\u00f6\u00fc";
+		
+		assertEquals(legacy, codec.decode(legacy.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+	@Test
+	void testDecode_OtherCodec_ReadableAfterSwitching() {
+		byte[] stored = new BodyCodec(List.of(deflate, lz4), lz4, 64).encode(BODY);
+		
+		assertEquals(BODY, new BodyCodec(List.of(deflate, lz4), deflate, 64).decode(stored));
+	}
+	
+	@Test
+	void testDictionary_ImprovesRatioAndIsRequiredToDecode() {
+		byte[] dictionary = "your package has been shipped and will arrive tomorrow".getBytes(StandardCharsets.UTF_8);
+		DeflateBodyCompressor withDictionary = new DeflateBodyCompressor(6, dictionary);
+		String body = "Hello Ish, your package #98 has been shipped and will arrive tomorrow.";
+		
+		byte[] plain = new BodyCodec(List.of(deflate), deflate, 16).encode(body);
+		byte[] primed = new BodyCodec(List.of(withDictionary), withDictionary, 16).encode(body);
+		
+		assertTrue(primed.length < plain.length);
+		assertEquals(body, new BodyCodec(List.of(withDictionary), null, 16).decode(primed));
+		assertThrows(IllegalStateException.class, () -> new BodyCodec(List.of(deflate), deflate, 16).decode(primed));
+	}
+}
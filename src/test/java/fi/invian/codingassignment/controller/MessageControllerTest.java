@@ -1,11 +1,25 @@
 package fi.invian.codingassignment.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.invian.codingassignment.config.WireFormats;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.CursorPage;
 import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
 import fi.invian.codingassignment.dto.SendMessageRequest;
 import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.dto.UnreadCountResponse;
+import fi.invian.codingassignment.exception.InvalidCursorException;
+import fi.invian.codingassignment.exception.MessageNotFoundException;
 import fi.invian.codingassignment.exception.UserNotFoundException;
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.ContentVersions;
+import fi.invian.codingassignment.service.IdempotentSendService;
 import fi.invian.codingassignment.service.MessageService;
+import fi.invian.codingassignment.service.MessagesReadEvent;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import fi.invian.codingassignment.service.WindowedStatisticsService;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,33 +27,56 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.*;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+@SpringBootTest(properties = "messaging.etag.enabled=true")
 @AutoConfigureMockMvc
 class MessageControllerTest {
 	
 	@Autowired
 	private MockMvc mockMvc;
 	
+	@Autowired
+	private ContentVersions contentVersions;
+	
 	@MockBean
 	private MessageService messageService;
 	
+	@MockBean
+	private IdempotentSendService idempotentSendService;
+	
+	@MockBean
+	private WindowedStatisticsService windowedStatisticsService;
+	
 	@Test
 	void sendMessage_validRequest_shouldReturnSuccess() throws Exception {
 		SendMessageRequest request = new SendMessageRequest();
@@ -57,6 +94,46 @@ class MessageControllerTest {
 				.andExpect(content().string("Message sent successfully! ID: 1"));
 	}
 	
+	@Test
+	void sendMessage_withIdempotencyKey_shouldMarkReplay() throws Exception {
+		SendMessageRequest request = new SendMessageRequest();
+		request.setSenderId(1L);
+		request.setTitle("Hello");
+		request.setBody("Test body");
+		request.setRecipientIds(List.of(2L, 3L));
+		
+		when(idempotentSendService.sendMessage(eq("retry-1"), any(SendMessageRequest.class)))
+				.thenReturn(new IdempotentSendService.SendOutcome(1L, true));
+		
+		mockMvc.perform(post("/messages")
+						.header("Idempotency-Key", "retry-1")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(new ObjectMapper().writeValueAsString(request)))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Idempotent-Replayed", "true"))
+				.andExpect(content().string("Message sent successfully! ID: 1"));
+		verify(messageService, never()).sendMessage(any(SendMessageRequest.class));
+	}
+	
+	@Test
+	void sendMessage_acceptCbor_shouldAnswerPlainText() throws Exception {
+		SendMessageRequest request = new SendMessageRequest();
+		request.setSenderId(1L);
+		request.setTitle("Hello");
+		request.setBody("Test body");
+		request.setRecipientIds(List.of(2L));
+		
+		when(messageService.sendMessage(any(SendMessageRequest.class))).thenReturn(1L);
+		
+		mockMvc.perform(post("/messages")
+						.accept("application/cbor")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(new ObjectMapper().writeValueAsString(request)))
+				.andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_PLAIN))
+				.andExpect(content().string("Message sent successfully! ID: 1"));
+	}
+	
 	@Test
 	void sendMessage_invalidRequest_shouldReturnValidationErrors() throws Exception {
 		SendMessageRequest invalidRequest = new SendMessageRequest();
@@ -107,12 +184,44 @@ class MessageControllerTest {
 				.andExpect(content().string("Recipient with ID 999 does not exist."));
 	}
 	
+	@Test
+	void sendMessages_validBatch_shouldReturnPerItemResults() throws Exception {
+		SendMessageRequest request = new SendMessageRequest();
+		request.setSenderId(1L);
+		request.setTitle("Hello");
+		request.setBody("Test body");
+		request.setRecipientIds(List.of(2L, 3L));
+		
+		when(messageService.sendMessages(anyList())).thenReturn(List.of(
+				BatchSendResult.sent(0, 1L),
+				BatchSendResult.failed(1, "Recipient with ID 999 does not exist.")
+		));
+		
+		mockMvc.perform(post("/messages/batch")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(new ObjectMapper().writeValueAsString(List.of(request, request))))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$[0].messageId").value(1))
+				.andExpect(jsonPath("$[1].error").value("Recipient with ID 999 does not exist."));
+	}
+	
+	@Test
+	void sendMessages_invalidItem_shouldReturnBadRequest() throws Exception {
+		SendMessageRequest invalidRequest = new SendMessageRequest();
+		
+		mockMvc.perform(post("/messages/batch")
+						.contentType(MediaType.APPLICATION_JSON)
+						.content(new ObjectMapper().writeValueAsString(List.of(invalidRequest))))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$", hasItem("Sender ID must not be empty.")));
+	}
+	
 	@Test
 	void testGetMessages_ValidUser_ReturnsMessages() throws Exception {
 		Long userId = 1L;
 		Pageable pageable = PageRequest.of(0, 10, Sort.by("sentAt").descending());
-		Page<MessageResponse> mockPage = new PageImpl<>(List.of(
-				new MessageResponse(1L, "Hello", "Body", "Rishabh", Instant.now())
+		Page<MessageSummaryResponse> mockPage = new PageImpl<>(List.of(
+				new MessageSummaryResponse(1L, "Hello", "Body", "Rishabh", Instant.now(), null)
 		));
 		
 		when(messageService.getUserMessages(userId, pageable)).thenReturn(mockPage);
@@ -122,7 +231,76 @@ class MessageControllerTest {
 						.param("size", "10"))
 				.andExpect(status().isOk())
 				.andExpect(jsonPath("$.content[0].id").value(1))
-				.andExpect(jsonPath("$.content[0].title").value("Hello"));
+				.andExpect(jsonPath("$.content[0].title").value("Hello"))
+				.andExpect(jsonPath("$.content[0].snippet").value("Body"))
+				.andExpect(jsonPath("$.content[0].body").doesNotExist());
+	}
+	
+	@Test
+	void testGetMessages_AcceptCbor_ReturnsCompactPage() throws Exception {
+		Instant sentAt = Instant.parse("2024-01-01T12:00:00.123Z");
+		Pageable pageable = PageRequest.of(0, 10, Sort.by("sentAt").descending());
+		when(messageService.getUserMessages(1L, pageable)).thenReturn(new PageImpl<>(List.of(
+				new MessageSummaryResponse(1L, "Hello", "Body", "Rishabh", sentAt, null)), pageable, 1));
+		
+		MvcResult result = mockMvc.perform(get("/messages/users/{id}", 1L)
+						.accept("application/cbor"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType("application/cbor"))
+				.andReturn();
+		
+		JsonNode page = WireFormats.cborMapper().readTree(result.getResponse().getContentAsByteArray());
+		assertEquals(1, page.get("totalElements").asInt());
+		assertFalse(page.has("pageable"));
+		JsonNode message = page.get("content").get(0);
+		assertEquals("Hello", message.get("title").asText());
+		assertEquals(sentAt.toEpochMilli(), message.get("sentAt").asLong());
+		assertFalse(message.has("readAt"));
+	}
+	
+	@Test
+	void testGetMessage_AcceptSmile_ReturnsBinaryMessage() throws Exception {
+		when(messageService.getMessage(5L, 2L))
+				.thenReturn(new MessageResponse(5L, "Hello", "Full body", "Rishabh", Instant.now()));
+		
+		MvcResult result = mockMvc.perform(get("/messages/{id}", 5L)
+						.param("recipientId", "2")
+						.accept("application/x-jackson-smile"))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType("application/x-jackson-smile"))
+				.andReturn();
+		
+		assertEquals("Full body", WireFormats.smileMapper().readTree(result.getResponse().getContentAsByteArray()).get("body").asText());
+	}
+	
+	@Test
+	void testGetMessage_Recipient_ReturnsFullMessage() throws Exception {
+		when(messageService.getMessage(5L, 2L))
+				.thenReturn(new MessageResponse(5L, "Hello", "Full body", "Rishabh", Instant.now()));
+		
+		mockMvc.perform(get("/messages/{id}", 5L).param("recipientId", "2"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.id").value(5))
+				.andExpect(jsonPath("$.body").value("Full body"));
+	}
+	
+	@Test
+	void testGetMessage_NotRecipient_ReturnsNotFound() throws Exception {
+		when(messageService.getMessage(5L, 3L))
+				.thenThrow(new MessageNotFoundException("Message with ID 5 does not exist."));
+		
+		mockMvc.perform(get("/messages/{id}", 5L).param("recipientId", "3"))
+				.andExpect(status().isNotFound())
+				.andExpect(content().string("Message with ID 5 does not exist."));
+	}
+	
+	@Test
+	void testGetMessage_MissingRecipient_ReturnsBadRequest() throws Exception {
+		mockMvc.perform(get("/messages/{id}", 5L))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Parameter recipientId is required."));
+		
+		verify(messageService, never()).getMessage(anyLong(), anyLong());
 	}
 	
 	@Test
@@ -162,6 +340,184 @@ class MessageControllerTest {
 				)));
 	}
 	
+	@Test
+	void testGetMessagesByCursor_ReturnsSliceWithNextCursor() throws Exception {
+		CursorPage<MessageSummaryResponse> slice = new CursorPage<>(List.of(
+				new MessageSummaryResponse(1L, "Hello", "Body", "Rishabh", Instant.now(), null)
+		), "next");
+		
+		when(messageService.getUserMessages(1L, "", 10)).thenReturn(slice);
+		
+		mockMvc.perform(get("/messages/users/{id}", 1L).param("cursor", ""))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.content[0].id").value(1))
+				.andExpect(jsonPath("$.nextCursor").value("next"))
+				.andExpect(jsonPath("$.totalElements").doesNotExist());
+	}
+	
+	@Test
+	void testGetMessagesByCursor_InvalidCursor_ReturnsBadRequest() throws Exception {
+		when(messageService.getUserMessages(1L, "bogus", 10))
+				.thenThrow(new InvalidCursorException("Cursor bogus is not valid."));
+		
+		mockMvc.perform(get("/messages/users/{id}", 1L).param("cursor", "bogus"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Cursor bogus is not valid."));
+	}
+	
+	@Test
+	void testGetMessagesByCursor_SizeTooLarge_ReturnsBadRequest() throws Exception {
+		mockMvc.perform(get("/messages/users/{id}", 1L).param("cursor", "").param("size", String.valueOf(Integer.MAX_VALUE)))
+				.andExpect(status().isBadRequest())
+				.andExpect(jsonPath("$", hasItem("Size cannot exceed 100.")));
+		verify(messageService, never()).getUserMessages(anyLong(), anyString(), anyInt());
+	}
+	
+	@Test
+	void testExportMessages_StreamsNdjson() throws Exception {
+		doAnswer(invocation -> {
+			OutputStream out = invocation.getArgument(1);
+			out.write("{\"id\":1}\n".getBytes(StandardCharsets.UTF_8));
+			return null;
+		}).when(messageService).exportUserMessages(eq(1L), any(OutputStream.class));
+		
+		MvcResult result = mockMvc.perform(get("/messages/users/{id}/export", 1L))
+				.andExpect(request().asyncStarted())
+				.andReturn();
+		
+		mockMvc.perform(asyncDispatch(result))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+				.andExpect(content().string("{\"id\":1}\n"));
+	}
+	
+	@Test
+	void testExportMessages_InvalidUser_ReturnsNotFound() throws Exception {
+		doThrow(new UserNotFoundException("User with ID 99 does not exist."))
+				.when(messageService).requireUser(99L);
+		
+		mockMvc.perform(get("/messages/users/{id}/export", 99L))
+				.andExpect(status().isNotFound())
+				.andExpect(content().string("User with ID 99 does not exist."));
+	}
+	
+	@Test
+	void testGetMessages_MatchingETag_ReturnsNotModifiedWithoutQuery() throws Exception {
+		Long userId = 7L;
+		when(messageService.getUserMessages(eq(userId), any(Pageable.class))).thenReturn(Page.empty());
+		
+		String eTag = mockMvc.perform(get("/messages/users/{id}", userId))
+				.andExpect(status().isOk())
+				.andExpect(header().exists(HttpHeaders.ETAG))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		
+		mockMvc.perform(get("/messages/users/{id}", userId).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, eTag))
+				.andExpect(content().string(""));
+		mockMvc.perform(get("/messages/users/{id}", userId).param("cursor", "").header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isNotModified());
+		
+		verify(messageService, times(1)).getUserMessages(eq(userId), any(Pageable.class));
+		verify(messageService, never()).getUserMessages(eq(userId), anyString(), anyInt());
+	}
+	
+	@Test
+	void testGetMessages_OtherWireFormat_HasOwnETag() throws Exception {
+		Long userId = 10L;
+		when(messageService.getUserMessages(eq(userId), any(Pageable.class))).thenReturn(Page.empty());
+		
+		String jsonETag = mockMvc.perform(get("/messages/users/{id}", userId))
+				.andExpect(status().isOk())
+				.andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		
+		String cborETag = mockMvc.perform(get("/messages/users/{id}", userId)
+						.accept("application/cbor")
+						.header(HttpHeaders.IF_NONE_MATCH, jsonETag))
+				.andExpect(status().isOk())
+				.andExpect(content().contentType("application/cbor"))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		assertNotEquals(jsonETag, cborETag);
+		
+		mockMvc.perform(get("/messages/users/{id}", userId)
+						.accept("application/cbor")
+						.header(HttpHeaders.IF_NONE_MATCH, cborETag))
+				.andExpect(status().isNotModified())
+				.andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)));
+	}
+	
+	@Test
+	void testGetMessages_NewMessage_ChangesETag() throws Exception {
+		Long userId = 8L;
+		when(messageService.getUserMessages(eq(userId), any(Pageable.class))).thenReturn(Page.empty());
+		String eTag = contentVersions.inboxETag(userId, MediaType.APPLICATION_JSON);
+		String otherETag = contentVersions.inboxETag(9L, MediaType.APPLICATION_JSON);
+		
+		contentVersions.onMessagesSent(new MessagesSentEvent(List.of(
+				new InboxEntry(userId, Instant.now(), 1L, 1L, "Rishabh", "Hello", "Body")), Map.of(1L, "Body")));
+		
+		mockMvc.perform(get("/messages/users/{id}", userId).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, contentVersions.inboxETag(userId, MediaType.APPLICATION_JSON)));
+		assertNotEquals(eTag, contentVersions.inboxETag(userId, MediaType.APPLICATION_JSON));
+		assertEquals(otherETag, contentVersions.inboxETag(9L, MediaType.APPLICATION_JSON));
+	}
+	
+	@Test
+	void testMarkAsRead_ReturnsUnreadCount() throws Exception {
+		when(messageService.markAsRead(2L, List.of(5L, 6L))).thenReturn(new UnreadCountResponse(2L, 4L));
+		
+		mockMvc.perform(post("/messages/users/{id}/read", 2L)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"messageIds\": [5, 6]}"))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.userId").value(2))
+				.andExpect(jsonPath("$.unreadCount").value(4));
+	}
+	
+	@Test
+	void testMarkAsRead_EmptyList_ReturnsBadRequest() throws Exception {
+		mockMvc.perform(post("/messages/users/{id}/read", 2L)
+						.contentType(MediaType.APPLICATION_JSON)
+						.content("{\"messageIds\": []}"))
+				.andExpect(status().isBadRequest());
+		
+		verify(messageService, never()).markAsRead(anyLong(), anyList());
+	}
+	
+	@Test
+	void testGetUnreadCount_ReadMessages_ChangeETag() throws Exception {
+		Long userId = 10L;
+		when(messageService.getUnreadCount(userId)).thenReturn(new UnreadCountResponse(userId, 3L));
+		
+		String eTag = mockMvc.perform(get("/messages/users/{id}/unread-count", userId))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.unreadCount").value(3))
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get("/messages/users/{id}/unread-count", userId).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isNotModified());
+		
+		contentVersions.onMessagesRead(new MessagesReadEvent(List.of(userId)));
+		
+		mockMvc.perform(get("/messages/users/{id}/unread-count", userId).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isOk());
+		verify(messageService, times(2)).getUnreadCount(userId);
+	}
+	
+	@Test
+	void testGetTopSenders_MatchingETag_ReturnsNotModifiedWithoutQuery() throws Exception {
+		when(messageService.getTopSenders(any(), eq(3))).thenReturn(List.of());
+		
+		String eTag = mockMvc.perform(get("/messages/statistics/top-senders").param("limit", "3"))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+		mockMvc.perform(get("/messages/statistics/top-senders").param("limit", "3").header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(status().isNotModified());
+		
+		verify(messageService, times(1)).getTopSenders(any(), eq(3));
+	}
+	
 	@Test
 	void testGetTopSenders_ValidRequest_ReturnsSenders() throws Exception {
 		List<StatisticsResponse> mockResponse = List.of(
@@ -188,6 +544,48 @@ class MessageControllerTest {
 		);
 	}
 	
+	@Test
+	void testGetTopSenders_CustomWindow_UsesRequestedDays() throws Exception {
+		when(messageService.getTopSenders(any(), eq(5))).thenReturn(List.of());
+		
+		mockMvc.perform(get("/messages/statistics/top-senders").param("limit", "5").param("days", "7"))
+				.andExpect(status().isOk());
+		
+		ArgumentCaptor<Instant> fromDateCaptor = ArgumentCaptor.forClass(Instant.class);
+		verify(messageService).getTopSenders(fromDateCaptor.capture(), eq(5));
+		assertTrue(
+				Duration.between(Instant.now().minus(Duration.ofDays(7)), fromDateCaptor.getValue()).abs().toMillis() < 1000,
+				"fromDate should be approximately 7 days before now"
+		);
+	}
+	
+	@Test
+	void testGetTopSenders_WindowBeyondRetention_ReturnsBadRequest() throws Exception {
+		mockMvc.perform(get("/messages/statistics/top-senders").param("days", "91"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Days cannot exceed 90."));
+	}
+	
+	@Test
+	void testGetTopSenders_Window_ReturnsSketchCountsWithMaxError() throws Exception {
+		when(windowedStatisticsService.getTopSenders(Duration.ofMinutes(5), 10)).thenReturn(new WindowedStatisticsService.TopSenders(
+				List.of(new StatisticsResponse(1L, "Rishabh", 42L)), 3L));
+		
+		mockMvc.perform(get("/messages/statistics/top-senders").param("window", "5m"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Sent-Count-Max-Error", "3"))
+				.andExpect(header().doesNotExist(HttpHeaders.ETAG))
+				.andExpect(jsonPath("$[0].sentCount").value(42));
+		verify(messageService, never()).getTopSenders(any(), anyInt());
+	}
+	
+	@Test
+	void testGetTopSenders_InvalidWindow_ReturnsBadRequest() throws Exception {
+		mockMvc.perform(get("/messages/statistics/top-senders").param("window", "soon"))
+				.andExpect(status().isBadRequest())
+				.andExpect(content().string("Window soon is not a duration such as 5m, 1h or 1d."));
+	}
+	
 	@Test
 	void testGetTopSenders_InvalidLimit_ReturnsBadRequest() throws Exception {
 		mockMvc.perform(get("/messages/statistics/top-senders").param("limit", "0"))
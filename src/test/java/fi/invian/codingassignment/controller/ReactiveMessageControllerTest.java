@@ -0,0 +1,79 @@
+package fi.invian.codingassignment.controller;
+
+import fi.invian.codingassignment.admission.SenderRateLimiter;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.service.IdempotentSendService;
+import fi.invian.codingassignment.service.MessageService;
+import fi.invian.codingassignment.service.ReactiveMessageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Bound to the controller alone, the reads are covered by ReactiveMessageServiceTest
+@ExtendWith(MockitoExtension.class)
+class ReactiveMessageControllerTest {
+	
+	@Mock
+	private ReactiveMessageService reactiveMessageService;
+	
+	@Mock
+	private MessageService messageService;
+	
+	@Mock
+	private IdempotentSendService idempotentSendService;
+	
+	@Mock
+	private SenderRateLimiter senderRateLimiter;
+	
+	private WebTestClient webTestClient;
+	
+	@BeforeEach
+	void setUp() {
+		webTestClient = WebTestClient.bindToController(new ReactiveMessageController(
+				reactiveMessageService, messageService, idempotentSendService, senderRateLimiter, 90)).build();
+	}
+	
+	@Test
+	void testSendMessage_WithIdempotencyKey_ReturnsReplayedMessage() {
+		when(idempotentSendService.sendMessage(eq("key-1"), any(SendMessageRequest.class)))
+				.thenReturn(new IdempotentSendService.SendOutcome(7L, true));
+		
+		webTestClient.post().uri("/messages")
+				.header("Idempotency-Key", "key-1")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("{\"senderId\": 1, \"recipientIds\": [2], \"title\": \"Hello\", \"body\": \"Hi\"}")
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().valueEquals("Idempotent-Replayed", "true")
+				.expectBody(String.class).isEqualTo("Message sent successfully! ID: 7");
+	}
+	
+	@Test
+	void testSendMessages_ChargesEachSenderOnce() {
+		when(messageService.sendMessages(any())).thenReturn(List.of(BatchSendResult.sent(0, 10L), BatchSendResult.sent(1, 11L)));
+		
+		webTestClient.post().uri("/messages/batch")
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("""
+						[{"senderId": 1, "recipientIds": [2], "title": "A", "body": "a"},
+						 {"senderId": 1, "recipientIds": [3], "title": "B", "body": "b"}]""")
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody().jsonPath("$[1].messageId").isEqualTo(11);
+		
+		verify(senderRateLimiter).acquireAll(Map.of(1L, 2));
+	}
+}
@@ -0,0 +1,26 @@
+package fi.invian.codingassignment.dto;
+
+import fi.invian.codingassignment.exception.InvalidCursorException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MessageCursorTest {
+	
+	@Test
+	void encode_thenDecode_shouldReturnSamePosition() {
+		MessageCursor cursor = new MessageCursor(Instant.parse("2024-01-15T10:15:30.000000123Z"), 42L);
+		
+		assertThat(MessageCursor.decode(cursor.encode())).isEqualTo(cursor);
+	}
+	
+	@Test
+	void decode_garbage_shouldThrowInvalidCursor() {
+		assertThatThrownBy(() -> MessageCursor.decode("not-a-cursor"))
+				.isInstanceOf(InvalidCursorException.class)
+				.hasMessage("Cursor not-a-cursor is not valid.");
+	}
+}
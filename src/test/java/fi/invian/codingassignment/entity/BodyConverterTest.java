@@ -0,0 +1,43 @@
+package fi.invian.codingassignment.entity;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BodyConverterTest {
+	
+	private final BodyConverter converter = new BodyConverter(
+			new BodyCodec(List.of(new DeflateBodyCompressor(6, null)), new DeflateBodyCompressor(6, null), 16));
+	
+	@Test
+	void testConvert_LongBody_StoredCompressedAndRoundTrips() {
+		String body = "Reminder about the meeting tomorrow, bring the slides. ".repeat(20);
+		
+		byte[] stored = converter.convertToDatabaseColumn(body);
+		
+		assertEquals((byte) 0xFF, stored[0]);
+		assertTrue(stored.length < body.length());
+		assertEquals(body, converter.convertToEntityAttribute(stored));
+	}
+	
+	@Test
+	void testConvert_ShortBody_StoredPlainAndRoundTrips() {
+		String body = "Hi Aish! \u00e4\u00f6";
+		
+		byte[] stored = converter.convertToDatabaseColumn(body);
+		
+		assertArrayEquals(body.getBytes(StandardCharsets.UTF_8), stored);
+		assertEquals(body, converter.convertToEntityAttribute(stored));
+	}
+	
+	@Test
+	void testConvert_Null_StaysNull() {
+		assertNull(converter.convertToDatabaseColumn(null));
+		assertNull(converter.convertToEntityAttribute(null));
+	}
+}
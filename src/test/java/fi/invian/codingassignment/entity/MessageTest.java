@@ -0,0 +1,31 @@
+package fi.invian.codingassignment.entity;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MessageTest {
+	
+	@Test
+	void testSetBody_ShortBody_SnippetIsWholeBody() {
+		Message message = new Message();
+		message.setBody("  Hello,\n\n  Aish!  ");
+		
+		assertEquals("  Hello,\n\n  Aish!  ", message.getBody());
+		assertEquals("Hello, Aish!", message.getSnippet());
+	}
+	
+	@Test
+	void testSnippetOf_LongBody_IsBounded() {
+		String body = "a".repeat(Message.SNIPPET_LENGTH + 50);
+		
+		assertEquals("a".repeat(Message.SNIPPET_LENGTH), Message.snippetOf(body));
+	}
+	
+	@Test
+	void testSnippetOf_DoesNotSplitSurrogatePair() {
+		String body = "a".repeat(Message.SNIPPET_LENGTH - 1) + "\uD83D\uDE00" + "tail";
+		
+		assertEquals("a".repeat(Message.SNIPPET_LENGTH - 1), Message.snippetOf(body));
+	}
+}
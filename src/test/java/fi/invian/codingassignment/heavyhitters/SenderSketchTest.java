@@ -0,0 +1,96 @@
+package fi.invian.codingassignment.heavyhitters;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SenderSketchTest {
+	
+	@Test
+	void testToSketch_ExactWhileSendersFit() {
+		SpaceSaving spaceSaving = new SpaceSaving(3);
+		spaceSaving.add(1, 5);
+		spaceSaving.add(2, 2);
+		spaceSaving.add(1, 1);
+		
+		SenderSketch sketch = spaceSaving.toSketch();
+		
+		assertEquals(List.of(new SenderSketch.Counter(1, 6), new SenderSketch.Counter(2, 2)), sketch.counters());
+		assertEquals(8, sketch.total());
+		assertEquals(0, sketch.maxError());
+	}
+	
+	@Test
+	void testToSketch_CountsStayWithinMaxErrorOnSkewedTraffic() {
+		Map<Long, Long> sent = new HashMap<>();
+		SpaceSaving spaceSaving = new SpaceSaving(20);
+		for (long senderId : zipf(new Random(1), 20_000)) {
+			spaceSaving.add(senderId, 1);
+			sent.merge(senderId, 1L, Long::sum);
+		}
+		
+		assertBounds(spaceSaving.toSketch(), sent);
+	}
+	
+	@Test
+	void testMerge_SketchesOfSeveralNodesKeepTheGuarantee() {
+		Map<Long, Long> sent = new HashMap<>();
+		List<SenderSketch> nodes = new ArrayList<>();
+		Random random = new Random(2);
+		for (int node = 0; node < 4; node++) {
+			SpaceSaving spaceSaving = new SpaceSaving(20);
+			for (long senderId : zipf(random, 5_000)) {
+				// Every node also sees senders of its own
+				long id = senderId > 50 ? senderId * 10 + node : senderId;
+				spaceSaving.add(id, 1);
+				sent.merge(id, 1L, Long::sum);
+			}
+			nodes.add(spaceSaving.toSketch());
+		}
+		
+		SenderSketch merged = SenderSketch.merge(nodes, 20);
+		
+		assertEquals(20_000, merged.total());
+		assertTrue(merged.counters().size() <= 20);
+		assertBounds(merged, sent);
+	}
+	
+	// Lower bounds within maxError of the truth, at most total / (capacity + 1) apart, and every sender
+	// above that share listed
+	private static void assertBounds(SenderSketch sketch, Map<Long, Long> sent) {
+		long maxError = sketch.maxError();
+		assertTrue(maxError <= sketch.total() / (sketch.capacity() + 1) + 1, "max error " + maxError);
+		Map<Long, Long> counted = new HashMap<>();
+		sketch.counters().forEach(counter -> counted.put(counter.senderId(), counter.count()));
+		sent.forEach((senderId, count) -> {
+			long lower = counted.getOrDefault(senderId, 0L);
+			assertTrue(lower <= count && count <= lower + maxError, "sender " + senderId + ": " + lower + " for " + count);
+		});
+		assertTrue(counted.containsKey(1L));
+	}
+	
+	// Sender ids with a Zipf-like skew: sender n is picked with a weight of 1 / n
+	private static long[] zipf(Random random, int sends) {
+		int senders = 1000;
+		double[] cumulative = new double[senders];
+		double sum = 0;
+		for (int i = 0; i < senders; i++) {
+			sum += 1.0 / (i + 1);
+			cumulative[i] = sum;
+		}
+		long[] ids = new long[sends];
+		for (int i = 0; i < sends; i++) {
+			double pick = random.nextDouble() * sum;
+			int index = Arrays.binarySearch(cumulative, pick);
+			ids[i] = (index < 0 ? -index - 1 : index) + 1;
+		}
+		return ids;
+	}
+}
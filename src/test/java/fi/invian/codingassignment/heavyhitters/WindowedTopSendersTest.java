@@ -0,0 +1,77 @@
+package fi.invian.codingassignment.heavyhitters;
+
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WindowedTopSendersTest {
+	
+	private final AtomicLong now = new AtomicLong(Duration.ofDays(1000).toMillis());
+	private final WindowedTopSenders windowedTopSenders = new WindowedTopSenders(0.01, Duration.ofMinutes(1),
+			Duration.ofHours(1), Duration.ofHours(3), now::get);
+	
+	@Test
+	void testSnapshot_ShortWindowsCoverWholeSlices() {
+		windowedTopSenders.record(1, 5);
+		advance(Duration.ofMinutes(2));
+		windowedTopSenders.record(2, 3);
+		advance(Duration.ofSeconds(30));
+		
+		assertEquals(List.of(counter(2, 3)), windowedTopSenders.snapshot(Duration.ofMinutes(1)).counters());
+		assertEquals(List.of(counter(1, 5), counter(2, 3)), windowedTopSenders.snapshot(Duration.ofMinutes(2)).counters());
+		// Cached merge of the closed slices is rebuilt once the next slice starts
+		advance(Duration.ofMinutes(1));
+		windowedTopSenders.record(3, 1);
+		assertEquals(List.of(counter(2, 3), counter(3, 1)), windowedTopSenders.snapshot(Duration.ofMinutes(2)).counters());
+	}
+	
+	@Test
+	void testSnapshot_LongWindowsUseCoarseSlicesWithinRetention() {
+		windowedTopSenders.record(1, 10);
+		advance(Duration.ofMinutes(90));
+		windowedTopSenders.record(2, 4);
+		advance(Duration.ofMinutes(60));
+		windowedTopSenders.record(2, 4);
+		
+		assertEquals(List.of(counter(2, 4)), windowedTopSenders.snapshot(Duration.ofMinutes(5)).counters());
+		assertEquals(List.of(counter(2, 8)), windowedTopSenders.snapshot(Duration.ofMinutes(61)).counters());
+		assertEquals(List.of(counter(1, 10), counter(2, 8)), windowedTopSenders.snapshot(Duration.ofHours(3)).counters());
+		
+		advance(Duration.ofHours(2));
+		assertEquals(List.of(counter(2, 4)), windowedTopSenders.snapshot(Duration.ofHours(2)).counters());
+		assertEquals(List.of(counter(2, 8)), windowedTopSenders.snapshot(Duration.ofHours(3)).counters());
+		assertThrows(IllegalArgumentException.class, () -> windowedTopSenders.snapshot(Duration.ofHours(4)));
+	}
+	
+	@Test
+	void testOnMessagesSent_CountsMessagesNotRecipients() {
+		Instant sentAt = Instant.ofEpochMilli(now.get());
+		windowedTopSenders.onMessagesSent(new MessagesSentEvent(List.of(
+				new InboxEntry(2L, sentAt, 7L, 1L, "Rishabh", "Title", "Snippet"),
+				new InboxEntry(3L, sentAt, 7L, 1L, "Rishabh", "Title", "Snippet"),
+				new InboxEntry(3L, sentAt, 8L, 2L, "Aish", "Title", "Snippet")
+		), Map.of()));
+		
+		SenderSketch sketch = windowedTopSenders.snapshot(Duration.ofMinutes(5));
+		
+		assertEquals(List.of(counter(1, 1), counter(2, 1)), sketch.counters());
+		assertEquals(2, sketch.total());
+		assertEquals(99, sketch.capacity());
+	}
+	
+	private void advance(Duration duration) {
+		now.addAndGet(duration.toMillis());
+	}
+	
+	private static SenderSketch.Counter counter(long senderId, long count) {
+		return new SenderSketch.Counter(senderId, count);
+	}
+}
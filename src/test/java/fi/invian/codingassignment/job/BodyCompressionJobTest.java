@@ -0,0 +1,91 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import fi.invian.codingassignment.compression.Lz4BodyCompressor;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+// Runs against an in-memory H2 database in MariaDB mode, initialized with the application schema
+class BodyCompressionJobTest {
+	
+	private static final String LONG_BODY = "Your package #1234 has been shipped and will arrive tomorrow. ".repeat(10);
+	
+	private final DeflateBodyCompressor deflate = new DeflateBodyCompressor(6, null);
+	private final Lz4BodyCompressor lz4 = new Lz4BodyCompressor();
+	
+	private JdbcTemplate jdbcTemplate;
+	private BodyCodec bodyCodec;
+	private BodyCompressionJob bodyCompressionJob;
+	
+	@BeforeEach
+	void setUp() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		new ResourceDatabasePopulator(
+				new ClassPathResource("schema/01-schema.sql"),
+				new ClassPathResource("schema/02-data.sql")
+		).execute(dataSource);
+		
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		bodyCodec = new BodyCodec(List.of(deflate, lz4), deflate, 16);
+		bodyCompressionJob = new BodyCompressionJob(new MessageJdbcRepository(jdbcTemplate, bodyCodec, 2, 10), bodyCodec, 2, Duration.ZERO);
+	}
+	
+	@Test
+	void testRun_PlainAndOtherCodecRows_RewrittenWithCurrentCodec() {
+		long plain = insert(LONG_BODY.getBytes(StandardCharsets.UTF_8));
+		long otherCodec = insert(new BodyCodec(List.of(lz4), lz4, 16).encode(LONG_BODY));
+		long shortBody = insert("Hi!".getBytes(StandardCharsets.UTF_8));
+		
+		bodyCompressionJob.run();
+		
+		for (long id : List.of(plain, otherCodec)) {
+			byte[] stored = storedBody(id);
+			assertEquals((byte) 0xFF, stored[0]);
+			assertEquals(deflate.id(), stored[1]);
+			assertEquals(LONG_BODY, bodyCodec.decode(stored));
+		}
+		assertArrayEquals("Hi!".getBytes(StandardCharsets.UTF_8), storedBody(shortBody));
+		assertEquals("This is a message to Aish.", bodyCodec.decode(storedBody(1)));
+	}
+	
+	@Test
+	void testRun_Rerun_WritesNothing() {
+		insert(LONG_BODY.getBytes(StandardCharsets.UTF_8));
+		bodyCompressionJob.run();
+		
+		MessageJdbcRepository repository = spy(new MessageJdbcRepository(jdbcTemplate, bodyCodec, 2, 10));
+		new BodyCompressionJob(repository, bodyCodec, 2, Duration.ZERO).run();
+		
+		verify(repository, atLeastOnce()).updateStoredBodies(Map.of());
+		verify(repository, never()).updateStoredBodies(argThat(updates -> !updates.isEmpty()));
+	}
+	
+	private long insert(byte[] body) {
+		jdbcTemplate.update("INSERT INTO messages (sender_id, title, body, snippet) VALUES (1, 'Title', ?, 'Snippet')", (Object) body);
+		return jdbcTemplate.queryForObject("SELECT MAX(id) FROM messages", Long.class);
+	}
+	
+	private byte[] storedBody(long id) {
+		return jdbcTemplate.queryForObject("SELECT body FROM messages WHERE id = ?", byte[].class, id);
+	}
+}
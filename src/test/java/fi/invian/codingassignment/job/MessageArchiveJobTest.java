@@ -0,0 +1,128 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
+import fi.invian.codingassignment.repository.ProjectionInboxRepository;
+import fi.invian.codingassignment.repository.UnreadCountRepository;
+import fi.invian.codingassignment.service.MessagesReadEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against an in-memory H2 database in MariaDB mode, initialized with the application schema
+class MessageArchiveJobTest {
+	
+	@TempDir
+	Path directory;
+	
+	private JdbcTemplate jdbcTemplate;
+	private MessageJdbcRepository messageJdbcRepository;
+	private MessageArchive messageArchive;
+	private MessageArchiveJob messageArchiveJob;
+	private final List<Object> events = new ArrayList<>();
+	private boolean failDelete;
+	
+	@BeforeEach
+	void setUp() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		new ResourceDatabasePopulator(
+				new ClassPathResource("schema/01-schema.sql"),
+				new ClassPathResource("schema/02-data.sql")
+		).execute(dataSource);
+		
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		BodyCodec bodyCodec = new BodyCodec(List.of(new DeflateBodyCompressor(6, null)), new DeflateBodyCompressor(6, null), 16);
+		messageJdbcRepository = new MessageJdbcRepository(jdbcTemplate, bodyCodec, 2, 10);
+		messageArchive = new MessageArchive(directory, bodyCodec);
+		messageArchiveJob = new MessageArchiveJob(messageJdbcRepository, messageArchive, new UnreadCountRepository(jdbcTemplate),
+				new ProjectionInboxRepository(jdbcTemplate), new TransactionTemplate(new DataSourceTransactionManager(dataSource)), event -> {
+					if (failDelete) {
+						throw new IllegalStateException("Delete failed");
+					}
+					events.add(event);
+				}, Duration.ofDays(30), 1);
+		
+		// Both seed messages become old enough to archive, a third one stays recent
+		jdbcTemplate.update("UPDATE messages SET sent_at = TIMESTAMP '2020-01-01 00:00:00' WHERE id = 1");
+		jdbcTemplate.update("UPDATE messages SET sent_at = TIMESTAMP '2020-01-02 00:00:00' WHERE id = 2");
+		jdbcTemplate.update("INSERT INTO messages (sender_id, title, body, snippet) VALUES (1, 'Recent', 'Recent body', 'Recent body')");
+		jdbcTemplate.update("INSERT INTO message_recipients (message_id, recipient_id) VALUES (3, 2)");
+		jdbcTemplate.update("UPDATE user_unread_counts SET unread_count = unread_count + 1 WHERE user_id = 2");
+	}
+	
+	@Test
+	void testArchive_MovesOldMessagesIntoSegments() {
+		messageArchiveJob.archive();
+		
+		assertEquals(List.of(3L), jdbcTemplate.queryForList("SELECT id FROM messages", Long.class));
+		assertEquals(1, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM message_recipients", Integer.class));
+		assertEquals(Path.of("segment-0000000002.seg"), messageArchive.findLatestSegment().orElseThrow().getPath().getFileName());
+		assertEquals(1, messageArchive.count(2L));
+		assertEquals(1, messageArchive.count(1L));
+		assertEquals(1, messageArchive.count(3L));
+		assertEquals("This is a message to Aish.", messageArchive.findMessage(1L, 2L).orElseThrow().body());
+		assertEquals("Aish", messageArchive.findMessage(2L, 3L).orElseThrow().senderName());
+	}
+	
+	@Test
+	void testArchive_MarksArchivedMessagesAsRead() {
+		// User 1 has read message 2 already, user 3 has not
+		jdbcTemplate.update("UPDATE message_recipients SET read_at = TIMESTAMP '2020-06-01 00:00:00' WHERE message_id = 2 AND recipient_id = 1");
+		jdbcTemplate.update("UPDATE user_unread_counts SET unread_count = 0 WHERE user_id = 1");
+		
+		messageArchiveJob.archive();
+		
+		assertEquals(List.of(0, 1, 0), jdbcTemplate.queryForList(
+				"SELECT unread_count FROM user_unread_counts ORDER BY user_id", Integer.class));
+		assertEquals(Instant.parse("2020-06-01T00:00:00Z"), messageArchive.findMessages(1L, 0, 1).get(0).readAt());
+		assertNotNull(messageArchive.findMessages(3L, 0, 1).get(0).readAt());
+		assertEquals(List.of(new MessagesReadEvent(List.of(2L)), new MessagesReadEvent(List.of(3L))), events);
+	}
+	
+	@Test
+	void testArchive_DeletesRowsLeftBehindByInterruptedRun() throws Exception {
+		// A segment that was written before a crash, with its rows still in the database
+		messageArchive.append(messageJdbcRepository.findArchivableMessages(Instant.parse("2020-01-01T12:00:00Z"), Instant.now(), 10));
+		
+		messageArchiveJob.archive();
+		
+		assertEquals(List.of(3L), jdbcTemplate.queryForList("SELECT id FROM messages", Long.class));
+		assertEquals(1, messageArchive.count(2L));
+		assertEquals(1, messageArchive.count(3L));
+	}
+	
+	@Test
+	void testArchive_FailedDelete_SegmentReadableAndRowsDeletedNextRun() {
+		failDelete = true;
+		assertThrows(IllegalStateException.class, messageArchiveJob::archive);
+		
+		assertEquals(List.of(1L, 2L, 3L), jdbcTemplate.queryForList("SELECT id FROM messages ORDER BY id", Long.class));
+		assertEquals(1, messageArchive.count(2L));
+		assertEquals(Path.of("segment-0000000001.seg"), messageArchive.findLatestSegment().orElseThrow().getPath().getFileName());
+		
+		failDelete = false;
+		messageArchiveJob.archive();
+		
+		assertEquals(List.of(3L), jdbcTemplate.queryForList("SELECT id FROM messages", Long.class));
+		assertEquals(1, messageArchive.count(2L));
+		assertEquals(1, messageArchive.count(3L));
+	}
+}
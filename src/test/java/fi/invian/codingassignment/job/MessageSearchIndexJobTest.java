@@ -0,0 +1,100 @@
+package fi.invian.codingassignment.job;
+
+import fi.invian.codingassignment.archive.ArchivedMessage;
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
+import fi.invian.codingassignment.search.MessageSearchIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against an in-memory H2 database in MariaDB mode, initialized with the application schema
+class MessageSearchIndexJobTest {
+	
+	private static final BodyCodec BODY_CODEC =
+			new BodyCodec(List.of(new DeflateBodyCompressor(6, null)), new DeflateBodyCompressor(6, null), 16);
+	
+	@TempDir
+	Path directory;
+	
+	private JdbcTemplate jdbcTemplate;
+	private MessageJdbcRepository messageJdbcRepository;
+	private MessageArchive messageArchive;
+	private MessageSearchIndex messageSearchIndex;
+	
+	@BeforeEach
+	void setUp() throws Exception {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		new ResourceDatabasePopulator(
+				new ClassPathResource("schema/01-schema.sql"),
+				new ClassPathResource("schema/02-data.sql")
+		).execute(dataSource);
+		
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		messageJdbcRepository = new MessageJdbcRepository(jdbcTemplate, BODY_CODEC, 2, 10);
+		messageArchive = new MessageArchive(directory.resolve("archive"), BODY_CODEC);
+		messageSearchIndex = new MessageSearchIndex(directory.resolve("search"), Duration.ofDays(30));
+	}
+	
+	@AfterEach
+	void tearDown() throws Exception {
+		messageSearchIndex.close();
+	}
+	
+	@Test
+	void testRun_NewIndex_RebuildsFromArchiveAndDatabase() throws Exception {
+		messageArchive.append(List.of(new ArchivedMessage(100, Instant.parse("2020-01-01T00:00:00Z"), 1L, "Rishabh",
+				"Archived meeting notes", "Notes", List.of(new ArchivedMessage.Recipient(2L, Instant.now())),
+				BODY_CODEC.encode("Notes from the old meeting"))));
+		
+		job(false).run();
+		
+		assertEquals(List.of(1L), messageSearchIndex.search(2L, "aish", 10));
+		assertEquals(List.of(2L), messageSearchIndex.search(3L, "meeting", 10));
+		assertEquals(List.of(100L), messageSearchIndex.search(2L, "meeting", 10));
+	}
+	
+	@Test
+	void testRun_CommittedIndex_CatchesUpWithRecentMessagesOnly() throws Exception {
+		job(false).run();
+		messageSearchIndex.close();
+		
+		// Sent after the last commit, and an old message the catch-up does not revisit
+		jdbcTemplate.update("UPDATE messages SET title = 'Renamed' WHERE id = 1");
+		jdbcTemplate.update("INSERT INTO messages (sender_id, title, body, snippet) VALUES (1, 'Budget', ?, 'Budget')",
+				(Object) BODY_CODEC.encode("Budget for next year"));
+		jdbcTemplate.update("INSERT INTO message_recipients (message_id, recipient_id) VALUES (3, 2)");
+		jdbcTemplate.update("UPDATE messages SET sent_at = TIMESTAMP '2020-01-01 00:00:00' WHERE id = 1");
+		
+		messageSearchIndex = new MessageSearchIndex(directory.resolve("search"), Duration.ofDays(30));
+		job(false).run();
+		
+		assertEquals(List.of(3L), messageSearchIndex.search(2L, "budget", 10));
+		assertEquals(List.of(), messageSearchIndex.search(2L, "renamed", 10));
+		assertEquals(List.of(1L), messageSearchIndex.search(2L, "aish", 10));
+		
+		job(true).run();
+		assertEquals(List.of(1L), messageSearchIndex.search(2L, "renamed", 10));
+	}
+	
+	private MessageSearchIndexJob job(boolean rebuild) {
+		return new MessageSearchIndexJob(messageSearchIndex, messageJdbcRepository, messageArchive, BODY_CODEC,
+				rebuild, Duration.ofMinutes(5), 1);
+	}
+}
@@ -0,0 +1,62 @@
+package fi.invian.codingassignment.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against an in-memory H2 database in MariaDB mode, initialized with the application schema
+class SqlAccountingDataSourceTest {
+	
+	private JdbcTemplate jdbcTemplate;
+	
+	@BeforeEach
+	void setUp() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		new ResourceDatabasePopulator(
+				new ClassPathResource("schema/01-schema.sql"),
+				new ClassPathResource("schema/02-data.sql")
+		).execute(dataSource);
+		jdbcTemplate = new JdbcTemplate(new SqlAccountingDataSource(dataSource));
+	}
+	
+	@AfterEach
+	void tearDown() {
+		SqlStatistics.end();
+	}
+	
+	@Test
+	void testStatementsWithinRequest_AreCounted() {
+		SqlStatistics.begin();
+		jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class);
+		jdbcTemplate.queryForObject("SELECT name FROM users WHERE id = ?", String.class, 1L);
+		jdbcTemplate.batchUpdate("INSERT INTO users (name) VALUES (?)",
+				List.of(new Object[]{"Batch 1"}, new Object[]{"Batch 2"}));
+		SqlStatistics statistics = SqlStatistics.end();
+		
+		assertEquals(3, statistics.getStatements());
+		assertTrue(statistics.getNanos() > 0);
+	}
+	
+	@Test
+	void testStatementsOutsideRequest_AreIgnored() {
+		jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class);
+		
+		assertNull(SqlStatistics.end());
+	}
+	
+	@Test
+	void testUnwrap_ReachesTargetDataSource() throws Exception {
+		assertTrue(jdbcTemplate.getDataSource().isWrapperFor(DriverManagerDataSource.class));
+		assertNotNull(jdbcTemplate.getDataSource().unwrap(DriverManagerDataSource.class));
+	}
+}
@@ -0,0 +1,146 @@
+package fi.invian.codingassignment.replica;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Two in-memory H2 databases stand in for the primary and the replica. Each has a table naming
+// the server and the replica reports its lag from a table the tests update.
+class ReplicaRoutingDataSourceTest {
+	
+	private JdbcTemplate primaryJdbc;
+	private JdbcTemplate replicaJdbc;
+	private Replica replica;
+	private ReplicaHealthChecker healthChecker;
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate readOnlyTransaction;
+	private TransactionTemplate readWriteTransaction;
+	private LazyConnectionDataSourceProxy dataSource;
+	
+	@BeforeEach
+	void setUp() {
+		DriverManagerDataSource primary = database("primary");
+		DriverManagerDataSource replicaDataSource = database("replica");
+		primaryJdbc = new JdbcTemplate(primary);
+		replicaJdbc = new JdbcTemplate(replicaDataSource);
+		replicaJdbc.execute("CREATE TABLE replication_lag (seconds INT)");
+		replicaJdbc.update("INSERT INTO replication_lag VALUES (0)");
+		
+		replica = new Replica("replica-1", replicaDataSource);
+		healthChecker = new ReplicaHealthChecker(List.of(replica), "SELECT seconds FROM replication_lag", 1);
+		healthChecker.check();
+		
+		dataSource = new LazyConnectionDataSourceProxy(
+				new ReplicaRoutingDataSource(primary, List.of(replica), Duration.ofSeconds(5)));
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+		readOnlyTransaction = new TransactionTemplate(transactionManager);
+		readOnlyTransaction.setReadOnly(true);
+		readWriteTransaction = new TransactionTemplate(transactionManager);
+	}
+	
+	@Test
+	void testReadOnlyTransaction_GoesToReplica() {
+		assertEquals("replica", readOnlyTransaction.execute(status -> server()));
+	}
+	
+	@Test
+	void testReadWriteTransactionAndPlainCalls_GoToPrimary() {
+		assertEquals("primary", readWriteTransaction.execute(status -> server()));
+		assertEquals("primary", server());
+	}
+	
+	@Test
+	void testLaggingReplica_FallsBackToPrimary() {
+		replicaJdbc.update("UPDATE replication_lag SET seconds = 30");
+		healthChecker.check();
+		
+		assertEquals(Duration.ofSeconds(30), replica.getLag());
+		assertEquals("primary", readOnlyTransaction.execute(status -> server()));
+		
+		replicaJdbc.update("UPDATE replication_lag SET seconds = 1");
+		healthChecker.check();
+		
+		assertEquals("replica", readOnlyTransaction.execute(status -> server()));
+	}
+	
+	@Test
+	void testFailedHealthCheck_FallsBackToPrimary() {
+		replicaJdbc.execute("DROP TABLE replication_lag");
+		healthChecker.check();
+		
+		assertFalse(replica.isHealthy());
+		assertEquals("primary", readOnlyTransaction.execute(status -> server()));
+	}
+	
+	@Test
+	void testRecentWriter_IsPinnedToPrimaryForOneTransaction() {
+		ReadYourWritesTracker tracker = new ReadYourWritesTracker(true, Duration.ofSeconds(5));
+		tracker.recordWrite(1L);
+		
+		assertEquals("primary", readOnlyTransaction.execute(status -> {
+			tracker.pinIfRecentWriter(1L);
+			return server();
+		}));
+		assertEquals("replica", readOnlyTransaction.execute(status -> {
+			tracker.pinIfRecentWriter(2L);
+			return server();
+		}));
+	}
+	
+	// As in the application, where JPA and JdbcTemplate share the JpaTransactionManager's transactions
+	@Test
+	void testJpaTransactionManager_RoutesAndPinsLikeJdbc() {
+		LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+		factoryBean.setDataSource(dataSource);
+		factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		factoryBean.setPackagesToScan(getClass().getPackageName());
+		factoryBean.afterPropertiesSet();
+		EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+		try {
+			EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+			TransactionTemplate jpaReadOnlyTransaction = new TransactionTemplate(new JpaTransactionManager(entityManagerFactory));
+			jpaReadOnlyTransaction.setReadOnly(true);
+			ReadYourWritesTracker tracker = new ReadYourWritesTracker(true, Duration.ofSeconds(5));
+			tracker.recordWrite(1L);
+			
+			assertEquals(List.of("replica", "replica"), jpaReadOnlyTransaction.execute(status -> List.of(
+					entityManager.createNativeQuery("SELECT name FROM server").getSingleResult(), server())));
+			assertEquals(List.of("primary", "primary"), jpaReadOnlyTransaction.execute(status -> {
+				tracker.pinIfRecentWriter(1L);
+				return List.of(entityManager.createNativeQuery("SELECT name FROM server").getSingleResult(), server());
+			}));
+		} finally {
+			factoryBean.destroy();
+		}
+	}
+	
+	private String server() {
+		return jdbcTemplate.queryForObject("SELECT name FROM server", String.class);
+	}
+	
+	private static DriverManagerDataSource database(String name) {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("CREATE TABLE server (name VARCHAR(20))");
+		jdbcTemplate.update("INSERT INTO server VALUES (?)", name);
+		return dataSource;
+	}
+}
@@ -0,0 +1,171 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.compression.BodyCodec;
+import fi.invian.codingassignment.compression.DeflateBodyCompressor;
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.entity.Message;
+import fi.invian.codingassignment.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// Runs against an in-memory H2 database in MariaDB mode, initialized with the application schema
+class ProjectionInboxRepositoryTest {
+	
+	private JdbcTemplate jdbcTemplate;
+	private MessageJdbcRepository messageJdbcRepository;
+	private ProjectionInboxRepository projectionInboxRepository;
+	
+	@BeforeEach
+	void setUp() {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+		new ResourceDatabasePopulator(
+				new ClassPathResource("schema/01-schema.sql"),
+				new ClassPathResource("schema/02-data.sql")
+		).execute(dataSource);
+		
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		BodyCodec bodyCodec = new BodyCodec(List.of(new DeflateBodyCompressor(6, null)), new DeflateBodyCompressor(6, null), 16);
+		messageJdbcRepository = new MessageJdbcRepository(jdbcTemplate, bodyCodec, 2, 2);
+		projectionInboxRepository = new ProjectionInboxRepository(jdbcTemplate);
+	}
+	
+	@Test
+	void testBackfill_CopiesExistingMessages() {
+		int written = projectionInboxRepository.backfill(0, projectionInboxRepository.findMaxMessageId());
+		
+		assertEquals(3, written);
+		Page<MessageSummaryResponse> inbox = projectionInboxRepository.findMessages(3L, PageRequest.of(0, 10));
+		assertEquals(1, inbox.getTotalElements());
+		assertEquals("Meeting Reminder", inbox.getContent().get(0).title());
+		assertEquals("Reminder about the meeting tomorrow.", inbox.getContent().get(0).snippet());
+		assertEquals("Aish", inbox.getContent().get(0).senderName());
+	}
+	
+	@Test
+	void testBackfill_Rerun_SkipsExistingEntries() {
+		long maxId = projectionInboxRepository.findMaxMessageId();
+		projectionInboxRepository.backfill(0, maxId);
+		
+		assertEquals(0, projectionInboxRepository.backfill(0, maxId));
+	}
+	
+	@Test
+	void testFindFirstMessages_BackfillPending_JoinsRecipientsUntilFinished() {
+		MessageRepository messageRepository = mock(MessageRepository.class);
+		MessageSummaryResponse joined = new MessageSummaryResponse(2L, "Meeting Reminder", "Reminder", "Aish", Instant.now(), null);
+		when(messageRepository.findFirstMessagesByRecipientId(3L, PageRequest.of(0, 10))).thenReturn(List.of(joined));
+		ProjectionInboxRepository backfilling = new ProjectionInboxRepository(jdbcTemplate, messageRepository, true);
+		
+		assertEquals(List.of(joined), backfilling.findFirstMessages(3L, 10));
+		
+		backfilling.backfill(0, backfilling.findMaxMessageId());
+		backfilling.backfillFinished();
+		
+		assertEquals(List.of("Meeting Reminder"), backfilling.findFirstMessages(3L, 10).stream()
+				.map(MessageSummaryResponse::title).toList());
+		verify(messageRepository).findFirstMessagesByRecipientId(3L, PageRequest.of(0, 10));
+	}
+	
+	@Test
+	void testAppend_ReadsNewestFirstByPageAndCursor() {
+		Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+		List<Message> messages = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			messages.add(message("Title " + i, start.plusSeconds(i)));
+		}
+		messageJdbcRepository.insertMessages(messages);
+		projectionInboxRepository.append(messages.stream()
+				.map(m -> new InboxEntry(2L, m.getSentAt(), m.getId(), 1L, "Rishabh", m.getTitle(), m.getSnippet()))
+				.toList());
+		
+		Page<MessageSummaryResponse> page = projectionInboxRepository.findMessages(2L, PageRequest.of(1, 2));
+		assertEquals(List.of("Title 2", "Title 1"), page.getContent().stream().map(MessageSummaryResponse::title).toList());
+		assertEquals("Body of Title 2", page.getContent().get(0).snippet());
+		assertEquals(5, page.getTotalElements());
+		
+		List<MessageSummaryResponse> first = projectionInboxRepository.findFirstMessages(2L, 2);
+		assertEquals(List.of("Title 4", "Title 3"), first.stream().map(MessageSummaryResponse::title).toList());
+		List<MessageSummaryResponse> next = projectionInboxRepository.findMessagesBefore(2L, MessageCursor.of(first.get(1)), 2);
+		assertEquals(List.of("Title 2", "Title 1"), next.stream().map(MessageSummaryResponse::title).toList());
+	}
+	
+	@Test
+	void testInsertMessages_WritesRecipientsWithGeneratedIds() {
+		Message message = message("Batch", Instant.now());
+		message.addRecipient(new User(3L, "Ish"));
+		
+		List<Long> ids = messageJdbcRepository.insertMessages(List.of(message));
+		
+		assertEquals(ids.get(0), message.getId());
+		assertEquals(2, jdbcTemplate.queryForObject(
+				"SELECT COUNT(*) FROM message_recipients WHERE message_id = ?", Integer.class, ids.get(0)));
+	}
+	
+	@Test
+	void testForEachMessageByRecipientId_PagesThroughWholeInboxNewestFirst() {
+		Instant start = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+		messageJdbcRepository.insertMessages(List.of(
+				message("Older", start.plusSeconds(1)),
+				message("Newer", start.plusSeconds(2))));
+		
+		List<String> titles = new ArrayList<>();
+		List<Integer> pageSizes = new ArrayList<>();
+		messageJdbcRepository.forEachMessageByRecipientId(2L, page -> {
+			List<MessageResponse> rows = page.get();
+			pageSizes.add(rows.size());
+			return rows;
+		}, message -> titles.add(message.title()));
+		
+		assertEquals(List.of("Newer", "Older", "Hello, Aish!"), titles);
+		assertEquals(List.of(2, 1), pageSizes);
+	}
+	
+	@Test
+	void testInsertMessages_CompressesBodiesNextToPlainRows() {
+		Message message = message("Long", Instant.now());
+		String body = "Your order has been shipped. ".repeat(20);
+		message.setBody(body);
+		messageJdbcRepository.insertMessages(List.of(message));
+		
+		Map<Long, byte[]> stored = messageJdbcRepository.findStoredBodies(0, 10);
+		assertEquals((byte) 0xFF, stored.get(message.getId())[0]);
+		assertTrue(stored.get(message.getId()).length < body.length());
+		
+		// The seeded rows predate compression and are stored as plain text
+		List<String> bodies = new ArrayList<>();
+		messageJdbcRepository.forEachMessageByRecipientId(2L, Supplier::get, response -> bodies.add(response.body()));
+		assertEquals(List.of(body, "This is a message to Aish."), bodies);
+	}
+	
+	private static Message message(String title, Instant sentAt) {
+		Message message = new Message();
+		message.setSender(new User(1L, "Rishabh"));
+		message.setTitle(title);
+		message.setBody("Body of " + title);
+		message.setSentAt(sentAt);
+		message.addRecipient(new User(2L, "Aish"));
+		return message;
+	}
+}
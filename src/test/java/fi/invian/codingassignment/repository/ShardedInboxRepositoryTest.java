@@ -0,0 +1,169 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.shard.InboxShards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Three in-memory H2 databases in MariaDB mode as shards, initialized with the shard schema, and
+// a primary database with the application schema and its sample data
+class ShardedInboxRepositoryTest {
+	
+	private static final Instant NOW = Instant.parse("2024-01-01T12:00:00Z");
+	
+	private DataSource primary;
+	private InboxShards shards;
+	private ShardedInboxRepository shardedInboxRepository;
+	
+	@BeforeEach
+	void setUp() {
+		primary = database();
+		new ResourceDatabasePopulator(
+				new ClassPathResource("schema/01-schema.sql"),
+				new ClassPathResource("schema/02-data.sql")
+		).execute(primary);
+		
+		List<DataSource> dataSources = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			DataSource dataSource = database();
+			new ResourceDatabasePopulator(new ClassPathResource("schema/shard/01-shard-schema.sql")).execute(dataSource);
+			dataSources.add(dataSource);
+		}
+		shards = new InboxShards(dataSources, 2, Duration.ZERO);
+		shardedInboxRepository = new ShardedInboxRepository(shards, new JdbcTemplate(primary), 2);
+	}
+	
+	@AfterEach
+	void tearDown() throws Exception {
+		shards.close();
+	}
+	
+	@Test
+	void testAppend_WritesEachEntryToItsRecipientsShard() {
+		shardedInboxRepository.append(List.of(entry(4L, 1L, 0), entry(5L, 1L, 0), entry(6L, 1L, 0), entry(7L, 1L, 0)));
+		
+		assertEquals(List.of(6L), recipientsOn(0));
+		assertEquals(List.of(4L, 7L), recipientsOn(1));
+		assertEquals(List.of(5L), recipientsOn(2));
+		assertEquals(1, shardedInboxRepository.findMessages(7L, PageRequest.of(0, 10)).getTotalElements());
+	}
+	
+	@Test
+	void testFindMessages_PagesAndCursorsWithinOneShard() {
+		List<InboxEntry> entries = new ArrayList<>();
+		for (long messageId = 1; messageId <= 5; messageId++) {
+			entries.add(entry(4L, messageId, messageId));
+			entries.add(entry(5L, messageId, messageId));
+		}
+		shardedInboxRepository.append(entries);
+		
+		Page<MessageSummaryResponse> page = shardedInboxRepository.findMessages(4L, PageRequest.of(1, 2));
+		assertEquals(5, page.getTotalElements());
+		assertEquals(List.of(3L, 2L), page.getContent().stream().map(MessageSummaryResponse::id).toList());
+		
+		List<MessageSummaryResponse> first = shardedInboxRepository.findFirstMessages(5L, 2);
+		List<MessageSummaryResponse> next = shardedInboxRepository.findMessagesBefore(5L, MessageCursor.of(first.get(1)), 2);
+		assertEquals(List.of(5L, 4L), first.stream().map(MessageSummaryResponse::id).toList());
+		assertEquals(List.of(3L, 2L), next.stream().map(MessageSummaryResponse::id).toList());
+	}
+	
+	@Test
+	void testMarkReadAndRemove() {
+		shardedInboxRepository.append(List.of(entry(4L, 1L, 0), entry(5L, 1L, 0), entry(4L, 2L, 1), entry(4L, 3L, 2)));
+		
+		shardedInboxRepository.markRead(4L, List.of(1L, 2L), NOW);
+		shardedInboxRepository.remove(List.of(1L, 3L));
+		
+		List<MessageSummaryResponse> inbox = shardedInboxRepository.findFirstMessages(4L, 10);
+		assertEquals(List.of(2L), inbox.stream().map(MessageSummaryResponse::id).toList());
+		assertEquals(NOW, inbox.get(0).readAt());
+		assertTrue(shardedInboxRepository.findFirstMessages(5L, 10).isEmpty());
+	}
+	
+	@Test
+	void testAppend_InTransaction_WrittenOnlyOnCommit() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(primary));
+		
+		transactionTemplate.executeWithoutResult(status -> {
+			shardedInboxRepository.append(List.of(entry(4L, 1L, 0)));
+			status.setRollbackOnly();
+		});
+		assertTrue(recipientsOn(1).isEmpty());
+		
+		transactionTemplate.executeWithoutResult(status -> {
+			shardedInboxRepository.append(List.of(entry(4L, 2L, 0)));
+			assertTrue(recipientsOn(1).isEmpty());
+		});
+		assertEquals(List.of(2L), shardedInboxRepository.findFirstMessages(4L, 10).stream().map(MessageSummaryResponse::id).toList());
+	}
+	
+	@Test
+	void testAfterCommit_FailedWriteIsRetried() {
+		AtomicInteger attempts = new AtomicInteger();
+		
+		shards.afterCommit(0, shard -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new IllegalStateException("Connection reset");
+			}
+			shardedInboxRepository.append(List.of(entry(6L, 1L, 0)));
+		});
+		
+		assertEquals(2, attempts.get());
+		assertEquals(List.of(6L), recipientsOn(0));
+	}
+	
+	@Test
+	void testBackfill_CopiesPrimaryInboxesAndRepairsReadTimes() {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(primary);
+		Timestamp sentAt = jdbcTemplate.queryForObject("SELECT sent_at FROM messages WHERE id = 2", Timestamp.class);
+		// Recipient 1 has read message 2, but the shard missed the update
+		shardedInboxRepository.append(List.of(new InboxEntry(1L, sentAt.toInstant(), 2L, 2L, "Aish", "Meeting Reminder",
+				"Reminder about the meeting tomorrow.")));
+		jdbcTemplate.update("UPDATE message_recipients SET read_at = ? WHERE message_id = 2 AND recipient_id = 1", Timestamp.from(NOW));
+		
+		long maxId = shardedInboxRepository.findMaxMessageId();
+		assertEquals(3, shardedInboxRepository.backfill(0, maxId));
+		assertEquals(3, shardedInboxRepository.backfill(0, maxId));
+		
+		assertEquals(NOW, shardedInboxRepository.findFirstMessages(1L, 10).get(0).readAt());
+		assertEquals(1, shardedInboxRepository.countMessages(1L));
+		assertEquals(List.of(1L), shardedInboxRepository.findFirstMessages(2L, 10).stream().map(MessageSummaryResponse::id).toList());
+		assertEquals(List.of(2L), shardedInboxRepository.findMessages(3L, 10, 0).stream().map(MessageSummaryResponse::id).toList());
+	}
+	
+	private List<Long> recipientsOn(int shard) {
+		JdbcTemplate jdbcTemplate = shards.get(shard);
+		return jdbcTemplate.queryForList("SELECT DISTINCT recipient_id FROM inbox_entries ORDER BY recipient_id", Long.class);
+	}
+	
+	private static DataSource database() {
+		return new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+	}
+	
+	private static InboxEntry entry(Long recipientId, Long messageId, long secondsAfter) {
+		return new InboxEntry(recipientId, NOW.plusSeconds(secondsAfter), messageId, 1L, "Rishabh",
+				"Title " + messageId, "Snippet " + messageId);
+	}
+}
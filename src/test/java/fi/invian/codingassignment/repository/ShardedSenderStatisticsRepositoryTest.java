@@ -0,0 +1,129 @@
+package fi.invian.codingassignment.repository;
+
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.repository.SenderStatisticsRepository.SenderDay;
+import fi.invian.codingassignment.shard.InboxShards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Two in-memory H2 shards next to a primary database that holds the users
+class ShardedSenderStatisticsRepositoryTest {
+	
+	private static final LocalDate TODAY = LocalDate.of(2024, 1, 10);
+	
+	private DataSource primaryDataSource;
+	private InboxShards shards;
+	private ShardedSenderStatisticsRepository shardedSenderStatisticsRepository;
+	
+	@BeforeEach
+	void setUp() {
+		primaryDataSource = database();
+		new ResourceDatabasePopulator(new ClassPathResource("schema/01-schema.sql")).execute(primaryDataSource);
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(primaryDataSource);
+		for (String name : List.of("Rishabh", "Aish", "Ish", "Mika")) {
+			jdbcTemplate.update("INSERT INTO users (name) VALUES (?)", name);
+		}
+		
+		List<DataSource> dataSources = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			DataSource dataSource = database();
+			new ResourceDatabasePopulator(new ClassPathResource("schema/shard/01-shard-schema.sql")).execute(dataSource);
+			dataSources.add(dataSource);
+		}
+		shards = new InboxShards(dataSources);
+		shardedSenderStatisticsRepository = new ShardedSenderStatisticsRepository(shards, jdbcTemplate);
+	}
+	
+	@AfterEach
+	void tearDown() throws Exception {
+		shards.close();
+	}
+	
+	@Test
+	void testFindTopSenders_MergesTheShardsTopLists() {
+		// Senders 2 and 4 are counted on the first shard, 1 and 3 on the second
+		shardedSenderStatisticsRepository.incrementAll(Map.of(
+				new SenderDay(1L, TODAY), 5,
+				new SenderDay(2L, TODAY), 7,
+				new SenderDay(3L, TODAY.minusDays(1)), 4,
+				new SenderDay(4L, TODAY), 1));
+		shardedSenderStatisticsRepository.increment(3L, TODAY, 4);
+		shardedSenderStatisticsRepository.increment(4L, TODAY.minusDays(5), 100);
+		
+		assertEquals(List.of(
+				new StatisticsResponse(3L, "Ish", 8L),
+				new StatisticsResponse(2L, "Aish", 7L),
+				new StatisticsResponse(1L, "Rishabh", 5L)
+		), shardedSenderStatisticsRepository.findTopSenders(TODAY.minusDays(1), 3));
+		assertEquals(2, shards.get(0).queryForObject("SELECT COUNT(DISTINCT sender_id) FROM sender_daily_stats", Integer.class));
+	}
+	
+	@Test
+	void testIncrement_CountsInPrimaryAndCopiesTheBucket() {
+		shardedSenderStatisticsRepository.increment(2L, TODAY, 4);
+		shardedSenderStatisticsRepository.incrementAll(Map.of(new SenderDay(2L, TODAY), 3, new SenderDay(1L, TODAY), 1));
+		
+		JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+		assertEquals(7, primary.queryForObject("SELECT sent_count FROM sender_daily_stats WHERE sender_id = 2", Integer.class));
+		assertEquals(7, shards.get(0).queryForObject("SELECT sent_count FROM sender_daily_stats WHERE sender_id = 2", Integer.class));
+		assertEquals(1, shards.get(1).queryForObject("SELECT sent_count FROM sender_daily_stats WHERE sender_id = 1", Integer.class));
+	}
+	
+	@Test
+	void testBackfill_CopiesPrimaryBucketsOnce() {
+		JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+		primary.update("INSERT INTO sender_daily_stats (sender_id, stat_day, sent_count) VALUES (1, ?, 3), (2, ?, 2)",
+				Date.valueOf(TODAY.minusDays(1)), Date.valueOf(TODAY.minusDays(1)));
+		shardedSenderStatisticsRepository.increment(2L, TODAY, 4);
+		
+		assertEquals(3, shardedSenderStatisticsRepository.backfill());
+		assertEquals(3, shardedSenderStatisticsRepository.backfill());
+		
+		assertEquals(List.of(new StatisticsResponse(2L, "Aish", 6L), new StatisticsResponse(1L, "Rishabh", 3L)),
+				shardedSenderStatisticsRepository.findTopSenders(TODAY.minusDays(1), 10));
+	}
+	
+	@Test
+	void testBackfill_RepairsBucketBehindThePrimary() {
+		shardedSenderStatisticsRepository.increment(2L, TODAY, 4);
+		// A later send was counted in the primary but its copy to the shard failed
+		new JdbcTemplate(primaryDataSource).update("UPDATE sender_daily_stats SET sent_count = 5 WHERE sender_id = 2");
+		
+		shardedSenderStatisticsRepository.backfill();
+		
+		assertEquals(List.of(new StatisticsResponse(2L, "Aish", 5L)),
+				shardedSenderStatisticsRepository.findTopSenders(TODAY, 10));
+	}
+	
+	@Test
+	void testDeleteOlderThan_RemovesOnEveryShard() {
+		shardedSenderStatisticsRepository.incrementAll(Map.of(
+				new SenderDay(1L, TODAY.minusDays(10)), 1,
+				new SenderDay(2L, TODAY.minusDays(10)), 1,
+				new SenderDay(2L, TODAY), 1));
+		
+		assertEquals(2, shardedSenderStatisticsRepository.deleteOlderThan(TODAY.minusDays(1)));
+		assertEquals(List.of(new StatisticsResponse(2L, "Aish", 1L)),
+				shardedSenderStatisticsRepository.findTopSenders(TODAY.minusDays(30), 10));
+	}
+	
+	private static DataSource database() {
+		return new DriverManagerDataSource(
+				"jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+	}
+}
@@ -0,0 +1,108 @@
+package fi.invian.codingassignment.search;
+
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageSearchIndexTest {
+	
+	private static final Instant NOW = Instant.now();
+	
+	@TempDir
+	Path directory;
+	
+	private MessageSearchIndex messageSearchIndex;
+	
+	@BeforeEach
+	void setUp() throws Exception {
+		messageSearchIndex = new MessageSearchIndex(directory, Duration.ofDays(30));
+	}
+	
+	@AfterEach
+	void tearDown() throws Exception {
+		messageSearchIndex.close();
+	}
+	
+	@Test
+	void testSearch_OnlyMatchesMessagesOfTheRecipient() {
+		messageSearchIndex.index(List.of(
+				document(1, "Quarterly report", "Numbers for the board", NOW, 2L, 3L),
+				document(2, "Lunch", "The quarterly numbers are late", NOW, 3L)));
+		messageSearchIndex.refresh();
+		
+		assertEquals(List.of(1L), messageSearchIndex.search(2L, "quarterly", 10));
+		assertEquals(2, messageSearchIndex.search(3L, "QUARTERLY", 10).size());
+		assertEquals(List.of(), messageSearchIndex.search(4L, "quarterly", 10));
+	}
+	
+	@Test
+	void testSearch_RequiresEveryWord() {
+		messageSearchIndex.index(List.of(
+				document(1, "Meeting", "Meeting moved to Friday", NOW, 2L),
+				document(2, "Meeting", "Meeting cancelled", NOW, 2L)));
+		messageSearchIndex.refresh();
+		
+		assertEquals(List.of(1L), messageSearchIndex.search(2L, "meeting friday", 10));
+		assertEquals(List.of(), messageSearchIndex.search(2L, "meeting monday", 10));
+		assertEquals(List.of(), messageSearchIndex.search(2L, " ,. ", 10));
+	}
+	
+	@Test
+	void testSearch_RanksTitleMatchesAndRecentMessagesFirst() {
+		messageSearchIndex.index(List.of(
+				document(1, "Notes", "Invoice attached", NOW, 2L),
+				document(2, "Invoice", "Attached", NOW, 2L),
+				document(3, "Invoice", "Attached", NOW.minus(Duration.ofDays(300)), 2L)));
+		messageSearchIndex.refresh();
+		
+		assertEquals(List.of(2L, 1L, 3L), messageSearchIndex.search(2L, "invoice", 10));
+		assertEquals(List.of(2L), messageSearchIndex.search(2L, "invoice", 1));
+	}
+	
+	@Test
+	void testOnMessagesSent_IndexesEachMessageOnceWithAllRecipients() {
+		messageSearchIndex.onMessagesSent(new MessagesSentEvent(List.of(
+				new InboxEntry(2L, NOW, 7L, 1L, "Rishabh", "Release", "Shipping today"),
+				new InboxEntry(3L, NOW, 7L, 1L, "Rishabh", "Release", "Shipping today")),
+				Map.of(7L, "Shipping today, see the changelog")));
+		messageSearchIndex.refresh();
+		
+		assertEquals(List.of(7L), messageSearchIndex.search(2L, "changelog", 10));
+		assertEquals(List.of(7L), messageSearchIndex.search(3L, "release", 10));
+	}
+	
+	@Test
+	void testCommit_RecordsIndexedUntilOnlyOnceCaughtUp() throws Exception {
+		assertTrue(messageSearchIndex.getIndexedUntil().isEmpty());
+		messageSearchIndex.index(List.of(document(1, "Hello", "World", NOW, 2L)));
+		messageSearchIndex.commit();
+		messageSearchIndex.close();
+		
+		messageSearchIndex = new MessageSearchIndex(directory, Duration.ofDays(30));
+		assertTrue(messageSearchIndex.getIndexedUntil().isEmpty());
+		
+		Instant beforeCommit = Instant.now();
+		messageSearchIndex.markCaughtUp();
+		messageSearchIndex.index(List.of(document(2, "Hello", "Again", NOW, 2L)));
+		messageSearchIndex.close();
+		
+		messageSearchIndex = new MessageSearchIndex(directory, Duration.ofDays(30));
+		assertFalse(messageSearchIndex.getIndexedUntil().orElseThrow().isBefore(beforeCommit));
+		assertEquals(2, messageSearchIndex.search(2L, "hello", 10).size());
+	}
+	
+	private static SearchDocument document(long id, String title, String body, Instant sentAt, Long... recipientIds) {
+		return new SearchDocument(id, sentAt, title, body, List.of(recipientIds));
+	}
+}
@@ -0,0 +1,43 @@
+package fi.invian.codingassignment.search;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.DoubleValues;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RecencyBoostTest {
+	
+	@Test
+	void testDoubleValue_HalvesWithEveryHalfLife() throws Exception {
+		long now = 1_000_000;
+		long halfLife = 1_000;
+		try (ByteBuffersDirectory directory = new ByteBuffersDirectory()) {
+			try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+				for (long age : new long[] {0, halfLife, 2 * halfLife, 3 * halfLife}) {
+					Document document = new Document();
+					document.add(new NumericDocValuesField("sent_at", now - age));
+					writer.addDocument(document);
+				}
+			}
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				DoubleValues values = new RecencyBoost("sent_at", now, halfLife).getValues(reader.leaves().get(0), null);
+				List<Double> boosts = new ArrayList<>();
+				for (int doc = 0; doc < 4; doc++) {
+					values.advanceExact(doc);
+					boosts.add(values.doubleValue());
+				}
+				
+				assertEquals(List.of(1.0, 0.5, 0.25, 0.125), boosts);
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.repository.InboxEntry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentVersionsTest {
+	
+	private final ContentVersions contentVersions = new ContentVersions(2);
+	
+	@Test
+	void testOnMessagesSent_ChangesOnlyRecipientTags() {
+		String recipient = contentVersions.inboxETag(1L, MediaType.APPLICATION_JSON);
+		String other = contentVersions.inboxETag(2L, MediaType.APPLICATION_JSON);
+		String statistics = contentVersions.statisticsETag(Instant.parse("2024-01-01T10:00:00Z"), MediaType.APPLICATION_JSON);
+		
+		contentVersions.onMessagesSent(sent(1L));
+		
+		assertNotEquals(recipient, contentVersions.inboxETag(1L, MediaType.APPLICATION_JSON));
+		assertEquals(other, contentVersions.inboxETag(2L, MediaType.APPLICATION_JSON));
+		assertNotEquals(statistics, contentVersions.statisticsETag(Instant.parse("2024-01-01T10:00:00Z"), MediaType.APPLICATION_JSON));
+	}
+	
+	@Test
+	void testStatisticsETag_ChangesWithWindowDay() {
+		assertEquals(contentVersions.statisticsETag(Instant.parse("2024-01-01T01:00:00Z"), MediaType.APPLICATION_JSON),
+				contentVersions.statisticsETag(Instant.parse("2024-01-01T23:00:00Z"), MediaType.APPLICATION_JSON));
+		assertNotEquals(contentVersions.statisticsETag(Instant.parse("2024-01-01T23:00:00Z"), MediaType.APPLICATION_JSON),
+				contentVersions.statisticsETag(Instant.parse("2024-01-02T01:00:00Z"), MediaType.APPLICATION_JSON));
+	}
+	
+	@Test
+	void testETags_DifferPerWireFormat() {
+		Instant fromDate = Instant.parse("2024-01-01T10:00:00Z");
+		
+		assertNotEquals(contentVersions.inboxETag(1L, MediaType.APPLICATION_JSON), contentVersions.inboxETag(1L, MediaType.APPLICATION_CBOR));
+		assertNotEquals(contentVersions.statisticsETag(fromDate, MediaType.APPLICATION_CBOR),
+				contentVersions.statisticsETag(fromDate, new MediaType("application", "x-jackson-smile")));
+	}
+	
+	@Test
+	void testEviction_NeverReturnsToAnEarlierTag() {
+		String untracked = contentVersions.inboxETag(1L, MediaType.APPLICATION_JSON);
+		contentVersions.onMessagesSent(sent(1L));
+		
+		// Busier recipients push recipient 1 out of the two tracked entries
+		for (int round = 0; round < 10; round++) {
+			for (long recipient = 2; recipient < 6; recipient++) {
+				contentVersions.onMessagesSent(sent(recipient));
+			}
+		}
+		
+		assertNotEquals(untracked, contentVersions.inboxETag(1L, MediaType.APPLICATION_JSON));
+	}
+	
+	private static MessagesSentEvent sent(Long recipientId) {
+		return new MessagesSentEvent(List.of(new InboxEntry(recipientId, Instant.now(), 1L, 9L, "Rishabh", "Hello", "Body")), Map.of(1L, "Body"));
+	}
+}
@@ -0,0 +1,134 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.admission.SenderRateLimiter;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.exception.IdempotencyKeyReusedException;
+import fi.invian.codingassignment.exception.RateLimitExceededException;
+import fi.invian.codingassignment.repository.IdempotencyKeyRepository;
+import fi.invian.codingassignment.repository.IdempotencyKeyRepository.StoredSend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IdempotentSendServiceTest {
+	
+	private final MessageService messageService = mock(MessageService.class);
+	private final IdempotencyKeyRepository idempotencyKeyRepository = mock(IdempotencyKeyRepository.class);
+	private final SenderRateLimiter senderRateLimiter = mock(SenderRateLimiter.class);
+	private IdempotentSendService idempotentSendService;
+	
+	@BeforeEach
+	void setUp() {
+		idempotentSendService = new IdempotentSendService(messageService, idempotencyKeyRepository,
+				senderRateLimiter, new SimpleMeterRegistry(), 100, Duration.ofHours(24));
+	}
+	
+	@Test
+	void testSendMessage_RetryIsAnsweredFromCache() {
+		SendMessageRequest request = request("Hello");
+		when(idempotencyKeyRepository.find(1L, "key-1")).thenReturn(Optional.empty());
+		when(messageService.sendMessage(eq(request), eq("key-1"), anyString())).thenReturn(7L);
+		
+		assertEquals(new IdempotentSendService.SendOutcome(7L, false), idempotentSendService.sendMessage("key-1", request));
+		assertEquals(new IdempotentSendService.SendOutcome(7L, true), idempotentSendService.sendMessage("key-1", request("Hello")));
+		
+		verify(messageService, times(1)).sendMessage(any(), anyString(), anyString());
+		verify(idempotencyKeyRepository, times(1)).find(1L, "key-1");
+	}
+	
+	@Test
+	void testSendMessage_StoredKeyIsReplayedWithoutSending() {
+		SendMessageRequest request = request("Hello");
+		when(idempotencyKeyRepository.find(1L, "key-1"))
+				.thenReturn(Optional.of(new StoredSend(IdempotentSendService.fingerprint(request), 7L)));
+		
+		assertEquals(new IdempotentSendService.SendOutcome(7L, true), idempotentSendService.sendMessage("key-1", request));
+		
+		verifyNoInteractions(messageService);
+	}
+	
+	@Test
+	void testSendMessage_SenderRateLimited_StoredKeyStillReplayed() {
+		SendMessageRequest request = request("Hello");
+		when(idempotencyKeyRepository.find(1L, "key-1"))
+				.thenReturn(Optional.empty())
+				.thenReturn(Optional.of(new StoredSend(IdempotentSendService.fingerprint(request), 7L)));
+		doThrow(new RateLimitExceededException("Sender 1 is sending too fast, please retry later.", Duration.ofSeconds(1)))
+				.when(senderRateLimiter).acquire(1L, 1);
+		
+		assertThrows(RateLimitExceededException.class, () -> idempotentSendService.sendMessage("key-1", request));
+		assertEquals(new IdempotentSendService.SendOutcome(7L, true), idempotentSendService.sendMessage("key-1", request));
+		
+		verify(senderRateLimiter, times(1)).acquire(1L, 1);
+		verifyNoInteractions(messageService);
+	}
+	
+	@Test
+	void testSendMessage_KeyReusedForOtherMessage_ThrowsException() {
+		when(idempotencyKeyRepository.find(1L, "key-1"))
+				.thenReturn(Optional.of(new StoredSend(IdempotentSendService.fingerprint(request("Hello")), 7L)));
+		
+		assertThrows(IdempotencyKeyReusedException.class, () -> idempotentSendService.sendMessage("key-1", request("Other")));
+		verifyNoInteractions(messageService);
+	}
+	
+	@Test
+	void testSendMessage_KeyCommittedConcurrentlyElsewhere_ReturnsThatMessage() {
+		SendMessageRequest request = request("Hello");
+		when(idempotencyKeyRepository.find(1L, "key-1"))
+				.thenReturn(Optional.empty())
+				.thenReturn(Optional.of(new StoredSend(IdempotentSendService.fingerprint(request), 9L)));
+		when(messageService.sendMessage(eq(request), eq("key-1"), anyString())).thenThrow(new DuplicateKeyException("duplicate"));
+		
+		assertEquals(new IdempotentSendService.SendOutcome(9L, true), idempotentSendService.sendMessage("key-1", request));
+	}
+	
+	@Test
+	void testSendMessage_ConcurrentDuplicatesAreCollapsed() throws Exception {
+		CountDownLatch sending = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(idempotencyKeyRepository.find(1L, "key-1")).thenReturn(Optional.empty());
+		when(messageService.sendMessage(any(), eq("key-1"), anyString())).thenAnswer(invocation -> {
+			sending.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			return 7L;
+		});
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<IdempotentSendService.SendOutcome> first = executor.submit(() -> idempotentSendService.sendMessage("key-1", request("Hello")));
+			assertTrue(sending.await(5, TimeUnit.SECONDS));
+			Future<IdempotentSendService.SendOutcome> second = executor.submit(() -> idempotentSendService.sendMessage("key-1", request("Hello")));
+			release.countDown();
+			
+			assertEquals(new IdempotentSendService.SendOutcome(7L, false), first.get(5, TimeUnit.SECONDS));
+			assertEquals(new IdempotentSendService.SendOutcome(7L, true), second.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdown();
+		}
+		verify(messageService, times(1)).sendMessage(any(), anyString(), anyString());
+	}
+	
+	private static SendMessageRequest request(String title) {
+		SendMessageRequest request = new SendMessageRequest();
+		request.setSenderId(1L);
+		request.setTitle(title);
+		request.setBody("Test body");
+		request.setRecipientIds(List.of(2L, 3L));
+		return request;
+	}
+}
@@ -0,0 +1,75 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.exception.UserNotFoundException;
+import fi.invian.codingassignment.replica.ReadYourWritesTracker;
+import fi.invian.codingassignment.repository.MessageRepository;
+import fi.invian.codingassignment.search.MessageSearchIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MessageSearchServiceTest {
+	
+	@Mock
+	private MessageSearchIndex messageSearchIndex;
+	
+	@Mock
+	private MessageRepository messageRepository;
+	
+	@Mock
+	private MessageArchive messageArchive;
+	
+	@Mock
+	private MessageService messageService;
+	
+	@Mock
+	private ReadYourWritesTracker readYourWritesTracker;
+	
+	@InjectMocks
+	private MessageSearchService messageSearchService;
+	
+	@Test
+	void testSearchMessages_KeepsIndexOrderAcrossDatabaseAndArchive() {
+		Instant now = Instant.now();
+		MessageSummaryResponse hot = new MessageSummaryResponse(9L, "Invoice", "Attached", "Rishabh", now, null);
+		MessageSummaryResponse other = new MessageSummaryResponse(5L, "Re: invoice", "Paid", "Aish", now, now);
+		MessageSummaryResponse archived = new MessageSummaryResponse(2L, "Invoice", "Old", "Rishabh", now.minusSeconds(60), now);
+		when(messageSearchIndex.search(2L, "invoice", 10)).thenReturn(List.of(5L, 2L, 9L, 4L));
+		when(messageRepository.findSummariesForRecipient(2L, List.of(5L, 2L, 9L, 4L))).thenReturn(List.of(hot, other));
+		when(messageArchive.findSummary(2L, 2L)).thenReturn(Optional.of(archived));
+		when(messageArchive.findSummary(4L, 2L)).thenReturn(Optional.empty());
+		
+		List<MessageSummaryResponse> results = messageSearchService.searchMessages(2L, "invoice", 10);
+		
+		assertEquals(List.of(other, archived, hot), results);
+		verify(readYourWritesTracker).pinIfRecentWriter(2L);
+	}
+	
+	@Test
+	void testSearchMessages_NoHits_SkipsDatabase() {
+		when(messageSearchIndex.search(2L, "nothing", 10)).thenReturn(List.of());
+		
+		assertEquals(List.of(), messageSearchService.searchMessages(2L, "nothing", 10));
+		verifyNoInteractions(messageRepository, messageArchive);
+	}
+	
+	@Test
+	void testSearchMessages_UnknownUser_ThrowsException() {
+		doThrow(new UserNotFoundException("User with ID 99 does not exist.")).when(messageService).requireUser(99L);
+		
+		assertThrows(UserNotFoundException.class, () -> messageSearchService.searchMessages(99L, "invoice", 10));
+		verifyNoInteractions(messageSearchIndex);
+	}
+}
@@ -1,30 +1,58 @@
 package fi.invian.codingassignment.service;
 
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.dto.BatchSendResult;
+import fi.invian.codingassignment.dto.CursorPage;
+import fi.invian.codingassignment.dto.MessageCursor;
 import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
 import fi.invian.codingassignment.dto.SendMessageRequest;
 import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.dto.UnreadCountResponse;
 import fi.invian.codingassignment.entity.Message;
 import fi.invian.codingassignment.entity.User;
+import fi.invian.codingassignment.exception.MessageNotFoundException;
 import fi.invian.codingassignment.exception.UserNotFoundException;
+import fi.invian.codingassignment.replica.ReadYourWritesTracker;
+import fi.invian.codingassignment.repository.IdempotencyKeyRepository;
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.repository.InboxRepository;
+import fi.invian.codingassignment.repository.MessageJdbcRepository;
 import fi.invian.codingassignment.repository.MessageRepository;
+import fi.invian.codingassignment.repository.SenderStatisticsRepository;
+import fi.invian.codingassignment.repository.UnreadCountRepository;
 import fi.invian.codingassignment.repository.UserRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.*;
 
@@ -37,6 +65,38 @@ class MessageServiceTest {
 	@Mock
 	private MessageRepository messageRepository;
 	
+	@Mock
+	private MessageJdbcRepository messageJdbcRepository;
+	
+	@Mock
+	private SenderStatisticsRepository senderStatisticsRepository;
+	
+	@Mock
+	private UnreadCountRepository unreadCountRepository;
+	
+	@Mock
+	private UserCache userCache;
+	
+	@Mock
+	private InboxRepository inboxRepository;
+	
+	@Mock
+	private IdempotencyKeyRepository idempotencyKeyRepository;
+	
+	@Mock
+	private ReadYourWritesTracker readYourWritesTracker;
+	
+	@Mock
+	private MessageArchive messageArchive;
+	
+	@Mock
+	private ApplicationEventPublisher eventPublisher;
+	
+	@Spy
+	private ObjectMapper objectMapper = new ObjectMapper()
+			.registerModule(new JavaTimeModule())
+			.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+	
 	@InjectMocks
 	private MessageService messageService;
 	
@@ -55,18 +115,27 @@ class MessageServiceTest {
 		Message message = request.toMessageEntity();
 		message.setId(10L);
 		
-		when(userRepository.findById(request.getSenderId())).thenReturn(Optional.of(sender));
-		when(userRepository.findById(2L)).thenReturn(Optional.of(recipient1));
-		when(userRepository.findById(3L)).thenReturn(Optional.of(recipient2));
+		when(userCache.findName(request.getSenderId())).thenReturn(Optional.of("Sender"));
+		when(userCache.findNames(List.of(2L, 3L))).thenReturn(Map.of(2L, "Recipient1", 3L, "Recipient2"));
+		when(userRepository.getReferenceById(1L)).thenReturn(sender);
+		when(userRepository.getReferenceById(2L)).thenReturn(recipient1);
+		when(userRepository.getReferenceById(3L)).thenReturn(recipient2);
 		when(messageRepository.save(any(Message.class))).thenReturn(message);
 		
 		Long messageId = messageService.sendMessage(request);
 		
 		assertNotNull(messageId);
 		assertEquals(10L, messageId);
-		verify(userRepository, times(1)).findById(request.getSenderId());
-		verify(userRepository, times(3)).findById(anyLong());
+		verify(userRepository, never()).findById(anyLong());
 		verify(messageRepository, times(1)).save(any(Message.class));
+		List<InboxEntry> inboxEntries = List.of(
+				new InboxEntry(2L, message.getSentAt(), 10L, 1L, "Sender", "Hello", "This is a message body"),
+				new InboxEntry(3L, message.getSentAt(), 10L, 1L, "Sender", "Hello", "This is a message body"));
+		verify(inboxRepository).append(inboxEntries);
+		verify(unreadCountRepository).incrementAll(Map.of(2L, 1, 3L, 1));
+		verify(senderStatisticsRepository).increment(1L, LocalDate.ofInstant(message.getSentAt(), ZoneOffset.UTC), 1);
+		verify(readYourWritesTracker, never()).recordWrite(anyLong());
+		verify(eventPublisher).publishEvent(new MessagesSentEvent(inboxEntries, Map.of(10L, "This is a message body")));
 	}
 	
 	@Test
@@ -77,7 +146,7 @@ class MessageServiceTest {
 		request.setBody("This is a message body");
 		request.setRecipientIds(List.of(2L, 3L));
 		
-		when(userRepository.findById(request.getSenderId())).thenReturn(Optional.empty());
+		when(userCache.findName(request.getSenderId())).thenReturn(Optional.empty());
 		
 		UserNotFoundException exception = assertThrows(
 				UserNotFoundException.class,
@@ -95,10 +164,8 @@ class MessageServiceTest {
 		request.setBody("This is a message body");
 		request.setRecipientIds(List.of(99L));
 		
-		User sender = new User(1L, "Sender");
-		
-		when(userRepository.findById(request.getSenderId())).thenReturn(Optional.of(sender));
-		when(userRepository.findById(99L)).thenReturn(Optional.empty());
+		when(userCache.findName(request.getSenderId())).thenReturn(Optional.of("Sender"));
+		when(userCache.findNames(List.of(99L))).thenReturn(Map.of());
 		
 		UserNotFoundException exception = assertThrows(
 				UserNotFoundException.class,
@@ -108,18 +175,127 @@ class MessageServiceTest {
 		assertEquals("Recipient with ID 99 does not exist.", exception.getMessage());
 	}
 	
+	@Test
+	void testSendMessages_MixedBatch_ReturnsPerItemResults() {
+		SendMessageRequest valid = new SendMessageRequest();
+		valid.setSenderId(1L);
+		valid.setTitle("Hello");
+		valid.setBody("This is a message body");
+		valid.setRecipientIds(List.of(2L, 3L));
+		
+		SendMessageRequest unknownRecipient = new SendMessageRequest();
+		unknownRecipient.setSenderId(1L);
+		unknownRecipient.setTitle("Hello");
+		unknownRecipient.setBody("This is a message body");
+		unknownRecipient.setRecipientIds(List.of(99L));
+		
+		when(userCache.findNames(any())).thenReturn(Map.of(1L, "Sender", 2L, "Recipient1", 3L, "Recipient2"));
+		when(messageJdbcRepository.insertMessages(anyList())).thenReturn(List.of(10L));
+		
+		List<BatchSendResult> results = messageService.sendMessages(List.of(valid, unknownRecipient));
+		
+		assertEquals(List.of(
+				BatchSendResult.sent(0, 10L),
+				BatchSendResult.failed(1, "Recipient with ID 99 does not exist.")
+		), results);
+		verify(userCache, times(1)).findNames(any());
+		verifyNoInteractions(userRepository);
+		verify(senderStatisticsRepository).incrementAll(Map.of(
+				new SenderStatisticsRepository.SenderDay(1L, LocalDate.now(ZoneOffset.UTC)), 1));
+		verify(unreadCountRepository).incrementAll(Map.of(2L, 1, 3L, 1));
+	}
+	
+	@Test
+	void testSendMessagesWithKeys_StoredKey_ReturnsStoredMessageAndSendsOthers() {
+		SendMessageRequest retried = new SendMessageRequest();
+		retried.setSenderId(1L);
+		retried.setTitle("Retried");
+		retried.setBody("Already committed");
+		retried.setRecipientIds(List.of(2L));
+		
+		SendMessageRequest fresh = new SendMessageRequest();
+		fresh.setSenderId(1L);
+		fresh.setTitle("Fresh");
+		fresh.setBody("Not sent yet");
+		fresh.setRecipientIds(List.of(3L));
+		
+		IdempotencyKeyRepository.Key retriedKey = new IdempotencyKeyRepository.Key(1L, "async:a");
+		IdempotencyKeyRepository.Key freshKey = new IdempotencyKeyRepository.Key(1L, "async:b");
+		when(idempotencyKeyRepository.findMessageIds(List.of(retriedKey, freshKey))).thenReturn(Map.of(retriedKey, 5L));
+		when(userCache.findNames(any())).thenReturn(Map.of(1L, "Sender", 3L, "Recipient2"));
+		when(messageJdbcRepository.insertMessages(anyList())).thenReturn(List.of(11L));
+		
+		List<BatchSendResult> results = messageService.sendMessages(List.of(retried, fresh), List.of("async:a", "async:b"));
+		
+		assertEquals(List.of(BatchSendResult.sent(0, 5L), BatchSendResult.sent(1, 11L)), results);
+		verify(messageJdbcRepository).insertMessages(argThat(messages -> messages.size() == 1
+				&& messages.get(0).getTitle().equals("Fresh")));
+		verify(idempotencyKeyRepository).insertAll(eq(List.of(new IdempotencyKeyRepository.StoredKey(
+				freshKey, IdempotentSendService.fingerprint(fresh), 11L))), any());
+	}
+	
+	@Test
+	void testSendMessages_NoValidItems_SkipsInsert() {
+		SendMessageRequest request = new SendMessageRequest();
+		request.setSenderId(99L);
+		request.setTitle("Hello");
+		request.setBody("This is a message body");
+		request.setRecipientIds(List.of(2L));
+		
+		when(userCache.findNames(any())).thenReturn(Map.of(2L, "Recipient1"));
+		
+		List<BatchSendResult> results = messageService.sendMessages(List.of(request));
+		
+		assertEquals(List.of(BatchSendResult.failed(0, "Sender with ID 99 does not exist.")), results);
+		verifyNoInteractions(messageJdbcRepository);
+	}
+	
+	@Test
+	void testMarkAsRead_UpdatesOnceAndDecrementsCounter() {
+		when(userCache.exists(2L)).thenReturn(true);
+		when(messageJdbcRepository.markRead(eq(2L), eq(List.of(5L, 6L, 7L)), any(Instant.class))).thenReturn(2);
+		when(unreadCountRepository.findUnreadCount(2L)).thenReturn(3L);
+		
+		UnreadCountResponse response = messageService.markAsRead(2L, List.of(5L, 6L, 5L, 7L));
+		
+		assertEquals(new UnreadCountResponse(2L, 3L), response);
+		verify(messageJdbcRepository, times(1)).markRead(anyLong(), anyList(), any(Instant.class));
+		verify(inboxRepository).markRead(eq(2L), eq(List.of(5L, 6L, 7L)), any(Instant.class));
+		verify(unreadCountRepository).decrementAll(Map.of(2L, 2));
+		verify(eventPublisher).publishEvent(new MessagesReadEvent(List.of(2L)));
+	}
+	
+	@Test
+	void testMarkAsRead_NothingUnread_LeavesCounterAlone() {
+		when(userCache.exists(2L)).thenReturn(true);
+		when(messageJdbcRepository.markRead(eq(2L), eq(List.of(5L)), any(Instant.class))).thenReturn(0);
+		when(unreadCountRepository.findUnreadCount(2L)).thenReturn(0L);
+		
+		assertEquals(new UnreadCountResponse(2L, 0L), messageService.markAsRead(2L, List.of(5L)));
+		verifyNoInteractions(inboxRepository, eventPublisher);
+		verify(unreadCountRepository, never()).decrementAll(any());
+	}
+	
+	@Test
+	void testGetUnreadCount_UnknownUser_ThrowsException() {
+		when(userCache.exists(99L)).thenReturn(false);
+		
+		assertThrows(UserNotFoundException.class, () -> messageService.getUnreadCount(99L));
+		verifyNoInteractions(unreadCountRepository);
+	}
+	
 	@Test
 	void testGetUserMessages_ValidUser_ReturnsMessages() {
 		Long userId = 1L;
 		Pageable pageable = PageRequest.of(0, 10);
-		Page<MessageResponse> mockPage = new PageImpl<>(List.of(
-				new MessageResponse(1L, "Hello", "Body", "Rishabh", Instant.now())
+		Page<MessageSummaryResponse> mockPage = new PageImpl<>(List.of(
+				new MessageSummaryResponse(1L, "Hello", "Body", "Rishabh", Instant.now(), null)
 		));
 		
-		when(userRepository.existsById(userId)).thenReturn(true);
-		when(messageRepository.findMessagesByRecipientId(userId, pageable)).thenReturn(mockPage);
+		when(userCache.exists(userId)).thenReturn(true);
+		when(inboxRepository.findMessages(userId, pageable)).thenReturn(mockPage);
 		
-		Page<MessageResponse> result = messageService.getUserMessages(userId, pageable);
+		Page<MessageSummaryResponse> result = messageService.getUserMessages(userId, pageable);
 		
 		assertNotNull(result);
 		assertEquals(1, result.getContent().size());
@@ -131,7 +307,7 @@ class MessageServiceTest {
 		Long userId = 99L;
 		Pageable pageable = PageRequest.of(0, 10);
 		
-		when(userRepository.existsById(userId)).thenReturn(false);
+		when(userCache.exists(userId)).thenReturn(false);
 		
 		UserNotFoundException exception = assertThrows(
 				UserNotFoundException.class,
@@ -141,6 +317,163 @@ class MessageServiceTest {
 		assertEquals("User with ID 99 does not exist.", exception.getMessage());
 	}
 	
+	@Test
+	void testGetUserMessagesByCursor_MoreAvailable_ReturnsNextCursor() {
+		Long userId = 1L;
+		Instant now = Instant.now();
+		MessageSummaryResponse newest = new MessageSummaryResponse(3L, "Third", "Body", "Rishabh", now, null);
+		MessageSummaryResponse middle = new MessageSummaryResponse(2L, "Second", "Body", "Rishabh", now.minusSeconds(1), null);
+		MessageSummaryResponse oldest = new MessageSummaryResponse(1L, "First", "Body", "Rishabh", now.minusSeconds(2), null);
+		
+		when(userCache.exists(userId)).thenReturn(true);
+		when(inboxRepository.findFirstMessages(userId, 3))
+				.thenReturn(List.of(newest, middle, oldest));
+		
+		CursorPage<MessageSummaryResponse> result = messageService.getUserMessages(userId, "", 2);
+		
+		assertEquals(List.of(newest, middle), result.content());
+		assertEquals(MessageCursor.of(middle), MessageCursor.decode(result.nextCursor()));
+	}
+	
+	@Test
+	void testGetUserMessagesByCursor_LastSlice_ReturnsNoCursor() {
+		Long userId = 1L;
+		MessageCursor cursor = new MessageCursor(Instant.now(), 2L);
+		MessageSummaryResponse oldest = new MessageSummaryResponse(1L, "First", "Body", "Rishabh", cursor.sentAt().minusSeconds(1), null);
+		
+		when(userCache.exists(userId)).thenReturn(true);
+		when(inboxRepository.findMessagesBefore(userId, cursor, 3))
+				.thenReturn(List.of(oldest));
+		
+		CursorPage<MessageSummaryResponse> result = messageService.getUserMessages(userId, cursor.encode(), 2);
+		
+		assertEquals(List.of(oldest), result.content());
+		assertNull(result.nextCursor());
+	}
+	
+	@Test
+	void testGetUserMessages_ArchivedMessages_ContinueAfterDatabaseRows() {
+		Long userId = 1L;
+		Instant now = Instant.now();
+		Pageable pageable = PageRequest.of(0, 3);
+		MessageSummaryResponse hot = new MessageSummaryResponse(9L, "Hot", "Body", "Rishabh", now, null);
+		MessageSummaryResponse archived1 = new MessageSummaryResponse(2L, "Archived", "Body", "Rishabh", now.minusSeconds(60), null);
+		MessageSummaryResponse archived2 = new MessageSummaryResponse(1L, "Archived", "Body", "Rishabh", now.minusSeconds(120), null);
+		
+		when(userCache.exists(userId)).thenReturn(true);
+		when(inboxRepository.findMessages(userId, pageable)).thenReturn(new PageImpl<>(List.of(hot), pageable, 1));
+		when(messageArchive.count(userId)).thenReturn(4L);
+		when(messageArchive.findMessages(userId, 0, 3)).thenReturn(List.of(archived1, archived2));
+		
+		Page<MessageSummaryResponse> result = messageService.getUserMessages(userId, pageable);
+		
+		assertEquals(List.of(hot, archived1, archived2), result.getContent());
+		assertEquals(5, result.getTotalElements());
+	}
+	
+	@Test
+	void testGetUserMessages_TiersOverlap_MergedOnceInOrder() {
+		Long userId = 1L;
+		Instant now = Instant.now();
+		Pageable pageable = PageRequest.of(1, 2);
+		MessageSummaryResponse hot = new MessageSummaryResponse(9L, "Hot", "Body", "Rishabh", now, null);
+		// Still in the database after being archived, and a late row older than the archive
+		MessageSummaryResponse leftover = new MessageSummaryResponse(3L, "Leftover", "Body", "Rishabh", now.minusSeconds(60), null);
+		MessageSummaryResponse late = new MessageSummaryResponse(8L, "Late", "Body", "Rishabh", now.minusSeconds(300), null);
+		MessageSummaryResponse archived1 = new MessageSummaryResponse(2L, "Archived", "Body", "Rishabh", now.minusSeconds(120), null);
+		MessageSummaryResponse archived2 = new MessageSummaryResponse(1L, "Archived", "Body", "Rishabh", now.minusSeconds(180), null);
+		
+		when(userCache.exists(userId)).thenReturn(true);
+		when(inboxRepository.findMessages(userId, PageRequest.of(0, 4)))
+				.thenReturn(new PageImpl<>(List.of(hot, leftover, late), PageRequest.of(0, 4), 3));
+		when(messageArchive.count(userId)).thenReturn(3L);
+		when(messageArchive.findMessages(userId, 0, 4)).thenReturn(List.of(leftover, archived1, archived2));
+		
+		Page<MessageSummaryResponse> result = messageService.getUserMessages(userId, pageable);
+		
+		assertEquals(List.of(archived1, archived2), result.getContent());
+		assertEquals(5, result.getTotalElements());
+	}
+	
+	@Test
+	void testGetUserMessagesByCursor_ArchivedMessages_FillSlice() {
+		Long userId = 1L;
+		Instant now = Instant.now();
+		MessageSummaryResponse hot = new MessageSummaryResponse(9L, "Hot", "Body", "Rishabh", now, null);
+		MessageSummaryResponse archived1 = new MessageSummaryResponse(2L, "Archived", "Body", "Rishabh", now.minusSeconds(60), null);
+		MessageSummaryResponse archived2 = new MessageSummaryResponse(1L, "Archived", "Body", "Rishabh", now.minusSeconds(120), null);
+		
+		when(userCache.exists(userId)).thenReturn(true);
+		when(inboxRepository.findFirstMessages(userId, 3)).thenReturn(List.of(hot));
+		when(messageArchive.count(userId)).thenReturn(2L);
+		when(messageArchive.findMessagesBefore(userId, null, 3)).thenReturn(List.of(archived1, archived2));
+		
+		CursorPage<MessageSummaryResponse> result = messageService.getUserMessages(userId, null, 2);
+		
+		assertEquals(List.of(hot, archived1), result.content());
+		assertEquals(MessageCursor.of(archived1), MessageCursor.decode(result.nextCursor()));
+	}
+	
+	@Test
+	void testGetMessage_Recipient_ReturnsFullMessage() {
+		MessageResponse message = new MessageResponse(5L, "Hello", "Full body", "Rishabh", Instant.now());
+		when(userCache.exists(2L)).thenReturn(true);
+		when(messageRepository.findMessageForRecipient(5L, 2L)).thenReturn(Optional.of(message));
+		
+		assertEquals(message, messageService.getMessage(5L, 2L));
+	}
+	
+	@Test
+	void testGetMessagesSince_ReadsOldestFirstFromTime() {
+		Instant since = Instant.parse("2024-01-01T12:00:00Z");
+		List<MessageResponse> messages = List.of(
+				new MessageResponse(5L, "Hello", "Full body", "Rishabh", since),
+				new MessageResponse(6L, "Again", "Second body", "Aish", since.plusSeconds(1)));
+		when(messageRepository.findMessagesByRecipientIdSince(2L, since, PageRequest.of(0, 50))).thenReturn(messages);
+		
+		assertEquals(messages, messageService.getMessagesSince(2L, since, 50));
+		verify(readYourWritesTracker).pinIfRecentWriter(2L);
+	}
+	
+	@Test
+	void testGetMessage_NotRecipient_ThrowsException() {
+		when(userCache.exists(3L)).thenReturn(true);
+		when(messageRepository.findMessageForRecipient(5L, 3L)).thenReturn(Optional.empty());
+		
+		MessageNotFoundException exception = assertThrows(
+				MessageNotFoundException.class,
+				() -> messageService.getMessage(5L, 3L)
+		);
+		
+		assertEquals("Message with ID 5 does not exist.", exception.getMessage());
+	}
+	
+	@Test
+	void testExportUserMessages_WritesOneJsonObjectPerLine() throws Exception {
+		Instant sentAt = Instant.parse("2024-01-15T10:15:30Z");
+		doAnswer(invocation -> {
+			Consumer<MessageResponse> consumer = invocation.getArgument(2);
+			consumer.accept(new MessageResponse(2L, "Second", "Body 2", "Aish", sentAt));
+			consumer.accept(new MessageResponse(1L, "First", "Body 1", "Rishabh", sentAt));
+			return null;
+		}).when(messageJdbcRepository).forEachMessageByRecipientId(eq(1L), any(), any());
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		messageService.exportUserMessages(1L, out);
+		
+		assertEquals("""
+				{"id":2,"title":"Second","body":"Body 2","senderName":"Aish","sentAt":"2024-01-15T10:15:30Z"}
+				{"id":1,"title":"First","body":"Body 1","senderName":"Rishabh","sentAt":"2024-01-15T10:15:30Z"}
+				""", out.toString(StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	void testRequireUser_UnknownUser_ThrowsException() {
+		when(userCache.exists(99L)).thenReturn(false);
+		
+		assertThrows(UserNotFoundException.class, () -> messageService.requireUser(99L));
+	}
+	
 	@Test
 	void testGetTopSenders_ReturnsSenders() {
 		Instant fromDate = Instant.now().minus(Duration.ofDays(30));
@@ -148,7 +481,8 @@ class MessageServiceTest {
 				new StatisticsResponse(1L, "Rishabh", 20L)
 		);
 		
-		when(messageRepository.findTopSenders(fromDate, PageRequest.of(0, 10))).thenReturn(mockResponse);
+		when(senderStatisticsRepository.findTopSenders(LocalDate.ofInstant(fromDate, ZoneOffset.UTC), 10))
+				.thenReturn(mockResponse);
 		
 		List<StatisticsResponse> result = messageService.getTopSenders(fromDate, 10);
 		
@@ -0,0 +1,91 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.archive.MessageArchive;
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.exception.MessageNotFoundException;
+import fi.invian.codingassignment.exception.UserNotFoundException;
+import fi.invian.codingassignment.repository.ReactiveMessageRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveMessageServiceTest {
+	
+	@Mock
+	private ReactiveMessageRepository reactiveMessageRepository;
+	
+	@Mock
+	private MessageArchive messageArchive;
+	
+	@InjectMocks
+	private ReactiveMessageService reactiveMessageService;
+	
+	@Test
+	void testGetUserMessages_ValidUser_ReturnsPage() {
+		MessageSummaryResponse message = new MessageSummaryResponse(1L, "Hello", "Body", "Rishabh", Instant.now(), null);
+		when(reactiveMessageRepository.existsUserById(1L)).thenReturn(Mono.just(true));
+		when(reactiveMessageRepository.findMessagesByRecipientId(1L, 10, 10)).thenReturn(Flux.just(message));
+		when(reactiveMessageRepository.countMessagesByRecipientId(1L)).thenReturn(Mono.just(11L));
+		
+		StepVerifier.create(reactiveMessageService.getUserMessages(1L, PageRequest.of(1, 10)))
+				.assertNext(page -> {
+					assertEquals(List.of(message), page.getContent());
+					assertEquals(11, page.getTotalElements());
+					assertEquals(2, page.getTotalPages());
+				})
+				.verifyComplete();
+	}
+	
+	@Test
+	void testGetUserMessages_UserNotFound_EmitsError() {
+		when(reactiveMessageRepository.existsUserById(99L)).thenReturn(Mono.just(false));
+		
+		StepVerifier.create(reactiveMessageService.getUserMessages(99L, PageRequest.of(0, 10)))
+				.expectErrorMatches(error -> error instanceof UserNotFoundException
+						&& error.getMessage().equals("User with ID 99 does not exist."))
+				.verify();
+		verify(reactiveMessageRepository, never()).countMessagesByRecipientId(anyLong());
+	}
+	
+	@Test
+	void testGetMessage_NotRecipient_EmitsNotFound() {
+		when(reactiveMessageRepository.existsUserById(3L)).thenReturn(Mono.just(true));
+		when(reactiveMessageRepository.findMessageForRecipient(5L, 3L)).thenReturn(Mono.empty());
+		
+		StepVerifier.create(reactiveMessageService.getMessage(5L, 3L))
+				.expectErrorMatches(error -> error instanceof MessageNotFoundException
+						&& error.getMessage().equals("Message with ID 5 does not exist."))
+				.verify();
+	}
+	
+	@Test
+	void testGetTopSenders_ReadsDailyBuckets() {
+		Instant fromDate = Instant.parse("2024-01-15T10:15:30Z");
+		StatisticsResponse stats = new StatisticsResponse(1L, "Rishabh", 20L);
+		when(reactiveMessageRepository.findTopSenders(LocalDate.ofInstant(fromDate, ZoneOffset.UTC), 10))
+				.thenReturn(Flux.just(stats));
+		
+		StepVerifier.create(reactiveMessageService.getTopSenders(fromDate, 10))
+				.expectNext(stats)
+				.verifyComplete();
+	}
+}
@@ -0,0 +1,132 @@
+package fi.invian.codingassignment.service;
+
+import fi.invian.codingassignment.entity.User;
+import fi.invian.codingassignment.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserCacheTest {
+	
+	@Mock
+	private UserRepository userRepository;
+	
+	private SimpleMeterRegistry meterRegistry;
+	
+	private UserCache userCache;
+	
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		userCache = new UserCache(userRepository, meterRegistry, 100, Duration.ofMinutes(10), Duration.ofSeconds(30));
+	}
+	
+	@Test
+	void testExists_RepeatedLookups_HitRepositoryOnce() {
+		when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1L, "Rishabh")));
+		
+		assertTrue(userCache.exists(1L));
+		assertTrue(userCache.exists(1L));
+		assertEquals(Optional.of("Rishabh"), userCache.findName(1L));
+		
+		verify(userRepository, times(1)).findById(1L);
+		assertEquals(2.0, meterRegistry.get("cache.gets").tag("cache", "users").tag("result", "hit").functionCounter().count());
+	}
+	
+	@Test
+	void testExists_UnknownUser_CachesNegativeEntry() {
+		when(userRepository.findById(99L)).thenReturn(Optional.empty());
+		
+		assertFalse(userCache.exists(99L));
+		assertFalse(userCache.exists(99L));
+		
+		verify(userRepository, times(1)).findById(99L);
+	}
+	
+	@Test
+	void testFindNames_LoadsMissesWithSingleQuery() {
+		when(userRepository.findById(1L)).thenReturn(Optional.of(new User(1L, "Rishabh")));
+		when(userRepository.findAllById(Set.of(2L, 99L))).thenReturn(List.of(new User(2L, "Aish")));
+		
+		userCache.exists(1L);
+		Map<Long, String> names = userCache.findNames(List.of(1L, 2L, 99L));
+		
+		assertEquals(Map.of(1L, "Rishabh", 2L, "Aish"), names);
+		assertFalse(userCache.exists(99L));
+		verify(userRepository, times(1)).findAllById(any());
+		verify(userRepository, never()).findById(99L);
+	}
+	
+	@Test
+	void testInvalidate_ReloadsUser() {
+		when(userRepository.findById(3L))
+				.thenReturn(Optional.empty())
+				.thenReturn(Optional.of(new User(3L, "Ish")));
+		
+		assertFalse(userCache.exists(3L));
+		userCache.invalidate(3L);
+		
+		assertTrue(userCache.exists(3L));
+		verify(userRepository, times(2)).findById(3L);
+	}
+	
+	@Test
+	void testOnUserChanged_EvictsAfterCommitOnly() {
+		when(userRepository.findById(3L))
+				.thenReturn(Optional.of(new User(3L, "Ish")))
+				.thenReturn(Optional.of(new User(3L, "Ishaan")));
+		
+		try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+			context.registerBean(UserCache.class, () -> userCache);
+			context.register(TransactionConfig.class);
+			context.refresh();
+			TransactionTemplate transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+			assertEquals(Optional.of("Ish"), userCache.findName(3L));
+			
+			transactionTemplate.executeWithoutResult(status -> {
+				context.publishEvent(new UserChangedEvent(3L));
+				status.setRollbackOnly();
+			});
+			assertEquals(Optional.of("Ish"), userCache.findName(3L));
+			
+			transactionTemplate.executeWithoutResult(status -> {
+				context.publishEvent(new UserChangedEvent(3L));
+				assertEquals(Optional.of("Ish"), userCache.findName(3L));
+			});
+			assertEquals(Optional.of("Ishaan"), userCache.findName(3L));
+		}
+		verify(userRepository, times(2)).findById(3L);
+	}
+	
+	@Configuration
+	@EnableTransactionManagement
+	static class TransactionConfig {
+		
+		@Bean
+		PlatformTransactionManager transactionManager() {
+			return new DataSourceTransactionManager(new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID()));
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package fi.invian.codingassignment.shard;
+
+import fi.invian.codingassignment.dto.MessageSummaryResponse;
+import fi.invian.codingassignment.dto.SendMessageRequest;
+import fi.invian.codingassignment.dto.StatisticsResponse;
+import fi.invian.codingassignment.job.ShardBackfillJob;
+import fi.invian.codingassignment.service.MessageService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The whole application on an in-memory H2 primary with two H2 shards, loaded by the shard backfill
+@SpringBootTest(properties = {
+		"spring.datasource.url=jdbc:h2:mem:sharded-primary;MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+		"spring.datasource.driver-class-name=org.h2.Driver",
+		"spring.datasource.username=sa",
+		"spring.datasource.password=",
+		"spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+		"spring.sql.init.schema-locations=classpath:schema/01-schema.sql",
+		"spring.sql.init.data-locations=classpath:schema/02-data.sql",
+		"messaging.shards.enabled=true",
+		"messaging.shards.urls=jdbc:h2:mem:shard-1;MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1,"
+				+ "jdbc:h2:mem:shard-2;MODE=MariaDB;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+		"messaging.shards.backfill-on-startup=true",
+		"messaging.inbox.projection.backfill-on-startup=true"
+})
+class ShardedApplicationTest {
+	
+	@Autowired
+	private MessageService messageService;
+	
+	@Autowired
+	private ShardBackfillJob shardBackfillJob;
+	
+	@Autowired
+	private InboxShards inboxShards;
+	
+	@Test
+	void testBackfilledInboxesAndSendsAreServedFromTheShards() {
+		shardBackfillJob.run();
+		
+		assertEquals(List.of(2L), ids(3L));
+		assertEquals(List.of(1L, 2L), messageService.getTopSenders(Instant.now().minus(Duration.ofDays(1)), 10).stream()
+				.map(StatisticsResponse::senderId).sorted().toList());
+		
+		SendMessageRequest request = new SendMessageRequest();
+		request.setSenderId(3L);
+		request.setRecipientIds(List.of(1L, 2L));
+		request.setTitle("Sharded");
+		request.setBody("Written to both shards");
+		Long messageId = messageService.sendMessage(request);
+		
+		assertEquals(messageId, ids(1L).get(0));
+		assertEquals(messageId, ids(2L).get(0));
+		// One entry on each shard: users 1 and 2 live on different ones
+		for (int index = 0; index < inboxShards.size(); index++) {
+			assertEquals(1, inboxShards.get(index).queryForObject(
+					"SELECT COUNT(*) FROM inbox_entries WHERE message_id = ?", Integer.class, messageId));
+		}
+		// The sender's bucket was counted in the send and copied to the shard after the commit
+		assertEquals(List.of(1L), messageService.getTopSenders(Instant.now().minus(Duration.ofDays(1)), 10).stream()
+				.filter(statistics -> statistics.senderId() == 3L).map(StatisticsResponse::sentCount).toList());
+	}
+	
+	private List<Long> ids(Long userId) {
+		return messageService.getUserMessages(userId, PageRequest.of(0, 10, Sort.by("sentAt").descending()))
+				.getContent().stream().map(MessageSummaryResponse::id).toList();
+	}
+}
@@ -0,0 +1,231 @@
+package fi.invian.codingassignment.stream;
+
+import fi.invian.codingassignment.dto.MessageCursor;
+import fi.invian.codingassignment.dto.MessageResponse;
+import fi.invian.codingassignment.repository.InboxEntry;
+import fi.invian.codingassignment.service.MessageService;
+import fi.invian.codingassignment.service.MessagesSentEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MessageStreamHubTest {
+	
+	private static final Instant NOW = Instant.parse("2024-01-01T12:00:00Z");
+	
+	private final MessageService messageService = mock(MessageService.class);
+	private final List<RecordingEmitter> emitters = new ArrayList<>();
+	// Makes the next emitter block on its first send until released
+	private CountDownLatch blockNextEmitter;
+	private MessageStreamHub hub;
+	
+	@BeforeEach
+	void setUp() {
+		hub = new MessageStreamHub(messageService, new SimpleMeterRegistry(), 2, 2,
+				Duration.ofMinutes(1), Duration.ofMillis(100), Duration.ofSeconds(5), 3) {
+			@Override
+			SseEmitter newEmitter(Duration timeout) {
+				RecordingEmitter emitter = new RecordingEmitter(blockNextEmitter);
+				blockNextEmitter = null;
+				emitters.add(emitter);
+				return emitter;
+			}
+		};
+	}
+	
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		hub.close();
+	}
+	
+	@Test
+	void testOnMessagesSent_DeliversToOpenStreamsOfRecipients() throws Exception {
+		hub.subscribe(2L, null);
+		hub.subscribe(2L, null);
+		hub.subscribe(3L, null);
+		
+		hub.onMessagesSent(sent(7L, 2L));
+		
+		assertEquals("message #7", emitters.get(0).next());
+		assertEquals("message #7", emitters.get(1).next());
+		assertNull(emitters.get(2).events.poll(100, TimeUnit.MILLISECONDS));
+		assertEquals(3, hub.getSubscriberCount());
+	}
+	
+	@Test
+	void testOnMessagesSent_EvictsSubscriberWhoseBufferIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		blockNextEmitter = release;
+		hub.subscribe(2L, null);
+		hub.subscribe(3L, null);
+		
+		// The first message is being written to the stuck client, the next two fill its buffer
+		hub.onMessagesSent(sent(1L, 2L));
+		assertEquals("message #1", emitters.get(0).next());
+		hub.onMessagesSent(sent(2L, 2L));
+		hub.onMessagesSent(sent(3L, 2L));
+		hub.onMessagesSent(sent(4L, 2L, 3L));
+		
+		assertEquals(1, hub.getEvictionCount());
+		assertEquals(1, hub.getSubscriberCount());
+		assertEquals("message #4", emitters.get(1).next());
+		// Completed by its delivery task once the blocked write returns
+		assertFalse(emitters.get(0).completed);
+		release.countDown();
+		assertTrue(emitters.get(0).awaitCompleted());
+	}
+	
+	@Test
+	void testCheckWrites_EvictsBlockedWritersAndReplacesTheirThreads() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		blockNextEmitter = release;
+		hub.subscribe(2L, null);
+		blockNextEmitter = release;
+		hub.subscribe(3L, null);
+		hub.subscribe(4L, null);
+		
+		// Both delivery threads get stuck writing to users 2 and 3
+		hub.onMessagesSent(sent(1L, 2L, 3L));
+		assertEquals("message #1", emitters.get(0).next());
+		assertEquals("message #1", emitters.get(1).next());
+		hub.onMessagesSent(sent(2L, 4L));
+		assertNull(emitters.get(2).events.poll(200, TimeUnit.MILLISECONDS));
+		
+		hub.checkWrites();
+		
+		assertEquals(2, hub.getEvictionCount());
+		assertEquals(1, hub.getSubscriberCount());
+		assertEquals("message #2", emitters.get(2).next());
+		release.countDown();
+		assertTrue(emitters.get(0).awaitCompleted());
+		assertTrue(emitters.get(1).awaitCompleted());
+	}
+	
+	@Test
+	void testSubscribe_ReplaysMessagesSinceLastEventId() throws Exception {
+		MessageResponse seen = message(5L, NOW);
+		when(messageService.getMessagesSince(2L, NOW.minusSeconds(5), 4))
+				.thenReturn(List.of(message(4L, NOW.minusSeconds(1)), seen, message(6L, NOW.plusSeconds(1))));
+		
+		hub.subscribe(2L, new MessageCursor(NOW, 5L).encode());
+		
+		verify(messageService).requireUser(2L);
+		assertEquals("message #4", emitters.get(0).next());
+		assertEquals("message #6", emitters.get(0).next());
+		assertNull(emitters.get(0).events.poll(100, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	void testSubscribe_SendsResetWhenTooMuchWasMissed() throws Exception {
+		when(messageService.getMessagesSince(2L, NOW.minusSeconds(5), 4)).thenReturn(List.of(
+				message(1L, NOW), message(2L, NOW), message(3L, NOW), message(4L, NOW)));
+		
+		hub.subscribe(2L, new MessageCursor(NOW, 1L).encode());
+		
+		assertEquals("reset", emitters.get(0).next());
+	}
+	
+	@Test
+	void testHeartbeat_OnlyOnIdleStreams() throws Exception {
+		hub.subscribe(2L, null);
+		
+		hub.heartbeat();
+		
+		assertEquals("heartbeat", emitters.get(0).next());
+		emitters.get(0).completeWithError(new IOException("Broken pipe"));
+		assertEquals(0, hub.getSubscriberCount());
+	}
+	
+	private static MessagesSentEvent sent(long messageId, Long... recipientIds) {
+		List<InboxEntry> entries = new ArrayList<>();
+		for (Long recipientId : recipientIds) {
+			entries.add(new InboxEntry(recipientId, NOW, messageId, 1L, "Rishabh", "Title " + messageId, "Body"));
+		}
+		return new MessagesSentEvent(entries, Map.of(messageId, "Body " + messageId));
+	}
+	
+	private static MessageResponse message(long id, Instant sentAt) {
+		return new MessageResponse(id, "Title " + id, "Body " + id, "Rishabh", sentAt);
+	}
+	
+	// Records each event as "<name> #<message id>", "reset" or "heartbeat"
+	private static class RecordingEmitter extends SseEmitter {
+		
+		private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+		private CountDownLatch block;
+		private volatile boolean completed;
+		private final CountDownLatch completion = new CountDownLatch(1);
+		private Runnable onCompletion = () -> {};
+		
+		RecordingEmitter(CountDownLatch block) {
+			this.block = block;
+		}
+		
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			StringBuilder text = new StringBuilder();
+			for (ResponseBodyEmitter.DataWithMediaType data : builder.build()) {
+				text.append(data.getData() instanceof MessageResponse message ? "#" + message.id() : data.getData());
+			}
+			String raw = text.toString();
+			if (raw.startsWith(":heartbeat")) {
+				events.add("heartbeat");
+			} else if (raw.startsWith("event:reset")) {
+				events.add("reset");
+			} else {
+				events.add("message " + raw.substring(raw.indexOf('#'), raw.lastIndexOf('\n') - 1));
+			}
+			if (block != null) {
+				CountDownLatch latch = block;
+				block = null;
+				try {
+					latch.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		
+		@Override
+		public void onCompletion(Runnable callback) {
+			onCompletion = callback;
+		}
+		
+		@Override
+		public void complete() {
+			completed = true;
+			completion.countDown();
+			onCompletion.run();
+		}
+		
+		boolean awaitCompleted() throws InterruptedException {
+			return completion.await(5, TimeUnit.SECONDS);
+		}
+		
+		@Override
+		public void completeWithError(Throwable ex) {
+			complete();
+		}
+		
+		String next() throws InterruptedException {
+			return events.poll(5, TimeUnit.SECONDS);
+		}
+	}
+}